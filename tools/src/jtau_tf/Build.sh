@@ -4,6 +4,7 @@ rm -rf edu/CVS/
 rm -rf edu/uoregon/CVS/
 rm -rf edu/uoregon/tau/CVS/
 rm -rf edu/uoregon/tau/trace/CVS/
+rm -rf edu/uoregon/tau/trace/test/
 javac edu/uoregon/tau/trace/*.java
 rm edu/uoregon/tau/trace/*.java
 jar -cf TAU_tf.jar edu/
@@ -0,0 +1,63 @@
+/*
+ *  See TAU License file
+ */
+
+package edu.uoregon.tau.trace;
+
+/* 
+ * Event stores the essential data of a TAU event, event 64 represents
+*/
+class Event {
+	int evid;    /* -- event id   int32     -- */
+	char nid;   /* -- node id    uint16     -- */
+	char tid;   /* -- thread id  uint16     -- */
+	long parameter;   /* -- event parameter int64 -- */
+	long time;    /* -- time [us]?   uint64   -- */
+	char nid_offset=0;
+	
+	Event(int ev, char nid, char tid, long par, long ti,char nid_offset){
+		this.evid=ev;
+		this.nid=(char) (nid+nid_offset);
+		this.tid=tid;
+		this.parameter=par;
+		this.time=ti;
+		this.nid_offset=nid_offset;
+	}
+	
+	Event(){}
+	
+	public int getEventID() {
+		return evid;
+	}
+	public void setEventID(int ev) {
+		this.evid = ev;
+	}
+	public char getNodeID() {
+		return nid;
+	}
+	public void setNodeID(char nid) {
+		this.nid = (char) (nid+nid_offset);
+		//System.out.println("nid is "+(int)nid+" plus "+(int)nid_offset);
+	}
+	public long getParameter() {
+		return parameter;
+	}
+	public void setParameter(long par) {
+		this.parameter = par;
+	}
+	public long getTime() {
+		return time;
+	}
+	public void setTime(long ti) {
+		this.time = ti;
+	}
+	public char getThreadID() {
+		return tid;
+	}
+	public void setThreadID(char tid) {
+		this.tid = tid;
+	}
+	public int getNidTid(){
+		return (nid<<16)+tid;
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ *  See TAU License file
+ */
+
+package edu.uoregon.tau.trace;
+
+/* Stores the definition info for a TAU event */
+class EventDescr {
+	private int  Eid; /* event id */
+	private String Group; /* state as in TAU_VIZ */
+	private String EventName; /* name as in "foo" */
+	private long Tag; /* -7 for send etc. */
+	private String Param; /* param as in EntryExit */
+	EventDescr(){}
+	EventDescr(int eid, String group, String eventName, long tag, String param) {
+		Eid = eid;
+		Group = group;
+		EventName = eventName;
+		Tag = tag;
+		Param = param;
+	}
+	public int getEventId() {
+		return Eid;
+	}
+	public void setEventId(int eid) {
+		Eid = eid;
+	}
+	public String getEventName() {
+		return EventName;
+	}
+	public void setEventName(String eventName) {
+		EventName = eventName;
+	}
+	public String getGroup() {
+		return Group;
+	}
+	public void setGroup(String group) {
+		Group = group;
+	}
+	public String getParameter() {
+		return Param;
+	}
+	public void setParameter(String param) {
+		Param = param;
+	}
+	public long getTag() {
+		return Tag;
+	}
+	public void setTag(int tag) {
+		Tag = tag;
+	}
+}
@@ -0,0 +1,40 @@
+/*
+ *  See TAU License file
+ */
+
+package edu.uoregon.tau.trace;
+
+/*
+ * A set of node/thread id pairs stored as a bitset, so checking an event's pair doesn't box it.
+ * Each node id gets its own page of thread id bits, allocated when the node is first added.
+ */
+class NidTidSet {
+	private long[][] pages = new long[16][];
+
+	boolean contains(int nid, int tid){
+		if(nid>=pages.length||pages[nid]==null){
+			return false;
+		}
+		return (pages[nid][tid>>>6]&(1L<<tid))!=0;
+	}
+
+	/* Adds the pair, returns false if it was already in the set */
+	boolean add(int nid, int tid){
+		if(nid>=pages.length){
+			long[][] grown = new long[Math.max(nid+1, pages.length*2)][];
+			System.arraycopy(pages, 0, grown, 0, pages.length);
+			pages=grown;
+		}
+		long[] page = pages[nid];
+		if(page==null){
+			page = new long[1024];//65536 thread ids
+			pages[nid]=page;
+		}
+		long bit = 1L<<tid;
+		if((page[tid>>>6]&bit)!=0){
+			return false;
+		}
+		page[tid>>>6]|=bit;
+		return true;
+	}
+}
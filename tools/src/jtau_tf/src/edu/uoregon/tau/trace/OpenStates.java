@@ -0,0 +1,171 @@
+/*
+ *  See TAU License file
+ */
+
+package edu.uoregon.tau.trace;
+
+import java.util.Arrays;
+
+/*
+ * The states entered and not yet left on each node/thread, with their entry times.
+ * The threads are found through an open addressing table of node/thread pairs so entering
+ * and leaving states doesn't allocate once a thread's stack has grown.
+ */
+class OpenStates {
+	private int[] table = new int[64];//slot+1 of each hashed node/thread pair, 0 if empty
+	private int[] threads = new int[32];//the node/thread pair of each slot
+	private int[][] states = new int[32][];
+	private long[][] times = new long[32][];
+	private int[] depths = new int[32];
+	private int count = 0;
+
+	private static int nidTid(int nid, int tid){
+		return (nid << 16)+tid;
+	}
+
+	private int slot(int nidtid, boolean create){
+		int mask = table.length-1;
+		int h = (nidtid*0x9E3779B9)>>>7&mask;
+		while(table[h]!=0){
+			if(threads[table[h]-1]==nidtid){
+				return table[h]-1;
+			}
+			h=(h+1)&mask;
+		}
+		if(!create){
+			return -1;
+		}
+		if(count==threads.length){
+			threads=Arrays.copyOf(threads, count*2);
+			states=Arrays.copyOf(states, count*2);
+			times=Arrays.copyOf(times, count*2);
+			depths=Arrays.copyOf(depths, count*2);
+		}
+		threads[count]=nidtid;
+		states[count]=new int[8];
+		times[count]=new long[8];
+		table[h]=++count;
+		if(count*2>table.length){
+			rehash();
+		}
+		return count-1;
+	}
+
+	private void rehash(){
+		table = new int[table.length*2];
+		int mask = table.length-1;
+		for(int s=0;s<count;s++){
+			int h = (threads[s]*0x9E3779B9)>>>7&mask;
+			while(table[h]!=0){
+				h=(h+1)&mask;
+			}
+			table[h]=s+1;
+		}
+	}
+
+	void enter(int nid, int tid, int state, long time){
+		int s = slot(nidTid(nid,tid), true);
+		int d = depths[s];
+		if(d==states[s].length){
+			states[s]=Arrays.copyOf(states[s], d*2);
+			times[s]=Arrays.copyOf(times[s], d*2);
+		}
+		states[s][d]=state;
+		times[s][d]=time;
+		depths[s]=d+1;
+	}
+
+	void leave(int nid, int tid){
+		int s = slot(nidTid(nid,tid), false);
+		if(s>=0&&depths[s]>0){
+			depths[s]--;
+		}
+	}
+
+	/* The number of states open on all threads */
+	int size(){
+		int size=0;
+		for(int s=0;s<count;s++){
+			size+=depths[s];
+		}
+		return size;
+	}
+
+	/*
+	 * Copies the open states out, for each thread with open states its node/thread pair and depth
+	 * followed by the states from the outermost in, and their entry times
+	 */
+	void save(int[][] stateOut, long[][] timeOut, int k){
+		int threadCount=0;
+		for(int s=0;s<count;s++){
+			if(depths[s]>0){
+				threadCount++;
+			}
+		}
+		int size=size();
+		int[] out = new int[threadCount*2+size];
+		long[] entered = new long[size];
+		int i=0, j=0;
+		for(int s=0;s<count;s++){
+			if(depths[s]>0){
+				out[i++]=threads[s];
+				out[i++]=depths[s];
+				System.arraycopy(states[s], 0, out, i, depths[s]);
+				System.arraycopy(times[s], 0, entered, j, depths[s]);
+				i+=depths[s];
+				j+=depths[s];
+			}
+		}
+		stateOut[k]=out;
+		timeOut[k]=entered;
+	}
+
+	/* Replaces the open states with ones copied out by save */
+	void restore(int[] saved, long[] entered){
+		for(int s=0;s<count;s++){
+			depths[s]=0;
+		}
+		int j=0;
+		for(int i=0;i<saved.length;){
+			int nidtid=saved[i++];
+			int depth=saved[i++];
+			for(int d=0;d<depth;d++){
+				enter(nidtid>>>16, nidtid&0xFFFF, saved[i++], entered[j++]);
+			}
+		}
+	}
+
+	/* 
+	 * Invokes enterState for the open states as if they were just read, 
+	 * thread by thread in node/thread order and from the outermost state in 
+	 */
+	void replay(TraceReaderCallbacks callbacks, Object userData, int nid_offset, long timeOffset){
+		int[] open=openThreads();
+		for(int i=0;i<open.length;i++){
+			int s=slot(open[i], false);
+			for(int d=0;d<depths[s];d++){
+				callbacks.enterState(userData, times[s][d]-timeOffset, (char)((threads[s]>>>16)+nid_offset),
+						threads[s]&0xFFFF, states[s][d]);
+			}
+		}
+	}
+
+	/* The node/thread pairs of the threads with open states, in order */
+	int[] openThreads(){
+		int n=0;
+		for(int s=0;s<count;s++){
+			if(depths[s]>0){
+				n++;
+			}
+		}
+		int[] open = new int[n];
+		n=0;
+		for(int s=0;s<count;s++){
+			if(depths[s]>0){
+				open[n++]=threads[s];
+			}
+		}
+		Arrays.sort(open);
+		return open;
+	}
+}
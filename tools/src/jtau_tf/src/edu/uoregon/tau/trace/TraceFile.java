@@ -14,64 +14,6 @@ package edu.uoregon.tau.trace;
 
 import java.util.Map;
 
-/* 
- * Event stores the essential data of a TAU event, event 64 represents
-*/
-class Event {
-	int evid;    /* -- event id   int32     -- */
-	char nid;   /* -- node id    uint16     -- */
-	char tid;   /* -- thread id  uint16     -- */
-	long parameter;   /* -- event parameter int64 -- */
-	long time;    /* -- time [us]?   uint64   -- */
-	char nid_offset=0;
-	
-	Event(int ev, char nid, char tid, long par, long ti,char nid_offset){
-		this.evid=ev;
-		this.nid=(char) (nid+nid_offset);
-		this.tid=tid;
-		this.parameter=par;
-		this.time=ti;
-		this.nid_offset=nid_offset;
-	}
-	
-	Event(){}
-	
-	public int getEventID() {
-		return evid;
-	}
-	public void setEventID(int ev) {
-		this.evid = ev;
-	}
-	public char getNodeID() {
-		return nid;
-	}
-	public void setNodeID(char nid) {
-		this.nid = (char) (nid+nid_offset);
-		//System.out.println("nid is "+(int)nid+" plus "+(int)nid_offset);
-	}
-	public long getParameter() {
-		return parameter;
-	}
-	public void setParameter(long par) {
-		this.parameter = par;
-	}
-	public long getTime() {
-		return time;
-	}
-	public void setTime(long ti) {
-		this.time = ti;
-	}
-	public char getThreadID() {
-		return tid;
-	}
-	public void setThreadID(char tid) {
-		this.tid = tid;
-	}
-	public int getNidTid(){
-		return (nid<<16)+tid;
-	}
-}
-
 /* As event, but for 64 bit platforms */
 /*class Event64 {
 	long ev;    // -- event id int64       -- //
@@ -83,53 +25,6 @@ class Event {
 }*/
 
 
-/* Stores the definition info for a TAU event */
-class EventDescr {
-	private int  Eid; /* event id */
-	private String Group; /* state as in TAU_VIZ */
-	private String EventName; /* name as in "foo" */
-	private long Tag; /* -7 for send etc. */
-	private String Param; /* param as in EntryExit */
-	EventDescr(){}
-	EventDescr(int eid, String group, String eventName, long tag, String param) {
-		Eid = eid;
-		Group = group;
-		EventName = eventName;
-		Tag = tag;
-		Param = param;
-	}
-	public int getEventId() {
-		return Eid;
-	}
-	public void setEventId(int eid) {
-		Eid = eid;
-	}
-	public String getEventName() {
-		return EventName;
-	}
-	public void setEventName(String eventName) {
-		EventName = eventName;
-	}
-	public String getGroup() {
-		return Group;
-	}
-	public void setGroup(String group) {
-		Group = group;
-	}
-	public String getParameter() {
-		return Param;
-	}
-	public void setParameter(String param) {
-		Param = param;
-	}
-	public long getTag() {
-		return Tag;
-	}
-	public void setTag(int tag) {
-		Tag = tag;
-	}
-}
-
 /*Stores a pair of Objects*/
 /*
 class CharPair implements Comparable{
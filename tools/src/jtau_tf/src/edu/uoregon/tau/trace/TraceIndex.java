@@ -0,0 +1,308 @@
+/*
+ *  See TAU License file
+ */
+
+/*
+ * This file (TraceIndex.java) contains the classes of the sidecar time index used by TraceReader.seekToTime
+ */
+
+package edu.uoregon.tau.trace;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/*
+ * A sparse time index of a trace file: every INTERVAL records a checkpoint of the time and byte
+ * offset of the record there, with the states open on each thread before that record.  It is
+ * stored next to the trace with the SUFFIX extension, and is only used when the length, the
+ * modification time and a hash of the first HEADER bytes of the trace match the ones it was
+ * built for.
+ */
+class TraceIndex {
+	static final String SUFFIX = ".idx";
+	private static final int MAGIC = 0x54494458;//TIDX
+	private static final int VERSION = 2;
+	static final int INTERVAL = 16*1024;
+	private static final int HEADER = 4096;
+
+	long traceLength;
+	long traceModified;
+	long headerHash;
+	int recordSize;
+	long firstTime = -1;
+	/* The ids of the entry/exit events, sorted */
+	int[] entryExitIds;
+
+	int count = 0;
+	/* The checkpoint times, made non-decreasing so they can be searched */
+	long[] times = new long[16];
+	long[] offsets = new long[16];
+	int[][] openStates = new int[16][];
+	long[][] entryTimes = new long[16][];
+
+	/* The open states while the index is being built */
+	final OpenStates open = new OpenStates();
+	private long nextCheckpoint = 0;
+
+	TraceIndex(int recordSize){
+		this.recordSize=recordSize;
+	}
+
+	/* Called for each record, before it is applied to the open states */
+	void record(long offset, long time){
+		if(firstTime<0){
+			firstTime=time;
+		}
+		if(offset<nextCheckpoint){
+			return;
+		}
+		if(count==times.length){
+			times=Arrays.copyOf(times, count*2);
+			offsets=Arrays.copyOf(offsets, count*2);
+			openStates=Arrays.copyOf(openStates, count*2);
+			entryTimes=Arrays.copyOf(entryTimes, count*2);
+		}
+		times[count]=count>0?Math.max(time, times[count-1]):time;
+		offsets[count]=offset;
+		open.save(openStates, entryTimes, count);
+		count++;
+		nextCheckpoint=offset+(long)INTERVAL*recordSize;
+	}
+
+	/* Called once the trace is written and closed */
+	void finish(String trace, int[] entryExitIds) throws IOException{
+		File file = new File(trace);
+		this.traceLength=file.length();
+		this.traceModified=file.lastModified();
+		this.headerHash=headerHash(file);
+		this.entryExitIds=entryExitIds;
+		Arrays.sort(this.entryExitIds);
+	}
+
+	/* A CRC of the first HEADER bytes of the trace */
+	private static long headerHash(File trace) throws IOException{
+		byte[] header = new byte[(int)Math.min(HEADER, trace.length())];
+		DataInputStream in = new DataInputStream(new FileInputStream(trace));
+		try{
+			in.readFully(header);
+		}finally{
+			in.close();
+		}
+		CRC32 crc = new CRC32();
+		crc.update(header);
+		return crc.getValue();
+	}
+
+	boolean isEntryExit(int eventId){
+		return Arrays.binarySearch(entryExitIds, eventId)>=0;
+	}
+
+	/* The last checkpoint at or before the time, -1 if the time is before them all */
+	int find(long time){
+		int lo=0, hi=count-1, found=-1;
+		while(lo<=hi){
+			int mid=(lo+hi)>>>1;
+			if(times[mid]<=time){
+				found=mid;
+				lo=mid+1;
+			}
+			else{
+				hi=mid-1;
+			}
+		}
+		return found;
+	}
+
+	void write(String trace) throws IOException{
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(trace+SUFFIX)));
+		try{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(traceLength);
+			out.writeLong(traceModified);
+			out.writeLong(headerHash);
+			out.writeInt(recordSize);
+			out.writeLong(firstTime);
+			out.writeInt(entryExitIds.length);
+			for(int i=0;i<entryExitIds.length;i++){
+				out.writeInt(entryExitIds[i]);
+			}
+			out.writeInt(count);
+			for(int k=0;k<count;k++){
+				out.writeLong(times[k]);
+				out.writeLong(offsets[k]);
+				out.writeInt(openStates[k].length);
+				for(int i=0;i<openStates[k].length;i++){
+					out.writeInt(openStates[k][i]);
+				}
+				out.writeInt(entryTimes[k].length);
+				for(int i=0;i<entryTimes[k].length;i++){
+					out.writeLong(entryTimes[k][i]);
+				}
+			}
+		}finally{
+			out.close();
+		}
+	}
+
+	/* Reads the index of the trace, null if there is none or it is not for the trace as it is now */
+	static TraceIndex read(String trace){
+		File file = new File(trace+SUFFIX);
+		if(!file.exists()){
+			return null;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try{
+				if(in.readInt()!=MAGIC||in.readInt()!=VERSION){
+					return null;
+				}
+				File traceFile = new File(trace);
+				long traceLength=in.readLong();
+				long traceModified=in.readLong();
+				long headerHash=in.readLong();
+				/* the trace was rewritten or appended to since the index was */
+				if(traceLength!=traceFile.length()||traceModified!=traceFile.lastModified()
+						||headerHash!=headerHash(traceFile)){
+					return null;
+				}
+				TraceIndex index = new TraceIndex(in.readInt());
+				index.traceLength=traceLength;
+				index.traceModified=traceModified;
+				index.headerHash=headerHash;
+				index.firstTime=in.readLong();
+				index.entryExitIds=new int[in.readInt()];
+				for(int i=0;i<index.entryExitIds.length;i++){
+					index.entryExitIds[i]=in.readInt();
+				}
+				int count=in.readInt();
+				index.count=count;
+				index.times=new long[count];
+				index.offsets=new long[count];
+				index.openStates=new int[count][];
+				index.entryTimes=new long[count][];
+				for(int k=0;k<count;k++){
+					index.times[k]=in.readLong();
+					index.offsets[k]=in.readLong();
+					index.openStates[k]=new int[in.readInt()];
+					for(int i=0;i<index.openStates[k].length;i++){
+						index.openStates[k][i]=in.readInt();
+					}
+					index.entryTimes[k]=new long[in.readInt()];
+					for(int i=0;i<index.entryTimes[k].length;i++){
+						index.entryTimes[k][i]=in.readLong();
+					}
+				}
+				return index;
+			}finally{
+				in.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/*
+	 * Builds the index by reading the whole trace, and tries to store it next to the trace.
+	 * Returns null if the trace can't be read.
+	 */
+	static TraceIndex build(String trace, String edf){
+		final TraceReader reader = new TraceReader(trace, edf);
+		reader.setSubtractFirstTimestamp(false);
+		if(!reader.setMemoryMapped(true)){
+			return null;
+		}
+		final TraceIndex index = new TraceIndex(reader.recordSize);
+		final int[][] ids = {new int[16]};
+		final int[] idCount = {0};
+		TraceReaderCallbacks builder = new TraceReaderCallbacks(){
+
+			private void record(long time){
+				index.record((reader.totalRead-1)*index.recordSize, time);
+			}
+
+			public int defClkPeriod(Object userData, double clkPeriod) {
+				return 0;
+			}
+
+			public int defThread(Object userData, int nodeToken, int threadToken, String threadName) {
+				return 0;
+			}
+
+			public int defStateGroup(Object userData, int stateGroupToken, String stateGroupName) {
+				return 0;
+			}
+
+			public int defState(Object userData, int stateToken, String stateName, int stateGoupToken) {
+				if(idCount[0]==ids[0].length){
+					ids[0]=Arrays.copyOf(ids[0], idCount[0]*2);
+				}
+				ids[0][idCount[0]++]=stateToken;
+				return 0;
+			}
+
+			public int defUserEvent(Object userData, int userEventToken, String userEventName, int monotonicallyIncreasing) {
+				return 0;
+			}
+
+			public int enterState(Object userData, long time, int nodeToken, int threadToken, int stateToken) {
+				record(time);
+				index.open.enter(nodeToken, threadToken, stateToken, time);
+				return 0;
+			}
+
+			public int leaveState(Object userData, long time, int nodeToken, int threadToken, int stateToken) {
+				record(time);
+				index.open.leave(nodeToken, threadToken);
+				return 0;
+			}
+
+			public int sendMessage(Object userData, long time, int sourceNodeToken, int sourceThreadToken,
+					int destinationNodeToken, int destinationThreadToken, int messageSize, int messageTag, int messageCom) {
+				record(time);
+				return 0;
+			}
+
+			public int recvMessage(Object userData, long time, int sourceNodeToken, int sourceThreadToken,
+					int destinationNodeToken, int destinationThreadToken, int messageSize, int messageTag, int messageCom) {
+				record(time);
+				return 0;
+			}
+
+			public int eventTrigger(Object userData, long time, int nodeToken, int threadToken, int userEventToken,
+					double userEventValue) {
+				record(time);
+				return 0;
+			}
+
+			public int endTrace(Object userData, int nodeToken, int threadToken) {
+				return 0;
+			}
+		};
+		while(reader.readNumEvents(builder, INTERVAL, null)>0){
+		}
+		reader.closeTrace();
+		index.firstTime=reader.FirstTimestamp;
+		try {
+			index.finish(trace, Arrays.copyOf(ids[0], idCount[0]));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+		try {
+			index.write(trace);
+		} catch (IOException e) {
+			//a read only directory, the index is only kept in memory
+		}
+		return index;
+	}
+}
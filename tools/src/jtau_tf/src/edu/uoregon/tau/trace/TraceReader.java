@@ -17,8 +17,14 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 
 public class TraceReader extends TraceFile{	
 	
@@ -42,6 +48,37 @@ public class TraceReader extends TraceFile{
 	HashSet<Integer> nidTidSeen = new HashSet<Integer>();
 	HashSet<Integer> nidTidDone = new HashSet<Integer>();
 	
+	/*
+	 * The memory mapped mode, see setMemoryMapped.  The file is mapped in windows of up to 
+	 * MAP_WINDOW bytes so traces larger than 2GB can be read.
+	 */
+	private final static long MAP_WINDOW = 1L<<30;
+	private FileChannel channel=null;
+	private MappedByteBuffer window=null;
+	private long windowStart=0;
+	private long fileLength=0;
+	private long mappedPosition=0;
+	int recordSize=24;
+	private NidTidSet mappedSeen;
+	private NidTidSet mappedDone;
+	
+	/*
+	 * The event descriptions sorted by event id, with what each one means to the 
+	 * callbacks worked out ahead, so the mapped mode doesn't look them up by name per event
+	 */
+	private final static byte KIND_ENTRY_EXIT=1;
+	private final static byte KIND_TRIGGER=2;
+	private final static byte KIND_SEND=4;
+	private final static byte KIND_RECV=8;
+	private final static byte KIND_FLUSH_CLOSE=16;
+	private final static byte KIND_WALL_CLOCK=32;
+	private int[] descrIds;
+	private byte[] descrKinds;
+	
+	/* The time index, loaded by seekToTime, and the states open where it last seeked to */
+	private TraceIndex index=null;
+	private OpenStates seekStates=null;
+	
 	public TraceReader(String trace, String edf,char nid_offset){
 		this.nid_offset=nid_offset;
 		initialize(trace,edf);
@@ -409,6 +446,77 @@ public class TraceReader extends TraceFile{
 		nonBlocking=value;
 	}
 
+	/**
+	 * Moves the reader to the first record at or after the time, in the time units the callbacks 
+	 * report (so after the first timestamp is subtracted if it is).  The next readNumEvents first 
+	 * invokes enterState for the states open at that point, with their original entry times, 
+	 * so the callbacks see correctly nested states.
+	 * 
+	 * The time index is read from the file next to the trace, written by TraceWriter or by the 
+	 * first seek, or built by reading the trace once.  The reader is switched to the memory 
+	 * mapped mode.  The records of the trace should be in time order.
+	 * @return false if the trace could not be indexed or mapped
+	 */
+	public boolean seekToTime(long time){
+		if(index==null){
+			index=TraceIndex.read(TrcFile);
+			if(index==null){
+				index=TraceIndex.build(TrcFile, EdfFile);
+			}
+			if(index==null){
+				return false;
+			}
+		}
+		if(!setMemoryMapped(true)||index.recordSize!=recordSize){
+			return false;
+		}
+		if(!ClkInitialized){
+			FirstTimestamp=index.firstTime;
+		}
+		long target=subtractFirstTimestamp?time+FirstTimestamp:time;
+		
+		seekStates=new OpenStates();
+		/* the threads flushed before, wherever that was, don't end the trace read from here */
+		mappedDone=new NidTidSet();
+		int k=index.find(target);
+		if(k>=0){
+			mappedPosition=index.offsets[k];
+			seekStates.restore(index.openStates[k], index.entryTimes[k]);
+		}
+		else{
+			mappedPosition=0;
+		}
+		/* read on from the checkpoint to the time, keeping track of the open states */
+		boolean wide=recordSize==32;
+		try{
+			while(mapRecord()){
+				int p=(int)(mappedPosition-windowStart);
+				if(mappedTime()>=target){
+					break;
+				}
+				int evid=wide?(int)window.getLong(p):window.getInt(p);
+				if(index.isEntryExit(evid)){
+					int nid=window.getChar(wide?p+8:p+4);
+					int tid=window.getChar(wide?p+10:p+6);
+					long parameter=window.getLong(wide?p+16:p+8);
+					if(parameter==1){
+						seekStates.enter(nid, tid, evid, window.getLong(p+recordSize-8));
+					}
+					else if(parameter==-1){
+						seekStates.leave(nid, tid);
+					}
+				}
+				mappedPosition+=recordSize;
+			}
+		}catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		totalRead=mappedPosition/recordSize;
+		done=false;
+		return true;
+	}
+	
 	/* Seek to an absolute event position. 
 	 * A negative position indicates to start from the tail of the event stream. 
 	 * Returns the position if successful or 0 if an error occured */
@@ -436,6 +544,104 @@ public class TraceReader extends TraceFile{
 	{
 		definitionsOnly=value;
 	}
+	
+	/**
+	 * Switches the reader to read the rest of the trace from a memory mapping of the file.
+	 * The records are decoded in place in the byte order of the trace format and the callbacks 
+	 * are invoked without allocating anything per event.  A mapped reader can't go back to the stream.
+	 * @return false if the mode could not be set, the reader then keeps using the stream
+	 */
+	public boolean setMemoryMapped(boolean value){
+		if(!value||channel!=null){
+			return value==(channel!=null);
+		}
+		try {
+			RandomAccessFile file = new RandomAccessFile(TrcFile,"r");
+			channel=file.getChannel();
+			fileLength=channel.size();
+		} catch (IOException e) {
+			e.printStackTrace();
+			channel=null;
+			return false;
+		}
+		recordSize=format<FORMAT_64?24:32;
+		mappedPosition=totalRead*recordSize;
+		mappedSeen=new NidTidSet();
+		mappedDone=new NidTidSet();
+		for(Iterator<Integer> it=nidTidSeen.iterator();it.hasNext();){
+			int nidtid=it.next().intValue();
+			mappedSeen.add(nidtid>>>16, nidtid&0xFFFF);
+		}
+		for(Iterator<Integer> it=nidTidDone.iterator();it.hasNext();){
+			int nidtid=it.next().intValue();
+			mappedDone.add(nidtid>>>16, nidtid&0xFFFF);
+		}
+		if(Fiid!=null){
+			try {
+				Fiid.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			Fiid=null;
+		}
+		return true;
+	}
+	
+	/* Sorts the event descriptions by id and works out their kind, once the tables are read */
+	private void buildKinds(){
+		descrIds=new int[EventIdMap.size()];
+		int i=0;
+		for(Iterator<Integer> it=EventIdMap.keySet().iterator();it.hasNext();){
+			descrIds[i++]=it.next().intValue();
+		}
+		Arrays.sort(descrIds);
+		descrKinds=new byte[descrIds.length];
+		for(i=0;i<descrIds.length;i++){
+			EventDescr eventDescr = EventIdMap.get(Integer.valueOf(descrIds[i]));
+			String param=eventDescr.getParameter();
+			String name=eventDescr.getEventName();
+			byte kind=0;
+			if(param!=null&&param.equals("EntryExit")){
+				kind|=KIND_ENTRY_EXIT;
+			}
+			else{
+				if(param!=null&&param.equals("TriggerValue")){
+					kind|=KIND_TRIGGER;
+				}
+				if(eventDescr.getTag()==TAU_MESSAGE_SEND_EVENT||eventDescr.getEventId()==60007){
+					kind|=KIND_SEND;
+				}
+				else if(eventDescr.getTag()==TAU_MESSAGE_RECV_EVENT||eventDescr.getEventId()==60008){
+					kind|=KIND_RECV;
+				}
+			}
+			if(name!=null&&(name.equals("\"FLUSH_CLOSE\"")||name.equals("FLUSH_CLOSE"))){
+				kind|=KIND_FLUSH_CLOSE;
+			}
+			if(name!=null&&(name.equals("\"WALL_CLOCK\"")||name.equals("WALL_CLOCK"))){
+				kind|=KIND_WALL_CLOCK;
+			}
+			descrKinds[i]=kind;
+		}
+	}
+	
+	/* Makes sure the record at the mapped position is in the mapped window, returns false at the end of the file */
+	private boolean mapRecord() throws IOException{
+		if(mappedPosition+recordSize>fileLength){
+			return false;
+		}
+		if(window==null||mappedPosition<windowStart||mappedPosition+recordSize>windowStart+window.limit()){
+			windowStart=mappedPosition;
+			window=channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(MAP_WINDOW, fileLength-windowStart));
+			window.order(format==FORMAT_32_SWAP||format==FORMAT_64_SWAP?ByteOrder.LITTLE_ENDIAN:ByteOrder.BIG_ENDIAN);
+		}
+		return true;
+	}
+	
+	/* The time of the record at the mapped position, read in place */
+	private long mappedTime(){
+		return window.getLong((int)(mappedPosition-windowStart)+recordSize-8);
+	}
 
 	
 	long FirstTimestamp=0;
@@ -450,6 +656,15 @@ public class TraceReader extends TraceFile{
 			return -1;
 		}
 		
+		if(channel!=null){
+			try {
+				return mapRecord()?mappedTime():-1;
+			} catch (IOException e) {
+				e.printStackTrace();
+				return -1;
+			}
+		}
+		
 		Fiid.mark(64);
 		Event evt=null;
 		try {
@@ -485,6 +700,7 @@ public class TraceReader extends TraceFile{
 		if (!ClkInitialized)
 		{
 			refreshTables(callbacks, userData);
+			buildKinds();
 			//if (callbacks.DefClkPeriod != null)
 			callbacks.defClkPeriod(userData, 1E-6);
 			
@@ -500,7 +716,9 @@ public class TraceReader extends TraceFile{
 			 * For this we need to lseek to the beginning of the file, read one 
 			 * record and then lseek it back to where it was */
 			
-			FirstTimestamp=peekTime();
+			if(index==null){
+				FirstTimestamp=peekTime();
+			}
 			
 		}//!clkinit
 
@@ -512,6 +730,10 @@ public class TraceReader extends TraceFile{
 			numberOfEvents=nOEvents;
 		}
 		
+		if(channel!=null){
+			return readMappedEvents(callbacks, numberOfEvents, userData);
+		}
+		
 
 		
 //		if(Fiid.available()<=0){
@@ -683,11 +905,116 @@ public class TraceReader extends TraceFile{
 		return recordsRead;
 	}
 
+	/* readNumEvents for the memory mapped mode, the same callbacks from records decoded in place */
+	private int readMappedEvents(TraceReaderCallbacks callbacks, long numberOfEvents, Object userData){
+		int recordsRead=0;
+		boolean wide=recordSize==32;
+		if(seekStates!=null){
+			/* enter the states open at the time seeked to */
+			int[] open=seekStates.openThreads();
+			for(int i=0;i<open.length;i++){
+				int nid=(char)((open[i]>>>16)+nid_offset);
+				int tid=open[i]&0xFFFF;
+				if(mappedSeen.add(nid, tid)){
+					callbacks.defThread(userData, nid, tid, "process "+nid+":"+tid);
+				}
+			}
+			seekStates.replay(callbacks, userData, nid_offset, subtractFirstTimestamp?FirstTimestamp:0);
+			seekStates=null;
+		}
+		for (long i = 0; i < numberOfEvents; i++)
+		{
+			int evid, nid, tid;
+			long parameter, time;
+			try{
+				if(!mapRecord()){
+					break;
+				}
+			}catch (IOException e) {e.printStackTrace(); return -1;}
+			int p=(int)(mappedPosition-windowStart);
+			if(wide){
+				evid=(int)window.getLong(p);
+				nid=(char)(window.getChar(p+8)+nid_offset);
+				tid=window.getChar(p+10);
+				parameter=window.getLong(p+16);
+				time=window.getLong(p+24);
+			}
+			else{
+				evid=window.getInt(p);
+				nid=(char)(window.getChar(p+4)+nid_offset);
+				tid=window.getChar(p+6);
+				parameter=window.getLong(p+8);
+				time=window.getLong(p+16);
+			}
+			mappedPosition+=recordSize;
+			recordsRead++;
+			totalRead++;
+			
+			if(mappedSeen.add(nid, tid)){
+				callbacks.defThread(userData, nid, tid, "process "+nid+":"+tid);
+			}
+			if (subtractFirstTimestamp) {
+				time -= FirstTimestamp;
+			}
+			
+			int d=Arrays.binarySearch(descrIds, evid);
+			if(d<0){
+				System.out.println("Warning: no event definiton for event ID "+evid);
+				continue;
+			}
+			byte kind=descrKinds[d];
+			if((kind&KIND_ENTRY_EXIT)!=0){
+				if (parameter == 1){
+					callbacks.enterState(userData, time, nid, tid, evid);
+				}
+				else if (parameter == -1){
+					callbacks.leaveState(userData, time, nid, tid, evid);
+				}
+			}
+			else{
+				if((kind&KIND_TRIGGER)!=0){
+					callbacks.eventTrigger(userData, time, nid, tid, evid, parameter);
+				}
+				if((kind&(KIND_SEND|KIND_RECV))!=0){
+					/* See RtsLayer::TraceSendMsg for documentation on the bit patterns of "parameter" */
+					long msgTag   = ((parameter>>16) & 0x000000FF) | (((parameter >> 48) & 0xFF) << 8);
+					long otherNid = ((parameter>>24) & 0x000000FF) | (((parameter >> 56) & 0xFF) << 8);
+					long msgLen   = parameter & 0x0000FFFF | (parameter << 22 >> 54 << 16);
+					long comm = parameter << 16 >> 58;
+					if((kind&KIND_SEND)!=0){
+						callbacks.sendMessage(userData, time, nid, tid, (int)otherNid, 
+								(int)parameter, (int)msgLen, (int)msgTag, (int)comm);
+					}
+					else{
+						callbacks.recvMessage(userData, time, (int)otherNid, 
+								(int)parameter, nid, tid, (int)msgLen, (int)msgTag, (int)comm);
+					}
+				}
+			}
+			if (parameter == 0 && (kind&KIND_FLUSH_CLOSE)!=0) {
+				mappedDone.add(nid, tid);
+			} 
+			else if (parameter != 1 && parameter != -1 && (kind&KIND_WALL_CLOCK)!=0 && mappedDone.contains(nid, tid)) {
+				/* the last wallclock event of a thread that has flushed, the end of the trace */
+				callbacks.endTrace(userData, nid, tid);
+				this.done=true;
+				return recordsRead;
+			}
+		}
+		return recordsRead;
+	}
+
 	/* close a trace file */
 	public void closeTrace()
 	{
 		
 		try {
+			if(channel!=null)
+			{
+				channel.close();
+				channel=null;
+				window=null;
+			}else
 			if(Fiid!=null)
 			{
 				Fiid.close();
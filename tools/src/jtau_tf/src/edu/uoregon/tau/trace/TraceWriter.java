@@ -8,24 +8,24 @@
 
 package edu.uoregon.tau.trace;
 
-import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
-import java.io.DataOutputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-//import java.util.HashSet;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
 //import java.util.Vector;
 import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 public class TraceWriter extends TraceFile {
 	
-	DataOutputStream Foid;//The trace file output handle
+	FileChannel Foid;//The trace file output handle
 	
 	/* -- pcxx tracer events ------------------- */
 	private final static int PCXX_EV_INIT = 60000;
@@ -48,9 +48,24 @@ public class TraceWriter extends TraceFile {
 	//int PCXX_UTIMER_START = 60300;
 	//int PCXX_UTIMER_STOP  = 60400;
 	
-	//private static final int TAU_MAX_RECORDS = 64*1024;
+	/* -- the records are written to buffers of TAU_MAX_RECORDS records, which are written to 
+	 * -- the file by a background thread while the next buffer is filled -- */
+	private static final int TAU_MAX_RECORDS = 64*1024;
+	private static final int RECORD_SIZE = 24;
+	private static final int TRACE_BUFFERS = 4;
 	
-	private HashSet<Integer> checkInit = new HashSet<Integer>();
+	/* Handed to the flush thread to stop it */
+	private static final ByteBuffer END_OF_TRACE = ByteBuffer.allocate(0);
+	
+	private ByteBuffer traceBuffer;
+	private BlockingQueue<ByteBuffer> freeBuffers = new ArrayBlockingQueue<ByteBuffer>(TRACE_BUFFERS);
+	private BlockingQueue<ByteBuffer> fullBuffers = new ArrayBlockingQueue<ByteBuffer>(TRACE_BUFFERS+1);
+	private Thread flushThread;
+	private volatile IOException flushError;
+	
+	private NidTidSet checkInit = new NidTidSet();
+	private long records = 0;
+	private TraceIndex index = null;
 	private HashMap<Integer, String> nidTidNames = new HashMap<Integer, String>();
 	long lastTimestamp;
 	//boolean needsEdfFlush;
@@ -64,8 +79,19 @@ public class TraceWriter extends TraceFile {
 		try {
 			ostream = new FileOutputStream(name);
 
-		BufferedOutputStream bw = new BufferedOutputStream(ostream);
-		Foid = new DataOutputStream(bw);
+		Foid = ostream.getChannel();
+		TrcFile = name;
+		traceBuffer = ByteBuffer.allocateDirect(TAU_MAX_RECORDS*RECORD_SIZE);
+		for(int i=1;i<TRACE_BUFFERS;i++){
+			freeBuffers.add(ByteBuffer.allocateDirect(TAU_MAX_RECORDS*RECORD_SIZE));
+		}
+		flushThread = new Thread(new Runnable(){
+			public void run(){
+				flushBuffers();
+			}
+		}, "TraceWriter flush "+name);
+		flushThread.setDaemon(true);
+		flushThread.start();
 		//tFile.traceBuffer = new Event[TAU_MAX_RECORDS];
 		//tFile.traceBuffer[0]=new Event();
 		//tFile.tracePosition = 0; // 0 will be the EV_INIT record
@@ -158,12 +184,56 @@ public class TraceWriter extends TraceFile {
 		return (nid << 16)+tid;
 	}
 	
-	/*private void checkFlush() {
-		// Write the current trace buffer to file if necessary.
-		if (tracePosition >= TAU_MAX_RECORDS) {
-			flushTrace();
+	/* Hands the current trace buffer to the flush thread and takes a free one, 
+	 * which only waits when every buffer is still being written */
+	private void swapBuffer() {
+		traceBuffer.flip();
+		try {
+			fullBuffers.put(traceBuffer);
+			traceBuffer = freeBuffers.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
 		}
-	}*/
+	}
+	
+	/* The flush thread, writes the full buffers to the file in order until the end of the trace */
+	private void flushBuffers() {
+		try {
+			while (true) {
+				ByteBuffer buffer = fullBuffers.take();
+				if (buffer == END_OF_TRACE) {
+					return;
+				}
+				try {
+					while (buffer.hasRemaining() && flushError == null) {
+						Foid.write(buffer);
+					}
+				} catch (IOException e) {
+					flushError = e;
+				}
+				buffer.clear();
+				freeBuffers.put(buffer);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private void putRecord(int eventID, char nodeID, char threadID, long parameter, long time) {
+		if (!traceBuffer.hasRemaining()) {
+			swapBuffer();
+		}
+		if (index != null) {
+			index.record(records * RECORD_SIZE, time);
+		}
+		records++;
+		traceBuffer.putInt(eventID);
+		traceBuffer.putChar(nodeID);
+		traceBuffer.putChar(threadID);
+		traceBuffer.putLong(parameter);
+		traceBuffer.putLong(time);
+	}
 
 	private int flushEdf() {
 		try {
@@ -205,6 +275,14 @@ public class TraceWriter extends TraceFile {
 		return 0;
 	}*/
 
+	/**
+	 * Sets whether a time index is written next to the trace when it is closed, so 
+	 * TraceReader.seekToTime doesn't have to build one.  Must be set before writing events.
+	 */
+	public void setIndexed(boolean value) {
+		index = value ? new TraceIndex(RECORD_SIZE) : null;
+	}
+
 	public int defThread(int nodeToken, int threadToken,String threadName) {
 		//char nid = (char)nodeToken;//Integer ..  new Integer(nodeToken);
 		//char tid = (char)threadToken;
@@ -246,79 +324,15 @@ public class TraceWriter extends TraceFile {
 
 	public int writeEvent(int eventID, char nodeID, char threadID, long parameter, long time){
 		
-		try {
-			//nidtid=CharPair(subject.getNodeID(),subject.getThreadID());
-			if(checkInit.add(new Integer(CharPair(nodeID,threadID))))
-			{
-				//checkInit.add(nidtid);
-				Foid.writeInt(PCXX_EV_INIT);
-				Foid.writeChar(nodeID);
-				Foid.writeChar(threadID);
-				Foid.writeLong(3);
-				Foid.writeLong(time);
-			}
-
-    		//evt=tFile.traceBuffer[i];
-			Foid.writeInt(eventID);
-			Foid.writeChar(nodeID);
-			Foid.writeChar(threadID);
-			Foid.writeLong(parameter);
-			Foid.writeLong(time);
-    	} catch (IOException e) {
-			e.printStackTrace();
+		if(checkInit.add(nodeID,threadID))
+		{
+			putRecord(PCXX_EV_INIT, nodeID, threadID, 3, time);
 		}
+		putRecord(eventID, nodeID, threadID, parameter, time);
     	
     	return 0;
 	}
 	
-	/*public int flushTrace(){
-		int events = tracePosition;
-		//if(events>1)
-		//	checkInitialized(traceBuffer[1].getNodeID(),traceBuffer[1].getThreadID(), traceBuffer[1].getTime());
-		//else
-		//	checkInitialized(0,0,0);
-		// reset trace position
-		tracePosition = 0;
-		// must write out edf file first
-		if (needsEdfFlush) {
-			if (flushEdf() != 0) {
-				return -1;
-			}
-		}
-
-		//Event evt;
-		Event subject=null;
-		//boolean needInit = false;
-		//CharPair 
-		//String nidtid=null;
-		for(int i=0; i<events;i++)
-		{
-			subject=traceBuffer[i];
-			try {
-				//nidtid=CharPair(subject.getNodeID(),subject.getThreadID());
-				if(checkInit.add(new Integer(CharPair(subject.getNodeID(),subject.getThreadID()))))
-				{
-					//checkInit.add(nidtid);
-					Foid.writeInt(PCXX_EV_INIT);
-					Foid.writeChar(subject.getNodeID());
-					Foid.writeChar(subject.getThreadID());
-					Foid.writeLong(3);
-					Foid.writeLong(subject.getTime());
-				}
-
-	    		//evt=tFile.traceBuffer[i];
-				Foid.writeInt(subject.getEventID());
-				Foid.writeChar(subject.getNodeID());
-				Foid.writeChar(subject.getThreadID());
-				Foid.writeLong(subject.getParameter());
-				Foid.writeLong(subject.getTime());
-	    	} catch (IOException e) {
-				e.printStackTrace();
-			}
-	    }
-	    return 0;
-	  }*/
-
 	public int closeTrace(){
 		Set<Integer> keyset = nidTidNames.keySet();// .iterator();
 		Iterator<Integer> it=keyset.iterator();
@@ -352,14 +366,47 @@ public class TraceWriter extends TraceFile {
 			//traceBuffer[pos]=evt;//pos,
 			//tracePosition++;
 		}
-		//flushTrace();
 		flushEdf();
+		traceBuffer.flip();
+		try {
+			fullBuffers.put(traceBuffer);
+			fullBuffers.put(END_OF_TRACE);
+			flushThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if(flushError!=null){
+			flushError.printStackTrace();
+		}
 		try {
 			Foid.close();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		return 0;
+		/* after the trace is closed, the index records its length and modification time */
+		if(index!=null&&flushError==null){
+			writeIndex();
+		}
+		return flushError==null?0:-1;
+	}
+
+	private void writeIndex() {
+		int[] entryExitIds = new int[EventIdMap.size()];
+		int n = 0;
+		for (Iterator<EventDescr> it = EventIdMap.values().iterator(); it.hasNext();) {
+			EventDescr eventDesc = it.next();
+			if (eventDesc.getParameter().equals("EntryExit")) {
+				entryExitIds[n++] = eventDesc.getEventId();
+			}
+		}
+		int[] ids = new int[n];
+		System.arraycopy(entryExitIds, 0, ids, 0, n);
+		try {
+			index.finish(TrcFile, ids);
+			index.write(TrcFile);
+		} catch (IOException e) {
+			System.out.println("Error writing trace index");
+		}
 	}
 
 	private int enterExit(long time, 
@@ -371,6 +418,13 @@ public class TraceWriter extends TraceFile {
 		//int pos = tracePosition;
 		//System.out.println(pos);
 		writeEvent(stateToken,(char)nodeToken,(char)threadToken,parameter,time);
+		if (index != null) {
+			if (parameter == 1) {
+				index.open.enter((char)nodeToken, (char)threadToken, stateToken, time);
+			} else {
+				index.open.leave((char)nodeToken, (char)threadToken);
+			}
+		}
 		/*evt.ev = stateToken;
 		evt.nid = (char)nodeToken;
 		evt.tid = (char)threadToken;
@@ -0,0 +1,17 @@
+package edu.uoregon.tau.trace.test;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+public class AllTests {
+
+	public static Test suite() {
+		TestSuite suite = new TestSuite("Test for trace");
+		//$JUnit-BEGIN$
+		suite.addTestSuite(TraceReaderSeekTest.class);
+		suite.addTestSuite(TraceWriterTest.class);
+		//$JUnit-END$
+		return suite;
+	}
+
+}
@@ -0,0 +1,258 @@
+/*
+ *  See TAU License file
+ */
+
+package edu.uoregon.tau.trace.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+import edu.uoregon.tau.trace.TraceReader;
+import edu.uoregon.tau.trace.TraceReaderCallbacks;
+import edu.uoregon.tau.trace.TraceWriter;
+
+/*
+ * Checks TraceReader.seekToTime against reading the whole trace: after a seek the reader has to
+ * report the states open at that time, then the records from the first one at or after it.
+ */
+public class TraceReaderSeekTest extends TestCase {
+
+	// several checkpoints of the index
+	private static final int RECORDS = 200000;
+	private static final int THREADS = 3;
+	private static final long FIRST = 1000;
+	private static final long[] SEEKS = { 0, 5, 777, 100000, 250000, 390000, 444444, 10000000 };
+
+	private File directory;
+
+	public TraceReaderSeekTest(String arg0) {
+		super(arg0);
+	}
+
+	/* The records as strings, and their times and kinds to work out the expected seeks */
+	private static class Log implements TraceReaderCallbacks {
+		final List<String> records = new ArrayList<String>();
+		final List<long[]> entries = new ArrayList<long[]>();
+
+		private void add(String record, long kind, long time, int threadToken) {
+			records.add(record);
+			entries.add(new long[] { kind, time, threadToken });
+		}
+
+		public int defClkPeriod(Object userData, double clkPeriod) {
+			return 0;
+		}
+
+		public int defThread(Object userData, int nodeToken, int threadToken, String threadName) {
+			return 0;
+		}
+
+		public int defStateGroup(Object userData, int stateGroupToken, String stateGroupName) {
+			return 0;
+		}
+
+		public int defState(Object userData, int stateToken, String stateName, int stateGoupToken) {
+			return 0;
+		}
+
+		public int defUserEvent(Object userData, int userEventToken, String userEventName, int monotonicallyIncreasing) {
+			return 0;
+		}
+
+		public int enterState(Object userData, long time, int nodeToken, int threadToken, int stateToken) {
+			add("enter " + time + " " + nodeToken + ":" + threadToken + " " + stateToken, 1, time, threadToken);
+			return 0;
+		}
+
+		public int leaveState(Object userData, long time, int nodeToken, int threadToken, int stateToken) {
+			add("leave " + time + " " + nodeToken + ":" + threadToken + " " + stateToken, -1, time, threadToken);
+			return 0;
+		}
+
+		public int sendMessage(Object userData, long time, int sourceNodeToken, int sourceThreadToken,
+				int destinationNodeToken, int destinationThreadToken, int messageSize, int messageTag, int messageCom) {
+			add("send " + time, 0, time, sourceThreadToken);
+			return 0;
+		}
+
+		public int recvMessage(Object userData, long time, int sourceNodeToken, int sourceThreadToken,
+				int destinationNodeToken, int destinationThreadToken, int messageSize, int messageTag, int messageCom) {
+			add("recv " + time, 0, time, destinationThreadToken);
+			return 0;
+		}
+
+		public int eventTrigger(Object userData, long time, int nodeToken, int threadToken, int userEventToken,
+				double userEventValue) {
+			add("trigger " + time + " " + nodeToken + ":" + threadToken + " " + userEventValue, 0, time, threadToken);
+			return 0;
+		}
+
+		public int endTrace(Object userData, int nodeToken, int threadToken) {
+			add("end " + nodeToken + ":" + threadToken, 2, Long.MAX_VALUE, threadToken);
+			return 0;
+		}
+	}
+
+	protected void setUp() throws Exception {
+		directory = File.createTempFile("seek", "");
+		directory.delete();
+		directory.mkdir();
+	}
+
+	protected void tearDown() throws Exception {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	/*
+	 * Random nesting up to five states deep on three threads of one node, in time order.  The
+	 * times go up by 1 to 3 units times the scale, which doesn't change the length of the trace.
+	 */
+	private void writeTrace(String name, long seed, int scale, boolean indexed) {
+		TraceWriter writer = new TraceWriter(new File(directory, name + ".trc").getPath(), new File(directory,
+				name + ".edf").getPath());
+		writer.setIndexed(indexed);
+		writer.defStateGroup("TAU_DEFAULT", 1);
+		for (int s = 1; s <= 6; s++) {
+			writer.defState(s, "state " + s, 1);
+		}
+		writer.defUserEvent(9, "counter", 0);
+		Random random = new Random(seed);
+		long time = FIRST;
+		int[][] stacks = new int[THREADS][5];
+		int[] depths = new int[THREADS];
+		for (int i = 0; i < RECORDS; i++) {
+			int thread = random.nextInt(THREADS);
+			time += (1 + random.nextInt(3)) * scale;
+			if (depths[thread] < 5 && (depths[thread] == 0 || random.nextBoolean())) {
+				int state = 1 + random.nextInt(6);
+				stacks[thread][depths[thread]++] = state;
+				writer.enterState(time, 0, thread, state);
+			} else {
+				writer.leaveState(time, 0, thread, stacks[thread][--depths[thread]]);
+			}
+			if (random.nextInt(10) == 0) {
+				writer.eventTrigger(time, 0, thread, 9, i);
+			}
+		}
+		assertEquals(0, writer.closeTrace());
+	}
+
+	private TraceReader reader(String name, boolean subtractFirstTimestamp) {
+		TraceReader reader = new TraceReader(new File(directory, name + ".trc").getPath(), new File(directory,
+				name + ".edf").getPath());
+		reader.setSubtractFirstTimestamp(subtractFirstTimestamp);
+		return reader;
+	}
+
+	private static Log readAll(TraceReader reader) {
+		Log log = new Log();
+		while (reader.readNumEvents(log, 1000, null) > 0) {
+		}
+		reader.closeTrace();
+		return log;
+	}
+
+	/*
+	 * What a seek to the time should report, from the whole trace: the states open before the
+	 * first record at or after it, thread by thread from the outermost in, then the rest.
+	 */
+	private static List<String> expectedSeek(Log all, long time) {
+		TreeMap<Long, List<String>> open = new TreeMap<Long, List<String>>();
+		int i = 0;
+		for (; i < all.entries.size(); i++) {
+			long[] entry = all.entries.get(i);
+			if (entry[1] >= time) {
+				break;
+			}
+			if (!open.containsKey(entry[2])) {
+				open.put(entry[2], new ArrayList<String>());
+			}
+			List<String> stack = open.get(entry[2]);
+			if (entry[0] == 1) {
+				stack.add(all.records.get(i));
+			} else if (entry[0] == -1) {
+				stack.remove(stack.size() - 1);
+			}
+		}
+		List<String> expected = new ArrayList<String>();
+		for (List<String> stack : open.values()) {
+			expected.addAll(stack);
+		}
+		expected.addAll(all.records.subList(i, all.records.size()));
+		return expected;
+	}
+
+	private void assertSeeks(String name) {
+		// peekTime reports the times as they are in the trace
+		Log absolute = readAll(reader(name, false));
+		for (boolean subtract : new boolean[] { true, false }) {
+			Log all = subtract ? readAll(reader(name, true)) : absolute;
+			for (long seek : SEEKS) {
+				long time = (subtract ? 0 : FIRST) + seek;
+				List<String> expected = expectedSeek(all, time);
+				TraceReader reader = reader(name, subtract);
+				assertTrue(reader.seekToTime(time));
+				long peek = reader.peekTime();
+				Log log = readAll(reader);
+				assertEquals("seek to " + time, expected, log.records);
+
+				// the next record is the first one at or after the time
+				int next = 0;
+				while (next < all.entries.size() && all.entries.get(next)[1] < time) {
+					next++;
+				}
+				if (next < all.entries.size() && all.entries.get(next)[0] != 2) {
+					assertEquals("seek to " + time, absolute.entries.get(next)[1], peek);
+				}
+			}
+		}
+	}
+
+	public final void testSeekWithIndex() {
+		writeTrace("indexed", 1, 1, true);
+		File index = new File(directory, "indexed.trc.idx");
+		assertTrue(index.exists());
+		long modified = index.lastModified();
+		assertSeeks("indexed");
+		// the index written with the trace was used
+		assertEquals(modified, index.lastModified());
+	}
+
+	public final void testSeekWithoutIndex() {
+		writeTrace("plain", 1, 1, false);
+		assertFalse(new File(directory, "plain.trc.idx").exists());
+		// the first seek builds the index, the later ones read it
+		assertSeeks("plain");
+		assertTrue(new File(directory, "plain.trc.idx").exists());
+	}
+
+	public final void testStaleIndex() {
+		writeTrace("stale", 1, 1, true);
+		File trace = new File(directory, "stale.trc");
+		long length = trace.length();
+
+		// the trace is written again, as long but with other times, and the index is left
+		writeTrace("stale", 1, 2, false);
+		assertEquals(length, trace.length());
+		assertTrue(new File(directory, "stale.trc.idx").exists());
+		assertSeeks("stale");
+	}
+
+	public final void testSeekBack() {
+		writeTrace("back", 1, 1, true);
+		TraceReader reader = reader("back", true);
+		assertTrue(reader.seekToTime(390000));
+		Log later = new Log();
+		reader.readNumEvents(later, 1000, null);
+		// back to the start, and then the whole trace is read again
+		assertTrue(reader.seekToTime(0));
+		assertEquals(readAll(reader("back", true)).records, readAll(reader).records);
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ *  See TAU License file
+ */
+
+package edu.uoregon.tau.trace.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+import edu.uoregon.tau.trace.TraceWriter;
+
+/*
+ * Compares the output of TraceWriter with a trace written by the unbuffered writer it
+ * replaced.  The reference, data/writer.trc.gz and data/writer.edf, was written by main()
+ * with that writer.
+ */
+public class TraceWriterTest extends TestCase {
+
+	// enough records to go through every buffer more than once
+	private static final int LOOPS = 50000;
+	private static final int NODES = 3;
+
+	private File directory;
+
+	public TraceWriterTest(String arg0) {
+		super(arg0);
+	}
+
+	/*
+	 * A fixed sequence of events: three nodes, the second with two threads, nested states,
+	 * user events and messages, about 380000 records.  The events repeat every 60 loops, times
+	 * included (the writer doesn't look at them), so that the reference compresses well.
+	 */
+	static void writeTrace(TraceWriter writer) {
+		writer.defThread(1, 1, "second thread");
+		writer.defStateGroup("TAU_DEFAULT", 1);
+		writer.defStateGroup("MPI", 2);
+		writer.defState(1, "main", 1);
+		writer.defState(2, "compute", 1);
+		writer.defState(3, "MPI_Send()", 2);
+		writer.defUserEvent(4, "size", 0);
+		writer.defUserEvent(5, "counter", 1);
+
+		for (int n = 0; n < NODES; n++) {
+			writer.enterState(n, n, 0, 1);
+		}
+		writer.enterState(NODES, 1, 1, 1);
+		for (int i = 0; i < LOOPS; i++) {
+			int node = i % NODES;
+			int thread = (node == 1 && i % 4 == 1) ? 1 : 0;
+			long time = 1000 + 13 * (i % 60);
+			writer.enterState(time, node, thread, 2);
+			writer.eventTrigger(time + 1, node, thread, 4, 64 << (i % 4));
+			writer.eventTrigger(time + 2, node, thread, 5, i % 60);
+			if (thread == 0) {
+				writer.enterState(time + 3, node, 0, 3);
+				writer.sendMessage(time + 4, node, 0, (node + 1) % NODES, 0, 64 + i % 5, i % 3, 0);
+				writer.leaveState(time + 5, node, 0, 3);
+				writer.recvMessage(time + 6, (node + NODES - 1) % NODES, 0, node, 0, 64, i % 3, 0);
+			}
+			writer.leaveState(time + 7 + i % 5, node, thread, 2);
+		}
+		writer.leaveState(2000, 1, 1, 1);
+		for (int n = 0; n < NODES; n++) {
+			writer.leaveState(2001 + n, n, 0, 1);
+		}
+	}
+
+	protected void setUp() throws Exception {
+		directory = File.createTempFile("writer", "");
+		directory.delete();
+		directory.mkdir();
+	}
+
+	protected void tearDown() throws Exception {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[65536];
+		int count;
+		while ((count = in.read(buffer)) > 0) {
+			out.write(buffer, 0, count);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+	private static InputStream reference(String name) throws IOException {
+		InputStream in = TraceWriterTest.class.getResourceAsStream("data/" + name);
+		assertNotNull("no reference " + name, in);
+		return in;
+	}
+
+	public final void testReferenceTrace() throws Exception {
+		File trc = new File(directory, "writer.trc");
+		File edf = new File(directory, "writer.edf");
+		TraceWriter writer = new TraceWriter(trc.getPath(), edf.getPath());
+		writeTrace(writer);
+		assertEquals(0, writer.closeTrace());
+
+		byte[] expected = read(new GZIPInputStream(reference("writer.trc.gz")));
+		byte[] actual = read(new FileInputStream(trc));
+		assertEquals(expected.length, actual.length);
+		assertTrue("the trace differs from the reference", Arrays.equals(expected, actual));
+		assertEquals(new String(read(reference("writer.edf")), "UTF-8"), new String(read(new FileInputStream(edf)),
+				"UTF-8"));
+	}
+
+	public final void testInterruptedSwap() throws Exception {
+		TraceWriter writer = new TraceWriter(new File(directory, "interrupted.trc").getPath(), new File(
+				directory, "interrupted.edf").getPath());
+		writer.defStateGroup("TAU_DEFAULT", 1);
+		writer.defState(1, "main", 1);
+		Thread.currentThread().interrupt();
+		try {
+			// the first buffer fills up, handing it to the flush thread is interrupted
+			for (int i = 0; i < 100000; i++) {
+				writer.enterState(i, 0, 0, 1);
+			}
+			fail("the writer should have been interrupted");
+		} catch (RuntimeException expected) {
+			assertTrue(expected.getCause() instanceof InterruptedException);
+			// and the interrupt is kept
+			assertTrue(Thread.interrupted());
+		} finally {
+			Thread.interrupted();
+		}
+		writer.closeTrace();
+	}
+
+	/*
+	 * Writes the reference trace: java edu.uoregon.tau.trace.test.TraceWriterTest <trc> <edf>
+	 */
+	public static void main(String[] args) {
+		TraceWriter writer = new TraceWriter(args[0], args[1]);
+		writeTrace(writer);
+		writer.closeTrace();
+	}
+}
@@ -95,7 +95,6 @@ public class DerivedMetrics {
 
             for (Iterator<Thread> it = trialOpA.getDataSource().getAllThreads().iterator(); it.hasNext();) {
                 Thread thread = (Thread) it.next();
-                thread.addMetric();
                 l = thread.getFunctionProfileIterator();
                 while (l.hasNext()) {
                     FunctionProfile functionProfile = (FunctionProfile) l.next();
@@ -126,15 +125,10 @@ public class DerivedMetrics {
 
                     }
                 }
-                thread.setThreadData(metric);
             }
 
-            //Done with this metric, compute the mean values.
-            trialOpA.setMeanData(metric);
-
-            trialOpA.getDataSource().getMeanData().setThreadData(metric);
-            trialOpA.getDataSource().getTotalData().setThreadData(metric);
-            trialOpA.getDataSource().getStdDevData().setThreadData(metric);
+            //Done with this metric, compute the max and mean values for just this metric.
+            trialOpA.getDataSource().generateMetricStatistics(metric);
 
             return newMetric;
         } catch (NumberFormatException e) {
@@ -134,13 +134,15 @@ public class ParaProf implements ActionListener {
 		+ "  -f, --filetype <filetype>       Specify type of performance data, options are:\n"
 		+ "                                    profiles (default), pprof, dynaprof, mpip,\n"
 		+ "                                    gprof, psrun, hpm, packed, cube, hpc, ompp\n"
-		+ "                                    snap, perixml, gptl, ipm, google, darshan\n"
+		+ "                                    snap, perixml, gptl, ipm, google, darshan, trace\n"
 		+ "  --range a-b:c                   Load only profiles from the given range(s) of processes\n"
 		+ "                                    Seperate individual ids or dash-defined ranges with colons\n"
 		+ "  -h, --help                      Display this help message\n" + "\n"
 		+ "The following options will run only from the console (no GUI will launch):\n" + "\n"
 		+ "  --merge <file.gz>               Merges snapshot profiles\n"
 		+ "  --pack <file>                   Pack the data into packed (.ppk) format\n"
+		+ "  --indexed                       Use the indexed packed format with --pack (uncompressed,\n"
+		+ "                                    threads are read on demand when the file is loaded)\n"
 		+ "  --text <file>                   Dump the data into text (.csv) format\n"
 		+ "  --dump                          Dump profile data to TAU profile format\n"
 		+ "  --dumprank <rank>               Dump profile data for <rank> to TAU profile format\n"
@@ -421,6 +423,7 @@ public class ParaProf implements ActionListener {
 
 	CmdLineParser.Option mergeOpt = parser.addStringOption('a', "merge");
 	CmdLineParser.Option packOpt = parser.addStringOption('a', "pack");
+	CmdLineParser.Option indexedOpt = parser.addBooleanOption('a', "indexed");
 	CmdLineParser.Option textOpt = parser.addStringOption('t', "text");
 	CmdLineParser.Option schemaLocationOpt = parser.addStringOption('c', "schemadir");
 	CmdLineParser.Option metadumpOpt = parser.addBooleanOption('d', "metadump");
@@ -459,6 +462,7 @@ public class ParaProf implements ActionListener {
 	Boolean fixNames = (Boolean) parser.getOptionValue(fixOpt);
 	String merge = (String) parser.getOptionValue(mergeOpt);
 	String pack = (String) parser.getOptionValue(packOpt);
+	Boolean indexed = (Boolean) parser.getOptionValue(indexedOpt);
 	String text = (String) parser.getOptionValue(textOpt);
 	String writeComm = (String) parser.getOptionValue(writeCommOpt);
 	Boolean unpack = (Boolean) parser.getOptionValue(unpackOpt);
@@ -580,6 +584,8 @@ public class ParaProf implements ActionListener {
 		ParaProf.fileType = DataSource.GOOGLE;
 	    } else if (fileTypeString.equals("darshan")){
 	    ParaProf.fileType = DataSource.DARSHAN;
+	    } else if (fileTypeString.equals("trace")) {
+		ParaProf.fileType = DataSource.TRACE;
 	    }
 	    else {
 		System.err.println("Please enter a valid file type.");
@@ -672,7 +678,11 @@ public class ParaProf implements ActionListener {
 		System.out.println("Loading data...");
 		dataSource.load();
 		System.out.println("Packing data...");
-		DataSourceExport.writePacked(dataSource, outPPK);
+		if (indexed != null && indexed.booleanValue()) {
+		    DataSourceExport.writePacked(dataSource, outPPK, DataSourceExport.PACKED_INDEXED_VERSION);
+		} else {
+		    DataSourceExport.writePacked(dataSource, outPPK);
+		}
 
 	    } catch (Exception e) {
 		e.printStackTrace();
@@ -4,13 +4,13 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.LineNumberReader;
+import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.EmptyStackException;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Stack;
 
 import edu.uoregon.tau.perfdmf.FunctionProfile;
+import edu.uoregon.tau.perfdmf.MetricExpression;
 import edu.uoregon.tau.perfdmf.Thread;
 
 /**
@@ -50,10 +50,11 @@ public class ParaProfExpression {
 		if(newName ==null){
 			newName =expression;
 		}
+		//compile once, evaluate for every trial
+		MetricExpression compiled = compile(expression);
 		for(int i=0;i<trials.size();i++){
 		ParaProfTrial trial= (ParaProfTrial)trials.get(i);
-			ArrayList<Object> 	expressArray =  infixToPostfix(expression);
-			evaluate(newName,trial,expressArray);
+			evaluate(newName,trial,compiled);
 		}
 
 	}
@@ -75,14 +76,14 @@ public class ParaProfExpression {
 			}
 		}
 
-		ArrayList<Object> 	expressArray =  infixToPostfix(text);
+		MetricExpression compiled = compile(text);
 		if(newName ==null){
 			text=text.replace(" ", "");
 			text = text.replace('\"', ' ');
 			newName ="("+text+")";
 		}
 
-		return evaluate(newName,trial,expressArray);
+		return evaluate(newName,trial,compiled);
 
 
 
@@ -111,187 +112,28 @@ public class ParaProfExpression {
 		return "";
 
 	}
-	/*public static boolean validate(String expression){
-		try {
-			new TestExpression().parse(expression);
-			return true;
-		}catch(java.lang.ArrayIndexOutOfBoundsException ex){
-			return false;
-		}catch (ParsingException e) {
-			return false;
-		}
-	}*/
 public static boolean validate(String expression){
 	try {
-		ArrayList<Object> equation = infixToPostfix(expression);
-		if (equation.size()<2){
-			return false;
-			
-		}
-		 
-		 int i = 0;
-			
-			while (equation.size() > 1 && equation.size() > i) {
-
-				if (isOperation(equation.get(i))) {
-					try{
-						//Object oper = 
-							equation.remove(i);
-						 //Object second = 
-							 equation.remove(i - 1);
-						 //Object first = 
-							 equation.remove(i - 2);
-						i = i - 2;
-						
-						equation.add(i, "Intermedate");
-					}catch(java.lang.ArrayIndexOutOfBoundsException ex){
-						throw new ParsingException();
-					}
-				}
-				i++;
-			}
-		return true;
-	}catch(java.lang.ArrayIndexOutOfBoundsException ex){
-		return false;
+		//a metric or a value alone is not a derived metric
+		return compile(expression).getOperations() > 0;
 	}catch (ParsingException e) {
 		return false;
 	}
 }
 
 	/**
-	 * Convert the infix equation to postfix, using Dijkstra`s Shunting
-	 * Algorithm, so the equation can be evaluated from left to right following
-	 * the order of operation including parenthesis.
+	 * Compiles the expression, with infinite quotients evaluating to 0.
 	 * 
 	 * @param input
 	 * @return
 	 * @throws ParsingException 
 	 */
-	private static ArrayList<Object> infixToPostfix(String input) throws ParsingException {
-		ArrayList<Object> out = new ArrayList<Object>();
-		String name = "";
-		Stack<Character> stack = new Stack<Character>();
-		char[] in = input.toCharArray();
-		for (int i=0;i<in.length;i++) {
-			char current = in[i];
-			switch (current) {
-			case'\"':
-				//Skip over anything in quotes
-				i++;
-				while(in[i]!='\"'){ 
-					name +=in[i];
-					i++;
-				}
-				break;
-			case '+':
-				if (!name.equals(""))
-					out.add(name + "");	
-				name = "";
-				try {
-					while (stack.peek().charValue() != '(')
-						out.add(stack.pop() + "");
-				} catch (EmptyStackException ex) {}
-				stack.push(new Character('+'));
-				break;
-			case '-':
-				if (!name.equals(""))
-					out.add(name + "");	
-				name = "";
-				try {
-					while (stack.peek().charValue()!= '(')
-						out.add(stack.pop() + "");
-				} catch (EmptyStackException ex) {}
-				stack.push(new Character('-'));
-				break;
-			case '/':
-				if (!name.equals(""))
-					out.add(name + "");	
-				name = "";
-				try {
-					while (stack.peek().charValue() != '(' && stack.peek().charValue() != '-' && stack.peek().charValue() != '+')
-						out.add(stack.pop() + "");
-				} catch (EmptyStackException ex) {}
-				stack.push(new Character('/'));
-				break;
-			case '*':
-				if (!name.equals(""))
-					out.add(name + "");
-				name = "";
-				try {
-					while (stack.peek().charValue() != '(' && stack.peek().charValue() != '-' && stack.peek().charValue() != '+')
-						out.add(stack.pop() + "");
-				} catch (EmptyStackException ex) {}
-				stack.push(new Character('*'));
-				break;
-			case '(':
-				stack.push(new Character('('));
-				break;
-			case ')':
-				if (!name.equals(""))
-					out.add(name + "");
-				name = "";
-				try {
-					while (stack.peek().charValue() != '(')
-						out.add(stack.pop() + "");
-					stack.pop();
-				} catch (EmptyStackException ex) {
-					throw new ParsingException ("Unmatched )");
-				}
-				break;
-			case ' ':
-				break;
-			default:
-				name += current;
-				break;
-
-			}
-
-		}
-		if (!name.equals(""))
-			out.add(name + "");
-		name = "";
-		while (!stack.isEmpty())
-			out.add(stack.pop() + "");
-
-		return out;
-	}
-
-	private static boolean isValue(String myString) {
-		try{
-			Double.valueOf(myString);
-			return true;
-		}catch (NumberFormatException ex){
-			return false;
-		}
-	}
-
-	
-	private static double apply(char op, double arg1, double arg2) {
-		double d = 0.0;
-		switch (op) {
-		case ('+'):
-			d = arg1 + arg2;
-		break;
-		case ('-'):
-			if (arg1 > arg2) {
-				d = arg1 - arg2;
-			}
-		break;
-		case ('*'):
-			d = arg1 * arg2;
-		break;
-		case ('/'):
-			if (arg2 != 0) {
-				d = arg1 / arg2;
-				if(Double.isInfinite(d)){
-					return 0.0;
-				}
-			}
-		break;
-		default:
-			throw new ParaProfException("Unexpected operation type: " + op);
+	private static MetricExpression compile(String input) throws ParsingException {
+		try {
+			return MetricExpression.parse(input, true);
+		} catch (ParseException ex) {
+			throw new ParsingException(ex.getMessage(), ex);
 		}
-		return d;
 	}
 
 	private ParaProfMetric findMetric(Object first, ParaProfTrial trial) throws  MetricNotFoundException {
@@ -302,16 +144,6 @@ public static boolean validate(String expression){
 		if(id<0) throw new MetricNotFoundException("Metric \""+first+"\" was not found");
 		return trial.getMetric(id);
 	}
-	private static boolean isOperation(Object op) {
-		if(op instanceof String){
-			String oper = (String)op;
-			char o = oper.charAt(0);
-			return o == '+' || o == '-' || o == '*' || o == '/';
-		}else{
-			return false;
-		}
-
-	}
 	
 	protected ParaProfMetric rename(String newName, ParaProfMetric metric) {
 		metric.setName(newName);
@@ -324,32 +156,64 @@ public static boolean validate(String expression){
 			throw new RuntimeException("Exception while sleeping");
 		}
 	}
-	private ParaProfMetric evaluate(String newName,ParaProfTrial trial,ArrayList<Object> equation) throws ParsingException, MetricNotFoundException{
+
+	/**
+	 * The function profiles of a thread, as the rows of the expression.
+	 */
+	private static class ThreadColumns implements MetricExpression.Columns {
+		private final List<FunctionProfile> profiles = new ArrayList<FunctionProfile>();
+		private final int[] metrics;
+		private final int metric;
+
+		ThreadColumns(Thread thread, int[] metrics, int metric) {
+			this.metrics = metrics;
+			this.metric = metric;
+			for (Iterator<FunctionProfile> l = thread.getFunctionProfileIterator(); l.hasNext();) {
+				FunctionProfile functionProfile = l.next();
+				if (functionProfile != null) {
+					profiles.add(functionProfile);
+				}
+			}
+		}
+
+		public int size() {
+			return profiles.size();
+		}
+
+		public double[] getValues(int variable, boolean inclusive) {
+			int id = metrics[variable];
+			double[] values = new double[profiles.size()];
+			for (int i = 0; i < values.length; i++) {
+				FunctionProfile functionProfile = profiles.get(i);
+				values[i] = inclusive ? functionProfile.getInclusive(id) : functionProfile.getExclusive(id);
+			}
+			return values;
+		}
+
+		public void setValues(double[] inclusive, double[] exclusive) {
+			for (int i = 0; i < inclusive.length; i++) {
+				FunctionProfile functionProfile = profiles.get(i);
+				functionProfile.setInclusive(metric, inclusive[i]);
+				functionProfile.setExclusive(metric, exclusive[i]);
+			}
+		}
+	}
+
+	private ParaProfMetric evaluate(String newName,ParaProfTrial trial,MetricExpression expression) throws ParsingException, MetricNotFoundException{
 		if(trial==null) throw new ParsingException("Null trial");
 		if(newName != null) newName = newName.trim();
-		if(equation.size()==1){
-			return rename(newName, findMetric(equation.get(0),trial));
+		if(expression.isVariable()){
+			return rename(newName, findMetric(expression.getVariables().get(0),trial));
 		}
 		while (trial.loading()) {
 			sleep(500);
 		}
 		
-  		for(int x=0;x<equation.size();x++){
-  			String current = (String)equation.get(x);
-  			if(isOperation(current)){
-  				//Do nothing
-  			}else if (isValue(current)){
-  				Double[] array = {Double.valueOf(current),Double.valueOf(current)};
-  				equation.remove(x);
-  				equation.add(x, array);
-  			}else{
-  				
-  					ParaProfMetric xMetric = findMetric(current,trial);
-  					equation.remove(x);
-  					equation.add(x,xMetric);
-  				
-  			}
-  		}
+		List<String> variables = expression.getVariables();
+		int[] metrics = new int[variables.size()];
+		for(int x=0;x<metrics.length;x++){
+			metrics[x] = findMetric(variables.get(x),trial).getID();
+		}
         ParaProfMetric newMetric = trial.addMetric();
         newMetric.setPpTrial(trial);
         newMetric.setName(newName);
@@ -357,75 +221,17 @@ public static boolean validate(String expression){
         int metric = newMetric.getID();
         //            trialOpA.setSelectedMetricID(metric);
 
-        Iterator<FunctionProfile> l;// = trial.getDataSource().getFunctions();
-
+        List<ThreadColumns> threads = new ArrayList<ThreadColumns>();
         for (Iterator<Thread> it = trial.getDataSource().getAllThreads().iterator(); it.hasNext();) {
-            Thread thread = (Thread) it.next();
-            thread.addMetric();
-            l = thread.getFunctionProfileIterator();
-            while (l.hasNext()) {
-                FunctionProfile functionProfile = (FunctionProfile) l.next();
-                
-                if (functionProfile != null) {
-                    ArrayList<Object> newEquation = new ArrayList<Object>();
-             		for(int x=0;x<equation.size();x++){
-             			Object current = equation.get(x);
-             			if(current instanceof ParaProfMetric){
-             					ParaProfMetric xMetric = (ParaProfMetric )current;
-             					double ex =functionProfile.getExclusive(xMetric.getID());
-             					double in =functionProfile.getInclusive(xMetric.getID());
-             					Double[] array = {new Double(in),new Double(ex)};
-             					newEquation.add(array);
-             			}else{
-             				newEquation.add(current);
-             			}
-             		}
-            		Double[] result = eval(newEquation);
-                    functionProfile.setInclusive(metric, result[0].doubleValue());
-                    functionProfile.setExclusive(metric, result[1].doubleValue());
-                }
-            }
-            thread.setThreadData(metric);
+            threads.add(new ThreadColumns(it.next(), metrics, metric));
         }
+        expression.evaluate(threads);
 
-        //Done with this metric, compute the mean values.
-        trial.setMeanData(metric);
-
-        trial.getDataSource().getMeanDataNoNull().setThreadData(metric);
-        trial.getDataSource().getTotalData().setThreadData(metric);
-        trial.getDataSource().getStdDevDataNoNull().setThreadData(metric);
-        trial.getDataSource().getMinData().setThreadData(metric);
-        trial.getDataSource().getMaxData().setThreadData(metric);
-        trial.getDataSource().getMeanDataAll().setThreadData(metric);
-        trial.getDataSource().getStdDevDataAll().setThreadData(metric);
-        
+        //Done with this metric, compute the max and mean values for just this metric.
+        trial.getDataSource().generateMetricStatistics(metric);
 
         return newMetric;
 	}
-	private Double[] eval(ArrayList<Object> equation) throws ParsingException{
-		int i = 0;
-		
-		while (equation.size() > 1 && equation.size() > i) {
-
-			if (isOperation(equation.get(i))) {
-				try{
-					char oper = ((String)equation.remove(i)).trim().charAt(0);
-					 Double[] second = (Double[])equation.remove(i - 1);
-					 Double[] first = (Double[]) equation.remove(i - 2);
-					i = i - 2;
-					
-					double x = apply(oper,first[0].doubleValue(),second[0].doubleValue());
-					double y = apply(oper,first[1].doubleValue(),second[1].doubleValue());
-					Double[] current = {new Double(x), new Double(y)};
-					equation.add(i, current);
-				}catch(java.lang.ArrayIndexOutOfBoundsException ex){
-					throw new ParsingException();
-				}
-			}
-			i++;
-		}
-		return (Double[])equation.get(0);
-	}
 
 
 	
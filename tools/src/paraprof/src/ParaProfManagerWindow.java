@@ -891,6 +891,9 @@ TreeSelectionListener, TreeWillExpandListener, DBManagerListener {
 			} else {
 				ppTrial.getExperiment().removeTrial(ppTrial);
 				getTreeModel().removeNodeFromParent(ppTrial.getDMTN());
+				if (ppTrial.getDataSource() != null) {
+					ppTrial.getDataSource().close();
+				}
 			}
 		} else if (object instanceof ParaProfTrial[]) {
 						ParaProfTrial[] ppTrials = (ParaProfTrial[]) object;
@@ -2545,7 +2548,10 @@ TreeSelectionListener, TreeWillExpandListener, DBManagerListener {
 					// here?
 					DataSource dbDataSource;
 					if(databaseAPI.getDb().getSchemaVersion() >0 ){
-						dbDataSource = new TAUdbDataSource(databaseAPI);
+						TAUdbDataSource taudbDataSource = new TAUdbDataSource(databaseAPI);
+						// read the threads' profiles when they are displayed
+						taudbDataSource.setLazyLoad(true);
+						dbDataSource = taudbDataSource;
 					}else{
 					dbDataSource = new DBDataSource(databaseAPI);
 					}
@@ -134,7 +134,7 @@ public class ParaProf implements ActionListener {
 		+ "  -f, --filetype <filetype>       Specify type of performance data, options are:\n"
 		+ "                                    profiles (default), pprof, dynaprof, mpip,\n"
 		+ "                                    gprof, psrun, hpm, packed, cube, hpc, ompp\n"
-		+ "                                    snap, perixml, gptl, ipm, google, darshan\n"
+		+ "                                    snap, perixml, gptl, ipm, google, darshan, trace\n"
 		+ "  --range a-b:c                   Load only profiles from the given range(s) of processes\n"
 		+ "                                    Seperate individual ids or dash-defined ranges with colons\n"
 		+ "  -h, --help                      Display this help message\n" + "\n"
@@ -580,6 +580,8 @@ public class ParaProf implements ActionListener {
 		ParaProf.fileType = DataSource.GOOGLE;
 	    } else if (fileTypeString.equals("darshan")){
 	    ParaProf.fileType = DataSource.DARSHAN;
+	    } else if (fileTypeString.equals("trace")) {
+		ParaProf.fileType = DataSource.TRACE;
 	    }
 	    else {
 		System.err.println("Please enter a valid file type.");
@@ -17,6 +17,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -66,6 +68,7 @@ public abstract class DataSource {
     public static final int GOOGLE = 16; //Google PerfTools
     public static final int CUBE3 = 17; // old version of cube3 parser ( own implementation ) 
     public static final int DARSHAN = 18;
+    public static final int TRACE = 19; // TAU traces, replayed into profiles
     public static final int GYRO = 100;
     public static final int GAMESS = 101; // application log data
     public static final String FILE_TYPE_INDEX = "File Type Index";
@@ -73,7 +76,7 @@ public abstract class DataSource {
 
     public static String formatTypeStrings[] = { "ParaProf Packed Profile", "TAU profiles", "TAU Snapshot", "Dynaprof", "MpiP", "HPMToolkit",
             "Gprof", "PSRun", "Tau pprof.dat", "Cube", "HPCToolkit", "ompP", "PERI-XML",
-            "General Purpose Timing Library (GPTL)", "Paraver", "IPM", "Google PerfTools", "Cube 3 (Old parser)", "Darshan" };
+            "General Purpose Timing Library (GPTL)", "Paraver", "IPM", "Google PerfTools", "Cube 3 (Old parser)", "Darshan", "TAU Trace" };
 
     protected static boolean meanIncludeNulls = true;
 
@@ -101,6 +104,7 @@ public abstract class DataSource {
     private List<Thread> allThreads;
 
     private boolean generateIntermediateCallPathData;
+    private boolean generateSampleSummaries = true;
     private boolean reverseDataAvailable;
 
     // just a holder for the output of getMaxNCTNumbers(), makes subsequent calls instantaneous
@@ -129,6 +133,12 @@ public abstract class DataSource {
     protected boolean hasContexts = true;
     protected boolean hasMPI = false;
     private int fileType = DataSource.TAUPROFILE;
+    private boolean compactStorage = Boolean.getBoolean("perfdmf.compactStorage");
+    private int statisticsThreads = Integer.getInteger("perfdmf.statisticsThreads", Runtime.getRuntime().availableProcessors());
+    private ThreadLoadListener threadLoadListener = null;
+    // below this many (function, thread, snapshot) visits the statistics are computed serially
+    private static final long STATISTICS_PARALLEL_THRESHOLD = 100000;
+    private static final int STATISTICS_TASK_SIZE = 16;
     protected boolean derivedProvided=false;
 
 	protected boolean derivedAtomicProvided=false;
@@ -205,10 +215,88 @@ public abstract class DataSource {
         }
     }
 
+    /**
+     * Loads the function and user event profiles of a thread that was created with
+     * Thread.setDataLoaded(false).  Data sources that page in threads on demand must
+     * override this, the default does nothing.
+     * 
+     * @param thread	the thread to load
+     */
+    protected void loadThreadData(Thread thread) {
+        // everything is loaded up front by default
+    }
+
+    /**
+     * Releases whatever the data source holds open to read data on demand, such as the file
+     * or connection that lazily loaded threads are paged in from.  Call it once the data
+     * is no longer used; the default does nothing.
+     */
+    public void close() {
+        // nothing is held open by default
+    }
+
+    /**
+     * Sets a listener to be told about each thread as soon as it has been completely read,
+     * while the rest of the data is still loading.  Only data sources that can tell when a
+     * thread is complete call it (TAU profiles), the others never do.
+     * 
+     * @param threadLoadListener	the listener, or null
+     */
+    public void setThreadLoadListener(ThreadLoadListener threadLoadListener) {
+        this.threadLoadListener = threadLoadListener;
+    }
+
+    public ThreadLoadListener getThreadLoadListener() {
+        return threadLoadListener;
+    }
+
+    /**
+     * Subclasses call this once a thread will not receive any more values from the files,
+     * on the loading thread.
+     */
+    protected void fireThreadLoaded(Thread thread) {
+        if (threadLoadListener != null && thread != null) {
+            threadLoadListener.threadLoaded(thread);
+        }
+    }
+
     public void setMonitored(boolean monitored) {
         this.monitored = monitored;
     }
 
+    /**
+     * When set, each Thread keeps the values of all of its FunctionProfiles in one packed 
+     * primitive array instead of one array per FunctionProfile.  This saves an object and 
+     * an array header per profile, which matters for trials with very many threads and 
+     * timers.  It must be set before any threads are created (i.e. before load()).  The 
+     * default comes from the perfdmf.compactStorage property.
+     * 
+     * @param compactStorage	whether to use packed per-thread storage
+     */
+    public void setCompactStorage(boolean compactStorage) {
+        this.compactStorage = compactStorage;
+    }
+
+    public boolean getCompactStorage() {
+        return compactStorage;
+    }
+
+    /**
+     * Sets the number of worker threads generateStatistics() may use.  The functions are 
+     * divided among the workers, each function is still summed over the threads in order, 
+     * so the results are identical to the serial computation.  The default comes from the 
+     * perfdmf.statisticsThreads property, or the number of processors.  1 disables it.
+     * 
+     * @param statisticsThreads	the number of worker threads
+     */
+    public void setStatisticsThreads(int statisticsThreads) {
+        this.statisticsThreads = statisticsThreads;
+    }
+
+    public int getStatisticsThreads() {
+        return statisticsThreads;
+    }
+
     public Thread getMeanData() {
         return meanData;
     }
@@ -793,7 +881,7 @@ public abstract class DataSource {
 		 * should also generate
 		 * [SUMMARY] foo(float) [{filename.c}]
          */
-        if (!getCallPathDataPresent()) {
+        if (!generateSampleSummaries || !getCallPathDataPresent()) {
             return;
         }
 
@@ -1291,26 +1379,18 @@ public abstract class DataSource {
     		}
     	//}
 
-    	double[] exclSum = new double[numMetrics];
-    	double[] inclSum = new double[numMetrics];
-    	double[] exclSumSqr = new double[numMetrics];
-    	double[] inclSumSqr = new double[numMetrics];
-    	double[] exclMin = new double[numMetrics];
-    	double[] inclMin = new double[numMetrics];
-    	double[] exclMax = new double[numMetrics];
-    	double[] inclMax = new double[numMetrics];
-
     	// make sure that the allThreads list is initialized;
     	this.initAllThreadsList();
 
-    	for (int snapshot = 0; snapshot < meanData.getNumSnapshots(); snapshot++) {
+    	int numSnapshots = meanData.getNumSnapshots();
+    	double topLevelInclSum[] = new double[numMetrics];
+    	for (int snapshot = 0; snapshot < numSnapshots; snapshot++) {
 
     		// must always iterate through all metrics regardless to find the top level timers, I think???
     		for (int i = startMetric; i <= endMetric; i++) { // for each metric
-    			double topLevelInclSum[] = new double[numMetrics];
+    			topLevelInclSum[i] = 0.0;
     			if (derivedProvided) {
     				// the totalData thread doesn't have max values set (yet), so let's find it
-					topLevelInclSum[i] = 0.0;
     	    		for (Iterator<Function> l = this.getFunctionIterator(); l.hasNext();) { // for each function
     	    			Function function = l.next();
     	    			FunctionProfile totalProfile = totalData.getFunctionProfile(function);
@@ -1345,274 +1425,395 @@ public abstract class DataSource {
     			if(stddevDataAll!=null)
     				stddevDataAll.setPercentDivider(i, snapshot, topLevelInclSum[i] / 100.0);
     		}
+    	}
 
-    		for (Iterator<Function> l = this.getFunctionIterator(); l.hasNext();) { // for each function
-    			Function function = l.next();
+    	// The derived profiles are created up front (the threads' profile lists are not
+    	// thread safe), after that every function is independent of the others
+    	List<Function> functions = new ArrayList<Function>(getNumFunctions());
+    	for (Iterator<Function> l = this.getFunctionIterator(); l.hasNext();) {
+    		functions.add(l.next());
+    	}
+    	FunctionProfile derived[][] = new FunctionProfile[functions.size()][];
+    	for (int f = 0; f < functions.size(); f++) { // for each function
+    		Function function = functions.get(f);
+    		// get/create the FunctionProfile for mean
+    		FunctionProfile meanNoNullProfile = meanDataNoNull.getFunctionProfile(function);
+    		if (meanNoNullProfile == null) {
+    			meanNoNullProfile = new FunctionProfile(function, numMetrics, meanDataNoNull.getNumSnapshots());
+    			meanDataNoNull.addFunctionProfile(meanNoNullProfile);
+    		}
+    		// this is the "no null" version...
+    		function.setMeanProfile(meanNoNullProfile);
+
+    		// get/create the FunctionProfile for total
+    		FunctionProfile totalProfile = totalData.getFunctionProfile(function);
+    		if (totalProfile == null) {
+    			totalProfile = new FunctionProfile(function, numMetrics, meanDataNoNull.getNumSnapshots());
+    			totalData.addFunctionProfile(totalProfile);
+    		}
+    		function.setTotalProfile(totalProfile);
 
-    			// get/create the FunctionProfile for mean
-    			FunctionProfile meanNoNullProfile = meanDataNoNull.getFunctionProfile(function);
-    			if (meanNoNullProfile == null) {
-    				meanNoNullProfile = new FunctionProfile(function, numMetrics, meanDataNoNull.getNumSnapshots());
-    				meanDataNoNull.addFunctionProfile(meanNoNullProfile);
-    			}
-    			// this is the "no null" version...
-    			function.setMeanProfile(meanNoNullProfile);
-
-    			// get/create the FunctionProfile for total
-    			FunctionProfile totalProfile = totalData.getFunctionProfile(function);
-    			if (totalProfile == null) {
-    				totalProfile = new FunctionProfile(function, numMetrics, meanDataNoNull.getNumSnapshots());
-    				totalData.addFunctionProfile(totalProfile);
+    		// get/create the FunctionProfile for stddev
+    		FunctionProfile stddevNoNullProfile = stddevDataNoNull.getFunctionProfile(function);
+    		if (stddevNoNullProfile == null) {
+    			stddevNoNullProfile = new FunctionProfile(function, numMetrics, meanDataNoNull.getNumSnapshots());
+    			stddevDataNoNull.addFunctionProfile(stddevNoNullProfile);
+    		}
+    		// this is the "no null" version
+    		function.setStddevProfile(stddevNoNullProfile);
+
+    		FunctionProfile minProfile = null;
+    		FunctionProfile maxProfile = null;
+    		FunctionProfile meanAllProfile = null;
+    		FunctionProfile stddevAllProfile = null;
+    		if(minData!=null){
+    			minProfile = minData.getFunctionProfile(function);
+    			if (minProfile == null) {
+    				minProfile = new FunctionProfile(function, numMetrics, meanDataNoNull.getNumSnapshots());
+    				minData.addFunctionProfile(minProfile);
     			}
-    			function.setTotalProfile(totalProfile);
+    			function.setMinProfile(minProfile);
+    		}
 
-    			// get/create the FunctionProfile for stddev
-    			FunctionProfile stddevNoNullProfile = stddevDataNoNull.getFunctionProfile(function);
-    			if (stddevNoNullProfile == null) {
-    				stddevNoNullProfile = new FunctionProfile(function, numMetrics, meanDataNoNull.getNumSnapshots());
-    				stddevDataNoNull.addFunctionProfile(stddevNoNullProfile);
-    			}
-    			// this is the "no null" version
-    			function.setStddevProfile(stddevNoNullProfile);
-
-    			FunctionProfile minProfile = null;
-    			FunctionProfile maxProfile = null;
-    			FunctionProfile meanAllProfile = null;
-    			FunctionProfile stddevAllProfile = null;
-    			if(minData!=null){
-    				minProfile = minData.getFunctionProfile(function);
-    				if (minProfile == null) {
-    					minProfile = new FunctionProfile(function, numMetrics, meanDataNoNull.getNumSnapshots());
-    					minData.addFunctionProfile(minProfile);
-    				}
-    				function.setMinProfile(minProfile);
+    		if(maxData!=null){
+    			maxProfile = maxData.getFunctionProfile(function);
+    			if (maxProfile == null) {
+    				maxProfile = new FunctionProfile(function, numMetrics, meanDataNoNull.getNumSnapshots());
+    				maxData.addFunctionProfile(maxProfile);
     			}
+    			function.setMaxProfile(maxProfile);
+    		}
 
-    			if(maxData!=null){
-    				maxProfile = maxData.getFunctionProfile(function);
-    				if (maxProfile == null) {
-    					maxProfile = new FunctionProfile(function, numMetrics, meanDataNoNull.getNumSnapshots());
-    					maxData.addFunctionProfile(maxProfile);
-    				}
-    				function.setMaxProfile(maxProfile);
+    		if(stddevDataAll!=null){
+    			stddevAllProfile = stddevDataAll.getFunctionProfile(function);
+    			if (stddevAllProfile == null) {
+    				stddevAllProfile = new FunctionProfile(function, numMetrics, meanDataNoNull.getNumSnapshots());
+    				stddevDataAll.addFunctionProfile(stddevAllProfile);
     			}
+    			function.setStddevAllProfile(stddevAllProfile);
+    		}
 
-    			if(stddevDataAll!=null){
-    				stddevAllProfile = stddevDataAll.getFunctionProfile(function);
-    				if (stddevAllProfile == null) {
-    					stddevAllProfile = new FunctionProfile(function, numMetrics, meanDataNoNull.getNumSnapshots());
-    					stddevDataAll.addFunctionProfile(stddevAllProfile);
-    				}
-    				function.setStddevAllProfile(stddevAllProfile);
+    		if(meanDataAll!=null){
+    			meanAllProfile = meanDataAll.getFunctionProfile(function);
+    			if (meanAllProfile == null) {
+    				meanAllProfile = new FunctionProfile(function, numMetrics, meanDataNoNull.getNumSnapshots());
+    				meanDataAll.addFunctionProfile(meanAllProfile);
     			}
+    			function.setMeanAllProfile(meanAllProfile);
+    		}
+
+    		derived[f] = new FunctionProfile[] { totalProfile, meanNoNullProfile, stddevNoNullProfile, minProfile, maxProfile,
+    				meanAllProfile, stddevAllProfile };
+    	}
 
-    			if(meanDataAll!=null){
-    				meanAllProfile = meanDataAll.getFunctionProfile(function);
-    				if (meanAllProfile == null) {
-    					meanAllProfile = new FunctionProfile(function, numMetrics, meanDataNoNull.getNumSnapshots());
-    					meanDataAll.addFunctionProfile(meanAllProfile);
-    				}
-    				function.setMeanAllProfile(meanAllProfile);
+    	if (!derivedProvided || generateTAUdbStatistics) {
+    		StatisticsTask task = new StatisticsTask(functions, derived, 0, functions.size(), startMetric, endMetric);
+    		int parallelism = statisticsThreads;
+    		if (parallelism > 1 && (long) functions.size() * allThreads.size() * numSnapshots > STATISTICS_PARALLEL_THRESHOLD) {
+    			ForkJoinPool pool = new ForkJoinPool(parallelism);
+    			try {
+    				pool.invoke(task);
+    			} finally {
+    				pool.shutdown();
     			}
+    		} else {
+    			task.compute();
+    		}
+    	}
 
-    			if(!derivedProvided || generateTAUdbStatistics){
-    				int numEvents = 0;
-    				double callSum = 0;
-    				double subrSum = 0;
-    				double callSumSqr = 0;
-    				double subrSumSqr = 0;
-    				double callMin = Double.MAX_VALUE;
-    				double subrMin = Double.MAX_VALUE;
-    				double callMax = 0;
-    				double subrMax = 0;
-    				for (int i = 0; i < numMetrics; i++) {
-    					exclSum[i] = 0;
-    					inclSum[i] = 0;
-    					exclSumSqr[i] = 0;
-    					inclSumSqr[i] = 0;
-    					exclMin[i] = Double.MAX_VALUE;
-    					inclMin[i] = Double.MAX_VALUE;
-    					exclMax[i] = 0;
-    					inclMax[i] = 0;
-    				}
-
-    				int numThreads = allThreads.size();
-
-    				for (int i = 0; i < numThreads; i++) { // for each thread
-    					Thread thread = allThreads.get(i);
-						FunctionProfile functionProfile = thread.getFunctionProfile(function);
-
-						int s = snapshot;
-						if (!wellBehavedSnapshots) {
-							s = thread.getNumSnapshots() - 1;
-						}
-						if (functionProfile != null) { // only if this function was called for this nct
-							numEvents++;
-							for (int m = startMetric; m <= endMetric; m++) {
-
-								exclSum[m] += functionProfile.getExclusive(s, m);
-								inclSum[m] += functionProfile.getInclusive(s, m);
-								exclSumSqr[m] += functionProfile.getExclusive(s, m) * functionProfile.getExclusive(s, m);
-								inclSumSqr[m] += functionProfile.getInclusive(s, m) * functionProfile.getInclusive(s, m);
-								exclMin[m] = (functionProfile.getExclusive(s, m) < exclMin[m]) ? functionProfile.getExclusive(s, m) : exclMin[m];
-								inclMin[m] = (functionProfile.getInclusive(s, m) < inclMin[m]) ? functionProfile.getInclusive(s, m) : inclMin[m];
-								exclMax[m] = (functionProfile.getExclusive(s, m) > exclMax[m]) ? functionProfile.getExclusive(s, m) : exclMax[m];
-								inclMax[m] = (functionProfile.getInclusive(s, m) > inclMax[m]) ? functionProfile.getInclusive(s, m) : inclMax[m];
-
-								// the same for every metric
-								if (m == 0) {
-									callSum += functionProfile.getNumCalls(s);
-									subrSum += functionProfile.getNumSubr(s);
-									callSumSqr += functionProfile.getNumCalls(s) * functionProfile.getNumCalls(s);
-									subrSumSqr += functionProfile.getNumSubr(s) * functionProfile.getNumSubr(s);
-									callMin = (functionProfile.getNumCalls(s) < callMin) ? functionProfile.getNumCalls(s) : callMin; 
-									subrMin = (functionProfile.getNumSubr(s) < subrMin) ? functionProfile.getNumSubr(s) : subrMin; 
-									callMax = (functionProfile.getNumCalls(s) > callMax) ? functionProfile.getNumCalls(s) : callMax; 
-									subrMax = (functionProfile.getNumSubr(s) > subrMax) ? functionProfile.getNumSubr(s) : subrMax; 
-								}
-							}
-						}
+    	// Now we count up whether we have threads and contexts or not, this is for display purposes in ParaProf
+    	int[] nct = getMaxNCTNumbers();
+    	hasContexts = nct[1] > 0;
+    	hasThreads = nct[2] > 0;
+
+    }
+
+    /**
+     * Computes the statistics for one metric that was added after the trial was loaded (a
+     * derived metric, for example).  Only the new column is visited: the other metrics of the
+     * threads and of the mean, total, etc. are left as they are.  The values of the metric
+     * must already be set on each thread's function profiles.
+     * 
+     * @param metric	the id of the new metric
+     */
+    public void generateMetricStatistics(int metric) {
+        for (Iterator<Thread> it = getAllThreads().iterator(); it.hasNext();) {
+            it.next().setThreadData(metric);
+        }
+
+        // the statistics for the new metric can't have come from the file
+        boolean provided = derivedProvided;
+        derivedProvided = false;
+        try {
+            generateStatistics(metric, metric);
+        } finally {
+            derivedProvided = provided;
+        }
+
+        Thread aggregates[] = { meanDataNoNull, totalData, stddevDataNoNull, minData, maxData, meanDataAll, stddevDataAll };
+        for (int i = 0; i < aggregates.length; i++) {
+            if (aggregates[i] != null) {
+                aggregates[i].setThreadData(metric);
+            }
+        }
+    }
+
+    /**
+     * Computes the total, mean, min, max and standard deviation profiles of one function for
+     * one snapshot from every thread.  The threads are always visited in the same order, so
+     * the sums (and therefore the results) do not depend on how the functions are split up.
+     */
+    private void generateFunctionStatistics(Function function, FunctionProfile derived[], int snapshot, int startMetric,
+            int endMetric, double exclSum[], double inclSum[], double exclSumSqr[], double inclSumSqr[], double exclMin[],
+            double inclMin[], double exclMax[], double inclMax[]) {
+        int numMetrics = this.getNumberOfMetrics();
+        List<Thread> allThreads = this.getAllThreads();
+        FunctionProfile totalProfile = derived[0];
+        FunctionProfile meanNoNullProfile = derived[1];
+        FunctionProfile stddevNoNullProfile = derived[2];
+        FunctionProfile minProfile = derived[3];
+        FunctionProfile maxProfile = derived[4];
+        FunctionProfile meanAllProfile = derived[5];
+        FunctionProfile stddevAllProfile = derived[6];
+
+    	int numEvents = 0;
+    	double callSum = 0;
+    	double subrSum = 0;
+    	double callSumSqr = 0;
+    	double subrSumSqr = 0;
+    	double callMin = Double.MAX_VALUE;
+    	double subrMin = Double.MAX_VALUE;
+    	double callMax = 0;
+    	double subrMax = 0;
+    	for (int i = 0; i < numMetrics; i++) {
+    		exclSum[i] = 0;
+    		inclSum[i] = 0;
+    		exclSumSqr[i] = 0;
+    		inclSumSqr[i] = 0;
+    		exclMin[i] = Double.MAX_VALUE;
+    		inclMin[i] = Double.MAX_VALUE;
+    		exclMax[i] = 0;
+    		inclMax[i] = 0;
+    	}
+
+    	int numThreads = allThreads.size();
+
+    	for (int i = 0; i < numThreads; i++) { // for each thread
+    		Thread thread = allThreads.get(i);
+			FunctionProfile functionProfile = thread.getFunctionProfile(function);
+
+			int s = snapshot;
+			if (!wellBehavedSnapshots) {
+				s = thread.getNumSnapshots() - 1;
+			}
+			if (functionProfile != null) { // only if this function was called for this nct
+				numEvents++;
+				for (int m = startMetric; m <= endMetric; m++) {
+
+					exclSum[m] += functionProfile.getExclusive(s, m);
+					inclSum[m] += functionProfile.getInclusive(s, m);
+					exclSumSqr[m] += functionProfile.getExclusive(s, m) * functionProfile.getExclusive(s, m);
+					inclSumSqr[m] += functionProfile.getInclusive(s, m) * functionProfile.getInclusive(s, m);
+					exclMin[m] = (functionProfile.getExclusive(s, m) < exclMin[m]) ? functionProfile.getExclusive(s, m) : exclMin[m];
+					inclMin[m] = (functionProfile.getInclusive(s, m) < inclMin[m]) ? functionProfile.getInclusive(s, m) : inclMin[m];
+					exclMax[m] = (functionProfile.getExclusive(s, m) > exclMax[m]) ? functionProfile.getExclusive(s, m) : exclMax[m];
+					inclMax[m] = (functionProfile.getInclusive(s, m) > inclMax[m]) ? functionProfile.getInclusive(s, m) : inclMax[m];
+
+					// the same for every metric
+					if (m == 0) {
+						callSum += functionProfile.getNumCalls(s);
+						subrSum += functionProfile.getNumSubr(s);
+						callSumSqr += functionProfile.getNumCalls(s) * functionProfile.getNumCalls(s);
+						subrSumSqr += functionProfile.getNumSubr(s) * functionProfile.getNumSubr(s);
+						callMin = (functionProfile.getNumCalls(s) < callMin) ? functionProfile.getNumCalls(s) : callMin; 
+						subrMin = (functionProfile.getNumSubr(s) < subrMin) ? functionProfile.getNumSubr(s) : subrMin; 
+						callMax = (functionProfile.getNumCalls(s) > callMax) ? functionProfile.getNumCalls(s) : callMax; 
+						subrMax = (functionProfile.getNumSubr(s) > subrMax) ? functionProfile.getNumSubr(s) : subrMax; 
+					}
+				}
+			}
  else if (i == numThreads - 1) {
-							// If we don't have this function on any thread the
-							// default values need to be zero, not max-int
-							for (int m = startMetric; m <= endMetric; m++) {
-								if (exclMin[m] == Double.MAX_VALUE) {
-									exclMin[m] = 0;
-								}
-								if (inclMin[m] == Double.MAX_VALUE) {
-									inclMin[m] = 0;
-								}
-								if (m == 0) {
-									if (callMin == Double.MAX_VALUE) {
-										callMin = 0;
-									}
-									if (subrMin == Double.MAX_VALUE) {
-										subrMin = 0;
-									}
-								}
-
-							}
+				// If we don't have this function on any thread the
+				// default values need to be zero, not max-int
+				for (int m = startMetric; m <= endMetric; m++) {
+					if (exclMin[m] == Double.MAX_VALUE) {
+						exclMin[m] = 0;
+					}
+					if (inclMin[m] == Double.MAX_VALUE) {
+						inclMin[m] = 0;
+					}
+					if (m == 0) {
+						if (callMin == Double.MAX_VALUE) {
+							callMin = 0;
+						}
+						if (subrMin == Double.MAX_VALUE) {
+							subrMin = 0;
 						}
-    				}
-					// We were having trouble with divison by zero, plus it's
-					// faster to divide once and then multiply.
-    				//int allDivider = numThreads;
-    				int noNullDivider = numEvents;
-					double allRecip = 0;
-					if (numThreads != 0) {
-						allRecip = 1.0 / (double) numThreads;
 					}
-					double noNullRecip = 0;
-					if (numEvents != 0) {
-						noNullRecip = 1.0 / (double) numEvents;
-    				}
-
-    				// we don't want to set the calls and subroutines if we're just computing mean data for a derived metric!
-    				if (startMetric == 0) {
-
-    					totalProfile.setNumCalls(snapshot, callSum);
-    					totalProfile.setNumSubr(snapshot, subrSum);
-
-    					// mean is just the total / divider
-						meanNoNullProfile.setNumCalls(snapshot,
-								(double) callSum * noNullRecip);
-						meanAllProfile.setNumCalls(snapshot, (double) callSum
-								* allRecip);
-						meanNoNullProfile.setNumSubr(snapshot, (double) subrSum
-								* noNullRecip);
-						meanAllProfile.setNumSubr(snapshot, (double) subrSum
-								* allRecip);
-
-    					double stdDev = 0;
-    					if (noNullDivider > 1) {
-							stdDev = java.lang.Math
-									.sqrt(java.lang.Math.abs((callSumSqr * (noNullRecip))
-    								- (meanNoNullProfile.getNumCalls(snapshot) * meanNoNullProfile.getNumCalls(snapshot))));
-    						stddevNoNullProfile.setNumCalls(snapshot, stdDev);
-							stdDev = java.lang.Math
-									.sqrt(java.lang.Math.abs((subrSumSqr * (noNullRecip))
-    								- (meanNoNullProfile.getNumSubr(snapshot) * meanNoNullProfile.getNumSubr(snapshot))));
+
+				}
+			}
+    	}
+		// We were having trouble with divison by zero, plus it's
+		// faster to divide once and then multiply.
+    	//int allDivider = numThreads;
+    	int noNullDivider = numEvents;
+		double allRecip = 0;
+		if (numThreads != 0) {
+			allRecip = 1.0 / (double) numThreads;
+		}
+		double noNullRecip = 0;
+		if (numEvents != 0) {
+			noNullRecip = 1.0 / (double) numEvents;
+    	}
+
+    	// we don't want to set the calls and subroutines if we're just computing mean data for a derived metric!
+    	if (startMetric == 0) {
+
+    		totalProfile.setNumCalls(snapshot, callSum);
+    		totalProfile.setNumSubr(snapshot, subrSum);
+
+    		// mean is just the total / divider
+			meanNoNullProfile.setNumCalls(snapshot,
+					(double) callSum * noNullRecip);
+			meanAllProfile.setNumCalls(snapshot, (double) callSum
+					* allRecip);
+			meanNoNullProfile.setNumSubr(snapshot, (double) subrSum
+					* noNullRecip);
+			meanAllProfile.setNumSubr(snapshot, (double) subrSum
+					* allRecip);
+
+    		double stdDev = 0;
+    		if (noNullDivider > 1) {
+				stdDev = java.lang.Math
+						.sqrt(java.lang.Math.abs((callSumSqr * (noNullRecip))
+    					- (meanNoNullProfile.getNumCalls(snapshot) * meanNoNullProfile.getNumCalls(snapshot))));
+    			stddevNoNullProfile.setNumCalls(snapshot, stdDev);
+				stdDev = java.lang.Math
+						.sqrt(java.lang.Math.abs((subrSumSqr * (noNullRecip))
+    					- (meanNoNullProfile.getNumSubr(snapshot) * meanNoNullProfile.getNumSubr(snapshot))));
         					stddevNoNullProfile.setNumSubr(snapshot, stdDev);
-    					} else {
-    						stddevNoNullProfile.setNumCalls(snapshot, 0.0);
+    		} else {
+    			stddevNoNullProfile.setNumCalls(snapshot, 0.0);
         					stddevNoNullProfile.setNumSubr(snapshot, 0.0);
-    					}
-
-						meanAllProfile.setNumCalls(snapshot, (double) callSum
-								* allRecip);
-						meanAllProfile.setNumSubr(snapshot, (double) subrSum
-								* allRecip);
-						stdDev = java.lang.Math
-								.sqrt(java.lang.Math.abs((callSumSqr * (allRecip))
-								- (meanAllProfile.getNumCalls(snapshot) * meanAllProfile.getNumCalls(snapshot))));
-						stddevAllProfile.setNumCalls(snapshot, stdDev);
-						stdDev = java.lang.Math
-								.sqrt(java.lang.Math.abs((subrSumSqr * (allRecip))
-								- (meanAllProfile.getNumSubr(snapshot) * meanAllProfile.getNumSubr(snapshot))));
-						stddevAllProfile.setNumSubr(snapshot, stdDev);
-						minProfile.setNumCalls(snapshot, callMin);
-						maxProfile.setNumCalls(snapshot, callMax);
-						minProfile.setNumSubr(snapshot, subrMin);
-						maxProfile.setNumSubr(snapshot, subrMax);
-    				}
-
-    				for (int m = startMetric; m <= endMetric; m++) {
-
-    					totalProfile.setExclusive(snapshot, m, exclSum[m]);
-    					totalProfile.setInclusive(snapshot, m, inclSum[m]);
-
-    					// mean data computed as above in comments
-						meanNoNullProfile.setExclusive(snapshot, m, exclSum[m]
-								* noNullRecip);
-						meanNoNullProfile.setInclusive(snapshot, m, inclSum[m]
-								* noNullRecip);
-
-    					double stdDev = 0;
-    					if (noNullDivider > 1) {
-    						// see http://cuwu.editthispage.com/stories/storyReader$13 for why I don't multiply by n/(n-1)
-
-    						//stdDev = java.lang.Math.sqrt(((double) divider / (divider - 1))
-    						//        * java.lang.Math.abs((exclSumSqr[i] / (divider))
-    						//                - (meanProfile.getExclusive(i) * meanProfile.getExclusive(i))));
-							stdDev = java.lang.Math
-									.sqrt(java.lang.Math.abs((exclSumSqr[m] * (noNullRecip))
-    								- (meanNoNullProfile.getExclusive(snapshot, m) * meanNoNullProfile.getExclusive(snapshot, m))));
+    		}
+
+			meanAllProfile.setNumCalls(snapshot, (double) callSum
+					* allRecip);
+			meanAllProfile.setNumSubr(snapshot, (double) subrSum
+					* allRecip);
+			stdDev = java.lang.Math
+					.sqrt(java.lang.Math.abs((callSumSqr * (allRecip))
+					- (meanAllProfile.getNumCalls(snapshot) * meanAllProfile.getNumCalls(snapshot))));
+			stddevAllProfile.setNumCalls(snapshot, stdDev);
+			stdDev = java.lang.Math
+					.sqrt(java.lang.Math.abs((subrSumSqr * (allRecip))
+					- (meanAllProfile.getNumSubr(snapshot) * meanAllProfile.getNumSubr(snapshot))));
+			stddevAllProfile.setNumSubr(snapshot, stdDev);
+			minProfile.setNumCalls(snapshot, callMin);
+			maxProfile.setNumCalls(snapshot, callMax);
+			minProfile.setNumSubr(snapshot, subrMin);
+			maxProfile.setNumSubr(snapshot, subrMax);
+    	}
+
+    	for (int m = startMetric; m <= endMetric; m++) {
+
+    		totalProfile.setExclusive(snapshot, m, exclSum[m]);
+    		totalProfile.setInclusive(snapshot, m, inclSum[m]);
+
+    		// mean data computed as above in comments
+			meanNoNullProfile.setExclusive(snapshot, m, exclSum[m]
+					* noNullRecip);
+			meanNoNullProfile.setInclusive(snapshot, m, inclSum[m]
+					* noNullRecip);
+
+    		double stdDev = 0;
+    		if (noNullDivider > 1) {
+    			// see http://cuwu.editthispage.com/stories/storyReader$13 for why I don't multiply by n/(n-1)
+
+    			//stdDev = java.lang.Math.sqrt(((double) divider / (divider - 1))
+    			//        * java.lang.Math.abs((exclSumSqr[i] / (divider))
+    			//                - (meanProfile.getExclusive(i) * meanProfile.getExclusive(i))));
+				stdDev = java.lang.Math
+						.sqrt(java.lang.Math.abs((exclSumSqr[m] * (noNullRecip))
+    					- (meanNoNullProfile.getExclusive(snapshot, m) * meanNoNullProfile.getExclusive(snapshot, m))));
         					stddevNoNullProfile.setExclusive(snapshot, m, stdDev);
-							stdDev = java.lang.Math
-									.sqrt(java.lang.Math.abs((inclSumSqr[m] * (noNullRecip))
-    								- (meanNoNullProfile.getInclusive(snapshot, m) * meanNoNullProfile.getInclusive(snapshot, m))));
+				stdDev = java.lang.Math
+						.sqrt(java.lang.Math.abs((inclSumSqr[m] * (noNullRecip))
+    					- (meanNoNullProfile.getInclusive(snapshot, m) * meanNoNullProfile.getInclusive(snapshot, m))));
         					stddevNoNullProfile.setInclusive(snapshot, m, stdDev);
-    					} else {
-    						stddevNoNullProfile.setExclusive(snapshot, m, 0.0);
+    		} else {
+    			stddevNoNullProfile.setExclusive(snapshot, m, 0.0);
         					stddevNoNullProfile.setInclusive(snapshot, m, 0.0);
-    					}
-
-						meanAllProfile.setExclusive(snapshot, m, exclSum[m]
-								* allRecip);
-						meanAllProfile.setInclusive(snapshot, m, inclSum[m]
-								* allRecip);
-						stdDev = java.lang.Math.sqrt(java.lang.Math
-								.abs((exclSumSqr[m] * (allRecip))
-								- (meanAllProfile.getExclusive(snapshot, m) * meanAllProfile.getExclusive(snapshot, m))));
-    					stddevAllProfile.setExclusive(snapshot, m, stdDev);
-						stdDev = java.lang.Math.sqrt(java.lang.Math
-								.abs((inclSumSqr[m] * (allRecip))
-								- (meanAllProfile.getInclusive(snapshot, m) * meanAllProfile.getInclusive(snapshot, m))));
-						stddevAllProfile.setInclusive(snapshot, m, stdDev);
-						minProfile.setExclusive(snapshot,  m, exclMin[m]);
-						minProfile.setInclusive(snapshot,  m, inclMin[m]);
-						maxProfile.setExclusive(snapshot,  m, exclMax[m]);
-						maxProfile.setInclusive(snapshot,  m, inclMax[m]);
-    				} // metrics
-    			}// if statistics not provided
-    		}  // for each function
-    	} // for each snapshot
+    		}
 
-    	// Now we count up whether we have threads and contexts or not, this is for display purposes in ParaProf
-    	int[] nct = getMaxNCTNumbers();
-    	hasContexts = nct[1] > 0;
-    	hasThreads = nct[2] > 0;
+			meanAllProfile.setExclusive(snapshot, m, exclSum[m]
+					* allRecip);
+			meanAllProfile.setInclusive(snapshot, m, inclSum[m]
+					* allRecip);
+			stdDev = java.lang.Math.sqrt(java.lang.Math
+					.abs((exclSumSqr[m] * (allRecip))
+					- (meanAllProfile.getExclusive(snapshot, m) * meanAllProfile.getExclusive(snapshot, m))));
+    		stddevAllProfile.setExclusive(snapshot, m, stdDev);
+			stdDev = java.lang.Math.sqrt(java.lang.Math
+					.abs((inclSumSqr[m] * (allRecip))
+					- (meanAllProfile.getInclusive(snapshot, m) * meanAllProfile.getInclusive(snapshot, m))));
+			stddevAllProfile.setInclusive(snapshot, m, stdDev);
+			minProfile.setExclusive(snapshot,  m, exclMin[m]);
+			minProfile.setInclusive(snapshot,  m, inclMin[m]);
+			maxProfile.setExclusive(snapshot,  m, exclMax[m]);
+			maxProfile.setInclusive(snapshot,  m, inclMax[m]);
+    	} // metrics
+    }
 
+    /**
+     * Fork/join task for generateStatistics(), splits the function list in half until the
+     * pieces are small and then computes every snapshot of each of its functions in one pass.
+     */
+    private class StatisticsTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private List<Function> functions;
+        private FunctionProfile derived[][];
+        private int start;
+        private int end;
+        private int startMetric;
+        private int endMetric;
+
+        StatisticsTask(List<Function> functions, FunctionProfile derived[][], int start, int end, int startMetric, int endMetric) {
+            this.functions = functions;
+            this.derived = derived;
+            this.start = start;
+            this.end = end;
+            this.startMetric = startMetric;
+            this.endMetric = endMetric;
+        }
+
+        protected void compute() {
+            if (end - start > STATISTICS_TASK_SIZE && getPool() != null) {
+                int middle = (start + end) >>> 1;
+                invokeAll(new StatisticsTask(functions, derived, start, middle, startMetric, endMetric), new StatisticsTask(
+                        functions, derived, middle, end, startMetric, endMetric));
+                return;
+            }
+
+            int numMetrics = getNumberOfMetrics();
+            double[] exclSum = new double[numMetrics];
+            double[] inclSum = new double[numMetrics];
+            double[] exclSumSqr = new double[numMetrics];
+            double[] inclSumSqr = new double[numMetrics];
+            double[] exclMin = new double[numMetrics];
+            double[] inclMin = new double[numMetrics];
+            double[] exclMax = new double[numMetrics];
+            double[] inclMax = new double[numMetrics];
+            int numSnapshots = meanDataNoNull.getNumSnapshots();
+            for (int f = start; f < end; f++) {
+                for (int snapshot = 0; snapshot < numSnapshots; snapshot++) {
+                    generateFunctionStatistics(functions.get(f), derived[f], snapshot, startMetric, endMetric, exclSum, inclSum,
+                            exclSumSqr, inclSumSqr, exclMin, inclMin, exclMax, inclMax);
+                }
+            }
+        }
     }
 
     /**
@@ -1909,6 +2110,18 @@ public abstract class DataSource {
         this.generateIntermediateCallPathData = generateIntermediateCallPathData;
     }
 
+    public boolean getGenerateSampleSummaries() {
+        return generateSampleSummaries;
+    }
+
+    /**
+     * Whether generateDerivedData() adds the [SUMMARY] functions that sum the [SAMPLE]
+     * and [UNWIND] profiles of each source file.  On by default.
+     */
+    public void setGenerateSampleSummaries(boolean generateSampleSummaries) {
+        this.generateSampleSummaries = generateSampleSummaries;
+    }
+
     public boolean getReverseDataAvailable() {
         return reverseDataAvailable;
     }
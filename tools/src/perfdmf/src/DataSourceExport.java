@@ -10,6 +10,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
@@ -22,6 +23,23 @@ import edu.uoregon.tau.common.MetaDataMap.MetaDataValue;
 
 public class DataSourceExport {
 
+	/**
+	 * First packed profile version that is written uncompressed, with an index of fixed width
+	 * thread blocks, so that it can be memory mapped and read one thread at a time.
+	 */
+	public static final int PACKED_INDEXED_VERSION = 3;
+
+	// sizes of the fixed width records in an indexed packed profile
+	static final int INDEXED_ENTRY_SIZE = 8 + 4 + 4;
+
+	static int getIndexedFunctionProfileSize(int numMetrics, int numSnapshots) {
+		return 4 + (numSnapshots * ((2 * 8) + (numMetrics * 2 * 8)));
+	}
+
+	static int getIndexedUserEventProfileSize(int numSnapshots) {
+		return 4 + (numSnapshots * 6 * 8);
+	}
+
 	private static int findGroupID(Group groups[], Group group) {
 		for (int i = 0; i < groups.length; i++) {
 			if (groups[i] == group) {
@@ -117,6 +135,188 @@ public class DataSourceExport {
 		writePacked(dataSource, ostream);
 	}
 
+	/**
+	 * Writes a packed profile in the given format version.  Versions before
+	 * PACKED_INDEXED_VERSION are written with writePacked(DataSource, OutputStream).
+	 */
+	public static void writePacked(DataSource dataSource, File file, int version)
+			throws FileNotFoundException, IOException {
+		if (version >= PACKED_INDEXED_VERSION) {
+			writeIndexedPacked(dataSource, file);
+		} else {
+			writePacked(dataSource, file);
+		}
+	}
+
+	private static void writeMetaData(DataOutputStream out, MetaDataMap metaData) throws IOException {
+		if (metaData == null) {
+			out.writeInt(0);
+			return;
+		}
+		out.writeInt(metaData.size());
+		for (Iterator<MetaDataKey> it = metaData.keySet().iterator(); it.hasNext();) {
+			MetaDataKey key = it.next();
+			MetaDataValue value = metaData.get(key);
+			out.writeUTF(key.name);
+			out.writeUTF(value.value.toString());
+		}
+	}
+
+	/*
+	 * Version 3 layout (all big endian, uncompressed):
+	 * 
+	 *   'P' 'P' 'K' (chars), version (int), compatible version (int)
+	 *   header size (int), header: trial meta-data, metric names, group names, 
+	 *     function names (and groups), user event names, then for each thread
+	 *     (aggregate threads first): node, context, thread, meta-data, and the
+	 *     name and timestamp of each snapshot
+	 *   index: for each thread, the offset of its block (long), number of 
+	 *     function profiles (int), number of user event profiles (int)
+	 *   blocks: for each thread, fixed width function profile records
+	 *     (id, then for each snapshot calls, subr, excl/incl for each metric) followed
+	 *     by fixed width user event profile records (id, then for each snapshot
+	 *     samples, min, max, mean, sumsqr, stddev)
+	 */
+	private static void writeIndexedPacked(DataSource dataSource, File file) throws IOException {
+		int numMetrics = dataSource.getNumberOfMetrics();
+		List<Function> functionList = dataSource.getFunctions();
+		List<UserEvent> userEventList = dataSource.getUserEvents();
+		Function functions[] = functionList.toArray(new Function[functionList.size()]);
+		UserEvent userEvents[] = userEventList.toArray(new UserEvent[userEventList.size()]);
+
+		// the aggregate threads go in the file, so a reader can show them without touching the rest
+		List<Thread> threads = new ArrayList<Thread>();
+		Thread derived[] = { dataSource.getMeanDataNoNull(), dataSource.getTotalData(),
+				dataSource.getStdDevDataNoNull(), dataSource.getMinData(), dataSource.getMaxData(),
+				dataSource.getMeanDataAll(), dataSource.getStdDevDataAll() };
+		for (int i = 0; i < derived.length; i++) {
+			if (derived[i] != null) {
+				threads.add(derived[i]);
+			}
+		}
+		threads.addAll(dataSource.getAllThreads());
+
+		ByteArrayOutputStream headerStream = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(headerStream);
+		writeMetaData(header, dataSource.getMetaData());
+
+		header.writeInt(numMetrics);
+		for (int i = 0; i < numMetrics; i++) {
+			header.writeUTF(dataSource.getMetricName(i));
+		}
+
+		Group groups[] = new Group[dataSource.getNumGroups()];
+		header.writeInt(groups.length);
+		int idx = 0;
+		for (Iterator<Group> it = dataSource.getGroups(); it.hasNext();) {
+			Group group = it.next();
+			header.writeUTF(group.getName());
+			groups[idx++] = group;
+		}
+
+		header.writeInt(functions.length);
+		for (int i = 0; i < functions.length; i++) {
+			header.writeUTF(functions[i].getName());
+			List<Group> thisGroups = functions[i].getGroups();
+			if (thisGroups == null) {
+				header.writeInt(0);
+			} else {
+				header.writeInt(thisGroups.size());
+				for (int j = 0; j < thisGroups.size(); j++) {
+					header.writeInt(findGroupID(groups, thisGroups.get(j)));
+				}
+			}
+		}
+
+		header.writeInt(userEvents.length);
+		for (int i = 0; i < userEvents.length; i++) {
+			header.writeUTF(userEvents[i].getName());
+		}
+
+		header.writeInt(threads.size());
+		for (Iterator<Thread> it = threads.iterator(); it.hasNext();) {
+			Thread thread = it.next();
+			header.writeInt(thread.getNodeID());
+			header.writeInt(thread.getContextID());
+			header.writeInt(thread.getThreadID());
+			writeMetaData(header, thread.getNodeID() >= 0 ? thread.getMetaData() : null);
+			header.writeInt(thread.getNumSnapshots());
+			for (int s = 0; s < thread.getNumSnapshots(); s++) {
+				Snapshot snapshot = thread.getSnapshots().get(s);
+				header.writeUTF(snapshot.getName());
+				header.writeLong(snapshot.getTimestamp());
+			}
+		}
+		header.close();
+
+		DataOutputStream p = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+
+		p.writeChar('P');
+		p.writeChar('P');
+		p.writeChar('K');
+		p.writeInt(PACKED_INDEXED_VERSION);
+		p.writeInt(PACKED_INDEXED_VERSION);
+		p.writeInt(header.size());
+		p.write(headerStream.toByteArray());
+
+		// write the index, the blocks follow it directly
+		long offset = (3 * 2) + 4 + 4 + 4 + header.size() + ((long) threads.size() * INDEXED_ENTRY_SIZE);
+		int counts[][] = new int[threads.size()][2];
+		for (int t = 0; t < threads.size(); t++) {
+			Thread thread = threads.get(t);
+			for (int i = 0; i < functions.length; i++) {
+				if (thread.getFunctionProfile(functions[i]) != null) {
+					counts[t][0]++;
+				}
+			}
+			for (int i = 0; i < userEvents.length; i++) {
+				if (thread.getUserEventProfile(userEvents[i]) != null) {
+					counts[t][1]++;
+				}
+			}
+			p.writeLong(offset);
+			p.writeInt(counts[t][0]);
+			p.writeInt(counts[t][1]);
+			int numSnapshots = thread.getNumSnapshots();
+			offset += ((long) counts[t][0] * getIndexedFunctionProfileSize(numMetrics, numSnapshots))
+					+ ((long) counts[t][1] * getIndexedUserEventProfileSize(numSnapshots));
+		}
+
+		for (Iterator<Thread> it = threads.iterator(); it.hasNext();) {
+			Thread thread = it.next();
+			int numSnapshots = thread.getNumSnapshots();
+			for (int i = 0; i < functions.length; i++) {
+				FunctionProfile fp = thread.getFunctionProfile(functions[i]);
+				if (fp != null) {
+					p.writeInt(i);
+					for (int s = 0; s < numSnapshots; s++) {
+						p.writeDouble(fp.getNumCalls(s));
+						p.writeDouble(fp.getNumSubr(s));
+						for (int j = 0; j < numMetrics; j++) {
+							p.writeDouble(fp.getExclusive(s, j));
+							p.writeDouble(fp.getInclusive(s, j));
+						}
+					}
+				}
+			}
+			for (int i = 0; i < userEvents.length; i++) {
+				UserEventProfile uep = thread.getUserEventProfile(userEvents[i]);
+				if (uep != null) {
+					p.writeInt(i);
+					for (int s = 0; s < numSnapshots; s++) {
+						p.writeDouble(uep.getNumSamples(s));
+						p.writeDouble(uep.getMinValue(s));
+						p.writeDouble(uep.getMaxValue(s));
+						p.writeDouble(uep.getMeanValue(s));
+						p.writeDouble(uep.getSumSquared(s));
+						p.writeDouble(uep.getStdDev(s));
+					}
+				}
+			}
+		}
+		p.close();
+	}
+
 	public static void writePacked(DataSource dataSource, OutputStream ostream)
 			throws IOException {
 		GZIPOutputStream gzip = new GZIPOutputStream(ostream);
@@ -25,7 +25,7 @@ public class FunctionProfile {
         public Map<FunctionProfile, Set<FunctionProfile>> parentProfileCallPathSets;
     }
 
-    private static final int METRIC_SIZE = 2;
+    static final int METRIC_SIZE = 2;
 
     private static final int CALLS = 0;
     private static final int SUBR = 1;
@@ -35,6 +35,9 @@ public class FunctionProfile {
     private Function function;
     private Thread thread;
     private double[] data;
+    // when the thread uses packed storage, data is null and the values live in the block
+    private FunctionProfileBlock block;
+    private int slot;
     private CallPathData callPathData;
 
     public FunctionProfile(Function function) {
@@ -246,10 +249,20 @@ public class FunctionProfile {
     }
 
     public void addMetric() {
+        if (block != null) {
+            // the thread re-lays out the whole block at once
+            return;
+        }
         int numMetrics = thread.getNumMetrics() - 1;
         int numSnapshots = thread.getNumSnapshots();
         int newMetricSize = numMetrics + 1;
 
+        if (numSnapshots == 1 && data.length >= (newMetricSize + 1) * METRIC_SIZE) {
+            // the new metric goes at the end of the only snapshot, and there is already
+            // room for it (the constructor leaves space for one more metric)
+            return;
+        }
+
         double[] newArray = new double[(newMetricSize + 1) * METRIC_SIZE * numSnapshots];
 
         for (int s = 0; s < numSnapshots; s++) {
@@ -284,6 +297,10 @@ public class FunctionProfile {
 
         int numMetrics = thread.getNumMetrics();
         int newLength = thread.getNumSnapshots() * ((METRIC_SIZE * numMetrics) + 2);
+        if (block != null) {
+            block.ensureStride(newLength);
+            return;
+        }
         if (newLength > data.length) {
             // could only do this with Java 1.6 :(
             //data = Arrays.copyOf(data, (int)(newLength*1.5));
@@ -346,29 +363,25 @@ public class FunctionProfile {
     }
 
     public Iterator<FunctionProfile> getChildProfiles() {
-        CallPathData callPathData = getCallPathData();
-        if (callPathData.childProfiles != null)
+        if (callPathData != null && callPathData.childProfiles != null)
             return callPathData.childProfiles.iterator();
         return new UtilFncs.EmptyIterator();
     }
 
     public Iterator<FunctionProfile> getParentProfiles() {
-        CallPathData callPathData = getCallPathData();
-        if (callPathData.parentProfiles != null)
+        if (callPathData != null && callPathData.parentProfiles != null)
             return callPathData.parentProfiles.iterator();
         return new UtilFncs.EmptyIterator();
     }
 
     public Iterator<FunctionProfile> getParentProfileCallPathIterator(FunctionProfile parent) {
-        CallPathData callPathData = getCallPathData();
-        if (callPathData.parentProfileCallPathSets == null)
+        if (callPathData == null || callPathData.parentProfileCallPathSets == null)
             return new UtilFncs.EmptyIterator();
         return callPathData.parentProfileCallPathSets.get(parent).iterator();
     }
 
     public Iterator<FunctionProfile> getChildProfileCallPathIterator(FunctionProfile child) {
-        CallPathData callPathData = getCallPathData();
-        if (callPathData.childProfileCallPathSets == null)
+        if (callPathData == null || callPathData.childProfileCallPathSets == null)
             return new UtilFncs.EmptyIterator();
         return callPathData.childProfileCallPathSets.get(child).iterator();
     }
@@ -385,6 +398,10 @@ public class FunctionProfile {
     private void putDouble(int snapshot, int metric, int offset, double inDouble) {
         int numMetrics = thread.getNumMetrics();
         int location = (snapshot * (METRIC_SIZE * (numMetrics + 1))) + (metric * METRIC_SIZE) + offset;
+        if (block != null) {
+            block.getData()[slot * block.getStride() + location] = inDouble;
+            return;
+        }
         data[location] = inDouble;
     }
 
@@ -396,11 +413,15 @@ public class FunctionProfile {
     		numMetrics = thread.getNumMetrics();
     	}
         int location = (snapshot * (METRIC_SIZE * (numMetrics + 1))) + (metric * METRIC_SIZE) + offset;
-        if(location>=data.length)
+        if(location>=getCapacity())
         {
         	System.out.println(function.getName()+", Metric "+metric+": Data array input out of bounds (putDouble)");
         	return;
         }
+        if (block != null) {
+            block.getData()[slot * block.getStride() + location] = inDouble;
+            return;
+        }
         data[location] = inDouble;
     }
 
@@ -413,6 +434,9 @@ public class FunctionProfile {
         if (thread != null)
         	numMetrics = thread.getNumMetrics();
         int location = (snapshot * (METRIC_SIZE * (numMetrics + 1))) + (metric * METRIC_SIZE) + offset;
+        if (block != null) {
+            return block.getData()[slot * block.getStride() + location];
+        }
         return data[location];
     }
 
@@ -425,14 +449,39 @@ public class FunctionProfile {
     		numMetrics = thread.getNumMetrics();
     	}
         int location = (snapshot * (METRIC_SIZE * (numMetrics + 1))) + (metric * METRIC_SIZE) + offset;
-        if(location>=data.length)
+        if(location>=getCapacity())
         {
         	System.out.println(function.getName()+", Metric "+metric+": Data array access out of bounds (getDouble)");
         	return 0;
         }
+        if (block != null) {
+            return block.getData()[slot * block.getStride() + location];
+        }
         return data[location];
     }
 
+    private int getCapacity() {
+        if (block != null) {
+            return block.getStride();
+        }
+        return data.length;
+    }
+
+    /**
+     * Moves this profile's values into a slot of the given block, after which the profile
+     * is just a view over the block.
+     */
+    void moveToBlock(FunctionProfileBlock block) {
+        if (this.block != null) {
+            return;
+        }
+        // never give the profile less room than it had on its own
+        block.ensureStride(data.length);
+        this.slot = block.allocate(data);
+        this.block = block;
+        this.data = null;
+    }
+
     public String toString() {
         return thread + " : " + function;
     }
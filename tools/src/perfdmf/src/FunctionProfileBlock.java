@@ -0,0 +1,103 @@
+package edu.uoregon.tau.perfdmf;
+
+/**
+ * Packed storage for all of the FunctionProfiles of a single Thread.  Instead of every
+ * FunctionProfile owning its own double[], each profile is given a fixed size slot in one
+ * primitive array and becomes a view over that slot.  The layout within a slot is exactly
+ * the layout FunctionProfile uses for its private array (snapshots x (metrics + 1) x
+ * METRIC_SIZE), so the profile getters and setters do not change.
+ *
+ * Growing the thread (new metric or new snapshot) re-lays out every slot in a single pass
+ * instead of reallocating one array per profile.
+ *
+ * @see FunctionProfile
+ * @see Thread
+ */
+class FunctionProfileBlock {
+
+    private double[] data = new double[0];
+    private int stride;
+    private int slots;
+
+    FunctionProfileBlock(int stride) {
+        this.stride = stride;
+    }
+
+    double[] getData() {
+        return data;
+    }
+
+    int getStride() {
+        return stride;
+    }
+
+    /**
+     * Allocates a new slot, initialized from the given values (which may be shorter or
+     * longer than a slot).
+     *
+     * @return the index of the new slot, its values start at slot * getStride()
+     */
+    int allocate(double[] initial) {
+        if ((slots + 1) * stride > data.length) {
+            double[] newData = new double[Math.max((slots + 1) * stride, (int) (data.length * 1.5))];
+            System.arraycopy(data, 0, newData, 0, slots * stride);
+            data = newData;
+        }
+        int offset = slots * stride;
+        if (initial != null) {
+            System.arraycopy(initial, 0, data, offset, Math.min(initial.length, stride));
+        }
+        return slots++;
+    }
+
+    /**
+     * Makes sure every slot can hold at least minStride values, the existing values stay in
+     * place relative to the start of their slot.
+     *
+     * @return true if the slots moved
+     */
+    boolean ensureStride(int minStride) {
+        if (minStride <= stride) {
+            return false;
+        }
+        int newStride = Math.max(minStride, (int) (stride * 1.5));
+        double[] newData = new double[slots * newStride];
+        for (int s = 0; s < slots; s++) {
+            System.arraycopy(data, s * stride, newData, s * newStride, stride);
+        }
+        data = newData;
+        stride = newStride;
+        return true;
+    }
+
+    /**
+     * Re-lays out every slot for one additional metric, see FunctionProfile.addMetric()
+     *
+     * @param numMetrics	the number of metrics before the new one was added
+     * @param numSnapshots	the number of snapshots in the thread
+     * @param metricSize	number of values stored per metric
+     */
+    void addMetric(int numMetrics, int numSnapshots, int metricSize) {
+        if (numSnapshots == 1) {
+            // the new values go at the end of each slot, nothing moves unless the slots are full
+            ensureStride(metricSize * (numMetrics + 2));
+            return;
+        }
+        int oldSnapshotSize = metricSize * (numMetrics + 1);
+        int newSnapshotSize = metricSize * (numMetrics + 2);
+        int newStride = Math.max(stride, newSnapshotSize * numSnapshots);
+        double[] newData = new double[slots * newStride];
+        for (int slot = 0; slot < slots; slot++) {
+            int source = slot * stride;
+            int dest = slot * newStride;
+            for (int s = 0; s < numSnapshots; s++) {
+                int length = Math.min(oldSnapshotSize, stride - (s * oldSnapshotSize));
+                if (length > 0) {
+                    System.arraycopy(data, source + (s * oldSnapshotSize), newData, dest + (s * newSnapshotSize), length);
+                }
+            }
+        }
+        data = newData;
+        stride = newStride;
+    }
+}
@@ -0,0 +1,589 @@
+package edu.uoregon.tau.perfdmf;
+
+import java.io.Serializable;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A derived metric expression, such as "FLOPS = PAPI_FP_OPS / TIME", compiled once and
+ * evaluated a whole column of values at a time.  This is the engine behind ParaProf's
+ * ParaProfExpression and PerfExplorer's DeriveMetricEquation.
+ *
+ * <P>The expression is parsed into a tree of constants, variables (metric names) and the
+ * four operations, with the usual precedence and parentheses, and a unary minus.  Metric
+ * names which contain operators or spaces are put in double quotes.  Operations on two
+ * constants are done when the expression is compiled.</P>
+ *
+ * <P>evaluate() takes one array of values per variable (the values of the metric for every
+ * function of a thread, for example) and computes the array of results, a block of values at
+ * a time, so the intermediate results stay in the cache.  evaluate(List) does it for many
+ * threads in parallel, on perfdmf.expressionThreads worker threads (the number of processors
+ * by default).</P>
+ *
+ * <P>The operations are the ones of the derived metrics: a subtraction is 0 unless the
+ * first value is larger, and a division by 0 is 0.  Parsed with infiniteAsZero, as in
+ * ParaProf, an infinite quotient is 0 too.</P>
+ */
+public class MetricExpression implements Serializable {
+
+    private static final long serialVersionUID = -3514398157093845361L;
+
+    // the values computed at a time
+    private static final int BLOCK_SIZE = 1024;
+    // the smallest number of values worth a task of their own
+    private static final int PARALLEL_THRESHOLD = 65536;
+
+    /**
+     * The values of the variables for one thread (or any other set of rows), and the place
+     * for the results.
+     */
+    public interface Columns {
+        /**
+         * @return the number of rows
+         */
+        public int size();
+
+        /**
+         * @param variable	the index of the variable, in getVariables()
+         * @param inclusive	whether the inclusive or the exclusive values are wanted
+         * @return the values of the variable, at least size() of them
+         */
+        public double[] getValues(int variable, boolean inclusive);
+
+        /**
+         * Receives the results.
+         */
+        public void setValues(double[] inclusive, double[] exclusive);
+    }
+
+    private static abstract class Node implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Computes the values of rows start to start + length in out[0] to out[length - 1].
+         *
+         * @param temporaries	the arrays for the intermediate results, from depth on
+         */
+        abstract void evaluate(double[][] columns, int start, int length, double[] out, double[][] temporaries, int depth);
+
+        /**
+         * @return the number of intermediate arrays needed
+         */
+        int depth() {
+            return 0;
+        }
+    }
+
+    private static final class Constant extends Node {
+        private static final long serialVersionUID = 1L;
+        final double value;
+
+        Constant(double value) {
+            this.value = value;
+        }
+
+        void evaluate(double[][] columns, int start, int length, double[] out, double[][] temporaries, int depth) {
+            for (int i = 0; i < length; i++) {
+                out[i] = value;
+            }
+        }
+
+        public String toString() {
+            return Double.toString(value);
+        }
+    }
+
+    private static final class Variable extends Node {
+        private static final long serialVersionUID = 1L;
+        final int index;
+        final String name;
+
+        Variable(int index, String name) {
+            this.index = index;
+            this.name = name;
+        }
+
+        void evaluate(double[][] columns, int start, int length, double[] out, double[][] temporaries, int depth) {
+            System.arraycopy(columns[index], start, out, 0, length);
+        }
+
+        public String toString() {
+            return "\"" + name + "\"";
+        }
+    }
+
+    private static final class Operation extends Node {
+        private static final long serialVersionUID = 1L;
+        final char operator;
+        final Node left;
+        final Node right;
+        final boolean infiniteAsZero;
+
+        Operation(char operator, Node left, Node right, boolean infiniteAsZero) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+            this.infiniteAsZero = infiniteAsZero;
+        }
+
+        int depth() {
+            // the right side is computed in a temporary array when it isn't a leaf
+            int rightDepth = (right instanceof Operation) ? right.depth() + 1 : 0;
+            return Math.max(left.depth(), rightDepth);
+        }
+
+        void evaluate(double[][] columns, int start, int length, double[] out, double[][] temporaries, int depth) {
+            left.evaluate(columns, start, length, out, temporaries, depth);
+            if (right instanceof Constant) {
+                apply(out, ((Constant) right).value, length);
+            } else if (right instanceof Variable) {
+                apply(out, columns[((Variable) right).index], start, length);
+            } else {
+                double[] values = temporaries[depth];
+                right.evaluate(columns, start, length, values, temporaries, depth + 1);
+                apply(out, values, 0, length);
+            }
+        }
+
+        /**
+         * out[i] = out[i] op values[offset + i]
+         */
+        private void apply(double[] out, double[] values, int offset, int length) {
+            switch (operator) {
+            case '+':
+                for (int i = 0; i < length; i++) {
+                    out[i] += values[offset + i];
+                }
+                break;
+            case '-':
+                for (int i = 0; i < length; i++) {
+                    double b = values[offset + i];
+                    out[i] = (out[i] > b) ? out[i] - b : 0.0;
+                }
+                break;
+            case '*':
+                for (int i = 0; i < length; i++) {
+                    out[i] *= values[offset + i];
+                }
+                break;
+            default:
+                for (int i = 0; i < length; i++) {
+                    out[i] = divide(out[i], values[offset + i]);
+                }
+                break;
+            }
+        }
+
+        /**
+         * out[i] = out[i] op value
+         */
+        private void apply(double[] out, double value, int length) {
+            switch (operator) {
+            case '+':
+                for (int i = 0; i < length; i++) {
+                    out[i] += value;
+                }
+                break;
+            case '-':
+                for (int i = 0; i < length; i++) {
+                    out[i] = (out[i] > value) ? out[i] - value : 0.0;
+                }
+                break;
+            case '*':
+                for (int i = 0; i < length; i++) {
+                    out[i] *= value;
+                }
+                break;
+            default:
+                for (int i = 0; i < length; i++) {
+                    out[i] = divide(out[i], value);
+                }
+                break;
+            }
+        }
+
+        double apply(double a, double b) {
+            switch (operator) {
+            case '+':
+                return a + b;
+            case '-':
+                return (a > b) ? a - b : 0.0;
+            case '*':
+                return a * b;
+            default:
+                return divide(a, b);
+            }
+        }
+
+        private double divide(double a, double b) {
+            if (b == 0) {
+                return 0.0;
+            }
+            double d = a / b;
+            return (infiniteAsZero && Double.isInfinite(d)) ? 0.0 : d;
+        }
+
+        public String toString() {
+            return "(" + left + " " + operator + " " + right + ")";
+        }
+    }
+
+    private final String name;
+    private final List<String> variables;
+    private final Node root;
+    private final int depth;
+    private final int operations;
+    private int threads = Integer.getInteger("perfdmf.expressionThreads", Runtime.getRuntime().availableProcessors());
+
+    private MetricExpression(String name, List<String> variables, Node root, int operations) {
+        this.name = name;
+        this.operations = operations;
+        this.variables = Collections.unmodifiableList(variables);
+        this.root = root;
+        this.depth = root.depth();
+    }
+
+    /**
+     * Compiles an expression, "name = expression" or just "expression".
+     *
+     * @param expression	the expression
+     * @return the compiled expression
+     * @throws ParseException if the expression is not correct
+     */
+    public static MetricExpression parse(String expression) throws ParseException {
+        return parse(expression, false);
+    }
+
+    /**
+     * Compiles an expression, "name = expression" or just "expression".
+     *
+     * @param expression	the expression
+     * @param infiniteAsZero	whether an infinite quotient is 0
+     * @return the compiled expression
+     * @throws ParseException if the expression is not correct
+     */
+    public static MetricExpression parse(String expression, boolean infiniteAsZero) throws ParseException {
+        return new Parser(expression, infiniteAsZero).parse();
+    }
+
+    /**
+     * @return the name before the "=", or null if there is none
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the metric names used in the expression, each one once, in the order they appear
+     */
+    public List<String> getVariables() {
+        return variables;
+    }
+
+    /**
+     * @return whether the expression is a single metric name
+     */
+    public boolean isVariable() {
+        return root instanceof Variable;
+    }
+
+    /**
+     * @return the number of operators in the expression, 0 if it is a single value or metric
+     */
+    public int getOperations() {
+        return operations;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param threads	the number of worker threads of evaluate(List), 1 to evaluate in the
+     * calling thread
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Computes the expression for a number of rows.
+     *
+     * @param columns	the values of each variable, in the order of getVariables()
+     * @param result	the array for the results
+     * @param length	the number of rows
+     */
+    public void evaluate(double[][] columns, double[] result, int length) {
+        double[][] temporaries = new double[depth][Math.min(BLOCK_SIZE, length)];
+        double[] out = (length <= BLOCK_SIZE) ? result : new double[BLOCK_SIZE];
+        for (int start = 0; start < length; start += BLOCK_SIZE) {
+            int block = Math.min(BLOCK_SIZE, length - start);
+            root.evaluate(columns, start, block, out, temporaries, 0);
+            if (out != result) {
+                System.arraycopy(out, 0, result, start, block);
+            }
+        }
+    }
+
+    /**
+     * Computes the inclusive and exclusive values of the expression for every set of rows
+     * (every thread), in parallel.
+     *
+     * @param columns	the values and results of each thread
+     */
+    public void evaluate(List<? extends Columns> columns) {
+        long total = 0;
+        for (Columns c : columns) {
+            total += c.size();
+        }
+        EvaluationTask task = new EvaluationTask(columns, 0, columns.size(), total);
+        if (threads > 1 && columns.size() > 1 && total > PARALLEL_THRESHOLD) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.invoke(task);
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            task.compute();
+        }
+    }
+
+    /**
+     * Computes the inclusive and exclusive values of the expression for one set of rows.
+     */
+    public void evaluate(Columns c) {
+        int size = c.size();
+        double[][] inclusive = new double[variables.size()][];
+        double[][] exclusive = new double[variables.size()][];
+        for (int v = 0; v < inclusive.length; v++) {
+            inclusive[v] = c.getValues(v, true);
+            exclusive[v] = c.getValues(v, false);
+        }
+        double[] inclusiveResult = new double[size];
+        double[] exclusiveResult = new double[size];
+        evaluate(inclusive, inclusiveResult, size);
+        evaluate(exclusive, exclusiveResult, size);
+        c.setValues(inclusiveResult, exclusiveResult);
+    }
+
+    /**
+     * Fork/join task for evaluate(List), splits the threads in half until the pieces are small.
+     */
+    private class EvaluationTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<? extends Columns> columns;
+        private final int start;
+        private final int end;
+        private final long size;
+
+        EvaluationTask(List<? extends Columns> columns, int start, int end, long size) {
+            this.columns = columns;
+            this.start = start;
+            this.end = end;
+            this.size = size;
+        }
+
+        protected void compute() {
+            if (end - start > 1 && size > PARALLEL_THRESHOLD && getPool() != null) {
+                int middle = (start + end) >>> 1;
+                long half = size * (middle - start) / (end - start);
+                invokeAll(new EvaluationTask(columns, start, middle, half), new EvaluationTask(columns, middle, end, size
+                        - half));
+                return;
+            }
+            for (int i = start; i < end; i++) {
+                evaluate(columns.get(i));
+            }
+        }
+    }
+
+    public String toString() {
+        return (name == null) ? root.toString() : name + " = " + root;
+    }
+
+    /**
+     * A recursive descent parser:
+     *
+     * expression := term (('+' | '-') term)*
+     * term := factor (('*' | '/') factor)*
+     * factor := '-' factor | number | name | '"' name '"' | '(' expression ')'
+     */
+    private static final class Parser {
+        private final String text;
+        private final boolean infiniteAsZero;
+        private final List<String> variables = new ArrayList<String>();
+        private int position = 0;
+        private int operations = 0;
+
+        Parser(String text, boolean infiniteAsZero) {
+            this.text = text;
+            this.infiniteAsZero = infiniteAsZero;
+        }
+
+        MetricExpression parse() throws ParseException {
+            String name = null;
+            int equals = findEquals();
+            if (equals >= 0) {
+                name = text.substring(0, equals).trim();
+                position = equals + 1;
+            }
+            Node root = expression();
+            skipSpaces();
+            if (position < text.length()) {
+                throw new ParseException("Unexpected '" + text.charAt(position) + "' in " + text, position);
+            }
+            return new MetricExpression(name, variables, root, operations);
+        }
+
+        /**
+         * @return the position of the "=" outside of quotes, or -1
+         */
+        private int findEquals() throws ParseException {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '"') {
+                    i = text.indexOf('"', i + 1);
+                    if (i < 0) {
+                        throw new ParseException("Unmatched \" in " + text, text.length());
+                    }
+                } else if (c == '=') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private Node expression() throws ParseException {
+            Node node = term();
+            while (true) {
+                char c = peek();
+                if (c != '+' && c != '-') {
+                    return node;
+                }
+                position++;
+                node = operation(c, node, term());
+            }
+        }
+
+        private Node term() throws ParseException {
+            Node node = factor();
+            while (true) {
+                char c = peek();
+                if (c != '*' && c != '/') {
+                    return node;
+                }
+                position++;
+                node = operation(c, node, factor());
+            }
+        }
+
+        private Node factor() throws ParseException {
+            char c = peek();
+            if (c == 0) {
+                throw new ParseException("Missing value at the end of " + text, position);
+            }
+            if (c == '-') {
+                position++;
+                Node node = factor();
+                if (node instanceof Constant) {
+                    return new Constant(-((Constant) node).value);
+                }
+                // a product, not a subtraction, which would stop at 0
+                return operation('*', node, new Constant(-1.0));
+            }
+            if (c == '(') {
+                position++;
+                Node node = expression();
+                if (peek() != ')') {
+                    throw new ParseException("Unmatched ( in " + text, position);
+                }
+                position++;
+                return node;
+            }
+            if (c == '"') {
+                int end = text.indexOf('"', position + 1);
+                if (end < 0) {
+                    throw new ParseException("Unmatched \" in " + text, position);
+                }
+                String token = text.substring(position + 1, end);
+                position = end + 1;
+                return variable(token);
+            }
+            int start = position;
+            while (position < text.length()) {
+                char d = text.charAt(position);
+                // the sign of an exponent, as in 1e-3, is part of the number
+                if ("+-*/()\" ".indexOf(d) >= 0 && !((d == '+' || d == '-') && isMantissa(start, position))) {
+                    break;
+                }
+                position++;
+            }
+            if (position == start) {
+                throw new ParseException("Unexpected '" + c + "' in " + text, position);
+            }
+            String token = text.substring(start, position);
+            try {
+                return new Constant(Double.parseDouble(token));
+            } catch (NumberFormatException e) {
+                return variable(token);
+            }
+        }
+
+        /**
+         * @return whether text[start, end) is digits and a point followed by an 'e'
+         */
+        private boolean isMantissa(int start, int end) {
+            if (end - start < 2 || Character.toLowerCase(text.charAt(end - 1)) != 'e') {
+                return false;
+            }
+            boolean digits = false;
+            for (int i = start; i < end - 1; i++) {
+                char c = text.charAt(i);
+                if (Character.isDigit(c)) {
+                    digits = true;
+                } else if (c != '.') {
+                    return false;
+                }
+            }
+            return digits;
+        }
+
+        private Node variable(String token) {
+            int index = variables.indexOf(token);
+            if (index < 0) {
+                index = variables.size();
+                variables.add(token);
+            }
+            return new Variable(index, token);
+        }
+
+        private Node operation(char operator, Node left, Node right) {
+            operations++;
+            Operation operation = new Operation(operator, left, right, infiniteAsZero);
+            if (left instanceof Constant && right instanceof Constant) {
+                return new Constant(operation.apply(((Constant) left).value, ((Constant) right).value));
+            }
+            return operation;
+        }
+
+        /**
+         * @return the next character which isn't a space, or 0 at the end
+         */
+        private char peek() {
+            skipSpaces();
+            return (position < text.length()) ? text.charAt(position) : 0;
+        }
+
+        private void skipSpaces() {
+            while (position < text.length() && text.charAt(position) == ' ') {
+                position++;
+            }
+        }
+    }
+}
@@ -1,15 +1,20 @@
 package edu.uoregon.tau.perfdmf;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.sql.SQLException;
-import java.util.TreeMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.GZIPInputStream;
 
 import edu.uoregon.tau.common.MetaDataMap;
@@ -32,6 +37,14 @@ public class PackedProfileDataSource extends DataSource {
 	//private volatile long bytesRead = 0;
 	private volatile TrackerInputStream tracker;
 
+	// indexed (version 3) files are mapped, and threads are read from the mapping on demand
+	private boolean lazyLoad = true;
+	private FileChannel channel; // open while threads are left to page in, see mapBlock()
+	private Function indexedFunctions[];
+	private UserEvent indexedUserEvents[];
+	// several threads may be paged in at once, each holding only its own Thread's lock
+	private Map<Thread, long[]> threadIndex; // offset, function profiles, user event profiles
+
 	/**
 	 * Constructor for PackedProfileDataSource
 	 * @param file      file contained packed profile data (.ppk)
@@ -40,6 +53,32 @@ public class PackedProfileDataSource extends DataSource {
 		this.file = file;
 	}
 
+	/**
+	 * For indexed packed profiles (version 3 and up), whether the individual threads are 
+	 * read only when they are first used.  The function list and the aggregate threads 
+	 * (mean, total, etc.) are always read immediately.  Defaults to true.
+	 * 
+	 * @param lazyLoad	false to read every thread during load()
+	 */
+	public void setLazyLoad(boolean lazyLoad) {
+		this.lazyLoad = lazyLoad;
+	}
+
+	/**
+	 * Closes the file that indexed threads are paged in from.  It is closed by itself once
+	 * every thread has been read; a thread used after close() reopens it.
+	 */
+	public synchronized void close() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException ioe) {
+				// nothing left to read from it anyway
+			}
+			channel = null;
+		}
+	}
+
 	/**
 	 * Cancel load command, causes the load to abort.  Note that most DataSource implementations 
 	 * do nothing when cancelLoad is called, it is merely a hint.
@@ -56,7 +95,7 @@ public class PackedProfileDataSource extends DataSource {
 	 * @return          progress
 	 */
 	public int getProgress() {
-		if (totalBytes != 0) {
+		if (totalBytes != 0 && tracker != null) {
 			return (int) ((float) tracker.byteCount() / (float) totalBytes * 100);
 		}
 		return 0;
@@ -70,6 +109,11 @@ public class PackedProfileDataSource extends DataSource {
 	public void load() throws FileNotFoundException, IOException, DataSourceException, SQLException {
 		long time = System.currentTimeMillis();
 
+		if (!file.toString().toLowerCase().startsWith("http:") && isIndexed(file)) {
+			loadIndexed();
+			return;
+		}
+
 		InputStream istream;
 		if (file.toString().toLowerCase().startsWith("http:")) {
 			// When it gets converted from a String to a File http:// turns into http:/
@@ -256,4 +300,240 @@ public class PackedProfileDataSource extends DataSource {
 		time = (System.currentTimeMillis()) - time;
 		//System.out.println("Time to process (in milliseconds): " + time);
 	}
+
+	private static boolean isIndexed(File file) throws IOException {
+		DataInputStream p = new DataInputStream(new FileInputStream(file));
+		try {
+			// a gzipped (version 1 or 2) file can't start with the cookie
+			if (p.readChar() != 'P' || p.readChar() != 'P' || p.readChar() != 'K') {
+				return false;
+			}
+			return p.readInt() >= DataSourceExport.PACKED_INDEXED_VERSION;
+		} catch (IOException ioe) {
+			return false;
+		} finally {
+			p.close();
+		}
+	}
+
+	private void loadIndexed() throws IOException {
+		channel = new RandomAccessFile(file, "r").getChannel();
+		boolean loaded = false;
+		try {
+			readIndex();
+			loaded = true;
+		} finally {
+			if (!loaded) {
+				close();
+			}
+		}
+	}
+
+	private void readIndex() throws IOException {
+		totalBytes = channel.size();
+
+		// cookie (3 chars), version, compatible version, header size
+		ByteBuffer prefix = channel.map(FileChannel.MapMode.READ_ONLY, 0, 3 * 2 + 4 + 4 + 4);
+		prefix.position(3 * 2 + 4);
+		int compatible = prefix.getInt();
+		if (compatible > DataSourceExport.PACKED_INDEXED_VERSION) {
+			throw new DataSourceException("This packed profile is not compatible, please upgrade\nVersion: " + compatible
+					+ " > " + DataSourceExport.PACKED_INDEXED_VERSION);
+		}
+		int headerSize = prefix.getInt();
+
+		// the header only holds names, read it through a stream for the UTF strings
+		byte header[] = new byte[headerSize];
+		channel.map(FileChannel.MapMode.READ_ONLY, prefix.limit(), headerSize).get(header);
+		DataInputStream p = new DataInputStream(new ByteArrayInputStream(header));
+
+		int numTrialMetaData = p.readInt();
+		for (int i = 0; i < numTrialMetaData; i++) {
+			String name = p.readUTF();
+			String value = p.readUTF();
+			metaData.put(name, value);
+		}
+
+		int numMetrics = p.readInt();
+		for (int i = 0; i < numMetrics; i++) {
+			this.addMetric(p.readUTF());
+		}
+
+		int numGroups = p.readInt();
+		if (numGroups != 0) {
+			this.setGroupNamesPresent(true);
+		}
+		Group groups[] = new Group[numGroups];
+		for (int i = 0; i < numGroups; i++) {
+			groups[i] = this.addGroup(p.readUTF());
+		}
+
+		indexedFunctions = new Function[p.readInt()];
+		for (int i = 0; i < indexedFunctions.length; i++) {
+			Function function = this.addFunction(p.readUTF(), numMetrics);
+			indexedFunctions[i] = function;
+			int numThisGroups = p.readInt();
+			for (int j = 0; j < numThisGroups; j++) {
+				function.addGroup(groups[p.readInt()]);
+			}
+		}
+
+		indexedUserEvents = new UserEvent[p.readInt()];
+		for (int i = 0; i < indexedUserEvents.length; i++) {
+			indexedUserEvents[i] = this.addUserEvent(p.readUTF());
+		}
+		if (indexedUserEvents.length > 0) {
+			setUserEventsPresent(true);
+		}
+
+		int numThreads = p.readInt();
+		Thread threads[] = new Thread[numThreads];
+		for (int i = 0; i < numThreads; i++) {
+			int nodeID = p.readInt();
+			int contextID = p.readInt();
+			int threadID = p.readInt();
+			threads[i] = nodeID >= 0 ? addThread(nodeID, contextID, threadID) : addDerivedThread(nodeID);
+			int numMetadata = p.readInt();
+			for (int j = 0; j < numMetadata; j++) {
+				String name = p.readUTF();
+				String value = p.readUTF();
+				threads[i].getMetaData().put(name, value);
+				uncommonMetaData.put(name, value);
+			}
+			int numSnapshots = p.readInt();
+			for (int s = 0; s < numSnapshots; s++) {
+				String name = p.readUTF();
+				long timestamp = p.readLong();
+				if (numSnapshots > 1) {
+					threads[i].addSnapshot(name).setTimestamp(timestamp);
+				}
+			}
+		}
+
+		ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, prefix.limit() + headerSize,
+				(long) numThreads * DataSourceExport.INDEXED_ENTRY_SIZE);
+		// filled before any thread is marked unloaded, so nothing pages in while it is built
+		threadIndex = new ConcurrentHashMap<Thread, long[]>();
+		for (int i = 0; i < numThreads; i++) {
+			long entry[] = { index.getLong(), index.getInt(), index.getInt() };
+			if (threads[i].getNodeID() < 0 || !lazyLoad) {
+				// the aggregate threads are what ParaProf shows first
+				readThreadBlock(threads[i], entry);
+			} else {
+				threadIndex.put(threads[i], entry);
+			}
+		}
+		for (Thread thread : threadIndex.keySet()) {
+			thread.setDataLoaded(false);
+		}
+		if (threadIndex.isEmpty()) {
+			close();
+		}
+
+		// the statistics were computed by the writer
+		derivedProvided = true;
+		derivedAtomicProvided = true;
+
+		this.generateDerivedData(); // percentages, etc.
+		this.buildXMLMetaData();
+	}
+
+	private Thread addDerivedThread(int nodeID) {
+		Thread thread = new Thread(nodeID, nodeID, nodeID, getNumberOfMetrics(), this);
+		switch (nodeID) {
+		case Thread.MEAN:
+			meanDataNoNull = thread;
+			break;
+		case Thread.TOTAL:
+			totalData = thread;
+			break;
+		case Thread.STDDEV:
+			stddevDataNoNull = thread;
+			break;
+		case Thread.MIN:
+			minData = thread;
+			break;
+		case Thread.MAX:
+			maxData = thread;
+			break;
+		case Thread.MEAN_ALL:
+			meanDataAll = thread;
+			break;
+		case Thread.STDDEV_ALL:
+			stddevDataAll = thread;
+			break;
+		}
+		return thread;
+	}
+
+	protected void loadThreadData(Thread thread) {
+		long entry[] = threadIndex.get(thread);
+		if (entry == null) {
+			return;
+		}
+		try {
+			readThreadBlock(thread, entry);
+		} catch (IOException ioe) {
+			// leave the entry, so the next access to the thread tries again
+			throw new DataSourceException(ioe);
+		}
+		threadIndex.remove(thread);
+		if (threadIndex.isEmpty()) {
+			close();
+		}
+	}
+
+	private synchronized ByteBuffer mapBlock(long offset, long length) throws IOException {
+		if (channel == null) {
+			channel = new RandomAccessFile(file, "r").getChannel();
+		}
+		// the mapping stays valid after the channel is closed
+		return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+	}
+
+	private void readThreadBlock(Thread thread, long entry[]) throws IOException {
+		int numMetrics = getNumberOfMetrics();
+		int numSnapshots = thread.getNumSnapshots();
+		int numFunctionProfiles = (int) entry[1];
+		int numUserEventProfiles = (int) entry[2];
+		long length = ((long) numFunctionProfiles * DataSourceExport.getIndexedFunctionProfileSize(numMetrics, numSnapshots))
+				+ ((long) numUserEventProfiles * DataSourceExport.getIndexedUserEventProfileSize(numSnapshots));
+		if (length == 0) {
+			return;
+		}
+
+		ByteBuffer block = mapBlock(entry[0], length);
+		for (int j = 0; j < numFunctionProfiles; j++) {
+			FunctionProfile fp = new FunctionProfile(indexedFunctions[block.getInt()], numMetrics, numSnapshots);
+			thread.addFunctionProfile(fp);
+			for (int s = 0; s < numSnapshots; s++) {
+				fp.setNumCalls(s, block.getDouble());
+				fp.setNumSubr(s, block.getDouble());
+				for (int k = 0; k < numMetrics; k++) {
+					fp.setExclusive(s, k, block.getDouble());
+					fp.setInclusive(s, k, block.getDouble());
+				}
+			}
+		}
+
+		for (int j = 0; j < numUserEventProfiles; j++) {
+			UserEventProfile uep = new UserEventProfile(indexedUserEvents[block.getInt()], numSnapshots);
+			for (int s = 0; s < numSnapshots; s++) {
+				uep.setNumSamples(block.getDouble(), s);
+				uep.setMinValue(block.getDouble(), s);
+				uep.setMaxValue(block.getDouble(), s);
+				uep.setMeanValue(block.getDouble(), s);
+				double sumSquared = block.getDouble();
+				double stdDev = block.getDouble();
+				if (thread.getNodeID() >= 0) {
+					uep.setSumSquared(sumSquared, s);
+				} else {
+					// the aggregate threads store a standard deviation, not a sum of squares
+					uep.setStdDev(stdDev, s);
+				}
+			}
+			uep.updateMax();
+			thread.addUserEventProfile(uep);
+		}
+	}
 }
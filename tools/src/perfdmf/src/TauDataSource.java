@@ -28,6 +28,11 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import edu.uoregon.tau.common.LineCountBufferedReader;
 import edu.uoregon.tau.common.MetaDataMap;
@@ -51,6 +56,40 @@ public class TauDataSource extends DataSource {
         }
     };
 
+    // a single line of a profile.x.x.x file, parsed but not yet applied to the data source
+    private static class FunctionLine {
+        public String name;
+        public String groupNames;
+        public double numCalls;
+        public double numSubr;
+        public double exclusive;
+        public double inclusive;
+    }
+
+    private static class UserEventLine {
+        public String name;
+        public double numSamples;
+        public double sampleMax;
+        public double sampleMin;
+        public double sampleMean;
+        public double sampleSumSquared;
+    }
+
+    // the contents of one profile.x.x.x file, as read by a worker in the parallel loader
+    private static class ParsedProfile {
+        public File file;
+        public int[] nct;
+        public String metricName;
+        public MetaDataMap metaData;
+        public boolean profileStats;
+        public List<FunctionLine> functions = new ArrayList<FunctionLine>();
+        public List<UserEventLine> userEvents = new ArrayList<UserEventLine>();
+        public boolean headerRead;
+        public String error; // set if the file is corrupt (everything before the error is kept)
+        public int errorLine;
+        public IOException ioException; // set if the file could not be read at all
+    }
+
     private volatile boolean abort = false;
     private volatile int totalFiles = 0;
     private volatile int filesRead = 0;
@@ -59,6 +98,9 @@ public class TauDataSource extends DataSource {
     private List<File[]> dirs; // list of directories (e.g. MULTI__PAPI_FP_INS, MULTI__PAPI_L1_DCM)
     //private int currFunction = 0;
 
+    // number of threads used to parse profile files, 1 means the original serial loader
+    private int loadThreads = Integer.getInteger("perfdmf.loadThreads", 1).intValue();
+
     private File fileToMonitor;
 
     private File currentFile;
@@ -125,6 +167,15 @@ public class TauDataSource extends DataSource {
             }
         }
 
+        if (loadThreads > 1) {
+            boolean foundValidFile = loadParallel(modernJava);
+            if (abort) {
+                return;
+            }
+            finishLoad(foundValidFile);
+            return;
+        }
+
         boolean foundValidFile = false;
         int metric = 0;
 
@@ -365,10 +416,13 @@ public class TauDataSource extends DataSource {
                         }
 
                         finished = true;
+                        if (metric == dirs.size() - 1) {
+                            fireThreadLoaded(thread);
+                        }
                     } catch (CorruptFileException cfe) {
                         System.err.println("File '" + currentFile + "' is corrupt (at line " + br.getCurrentLine() + ") : "
                                 + cfe.getMessage());
-                        // continue to the next file
+                        // continue to the next file, the thread is not complete
                         finished = true;
                     } catch (DataSourceException dse) {
                         throw dse;
@@ -417,26 +471,343 @@ public class TauDataSource extends DataSource {
             metric++;
         }
 
+        //long thistime = (System.currentTimeMillis()) - time;
+        //System.out.println("Time to process (in milliseconds): " + thistime);
+        //System.out.print(thistime + ", ");
+
+        finishLoad(foundValidFile);
+
+        time = (System.currentTimeMillis()) - time;
+        //System.out.println("Total Time to process (in milliseconds): " + time);
+        //System.out.println(time + "");
+    }
+
+    private void finishLoad(boolean foundValidFile) {
         if (foundValidFile == false) {
             throw new DataSourceException(
                     "Didn't find any valid files.\nAre you sure these are TAU profiles? (e.g. profile.*.*.*)");
         }
 
-        //long thistime = (System.currentTimeMillis()) - time;
-        //System.out.println("Time to process (in milliseconds): " + thistime);
-        //System.out.print(thistime + ", ");
-
-        
         EBSTraceReader.processEBSTraces(this, new File(System.getProperty("user.dir")));
         
         //Generate derived data.
         this.generateDerivedData();
         this.aggregateMetaData();
         this.buildXMLMetaData();
+    }
 
-        time = (System.currentTimeMillis()) - time;
-        //System.out.println("Total Time to process (in milliseconds): " + time);
-        //System.out.println(time + "");
+    /**
+     * Sets the number of worker threads used to parse profile files.  With more than one
+     * thread, files are read and tokenized concurrently and then merged into the data 
+     * source in the same order the serial loader would have used, so function and thread 
+     * ordering is unchanged.  The default comes from the perfdmf.loadThreads property.
+     * 
+     * @param loadThreads number of parser threads, 1 to load serially
+     */
+    public void setLoadThreads(int loadThreads) {
+        this.loadThreads = Math.max(1, loadThreads);
+    }
+
+    public int getLoadThreads() {
+        return loadThreads;
+    }
+
+    private boolean loadParallel(final boolean modernJava) throws DataSourceException {
+        boolean foundValidFile = false;
+
+        // flatten the directories into a single list of work, remembering each file's metric
+        final List<File> files = new ArrayList<File>();
+        final List<Integer> fileMetrics = new ArrayList<Integer>();
+        final List<Integer> fileIndices = new ArrayList<Integer>();
+        int metric = 0;
+        for (Iterator<File[]> e = dirs.iterator(); e.hasNext();) {
+            File[] dirFiles = e.next();
+            for (int i = 0; i < dirFiles.length; i++) {
+                if (getNCT(dirFiles[i].getName()) == null && dirs.size() == 1 && dirFiles.length == 1) {
+                    if (!dirFiles[i].exists()) {
+                        throw new DataSourceException("Error: File '" + dirFiles[i].getName() + "' does not exist.");
+                    } else {
+                        throw new DataSourceException("Error: File '" + dirFiles[i].getName()
+                                + "': This doesn't look like a TAU profile\n"
+                                + "Did you mean do use the -f option to specify a file format?");
+                    }
+                }
+                files.add(dirFiles[i]);
+                fileMetrics.add(metric);
+                fileIndices.add(i);
+            }
+            metric++;
+        }
+
+        // don't let the parsers run too far ahead of the merge, or we hold every file in memory
+        int window = loadThreads * 4;
+        ExecutorService executor = Executors.newFixedThreadPool(loadThreads);
+        List<Future<ParsedProfile>> futures = new ArrayList<Future<ParsedProfile>>();
+        try {
+            int submitted = 0;
+            boolean metricNameProcessed = false;
+            for (int i = 0; i < files.size(); i++) {
+                while (submitted < files.size() && submitted < i + window) {
+                    final File file = files.get(submitted);
+                    final int fileMetric = fileMetrics.get(submitted);
+                    futures.add(executor.submit(new Callable<ParsedProfile>() {
+                        public ParsedProfile call() {
+                            return parseProfile(file, fileMetric, modernJava);
+                        }
+                    }));
+                    submitted++;
+                }
+
+                if (fileIndices.get(i) == 0) {
+                    //Reset metricNameProcessed flag.
+                    metricNameProcessed = false;
+                }
+
+                ParsedProfile profile;
+                try {
+                    profile = futures.get(i).get();
+                } catch (InterruptedException ie) {
+                    abort = true;
+                    return foundValidFile;
+                } catch (ExecutionException ee) {
+                    Throwable cause = ee.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new DataSourceException((Exception) cause);
+                }
+                futures.set(i, null);
+
+                filesRead++;
+                if (abort || profile == null) {
+                    return foundValidFile;
+                }
+
+                if (profile.nct == null) {
+                    continue;
+                }
+                foundValidFile = true;
+
+                metricNameProcessed = mergeProfile(profile, fileMetrics.get(i), fileIndices.get(i),
+                        metricNameProcessed);
+                if (fileMetrics.get(i) == dirs.size() - 1 && profile.ioException == null && profile.error == null) {
+                    // the last metric directory, so this thread is complete
+                    fireThreadLoaded(this.getThread(profile.nct[0], profile.nct[1], profile.nct[2]));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return foundValidFile;
+    }
+
+    // runs on a worker thread, must not touch the shared data structures
+    private ParsedProfile parseProfile(File file, int metric, boolean modernJava) {
+        if (abort) {
+            return null;
+        }
+
+        ParsedProfile profile = new ParsedProfile();
+        profile.file = file;
+        profile.nct = getNCT(file.getName());
+        if (profile.nct == null) {
+            return profile;
+        }
+
+        int ioExceptionsEncountered = 0;
+        while (true) {
+            FileInputStream fileIn;
+            try {
+                fileIn = new FileInputStream(file);
+            } catch (IOException ioe) {
+                // retry, maybe the profiles were being written
+                if (ioExceptionsEncountered++ > 5) {
+                    profile.ioException = ioe;
+                    return profile;
+                }
+                try {
+                    java.lang.Thread.sleep(250);
+                } catch (InterruptedException ie) {
+                    return null;
+                }
+                continue;
+            }
+
+            LineCountBufferedReader reader = null;
+            FileLock lock = null;
+            try {
+                if (modernJava && monitored) {
+                    try {
+                        lock = fileIn.getChannel().lock(0, Long.MAX_VALUE, true);
+                    } catch (IOException ioe) {
+                        lock = null;
+                    }
+                }
+                reader = new LineCountBufferedReader(new InputStreamReader(fileIn));
+                readProfile(reader, profile, metric);
+            } catch (CorruptFileException cfe) {
+                profile.error = cfe.getMessage();
+                profile.errorLine = reader == null ? 0 : reader.getCurrentLine();
+            } catch (Exception e) {
+                profile.error = "Error parsing file (" + e + ")";
+                profile.errorLine = reader == null ? 0 : reader.getCurrentLine();
+            } finally {
+                try {
+                    if (lock != null) {
+                        lock.release();
+                    }
+                    fileIn.close();
+                } catch (IOException ioe) {
+                    // eat it
+                }
+            }
+            return profile;
+        }
+    }
+
+    private void readProfile(LineCountBufferedReader reader, ParsedProfile profile, int metric) throws IOException {
+        // First Line (e.g. "601 templated_functions")
+        String inputString = reader.readLine();
+        if (inputString == null) {
+            throw new CorruptFileException("Unexpected end of file: Looking for 'templated_functions' line");
+        }
+        StringTokenizer genericTokenizer = new StringTokenizer(inputString, " \t\n\r");
+
+        int numFunctions;
+        try {
+            numFunctions = Integer.parseInt(genericTokenizer.nextToken());
+        } catch (NumberFormatException nfe) {
+            throw new CorruptFileException("Couldn't read number of functions");
+        }
+
+        // grab the (possible) metric name
+        profile.metricName = getMetricName(inputString);
+
+        // Second Line (e.g. "# Name Calls Subrs Excl Incl ProfileCalls")
+        inputString = reader.readLine();
+        if (inputString == null) {
+            throw new CorruptFileException("Unexpected end of file: Looking for '# Name Calls ...' line");
+        }
+
+        if (inputString.indexOf("<metadata>") != -1) {
+            int start = inputString.indexOf("<metadata>");
+            int end = inputString.indexOf("</metadata>") + 11;
+            try {
+                profile.metaData = MetaDataParser.parse(inputString.substring(start, end), null);
+            } catch (Exception exception) {
+                exception.printStackTrace();
+                throw new CorruptFileException("Unable to parse metadata block");
+            }
+        }
+        profile.profileStats = inputString.indexOf("SumExclSqr") != -1;
+        profile.headerRead = true;
+
+        for (int j = 0; j < numFunctions; j++) {
+            inputString = reader.readLine();
+            if (inputString == null) {
+                throw new CorruptFileException("Unexpected end of file: Only found " + (j - 2) + " of " + numFunctions
+                        + " Function Lines");
+            }
+            FunctionLine line = parseFunctionLine(inputString, profile.file, reader.getCurrentLine());
+            line.groupNames = parseGroupNames(inputString);
+            profile.functions.add(line);
+        }
+
+        //Process the appropriate number of aggregate lines.
+        inputString = reader.readLine();
+
+        //A valid profile.*.*.* will always contain this line.
+        if (inputString == null) {
+            throw new CorruptFileException("Unexpected end of file: Looking for 'aggregates' line");
+        }
+        genericTokenizer = new StringTokenizer(inputString, " \t\n\r");
+        numFunctions = Integer.parseInt(genericTokenizer.nextToken());
+        for (int j = 0; j < numFunctions; j++) {
+            inputString = reader.readLine();
+        }
+
+        if (metric == 0) {
+            //Process the appropriate number of userevent lines.
+            inputString = reader.readLine();
+            if (inputString != null) {
+                genericTokenizer = new StringTokenizer(inputString, " \t\n\r");
+                int numUserEvents = Integer.parseInt(genericTokenizer.nextToken());
+
+                //Skip the heading (e.g. "# eventname numevents max min mean sumsqr")
+                reader.readLine();
+                for (int j = 0; j < numUserEvents; j++) {
+                    inputString = reader.readLine();
+                    if (inputString == null) {
+                        System.out.println("WARNING: Unexpected end of file: Only found " + (j - 2) + " of " + numUserEvents
+                                + " User Event Lines");
+                        break;
+                    }
+                    profile.userEvents.add(parseUserEventLine(inputString));
+                }
+            }
+        }
+    }
+
+    // runs on the loading thread, applies a parsed file to the data source in file order
+    private boolean mergeProfile(ParsedProfile profile, int metric, int fileIndex, boolean metricNameProcessed) {
+        int[] nct = profile.nct;
+        Thread thread = this.addThread(nct[0], nct[1], nct[2]);
+        currentFile = profile.file;
+
+        if (profile.ioException != null) {
+            System.err.println("too many exceptions caught");
+            profile.ioException.printStackTrace();
+            return metricNameProcessed;
+        }
+
+        if (profile.metaData != null) {
+            thread.getMetaData().putAll(profile.metaData);
+        }
+
+        if (profile.headerRead) {
+            // there may or may not be a metric name in the metadata
+            String metricName = profile.metricName;
+            String metaDataMetricName = thread.getMetaData().get("Metric Name");
+
+            // remove it if it was there
+            thread.getMetaData().remove("Metric Name");
+
+            if (metricNameProcessed == false) {
+                if (metaDataMetricName != null) {
+                    metricName = metaDataMetricName;
+                }
+                //Set the metric name.
+                if (metricName == null) {
+                    metricName = "Time";
+                }
+                this.addMetric(metricName);
+                metricNameProcessed = true;
+            }
+
+            if (fileIndex == 0 && profile.profileStats) {
+                this.setProfileStatsPresent(true);
+            }
+        }
+
+        for (Iterator<FunctionLine> it = profile.functions.iterator(); it.hasNext();) {
+            applyFunctionLine(it.next(), thread, metric);
+        }
+
+        if (!profile.userEvents.isEmpty()) {
+            setUserEventsPresent(true);
+        }
+        for (Iterator<UserEventLine> it = profile.userEvents.iterator(); it.hasNext();) {
+            applyUserEventLine(it.next(), thread);
+        }
+
+        if (profile.error != null) {
+            System.err.println("File '" + profile.file + "' is corrupt (at line " + profile.errorLine + ") : "
+                    + profile.error);
+        }
+        return metricNameProcessed;
     }
 
     public String toString() {
@@ -488,6 +859,14 @@ public class TauDataSource extends DataSource {
     }
 
     private void processFunctionLine(String string, Thread thread, int metric) throws DataSourceException {
+        String groupNames = this.getGroupNames(string);
+        FunctionLine line = parseFunctionLine(string, currentFile, br.getCurrentLine());
+        line.groupNames = groupNames;
+        applyFunctionLine(line, thread, metric);
+    }
+
+    // does not modify the data source, so it is safe to call from the parallel loader's workers
+    private FunctionLine parseFunctionLine(String string, File file, int lineNumber) {
 
         String name;
         double numcalls;
@@ -497,8 +876,6 @@ public class TauDataSource extends DataSource {
         //double profileCalls;
         //double sumExclSqr;
 
-        String groupNames = this.getGroupNames(string);
-
         // first, count the number of double-quotes to determine if the
         // function contains a double-quote
         int quoteCount = 0;
@@ -548,18 +925,28 @@ public class TauDataSource extends DataSource {
         //profileCalls = Integer.parseInt(st2.nextToken()); //ProfileCalls
 
         if (inclusive < 0) {
-            System.err.println("File '" + currentFile + "' is corrupt (at line " + br.getCurrentLine()
+            System.err.println("File '" + file + "' is corrupt (at line " + lineNumber
                     + ") : Negative values found in profile, ignoring! (routine: " + name + ")");
             inclusive = 0;
         }
         if (exclusive < 0) {
-            System.err.println("File '" + currentFile + "' is corrupt (at line " + br.getCurrentLine()
+            System.err.println("File '" + file + "' is corrupt (at line " + lineNumber
                     + ") : Negative values found in profile, ignoring! (routine: " + name + ")");
             exclusive = 0;
         }
 
+        FunctionLine line = new FunctionLine();
+        line.name = name;
+        line.numCalls = numcalls;
+        line.numSubr = numsubr;
+        line.exclusive = exclusive;
+        line.inclusive = inclusive;
+        return line;
+    }
+
+    private void applyFunctionLine(FunctionLine line, Thread thread, int metric) {
         //if (numcalls != 0) {
-            Function func = this.addFunction(name, this.dirs.size());
+            Function func = this.addFunction(line.name, this.dirs.size());
 
             FunctionProfile functionProfile = thread.getFunctionProfile(func);
 
@@ -570,41 +957,21 @@ public class TauDataSource extends DataSource {
 
             //When we encounter duplicate names in the profile.x.x.x file, treat as additional
             //data for the name (that is, don't just overwrite what was there before).
-            functionProfile.setExclusive(metric, functionProfile.getExclusive(metric) + exclusive);
-            functionProfile.setInclusive(metric, functionProfile.getInclusive(metric) + inclusive);
+            functionProfile.setExclusive(metric, functionProfile.getExclusive(metric) + line.exclusive);
+            functionProfile.setInclusive(metric, functionProfile.getInclusive(metric) + line.inclusive);
             if (metric == 0) {
-                functionProfile.setNumCalls(functionProfile.getNumCalls() + numcalls);
-                functionProfile.setNumSubr(functionProfile.getNumSubr() + numsubr);
+                functionProfile.setNumCalls(functionProfile.getNumCalls() + line.numCalls);
+                functionProfile.setNumSubr(functionProfile.getNumSubr() + line.numSubr);
             }
 
             if (metric == 0) {
-                addGroups(groupNames, func);
+                addGroups(line.groupNames, func);
             }
         //}
     }
 
     private String getGroupNames(String string) {
-
-        // first, count the number of double-quotes to determine if the
-        // function contains a double-quote
-        int quoteCount = 0;
-        for (int i = 0; i < string.length(); i++) {
-            if (string.charAt(i) == '"')
-                quoteCount++;
-        }
-
-        // there is a quote in the name of the timer/function
-        // we assume that TAU_GROUP="..." is there, so the end of the name
-        // must be (at quoteCount - 2)
-        int count = 0;
-        int i = 0;
-        while (count < quoteCount - 2 && i < string.length()) {
-            if (string.charAt(i) == '"')
-                count++;
-            i++;
-        }
-
-        StringTokenizer getNameTokenizer = new StringTokenizer(string.substring(i + 1), "\"");
+        StringTokenizer getNameTokenizer = getGroupTokenizer(string);
         String str = getNameTokenizer.nextToken();
 
         //Just do the group check once.
@@ -630,7 +997,49 @@ public class TauDataSource extends DataSource {
         return null;
     }
 
+    // the parallel loader checks every line instead of relying on the (shared) group check
+    private static String parseGroupNames(String string) {
+        StringTokenizer getNameTokenizer = getGroupTokenizer(string);
+        if (getNameTokenizer.nextToken().indexOf("GROUP=") > 0) {
+            try {
+                return getNameTokenizer.nextToken();
+            } catch (NoSuchElementException e) {
+                // possibly GROUP=""
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static StringTokenizer getGroupTokenizer(String string) {
+
+        // first, count the number of double-quotes to determine if the
+        // function contains a double-quote
+        int quoteCount = 0;
+        for (int i = 0; i < string.length(); i++) {
+            if (string.charAt(i) == '"')
+                quoteCount++;
+        }
+
+        // there is a quote in the name of the timer/function
+        // we assume that TAU_GROUP="..." is there, so the end of the name
+        // must be (at quoteCount - 2)
+        int count = 0;
+        int i = 0;
+        while (count < quoteCount - 2 && i < string.length()) {
+            if (string.charAt(i) == '"')
+                count++;
+            i++;
+        }
+
+        return new StringTokenizer(string.substring(i + 1), "\"");
+    }
+
     private void processUserEventLine(String string, Thread thread) {
+        applyUserEventLine(parseUserEventLine(string), thread);
+    }
+
+    private static UserEventLine parseUserEventLine(String string) {
 
         String name;
         double numSamples;
@@ -674,8 +1083,25 @@ public class TauDataSource extends DataSource {
         sampleMean = Double.parseDouble(st2.nextToken()); //Mean
         sampleSumSquared = Double.parseDouble(st2.nextToken()); //Standard Deviation
 
+        UserEventLine line = new UserEventLine();
+        line.name = name;
+        line.numSamples = numSamples;
+        line.sampleMax = sampleMax;
+        line.sampleMin = sampleMin;
+        line.sampleMean = sampleMean;
+        line.sampleSumSquared = sampleSumSquared;
+        return line;
+    }
+
+    private void applyUserEventLine(UserEventLine line, Thread thread) {
+        double numSamples = line.numSamples;
+        double sampleMax = line.sampleMax;
+        double sampleMin = line.sampleMin;
+        double sampleMean = line.sampleMean;
+        double sampleSumSquared = line.sampleSumSquared;
+
         //if (numSamples != 0) {
-            UserEvent userEvent = this.addUserEvent(name);
+            UserEvent userEvent = this.addUserEvent(line.name);
             UserEventProfile userEventProfile = thread.getUserEventProfile(userEvent);
 
             if (userEventProfile == null) {
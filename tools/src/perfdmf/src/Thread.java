@@ -56,6 +56,13 @@ public class Thread implements Comparable<Thread> {
     private long startTime;
     private DataSource dataSource;
 
+    // packed storage for the function profiles, null unless the data source uses compact storage
+    private FunctionProfileBlock profileBlock;
+
+    // false while the profiles of this thread have not been paged in (see DataSource.loadThreadData)
+    private volatile boolean dataLoaded = true;
+    private boolean loadingData;
+
     private static class ThreadData {
 
         public double maxNumCalls;
@@ -85,6 +92,10 @@ public class Thread implements Comparable<Thread> {
 
         recreateData();
 
+        if (dataSource.getCompactStorage()) {
+            profileBlock = new FunctionProfileBlock(FunctionProfile.METRIC_SIZE * (numMetrics + 1));
+        }
+
         // create the first snapshot
         Snapshot snapshot = new Snapshot("", snapshots.size());
         snapshots.add(snapshot);
@@ -132,10 +143,17 @@ public class Thread implements Comparable<Thread> {
     }
 
     public void addMetric() {
+        ensureLoaded();
         numMetrics++;
 
         recreateData();
 
+        if (profileBlock != null) {
+            // one pass over the packed data instead of one new array per profile
+            profileBlock.addMetric(numMetrics - 1, getNumSnapshots(), FunctionProfile.METRIC_SIZE);
+            return;
+        }
+
         for (Iterator<FunctionProfile> it = getFunctionProfiles().iterator(); it.hasNext();) {
             FunctionProfile fp = it.next();
             if (fp != null) { // fp == null would mean this thread didn't call this function
@@ -167,6 +185,10 @@ public class Thread implements Comparable<Thread> {
                     uep.addSnapshot();
                 }
             }
+            if (profileBlock != null) {
+                // profiles added later will need room for every snapshot too
+                profileBlock.ensureStride(getNumSnapshots() * ((FunctionProfile.METRIC_SIZE * numMetrics) + 2));
+            }
         }
 
         recreateData();
@@ -181,10 +203,17 @@ public class Thread implements Comparable<Thread> {
     }
 
     private void recreateData() {
+        // keep what has already been computed, so that adding a metric (or a snapshot) only 
+        // requires the new entries to be set
+        ThreadData[][] oldData = threadData;
         threadData = new ThreadData[getNumSnapshots()][getNumMetrics()];
         for (int s = 0; s < getNumSnapshots(); s++) {
             for (int m = 0; m < getNumMetrics(); m++) {
-                threadData[s][m] = new ThreadData();
+                if (oldData != null && s < oldData.length && m < oldData[s].length) {
+                    threadData[s][m] = oldData[s][m];
+                } else {
+                    threadData[s][m] = new ThreadData();
+                }
             }
         }
     }
@@ -206,6 +235,9 @@ public class Thread implements Comparable<Thread> {
 
         functionProfiles.set(id, fp);
         fp.setThread(this);
+        if (profileBlock != null) {
+            fp.moveToBlock(profileBlock);
+        }
     }
 
     public void deleteFunctionProfile(FunctionProfile fp) {
@@ -221,6 +253,7 @@ public class Thread implements Comparable<Thread> {
     }
 
     public FunctionProfile getFunctionProfile(Function function) {
+        ensureLoaded();
         if ((functionProfiles != null) && (function.getID() < functionProfiles.size())) {
             return functionProfiles.get(function.getID());
         }
@@ -239,18 +272,22 @@ public class Thread implements Comparable<Thread> {
     }
 
     public List<FunctionProfile> getFunctionProfiles() {
+        ensureLoaded();
         return functionProfiles;
     }
 
     public Iterator<FunctionProfile> getFunctionProfileIterator() {
+        ensureLoaded();
         return functionProfiles.iterator();
     }
 
     public UserEventProfile getUserEventProfile(UserEvent userEvent) {
+        ensureLoaded();
         return userEventProfiles.get(new Integer(userEvent.getID()));
     }
 
     public Iterator<UserEventProfile> getUserEventProfiles() {
+        ensureLoaded();
         return userEventProfiles.values().iterator();
     }
 
@@ -286,10 +323,10 @@ public class Thread implements Comparable<Thread> {
 
     // compute max values and percentages for threads (not mean/total)
     private void setThreadValues(int startMetric, int endMetric, int startSnapshot, int endSnapshot) {
-
-        // the recreateData() call wipes out all the threadData structures, so we have to recreate all of them for now.
-        startMetric = 0;
-        endMetric = getNumMetrics() - 1;
+        if (!dataLoaded && !loadingData) {
+            // computed when the data is paged in, no reason to load it just for this
+            return;
+        }
 
         if (getMetaData() != null) {
 	        String startString = (String) getMetaData().get("Starting Timestamp");
@@ -368,6 +405,7 @@ public class Thread implements Comparable<Thread> {
     }
 
     public double getMaxInclusive(int metric, int snapshot) {
+        ensureLoaded();
         if (snapshot == -1) {
             snapshot = getNumSnapshots() - 1;
         }
@@ -375,22 +413,27 @@ public class Thread implements Comparable<Thread> {
     }
 
     public double getMaxExclusive(int metric, int snapshot) {
+        ensureLoaded();
         return threadData[snapshot][metric].maxExclusive;
     }
 
     public double getMaxInclusivePercent(int metric, int snapshot) {
+        ensureLoaded();
         return threadData[snapshot][metric].maxInclusivePercent;
     }
 
     public double getMaxExclusivePercent(int metric, int snapshot) {
+        ensureLoaded();
         return threadData[snapshot][metric].maxExclusivePercent;
     }
 
     public double getMaxInclusivePerCall(int metric, int snapshot) {
+        ensureLoaded();
         return threadData[snapshot][metric].maxInclusivePerCall;
     }
 
     public double getMaxExclusivePerCall(int metric, int snapshot) {
+        ensureLoaded();
         return threadData[snapshot][metric].maxExclusivePerCall;
     }
 
@@ -399,15 +442,18 @@ public class Thread implements Comparable<Thread> {
     }
 
     public double getPercentDivider(int metric, int snapshot) {
+        ensureLoaded();
         //double val = threadData[snapshot][metric].percentDivider;
         return threadData[snapshot][metric].percentDivider;
     }
 
     public double getMaxNumCalls(int snapshot) {
+        ensureLoaded();
         return threadData[snapshot][0].maxNumCalls;
     }
 
     public double getMaxNumSubr(int snapshot) {
+        ensureLoaded();
         return threadData[snapshot][0].maxNumSubr;
     }
 
@@ -423,4 +469,40 @@ public class Thread implements Comparable<Thread> {
         return dataSource;
     }
 
+    /**
+     * Marks the function and user event profiles of this thread as not yet loaded.  The 
+     * first access to them will ask the data source to page them in through 
+     * DataSource.loadThreadData(Thread).  Used by data sources that load threads on demand.
+     * 
+     * @param dataLoaded	false if the profiles should be loaded on first access
+     */
+    public void setDataLoaded(boolean dataLoaded) {
+        this.dataLoaded = dataLoaded;
+    }
+
+    public boolean isDataLoaded() {
+        return dataLoaded;
+    }
+
+    private void ensureLoaded() {
+        if (dataLoaded) {
+            return;
+        }
+        synchronized (this) {
+            // the data source may read the thread back while loading it
+            if (dataLoaded || loadingData) {
+                return;
+            }
+            loadingData = true;
+            try {
+                dataSource.loadThreadData(this);
+                setThreadDataAllMetrics();
+                // not if the load failed, the next access tries again
+                dataLoaded = true;
+            } finally {
+                loadingData = false;
+            }
+        }
+    }
+
 }
\ No newline at end of file
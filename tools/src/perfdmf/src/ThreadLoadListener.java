@@ -0,0 +1,16 @@
+package edu.uoregon.tau.perfdmf;
+
+/**
+ * Receives threads from a DataSource as soon as they have been read, before the whole
+ * data source is loaded and before any derived data (statistics, aggregate threads) exists.
+ * 
+ * @see DataSource#setThreadLoadListener(ThreadLoadListener)
+ */
+public interface ThreadLoadListener {
+    /**
+     * Called on the loading thread.  The thread's function and user event profiles are 
+     * complete, but the data source may still add functions, threads and derived data 
+     * afterwards, so anything kept must be copied now.
+     */
+    void threadLoaded(Thread thread);
+}
@@ -0,0 +1,703 @@
+package edu.uoregon.tau.perfdmf;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.uoregon.tau.trace.TraceReader;
+import edu.uoregon.tau.trace.TraceReaderCallbacks;
+
+/**
+ * Builds profiles from TAU traces (tautrace.*.trc) by replaying their events.
+ *
+ * Each trace file is replayed by its own TraceReader on a pool of worker threads, which only
+ * accumulate the inclusive, exclusive, calls and subrs of the states on each node/thread of the
+ * file into private arrays.  The loading thread then merges the files into the data source in
+ * the order they were given, so the functions come out the same however many threads are used.
+ *
+ * Optionally the call paths are profiled too, and the trace can be cut into windows of a fixed
+ * length of time, each of which becomes a snapshot holding the profile up to its end (with
+ * the states still running at that time counted up to it), followed by the final profile.
+ *
+ * User events become user events, and messages the "Message size sent to all nodes" and
+ * "Message size received from all nodes" events of TAU profiles.
+ */
+public class TraceDataSource extends DataSource {
+
+    private static final String SEND_EVENT = "Message size sent to all nodes";
+    private static final String RECV_EVENT = "Message size received from all nodes";
+    private static final int READ_CHUNK = 64 * 1024;
+
+    private List<File> traces;
+    private boolean callPaths = false;
+    private long snapshotInterval = 0;
+    private int loadThreads = Integer.getInteger("perfdmf.loadThreads", Runtime.getRuntime().availableProcessors())
+            .intValue();
+
+    private volatile boolean abort = false;
+    private volatile int filesRead = 0;
+
+    /**
+     * @param files the trace files, or one directory to find them in.  With none, the traces
+     *  in the current directory are used.
+     */
+    public TraceDataSource(File[] files) {
+        super();
+        if (files == null || files.length == 0) {
+            traces = findTraces(new File(System.getProperty("user.dir")));
+        } else if (files.length == 1 && files[0].isDirectory()) {
+            traces = findTraces(files[0]);
+        } else {
+            traces = new ArrayList<File>(Arrays.asList(files));
+        }
+    }
+
+    private static List<File> findTraces(File dir) {
+        List<File> list = new ArrayList<File>();
+        String[] names = dir.list();
+        if (names != null) {
+            Arrays.sort(names);
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].startsWith("tautrace.") && names[i].endsWith(".trc")) {
+                    list.add(new File(dir, names[i]));
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Finds the event definition file of a trace: events.N.edf for the per-node traces
+     * tautrace.N.C.T.trc, and for others (such as a merged tau.trc) the .edf of the same name,
+     * or tau.edf.
+     */
+    static File getEDF(File trace) {
+        String name = trace.getName();
+        File dir = trace.getAbsoluteFile().getParentFile();
+        String[] a = name.split("\\.");
+        if (a.length == 5) {
+            File edf;
+            if (name.contains("cuda")) {
+                edf = new File(dir, "taucudaevents." + a[1] + "." + a[2] + "." + a[3] + ".edf");
+            } else {
+                edf = new File(dir, "events." + a[1] + ".edf");
+            }
+            if (edf.exists()) {
+                return edf;
+            }
+        }
+        if (name.endsWith(".trc")) {
+            File edf = new File(dir, name.substring(0, name.length() - 4) + ".edf");
+            if (edf.exists()) {
+                return edf;
+            }
+        }
+        return new File(dir, "tau.edf");
+    }
+
+    /**
+     * Sets whether call path profiles (a => b) are built along with the flat profiles.
+     */
+    public void setCallPaths(boolean callPaths) {
+        this.callPaths = callPaths;
+    }
+
+    /**
+     * Sets the length of the snapshot windows, in the time units of the trace (microseconds),
+     * 0 for no snapshots.
+     */
+    public void setSnapshotInterval(long snapshotInterval) {
+        this.snapshotInterval = Math.max(0, snapshotInterval);
+    }
+
+    /**
+     * Sets the number of worker threads replaying the traces.  The default comes from the
+     * perfdmf.loadThreads property, or is the number of processors.
+     */
+    public void setLoadThreads(int loadThreads) {
+        this.loadThreads = Math.max(1, loadThreads);
+    }
+
+    public int getLoadThreads() {
+        return loadThreads;
+    }
+
+    public void cancelLoad() {
+        abort = true;
+    }
+
+    public int getProgress() {
+        if (traces.size() == 0) {
+            return 0;
+        }
+        return (int) ((float) filesRead / (float) traces.size() * 100);
+    }
+
+    public List<File> getFiles() {
+        return traces;
+    }
+
+    public void load() throws FileNotFoundException, IOException, DataSourceException {
+        long time = System.currentTimeMillis();
+
+        if (traces.size() == 0) {
+            throw new DataSourceException("trace type: no traces (tautrace.*.trc) found");
+        }
+        for (int i = 0; i < traces.size(); i++) {
+            if (!traces.get(i).exists()) {
+                throw new DataSourceException("Error: File '" + traces.get(i).getName() + "' does not exist.");
+            }
+        }
+
+        // the snapshot windows are the same for every thread, starting at the earliest event
+        long start = Long.MAX_VALUE;
+        if (snapshotInterval > 0) {
+            for (int i = 0; i < traces.size(); i++) {
+                TraceReader reader = new TraceReader(traces.get(i).getPath(), getEDF(traces.get(i)).getPath());
+                long first = reader.peekTime();
+                reader.closeTrace();
+                if (first >= 0) {
+                    start = Math.min(start, first);
+                }
+            }
+        }
+        final long windowStart = start == Long.MAX_VALUE ? 0 : start;
+
+        this.addMetric("Time");
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(loadThreads, traces.size()));
+        List<Future<TraceReplay>> futures = new ArrayList<Future<TraceReplay>>();
+        List<TraceReplay> replays = new ArrayList<TraceReplay>();
+        try {
+            for (int i = 0; i < traces.size(); i++) {
+                futures.add(executor.submit(new TraceReplay(traces.get(i), windowStart)));
+            }
+            for (int i = 0; i < traces.size(); i++) {
+                TraceReplay replay;
+                try {
+                    replay = futures.get(i).get();
+                } catch (InterruptedException ie) {
+                    // keep the interrupt for the caller, the pool is shut down below
+                    java.lang.Thread.currentThread().interrupt();
+                    throw new DataSourceException(ie);
+                } catch (ExecutionException ee) {
+                    Throwable cause = ee.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new DataSourceException((Exception) cause);
+                }
+                futures.set(i, null);
+                filesRead++;
+                if (abort) {
+                    return;
+                }
+                replays.add(replay);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // every thread gets as many snapshots as the longest one has windows
+        int windows = 0;
+        for (int i = 0; i < replays.size(); i++) {
+            for (int t = 0; t < replays.get(i).threads.size(); t++) {
+                windows = Math.max(windows, replays.get(i).threads.get(t).windows);
+            }
+        }
+        for (int i = 0; i < replays.size(); i++) {
+            TraceReplay replay = replays.get(i);
+            for (int t = 0; t < replay.threads.size(); t++) {
+                Thread thread = mergeThread(replay, replay.threads.get(t), windowStart, windows);
+                fireThreadLoaded(thread);
+            }
+            replays.set(i, null);
+        }
+
+        this.generateDerivedData();
+
+        time = (System.currentTimeMillis()) - time;
+        //System.out.println("Time to process (in milliseconds): " + time);
+    }
+
+    private Thread mergeThread(TraceReplay replay, ThreadReplay tr, long windowStart, int windows) {
+        Thread thread = this.addThread(tr.nid, replay.context, tr.tid);
+        if (snapshotInterval > 0) {
+            for (int w = 0; w < windows; w++) {
+                Snapshot snapshot = thread.addSnapshot("Window " + w);
+                snapshot.setTimestamp(windowStart + (w + 1) * snapshotInterval);
+            }
+            thread.addSnapshot("Final");
+        }
+        int numSnapshots = thread.getNumSnapshots();
+        double[][] values = new double[numSnapshots][];
+        double[][] pathValues = new double[numSnapshots][];
+        double[][] eventStats = new double[numSnapshots][];
+        for (int s = 0; s < numSnapshots; s++) {
+            values[s] = tr.snapshot(s, windows);
+            pathValues[s] = tr.pathSnapshot(s, windows);
+            eventStats[s] = tr.eventSnapshot(s, windows);
+        }
+
+        for (int f = 0; f < replay.stateIds.length; f++) {
+            if (tr.values[f * VALUES + 2] == 0) {
+                // never called on this thread
+                continue;
+            }
+            Function function = this.addFunction(replay.stateNames[f], 1);
+            addGroups(replay.stateGroups[f], function);
+            FunctionProfile fp = new FunctionProfile(function, getNumberOfMetrics(), numSnapshots);
+            thread.addFunctionProfile(fp);
+            setValues(fp, values, f * VALUES);
+        }
+
+        if (callPaths) {
+            String[] pathNames = new String[tr.pathCount];
+            for (int p = 0; p < tr.pathCount; p++) {
+                int f = tr.pathFunctions[p];
+                int parent = tr.pathParents[p];
+                pathNames[p] = parent < 0 ? replay.stateNames[f] : pathNames[parent] + " => " + replay.stateNames[f];
+                if (parent < 0) {
+                    // the top level paths are the flat profiles
+                    continue;
+                }
+                Function function = this.addFunction(pathNames[p], 1);
+                addGroups(replay.stateGroups[f], function);
+                function.addGroup(this.addGroup("TAU_CALLPATH"));
+                FunctionProfile fp = new FunctionProfile(function, getNumberOfMetrics(), numSnapshots);
+                thread.addFunctionProfile(fp);
+                setValues(fp, pathValues, p * VALUES);
+            }
+        }
+
+        for (int e = 0; e < replay.eventNames.length; e++) {
+            if (tr.eventStats[e * STATS] == 0) {
+                continue;
+            }
+            UserEvent userEvent = this.addUserEvent(replay.eventNames[e]);
+            UserEventProfile uep = new UserEventProfile(userEvent, numSnapshots);
+            thread.addUserEventProfile(uep);
+            for (int s = 0; s < numSnapshots; s++) {
+                double[] stats = eventStats[s];
+                int v = e * STATS;
+                double numSamples = stats[v];
+                uep.setNumSamples(numSamples, s);
+                uep.setMinValue(numSamples == 0 ? 0 : stats[v + 1], s);
+                uep.setMaxValue(numSamples == 0 ? 0 : stats[v + 2], s);
+                uep.setMeanValue(numSamples == 0 ? 0 : stats[v + 3] / numSamples, s);
+                uep.setSumSquared(stats[v + 4], s);
+            }
+            uep.updateMax();
+        }
+        return thread;
+    }
+
+    private static void setValues(FunctionProfile fp, double[][] values, int v) {
+        for (int s = 0; s < values.length; s++) {
+            fp.setInclusive(s, 0, values[s][v]);
+            fp.setExclusive(s, 0, values[s][v + 1]);
+            fp.setNumCalls(s, values[s][v + 2]);
+            fp.setNumSubr(s, values[s][v + 3]);
+        }
+    }
+
+    // inclusive, exclusive, calls and subrs of each function and call path
+    private static final int VALUES = 4;
+    // samples, min, max, sum and sum of squares of each user event
+    private static final int STATS = 5;
+
+    /**
+     * Replays one trace file, on a worker thread.  Must not touch the data source.
+     */
+    private class TraceReplay implements TraceReaderCallbacks, Callable<TraceReplay> {
+        private final File file;
+        private final long windowStart;
+        int context = 0;
+
+        private Map<Integer, String> groupNames = new HashMap<Integer, String>();
+        private Map<Integer, String[]> stateDefs = new HashMap<Integer, String[]>();
+        private Map<Integer, String> eventDefs = new HashMap<Integer, String>();
+
+        // the definitions, sorted by id, each state's position is its index in the thread arrays
+        int[] stateIds;
+        String[] stateNames;
+        String[] stateGroups;
+        int[] eventIds;
+        // the user events, followed by the send and receive message events
+        String[] eventNames;
+
+        List<ThreadReplay> threads = new ArrayList<ThreadReplay>();
+        private Map<Integer, ThreadReplay> threadMap = new HashMap<Integer, ThreadReplay>();
+        private ThreadReplay last;
+
+        TraceReplay(File file, long windowStart) {
+            this.file = file;
+            this.windowStart = windowStart;
+            String[] a = file.getName().split("\\.");
+            if (a.length == 5) {
+                try {
+                    context = Integer.parseInt(a[2]);
+                } catch (NumberFormatException nfe) {
+                    context = 0;
+                }
+            }
+        }
+
+        public TraceReplay call() {
+            TraceReader reader = new TraceReader(file.getPath(), getEDF(file).getPath());
+            reader.setSubtractFirstTimestamp(false);
+            reader.setMemoryMapped(true);
+            while (!abort && reader.readNumEvents(this, READ_CHUNK, null) > 0) {
+            }
+            reader.closeTrace();
+            if (stateIds == null) {
+                define();
+            }
+            for (int t = 0; t < threads.size(); t++) {
+                threads.get(t).finish();
+            }
+            return this;
+        }
+
+        /* Sorts the definitions by id, once they have all been read */
+        private void define() {
+            stateIds = new int[stateDefs.size()];
+            int i = 0;
+            for (Integer id : stateDefs.keySet()) {
+                stateIds[i++] = id.intValue();
+            }
+            Arrays.sort(stateIds);
+            stateNames = new String[stateIds.length];
+            stateGroups = new String[stateIds.length];
+            for (i = 0; i < stateIds.length; i++) {
+                String[] def = stateDefs.get(stateIds[i]);
+                stateNames[i] = def[0];
+                stateGroups[i] = def[1];
+            }
+
+            eventIds = new int[eventDefs.size()];
+            i = 0;
+            for (Integer id : eventDefs.keySet()) {
+                eventIds[i++] = id.intValue();
+            }
+            Arrays.sort(eventIds);
+            eventNames = new String[eventIds.length + 2];
+            for (i = 0; i < eventIds.length; i++) {
+                eventNames[i] = eventDefs.get(eventIds[i]);
+            }
+            eventNames[eventIds.length] = SEND_EVENT;
+            eventNames[eventIds.length + 1] = RECV_EVENT;
+        }
+
+        private ThreadReplay thread(int nodeToken, int threadToken) {
+            if (stateIds == null) {
+                define();
+            }
+            if (last != null && last.nid == nodeToken && last.tid == threadToken) {
+                return last;
+            }
+            Integer key = Integer.valueOf((nodeToken << 16) + threadToken);
+            ThreadReplay thread = threadMap.get(key);
+            if (thread == null) {
+                thread = new ThreadReplay(nodeToken, threadToken, stateIds.length, eventNames.length, windowStart);
+                threadMap.put(key, thread);
+                threads.add(thread);
+            }
+            last = thread;
+            return thread;
+        }
+
+        public int defClkPeriod(Object userData, double clkPeriod) {
+            return 0;
+        }
+
+        public int defThread(Object userData, int nodeToken, int threadToken, String threadName) {
+            return 0;
+        }
+
+        public int defStateGroup(Object userData, int stateGroupToken, String stateGroupName) {
+            groupNames.put(stateGroupToken, stateGroupName);
+            return 0;
+        }
+
+        public int defState(Object userData, int stateToken, String stateName, int stateGoupToken) {
+            String group = groupNames.get(stateGoupToken);
+            stateDefs.put(stateToken, new String[] { stateName, group == null ? "TAU_DEFAULT" : group });
+            return 0;
+        }
+
+        public int defUserEvent(Object userData, int userEventToken, String userEventName, int monotonicallyIncreasing) {
+            eventDefs.put(userEventToken, userEventName);
+            return 0;
+        }
+
+        public int enterState(Object userData, long time, int nodeToken, int threadToken, int stateToken) {
+            ThreadReplay thread = thread(nodeToken, threadToken);
+            int f = Arrays.binarySearch(stateIds, stateToken);
+            if (f >= 0) {
+                thread.advance(time);
+                thread.enter(f, time);
+            }
+            return 0;
+        }
+
+        public int leaveState(Object userData, long time, int nodeToken, int threadToken, int stateToken) {
+            ThreadReplay thread = thread(nodeToken, threadToken);
+            int f = Arrays.binarySearch(stateIds, stateToken);
+            if (f >= 0) {
+                thread.advance(time);
+                thread.leave(f, time);
+            }
+            return 0;
+        }
+
+        public int sendMessage(Object userData, long time, int sourceNodeToken, int sourceThreadToken,
+                int destinationNodeToken, int destinationThreadToken, int messageSize, int messageTag, int messageCom) {
+            ThreadReplay thread = thread(sourceNodeToken, sourceThreadToken);
+            thread.advance(time);
+            thread.trigger(eventIds.length, messageSize);
+            return 0;
+        }
+
+        public int recvMessage(Object userData, long time, int sourceNodeToken, int sourceThreadToken,
+                int destinationNodeToken, int destinationThreadToken, int messageSize, int messageTag, int messageCom) {
+            ThreadReplay thread = thread(destinationNodeToken, destinationThreadToken);
+            thread.advance(time);
+            thread.trigger(eventIds.length + 1, messageSize);
+            return 0;
+        }
+
+        public int eventTrigger(Object userData, long time, int nodeToken, int threadToken, int userEventToken,
+                double userEventValue) {
+            ThreadReplay thread = thread(nodeToken, threadToken);
+            int e = Arrays.binarySearch(eventIds, userEventToken);
+            if (e >= 0) {
+                thread.advance(time);
+                thread.trigger(e, userEventValue);
+            }
+            return 0;
+        }
+
+        public int endTrace(Object userData, int nodeToken, int threadToken) {
+            return 0;
+        }
+    }
+
+    /**
+     * The profile of one node/thread of a trace being replayed, in primitive arrays
+     */
+    private class ThreadReplay {
+        final int nid;
+        final int tid;
+        private final int numFunctions;
+
+        // VALUES per function
+        double[] values;
+        // how many activations of each function are on the stack, for the recursion
+        private int[] active;
+        // STATS per user event
+        double[] eventStats;
+
+        // the call paths, a tree of (parent path, function) pairs
+        int pathCount = 0;
+        int[] pathParents = new int[0];
+        int[] pathFunctions = new int[0];
+        double[] pathValues = new double[0];
+        private Map<Long, Integer> pathMap;
+
+        // the stack of open states
+        private int depth = 0;
+        private int[] stackFunctions = new int[64];
+        private int[] stackPaths = new int[64];
+        private long[] stackEntries = new long[64];
+        private long[] stackChildren = new long[64];
+
+        private long lastTime = 0;
+
+        // the snapshots taken so far, and the end of the current window
+        int windows = 0;
+        private List<double[]> snapshots = new ArrayList<double[]>();
+        private List<double[]> pathSnapshots = new ArrayList<double[]>();
+        private List<double[]> eventSnapshots = new ArrayList<double[]>();
+        private long windowEnd;
+
+        ThreadReplay(int nid, int tid, int numFunctions, int numEvents, long windowStart) {
+            this.nid = nid;
+            this.tid = tid;
+            this.numFunctions = numFunctions;
+            values = new double[numFunctions * VALUES];
+            active = new int[numFunctions];
+            eventStats = new double[numEvents * STATS];
+            windowEnd = snapshotInterval > 0 ? windowStart + snapshotInterval : Long.MAX_VALUE;
+            if (callPaths) {
+                pathMap = new HashMap<Long, Integer>();
+            }
+        }
+
+        /* Takes the snapshots of the windows that end before the time */
+        void advance(long time) {
+            while (time >= windowEnd) {
+                snapshot(windowEnd);
+                windows++;
+                windowEnd += snapshotInterval;
+            }
+            lastTime = time;
+        }
+
+        private int path(int parent, int function) {
+            Long key = Long.valueOf(((long) parent << 32) | function);
+            Integer path = pathMap.get(key);
+            if (path != null) {
+                return path.intValue();
+            }
+            if (pathCount == pathParents.length) {
+                int size = Math.max(16, pathCount * 2);
+                pathParents = Arrays.copyOf(pathParents, size);
+                pathFunctions = Arrays.copyOf(pathFunctions, size);
+                pathValues = Arrays.copyOf(pathValues, size * VALUES);
+            }
+            pathParents[pathCount] = parent;
+            pathFunctions[pathCount] = function;
+            pathMap.put(key, Integer.valueOf(pathCount));
+            return pathCount++;
+        }
+
+        void enter(int function, long time) {
+            if (depth == stackFunctions.length) {
+                stackFunctions = Arrays.copyOf(stackFunctions, depth * 2);
+                stackPaths = Arrays.copyOf(stackPaths, depth * 2);
+                stackEntries = Arrays.copyOf(stackEntries, depth * 2);
+                stackChildren = Arrays.copyOf(stackChildren, depth * 2);
+            }
+            values[function * VALUES + 2]++;
+            if (depth > 0) {
+                values[stackFunctions[depth - 1] * VALUES + 3]++;
+            }
+            if (pathMap != null) {
+                int p = path(depth > 0 ? stackPaths[depth - 1] : -1, function);
+                pathValues[p * VALUES + 2]++;
+                if (depth > 0) {
+                    pathValues[stackPaths[depth - 1] * VALUES + 3]++;
+                }
+                stackPaths[depth] = p;
+            }
+            active[function]++;
+            stackFunctions[depth] = function;
+            stackEntries[depth] = time;
+            stackChildren[depth] = 0;
+            depth++;
+        }
+
+        void leave(int function, long time) {
+            // find the state, states left without their leave records are left here too
+            int d = depth - 1;
+            while (d >= 0 && stackFunctions[d] != function) {
+                d--;
+            }
+            if (d < 0) {
+                return;
+            }
+            while (depth > d) {
+                pop(time);
+            }
+        }
+
+        private void pop(long time) {
+            depth--;
+            int function = stackFunctions[depth];
+            long inclusive = time - stackEntries[depth];
+            long exclusive = inclusive - stackChildren[depth];
+            active[function]--;
+            if (active[function] == 0) {
+                values[function * VALUES] += inclusive;
+            }
+            values[function * VALUES + 1] += exclusive;
+            if (pathMap != null) {
+                int p = stackPaths[depth];
+                pathValues[p * VALUES] += inclusive;
+                pathValues[p * VALUES + 1] += exclusive;
+            }
+            if (depth > 0) {
+                stackChildren[depth - 1] += inclusive;
+            }
+        }
+
+        void trigger(int event, double value) {
+            int e = event * STATS;
+            if (eventStats[e] == 0) {
+                eventStats[e + 1] = value;
+                eventStats[e + 2] = value;
+            } else {
+                eventStats[e + 1] = Math.min(eventStats[e + 1], value);
+                eventStats[e + 2] = Math.max(eventStats[e + 2], value);
+            }
+            eventStats[e]++;
+            eventStats[e + 3] += value;
+            eventStats[e + 4] += value * value;
+        }
+
+        /* Copies the profile so far, with the open states counted up to the time */
+        private void snapshot(long time) {
+            double[] v = values.clone();
+            double[] pv = pathValues.clone();
+            boolean[] counted = new boolean[numFunctions];
+            for (int d = 0; d < depth; d++) {
+                int function = stackFunctions[d];
+                long inclusive = time - stackEntries[d];
+                long exclusive = (d + 1 < depth ? stackEntries[d + 1] : time) - stackEntries[d] - stackChildren[d];
+                if (!counted[function]) {
+                    // only the outermost activation of a recursive function counts for inclusive
+                    counted[function] = true;
+                    v[function * VALUES] += inclusive;
+                }
+                v[function * VALUES + 1] += exclusive;
+                if (pathMap != null) {
+                    int p = stackPaths[d];
+                    pv[p * VALUES] += inclusive;
+                    pv[p * VALUES + 1] += exclusive;
+                }
+            }
+            snapshots.add(v);
+            pathSnapshots.add(pv);
+            eventSnapshots.add(eventStats.clone());
+        }
+
+        /* Leaves the states still open at the end of the trace */
+        void finish() {
+            while (depth > 0) {
+                pop(lastTime);
+            }
+        }
+
+        /* The values of a snapshot, the windows this thread didn't reach have its final values */
+        double[] snapshot(int s, int numWindows) {
+            return s < snapshots.size() && s < numWindows ? snapshots.get(s) : values;
+        }
+
+        double[] pathSnapshot(int s, int numWindows) {
+            double[] pv = s < pathSnapshots.size() && s < numWindows ? pathSnapshots.get(s) : pathValues;
+            if (pv.length < pathCount * VALUES) {
+                // the paths first entered after the snapshot
+                pv = Arrays.copyOf(pv, pathCount * VALUES);
+            }
+            return pv;
+        }
+
+        double[] eventSnapshot(int s, int numWindows) {
+            return s < eventSnapshots.size() && s < numWindows ? eventSnapshots.get(s) : eventStats;
+        }
+    }
+}
@@ -471,6 +471,9 @@ public class UtilFncs {
         if (filename.toLowerCase().endsWith(".mpip")) {
             return DataSource.MPIP;
         }
+        if (filename.toLowerCase().endsWith(".trc")) {
+            return DataSource.TRACE;
+        }
 
         // try reading a few lines and try to determine what the format is
         try {
@@ -732,6 +735,10 @@ public class UtilFncs {
         	dataSource =  new DarshanDataSource(sourceFiles[0]);
         	break;
 
+        case DataSource.TRACE:
+            dataSource = new TraceDataSource(sourceFiles);
+            break;
+
         default:
             throw new RuntimeException("Programming error: unknown format id = " + fileType);
         }
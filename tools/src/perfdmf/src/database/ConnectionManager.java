@@ -66,6 +66,15 @@ public class ConnectionManager {
         setDB(new DBConnector(perfdmfUser, perfdmfPass, database));
     }
 
+    /**
+     * Lends an additional connection to the same database with the same credentials, for
+     * work that runs alongside the main connection.  It comes from the database's
+     * DBConnectionPool; the caller closes it to give it back.
+     */
+    public DB openConnection() throws SQLException {
+        return DBConnectionPool.getPool(perfdmfUser, perfdmfPass, database).acquire();
+    }
+
     public void connectAndCreate() throws SQLException {
         setDB(new DBConnector(perfdmfUser, perfdmfPass, database, true));
     }
@@ -0,0 +1,223 @@
+package edu.uoregon.tau.perfdmf.database;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import edu.uoregon.tau.perfdmf.Database;
+
+/**
+ * A pool of connections to one database, so that concurrent work (ParaProf's manager
+ * window, PerfExplorer's analysis tasks, uploads) doesn't have to share a single
+ * connection.  acquire() lends a connection as a DB of its own, with its prepared
+ * statements cached (see StatementCache); closing that DB gives the connection back.
+ * When every connection is lent out, acquire() waits for one to come back.
+ * A connection keeps its statement cache while idle; the statements prepared through a DB
+ * are closed for their users when that DB is closed.
+ *
+ * <pre>
+ * DB db = DBConnectionPool.getPool(user, password, database).acquire();
+ * try {
+ *     ...
+ * } finally {
+ *     db.close();
+ * }
+ * </pre>
+ */
+public class DBConnectionPool {
+    private static Map<String, DBConnectionPool> pools = new HashMap<String, DBConnectionPool>();
+
+    private String user;
+    private String password;
+    // the settings the connections are made from, it doesn't connect itself
+    private DBConnector template;
+
+    private int maxSize = Integer.getInteger("perfdmf.poolSize", 8).intValue();
+    private int timeout = Integer.getInteger("perfdmf.poolTimeout", 60000).intValue();
+    private int statementCacheSize = Integer.getInteger("perfdmf.statementCacheSize", 32).intValue();
+
+    private LinkedList<StatementCache> idle = new LinkedList<StatementCache>();
+    // connections opened, lent out or idle
+    private int open = 0;
+    private boolean closed = false;
+
+    public DBConnectionPool(String user, String password, Database database) throws SQLException {
+        this.user = user;
+        this.password = password;
+        this.template = new DBConnector(user, password, database, false);
+    }
+
+    /**
+     * The pool shared by everyone that connects to this database as this user.
+     */
+    public static synchronized DBConnectionPool getPool(String user, String password, Database database)
+            throws SQLException {
+        String key = database.getConfig().getPath() + "\n" + user;
+        DBConnectionPool pool = pools.get(key);
+        if (pool == null || pool.isClosed()) {
+            pool = new DBConnectionPool(user, password, database);
+            pools.put(key, pool);
+        }
+        return pool;
+    }
+
+    /**
+     * Sets the most connections open at once (perfdmf.poolSize, 8 by default).
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        this.maxSize = Math.max(1, maxSize);
+        notifyAll();
+    }
+
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets how long acquire() waits for a free connection, in milliseconds
+     * (perfdmf.poolTimeout, a minute by default).
+     */
+    public synchronized void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Sets how many prepared statements each new connection keeps
+     * (perfdmf.statementCacheSize, 32 by default).  0 turns the cache off.
+     */
+    public synchronized void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * Lends a connection.  Close the returned DB to give it back; an unfinished transaction
+     * is rolled back at that point.
+     */
+    public DB acquire() throws SQLException {
+        StatementCache connection = null;
+        int cacheSize;
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + timeout;
+            while (!closed && idle.isEmpty() && open >= maxSize) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new SQLException("No free connection to " + template.getConnectString() + " after "
+                            + timeout + " ms");
+                }
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    java.lang.Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for a connection");
+                }
+            }
+            if (closed) {
+                throw new SQLException("The connection pool is closed");
+            }
+            if (!idle.isEmpty()) {
+                connection = idle.removeLast();
+            } else {
+                open++;
+            }
+            cacheSize = statementCacheSize;
+        }
+
+        if (connection != null && isBroken(connection)) {
+            closeConnection(connection);
+            connection = null;
+        }
+        if (connection == null) {
+            try {
+                DBConnector connector = new DBConnector(template, null, null);
+                connector.setStatementCacheSize(cacheSize);
+                connector.connect(user, password);
+                connection = connector.getStatementCache();
+                if (connection == null) {
+                    // no caching, but the pool still keeps the connection in one
+                    connection = new StatementCache(connector.getConnection(), 0);
+                }
+            } catch (SQLException e) {
+                discard();
+                throw e;
+            }
+        }
+        return new DBConnector(template, connection, this);
+    }
+
+    /**
+     * Closes the idle connections, and the others as they are given back.
+     */
+    public void close() {
+        LinkedList<StatementCache> connections;
+        synchronized (this) {
+            closed = true;
+            connections = idle;
+            idle = new LinkedList<StatementCache>();
+            open -= connections.size();
+            notifyAll();
+        }
+        for (StatementCache connection : connections) {
+            closeConnection(connection);
+        }
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return the number of connections open, lent out or idle
+     */
+    public synchronized int getSize() {
+        return open;
+    }
+
+    // called by DBConnector.close()
+    void release(StatementCache connection) {
+        // nothing prepared during this loan may run during the next one
+        connection.reclaim();
+        boolean reusable = !isBroken(connection);
+        if (reusable) {
+            try {
+                if (!connection.getConnection().getAutoCommit()) {
+                    connection.getConnection().rollback();
+                    connection.getConnection().setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                reusable = false;
+            }
+        }
+        synchronized (this) {
+            if (reusable && !closed) {
+                idle.addLast(connection);
+                notifyAll();
+                return;
+            }
+        }
+        closeConnection(connection);
+        discard();
+    }
+
+    private synchronized void discard() {
+        open--;
+        notifyAll();
+    }
+
+    private static boolean isBroken(StatementCache connection) {
+        try {
+            return connection.getConnection().isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    private static void closeConnection(StatementCache connection) {
+        connection.close();
+        try {
+            connection.getConnection().close();
+        } catch (SQLException e) {
+            // nothing left to do with it
+        }
+    }
+}
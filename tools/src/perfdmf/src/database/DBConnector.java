@@ -67,6 +67,11 @@ public class DBConnector implements DB {
     private Database database;
     private int schemaVersion = -1;
 
+    private int statementCacheSize = Integer.getInteger("perfdmf.statementCacheSize", 32).intValue();
+    private StatementCache statementCache = null;
+    // set when the connection is lent by a pool, close() gives it back
+    private DBConnectionPool pool = null;
+
 
     private static Map<String, String> passwordMap = new HashMap<String, String>();
 
@@ -143,6 +148,31 @@ public class DBConnector implements DB {
         }
     }
 
+    /*
+     * Used by DBConnectionPool: the settings of the template, the driver already registered,
+     * and the given connection if any.
+     */
+    DBConnector(DBConnector template, StatementCache connection, DBConnectionPool pool) {
+        this.database = template.database;
+        this.config = template.config;
+        this.dbaddress = template.dbaddress;
+        this.driverName = template.driverName;
+        this.JDBCjarFileName = template.JDBCjarFileName;
+        this.dbServerHostname = template.dbServerHostname;
+        this.dbUseSSL = template.dbUseSSL;
+        this.dbUseKeys = template.dbUseKeys;
+        this.dbUseTrust = template.dbUseTrust;
+        this.dbKeystore = template.dbKeystore;
+        this.dbKeystorePassword = template.dbKeystorePassword;
+        this.dbTruststore = template.dbTruststore;
+        this.dbTruststorePassword = template.dbTruststorePassword;
+        if (connection != null) {
+            this.conn = connection.getConnection();
+            this.statementCache = connection;
+            this.pool = pool;
+        }
+    }
+
 
     public String setDefault(String s, String default_value) {
         if (s == null || s.equals("")) {
@@ -176,10 +206,28 @@ public class DBConnector implements DB {
     }
 
     public void close() {
+        if (pool != null) {
+            if (conn != null) {
+                if (statement != null) {
+                    try {
+                        statement.close();
+                    } catch (SQLException ex) {
+                        // the connection is checked when it is given back
+                    }
+                    statement = null;
+                }
+                pool.release(statementCache);
+                conn = null;
+            }
+            return;
+        }
         try {
             if (conn.isClosed()) {
                 return;
             } else {
+                if (statementCache != null) {
+                    statementCache.close();
+                }
                 conn.close();
             }
         } catch (SQLException ex) {
@@ -260,6 +308,9 @@ public class DBConnector implements DB {
 			    props.setProperty("password",password);
 			}
             conn = DriverManager.getConnection(cs.toString(), props);
+            if (statementCacheSize > 0) {
+                statementCache = new StatementCache(conn, statementCacheSize);
+            }
             return true;
 
         } catch (SQLException ex) {
@@ -465,9 +516,24 @@ public class DBConnector implements DB {
 
     public PreparedStatement prepareStatement(String statement) throws SQLException {
 //        System.out.println("statement = " + statement);
+        if (statementCache != null) {
+            return statementCache.prepare(statement);
+        }
         return getConnection().prepareStatement(statement);
     }
 
+    /**
+     * Sets how many prepared statements are kept for reuse once connected
+     * (perfdmf.statementCacheSize, 32 by default).  0 prepares every statement anew.
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    StatementCache getStatementCache() {
+        return statementCache;
+    }
+
     // JDBC types in Java 1.4.1_01:
     // BIT          : -7
     // TINYINT      : -6
@@ -0,0 +1,193 @@
+package edu.uoregon.tau.perfdmf.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the prepared statements of one connection for reuse.  The statements handed out by
+ * prepare() are used like any other, but close() puts them back in the cache (with their
+ * parameters cleared) instead of closing them, so preparing the same SQL again costs nothing.
+ * A statement is only handed out to one user at a time: while it is in use, preparing the
+ * same SQL gives a new one.  The least recently used statements are closed once the cache
+ * holds more than its size.
+ * <p>
+ * The cache belongs to its connection and lives as long as it does, not as long as the
+ * DB it is used through.  When a pooled DB is closed, DBConnectionPool calls reclaim():
+ * the statements still in use are closed for their users (isClosed() is true, any other
+ * call fails) and go back to the cache, so nothing prepared through one loan of a
+ * connection can run on the next.  close() closes the cached statements for good, once
+ * the connection itself is being closed.
+ */
+public class StatementCache {
+    private Connection connection;
+    private int size;
+
+    // the statements that aren't in use, keyed by their SQL, least recently used first
+    private LinkedHashMap<String, PreparedStatement> idle = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+    // the statements handed out and not given back yet
+    private Set<Handle> inUse = new HashSet<Handle>();
+
+    /**
+     * @param connection	the connection the statements are prepared on
+     * @param size			the most statements to keep
+     */
+    public StatementCache(Connection connection, int size) {
+        this.connection = connection;
+        this.size = size;
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement;
+        synchronized (this) {
+            statement = idle.remove(sql);
+        }
+        if (statement == null) {
+            statement = connection.prepareStatement(sql);
+        }
+        return wrap(sql, statement);
+    }
+
+    /**
+     * Closes the statements still in use for their users and puts them back in the cache,
+     * as if each had been closed.
+     */
+    public void reclaim() {
+        List<Handle> handles;
+        synchronized (this) {
+            handles = new ArrayList<Handle>(inUse);
+        }
+        for (Handle handle : handles) {
+            handle.close();
+        }
+    }
+
+    /**
+     * Closes all the statements, the ones in use included.
+     */
+    public void close() {
+        synchronized (this) {
+            size = 0;
+        }
+        // with no room left, the statements in use are closed as they come back
+        reclaim();
+        List<PreparedStatement> statements;
+        synchronized (this) {
+            statements = new ArrayList<PreparedStatement>(idle.values());
+            idle.clear();
+        }
+        for (PreparedStatement statement : statements) {
+            closeQuietly(statement);
+        }
+    }
+
+    /**
+     * @return the number of statements kept for reuse
+     */
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    private void release(String sql, PreparedStatement statement) {
+        try {
+            statement.clearParameters();
+            statement.clearBatch();
+        } catch (SQLException e) {
+            closeQuietly(statement);
+            return;
+        }
+        List<PreparedStatement> evicted = new ArrayList<PreparedStatement>();
+        synchronized (this) {
+            PreparedStatement previous = idle.put(sql, statement);
+            if (previous != null) {
+                evicted.add(previous);
+            }
+            for (Iterator<Map.Entry<String, PreparedStatement>> it = idle.entrySet().iterator(); idle.size() > size
+                    && it.hasNext();) {
+                evicted.add(it.next().getValue());
+                it.remove();
+            }
+        }
+        for (PreparedStatement old : evicted) {
+            closeQuietly(old);
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // it is of no use anymore either way
+        }
+    }
+
+    private PreparedStatement wrap(String sql, PreparedStatement statement) {
+        Handle handle = new Handle(sql, statement);
+        synchronized (this) {
+            inUse.add(handle);
+        }
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[] { PreparedStatement.class }, handle);
+    }
+
+    // what a user holds, closing it gives the statement back once
+    private class Handle implements InvocationHandler {
+        private String sql;
+        private PreparedStatement statement;
+        private boolean closed = false;
+
+        Handle(String sql, PreparedStatement statement) {
+            this.sql = sql;
+            this.statement = statement;
+        }
+
+        void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            synchronized (StatementCache.this) {
+                inUse.remove(this);
+            }
+            release(sql, statement);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close") && args == null) {
+                close();
+                return null;
+            }
+            synchronized (this) {
+                if (name.equals("isClosed") && args == null) {
+                    return closed || statement.isClosed();
+                } else if (closed && method.getDeclaringClass() != Object.class) {
+                    // somebody else may be using it by now
+                    throw new SQLException("The statement has been closed: " + sql);
+                }
+            }
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
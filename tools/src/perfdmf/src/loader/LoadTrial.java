@@ -25,6 +25,7 @@ import edu.uoregon.tau.perfdmf.View.ViewRule;
 import edu.uoregon.tau.perfdmf.View.ViewRule.NumericViewComparator;
 import edu.uoregon.tau.perfdmf.View.ViewRule.StringViewComparator;
 import edu.uoregon.tau.perfdmf.taudb.TAUdbDatabaseAPI;
+import edu.uoregon.tau.perfdmf.taudb.TAUdbStreamingUpload;
 
 public class LoadTrial {
 
@@ -48,6 +49,7 @@ public class LoadTrial {
     private DatabaseAPI databaseAPI;
     private Trial trial;
 	private Double reducePercentage;
+    private int uploadWriters = Integer.getInteger("perfdmf.uploadWriters", 0).intValue();
 
     public static void usage() {
         //System.err.println("Usage: taudb_loadtrial -a <appName> -x <expName> -n <name> [options] <file>\n\n"
@@ -81,7 +83,10 @@ public class LoadTrial {
                 + "  -r, --reduce <percentage>       Aggregate all timers less than percentage as \"other\"\n"
                 + "  -d, --metadata-file <filename>  XML metadata for the trial\n" 
                 + "  -m, --metadata                  Colon seperated metadata name/value pairs \n" 
-                + "                                  <foo1=bar1:foo2=bar2>\n\n" + "Notes:\n"
+                + "                                  <foo1=bar1:foo2=bar2>\n"
+                + "  -w, --writers <number>          Upload the threads while the profiles are\n"
+                + "                                    still being read, using <number> database\n"
+                + "                                    writers (more than one needs PostgreSQL)\n\n" + "Notes:\n"
                 
                 + "  -a, --applicationname <string>  Specify associated application name\n"
                 + "                                    for this trial. Creates a view.\n"
@@ -181,6 +186,22 @@ public class LoadTrial {
         trial = new Trial();
         trial.setDataSource(dataSource);
 
+        // stream the threads to the database as they are read, unless they have to be
+        // complete first (reduction) or only the summary is saved
+        TAUdbStreamingUpload upload = null;
+        if (uploadWriters > 0 && trialID == 0 && !summaryOnly && databaseAPI instanceof TAUdbDatabaseAPI
+                && (reducePercentage == null || reducePercentage <= 0.0)) {
+            trial.setName(trialName);
+            trial.setExperimentID(expID);
+            try {
+                upload = ((TAUdbDatabaseAPI) databaseAPI).startStreamingUpload(trial, uploadWriters);
+            } catch (DatabaseException e) {
+                e.printStackTrace();
+                System.exit(-1);
+            }
+            dataSource.setThreadLoadListener(upload);
+        }
+
         // set the metadata file name before loading the data, because
         // aggregateData() is called at the end of the dataSource.load()
         // and this file has to be set before then.
@@ -224,7 +245,10 @@ public class LoadTrial {
         trial.setMetaData(dataSource.getMetaData());
         trial.setUncommonMetaData(dataSource.getUncommonMetaData());
 
-        if (trialID == 0) {
+        if (upload != null) {
+            dataSource.setThreadLoadListener(null);
+            finishUpload(upload);
+        } else if (trialID == 0) {
             saveTrial();
         } else {
             appendToTrial();
@@ -235,6 +259,37 @@ public class LoadTrial {
     }
 
     public void saveTrial() {
+        prepareTrial();
+        try {
+            trialID = databaseAPI.uploadTrial(trial, summaryOnly);
+        } catch (DatabaseException e) {
+            e.printStackTrace();
+            Exception e2 = e.getException();
+            System.err.println("from: ");
+            e2.printStackTrace();
+            System.exit(-1);
+        }
+        System.err.println("Done saving trial!");
+    }
+
+    private void finishUpload(TAUdbStreamingUpload upload) {
+        try {
+            // the views are created on the connection a writer may still be using
+            upload.joinWriters();
+            prepareTrial();
+            trialID = upload.finish();
+        } catch (DatabaseException e) {
+            e.printStackTrace();
+            Exception e2 = e.getException();
+            System.err.println("from: ");
+            e2.printStackTrace();
+            System.exit(-1);
+        }
+        System.err.println("Done saving trial!");
+    }
+
+    // creates the application and experiment views, and names the trial
+    private void prepareTrial() {
         trial.setName(trialName);
         int appView=-2;
         String NAME="NAME";
@@ -297,16 +352,6 @@ public class LoadTrial {
 
         System.err.println("TrialName: " + trialName);
         trial.setExperimentID(expID);
-        try {
-            trialID = databaseAPI.uploadTrial(trial, summaryOnly);
-        } catch (DatabaseException e) {
-            e.printStackTrace();
-            Exception e2 = e.getException();
-            System.err.println("from: ");
-            e2.printStackTrace();
-            System.exit(-1);
-        }
-        System.err.println("Done saving trial!");
     }
 
     public void appendToTrial() {
@@ -382,6 +427,7 @@ public class LoadTrial {
         CmdLineParser.Option summaryOpt = parser.addBooleanOption('s', "summaryonly");
         CmdLineParser.Option percentageOpt = parser.addDoubleOption('r', "reduce");
         CmdLineParser.Option useNullOpt = parser.addBooleanOption('z', "usenull");
+        CmdLineParser.Option writersOpt = parser.addIntegerOption('w', "writers");
 
         try {
             parser.parse(args);
@@ -409,6 +455,7 @@ public class LoadTrial {
         String metadataString = (String) parser.getOptionValue(metadataOpt);
         Boolean summaryOnly = (Boolean) parser.getOptionValue(summaryOpt);
         Boolean useNull = (Boolean) parser.getOptionValue(useNullOpt);
+        Integer writers = (Integer) parser.getOptionValue(writersOpt);
 
         if (help != null && help.booleanValue()) {
             LoadTrial.outputHelp();
@@ -547,6 +594,9 @@ public class LoadTrial {
             trans.metadataString = metadataString;
             trans.summaryOnly = summaryOnly.booleanValue();
             trans.reducePercentage = percentage;
+            if (writers != null) {
+                trans.setUploadWriters(writers.intValue());
+            }
             trans.loadTrial(fileType);
         	}
         }
@@ -577,6 +627,9 @@ public class LoadTrial {
 		}
         trans.useNulls = useNull.booleanValue();
         trans.reducePercentage = percentage;
+        if (writers != null) {
+            trans.setUploadWriters(writers.intValue());
+        }
         trans.loadTrial(fileType);
         // the trial will be saved when the load is finished (update is called)
         }
@@ -598,6 +651,15 @@ public class LoadTrial {
         this.summaryOnly = summaryOnly;
     }
 
+    /**
+     * Uploads the threads while the data source is still loading, with the given number of
+     * database writers, see TAUdbStreamingUpload.  0 (the default, from the 
+     * perfdmf.uploadWriters property) loads everything first.
+     */
+    public void setUploadWriters(int uploadWriters) {
+        this.uploadWriters = uploadWriters;
+    }
+
     public DatabaseAPI getDatabaseAPI() {
         return databaseAPI;
     }
@@ -0,0 +1,402 @@
+package edu.uoregon.tau.perfdmf.taudb;
+
+import java.io.UnsupportedEncodingException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+import edu.uoregon.tau.perfdmf.database.DB;
+
+/**
+ * Bulk loading of TAUdb tables.  Rows are streamed to the database in the fastest form it
+ * accepts: COPY ... FROM STDIN for PostgreSQL, multi-row INSERT statements for the others
+ * (H2, SQLite).  The row IDs are handed out on the client side by allocateIDs(),
+ * so an upload never has to query the rows it just inserted to find out their IDs.
+ *
+ * <pre>
+ * int ids[] = loader.allocateIDs("thread", threads.size());
+ * TAUdbBulkLoader.RowWriter writer = loader.open("thread", "id", "trial", "node_rank", ...);
+ * for (...) {
+ *     writer.add(ids[i]).add(trialID).add(nodeRank)...;
+ *     writer.endRow();
+ * }
+ * int rows = writer.close();
+ * </pre>
+ *
+ * @see TAUdbDatabaseAPI#uploadTrial
+ */
+public class TAUdbBulkLoader {
+	// flush the COPY stream after this many characters
+	private static final int COPY_BUFFER_SIZE = 1 << 16;
+	// rows per INSERT statement, and the most parameters SQLite allows in one statement
+	private static final int MAX_ROWS_PER_INSERT = 500;
+	private static final int MAX_PARAMETERS = 999;
+
+	private DB db;
+	private CopyManager copyManager = null;
+
+	public TAUdbBulkLoader(DB db) throws SQLException {
+		this.db = db;
+		if (db.getDBType().equals("postgresql") && db.getConnection() instanceof PGConnection) {
+			copyManager = ((PGConnection) db.getConnection()).getCopyAPI();
+		}
+	}
+
+	/**
+	 * @return true if the rows go through COPY
+	 */
+	public boolean isCopy() {
+		return copyManager != null;
+	}
+
+	/**
+	 * Reserves count values for the id column of the given table.  With PostgreSQL the values
+	 * come from the table's sequence, so concurrent uploads are safe.  The other databases
+	 * have no sequence we can draw from, the values follow the current maximum id, which
+	 * assumes nobody else inserts into the table during this upload's transaction.
+	 *
+	 * @param table		table name, without the schema prefix
+	 * @param count		number of ids needed
+	 * @return the ids, to be used in order
+	 */
+	public int[] allocateIDs(String table, int count) throws SQLException {
+		int ids[] = new int[count];
+		if (count == 0) {
+			return ids;
+		}
+		if (copyManager != null) {
+			PreparedStatement statement = db.prepareStatement("SELECT nextval('" + db.getSchemaPrefix() + table
+					+ "_id_seq') FROM generate_series(1, ?)");
+			statement.setInt(1, count);
+			ResultSet results = statement.executeQuery();
+			int i = 0;
+			while (results.next() && i < count) {
+				ids[i++] = results.getInt(1);
+			}
+			results.close();
+			statement.close();
+			if (i != count) {
+				throw new SQLException("Could only allocate " + i + " of " + count + " ids for " + table);
+			}
+		} else {
+			ResultSet results = db.executeQuery("SELECT MAX(id) FROM " + db.getSchemaPrefix() + table);
+			int max = 0;
+			if (results.next()) {
+				max = results.getInt(1);
+			}
+			results.close();
+			for (int i = 0; i < count; i++) {
+				ids[i] = max + 1 + i;
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Starts streaming rows into a table.  The values of each row are given in column order,
+	 * followed by endRow().  Nothing is guaranteed to be in the database until close().
+	 *
+	 * @param table		table name, without the schema prefix
+	 * @param columns	the columns that each row provides
+	 */
+	public RowWriter open(String table, String... columns) throws SQLException {
+		StringBuilder columnList = new StringBuilder();
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0) {
+				columnList.append(", ");
+			}
+			columnList.append(columns[i]);
+		}
+		String target = db.getSchemaPrefix() + table + " (" + columnList + ")";
+		if (copyManager != null) {
+			return new CopyRowWriter(copyManager.copyIn("COPY " + target + " FROM STDIN"));
+		}
+		return new InsertRowWriter(target, columns.length);
+	}
+
+	/**
+	 * Receives the rows for one table, see TAUdbBulkLoader.open()
+	 */
+	public static abstract class RowWriter {
+		protected int rows = 0;
+
+		public abstract RowWriter add(int value);
+
+		public abstract RowWriter add(double value);
+
+		public abstract RowWriter add(String value);
+
+		public abstract RowWriter addNull();
+
+		public abstract void endRow() throws SQLException;
+
+		/**
+		 * Sends any remaining rows.
+		 * @return the number of rows written
+		 */
+		public abstract int close() throws SQLException;
+
+		/**
+		 * Gives up on this table, the rows that have not been sent are dropped.
+		 */
+		public abstract void cancel();
+
+		public int getRowCount() {
+			return rows;
+		}
+	}
+
+	private static class CopyRowWriter extends RowWriter {
+		private CopyIn copyIn;
+		private StringBuilder buffer = new StringBuilder(COPY_BUFFER_SIZE + 1024);
+		private boolean firstColumn = true;
+
+		CopyRowWriter(CopyIn copyIn) {
+			this.copyIn = copyIn;
+		}
+
+		private StringBuilder next() {
+			if (!firstColumn) {
+				buffer.append('\t');
+			}
+			firstColumn = false;
+			return buffer;
+		}
+
+		public RowWriter add(int value) {
+			next().append(value);
+			return this;
+		}
+
+		public RowWriter add(double value) {
+			next().append(checkDoubleValue(value));
+			return this;
+		}
+
+		public RowWriter add(String value) {
+			if (value == null) {
+				return addNull();
+			}
+			StringBuilder b = next();
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				switch (c) {
+				case '\\':
+					b.append("\\\\");
+					break;
+				case '\t':
+					b.append("\\t");
+					break;
+				case '\n':
+					b.append("\\n");
+					break;
+				case '\r':
+					b.append("\\r");
+					break;
+				default:
+					b.append(c);
+				}
+			}
+			return this;
+		}
+
+		public RowWriter addNull() {
+			next().append("\\N");
+			return this;
+		}
+
+		public void endRow() throws SQLException {
+			buffer.append('\n');
+			firstColumn = true;
+			rows++;
+			if (buffer.length() >= COPY_BUFFER_SIZE) {
+				flush();
+			}
+		}
+
+		private void flush() throws SQLException {
+			if (buffer.length() == 0) {
+				return;
+			}
+			byte bytes[];
+			try {
+				bytes = buffer.toString().getBytes("UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new SQLException(e.getMessage());
+			}
+			copyIn.writeToCopy(bytes, 0, bytes.length);
+			buffer.setLength(0);
+		}
+
+		public int close() throws SQLException {
+			try {
+				flush();
+				copyIn.endCopy();
+			} catch (SQLException e) {
+				cancel();
+				throw e;
+			}
+			return rows;
+		}
+
+		public void cancel() {
+			try {
+				if (copyIn.isActive()) {
+					copyIn.cancelCopy();
+				}
+			} catch (SQLException e) {
+				// the transaction is going to be rolled back anyway
+			}
+		}
+
+		/*
+		 * From the PostgreSQL Docs:
+		 * The double precision type typically has a range of around 1E-307 to 1E+308 with a precision of at least 15 digits.
+		 * Values that are too large or too small will cause an error.
+		 */
+		private static double checkDoubleValue(double d) {
+			if (Math.abs(d) < 1E-307) {
+				return 0;
+			} else if (d > 1E+308) {
+				return 9E+307;
+			} else if (d < -1E+308) {
+				return -9E+307;
+			}
+			return d;
+		}
+	}
+
+	private class InsertRowWriter extends RowWriter {
+		private static final byte INT = 0;
+		private static final byte DOUBLE = 1;
+		private static final byte STRING = 2;
+		private static final byte NULL = 3;
+
+		private String target;
+		private int numColumns;
+		private int rowsPerStatement;
+		private PreparedStatement fullStatement = null;
+
+		// the values of the rows that haven't been sent yet
+		private byte types[];
+		private double numbers[];
+		private String strings[];
+		private int count = 0;
+
+		InsertRowWriter(String target, int numColumns) {
+			this.target = target;
+			this.numColumns = numColumns;
+			this.rowsPerStatement = Math.max(1, Math.min(MAX_ROWS_PER_INSERT, MAX_PARAMETERS / numColumns));
+			types = new byte[rowsPerStatement * numColumns];
+			numbers = new double[rowsPerStatement * numColumns];
+			strings = new String[rowsPerStatement * numColumns];
+		}
+
+		public RowWriter add(int value) {
+			types[count] = INT;
+			numbers[count++] = value;
+			return this;
+		}
+
+		public RowWriter add(double value) {
+			types[count] = DOUBLE;
+			numbers[count++] = value;
+			return this;
+		}
+
+		public RowWriter add(String value) {
+			types[count] = STRING;
+			strings[count++] = value;
+			return this;
+		}
+
+		public RowWriter addNull() {
+			types[count++] = NULL;
+			return this;
+		}
+
+		public void endRow() throws SQLException {
+			rows++;
+			if (count == types.length) {
+				if (fullStatement == null) {
+					fullStatement = prepare(rowsPerStatement);
+				}
+				send(fullStatement);
+			}
+		}
+
+		private PreparedStatement prepare(int numRows) throws SQLException {
+			// older SQLite versions don't understand multi-row VALUES, a compound SELECT does the same
+			boolean compound = db.getDBType().equals("sqlite");
+			StringBuilder row = new StringBuilder(compound ? "SELECT " : "(");
+			for (int i = 0; i < numColumns; i++) {
+				row.append(i == 0 ? "?" : ", ?");
+			}
+			if (!compound) {
+				row.append(")");
+			}
+			StringBuilder sql = new StringBuilder("INSERT INTO " + target + (compound ? " " : " VALUES "));
+			for (int i = 0; i < numRows; i++) {
+				if (i > 0) {
+					sql.append(compound ? " UNION ALL " : ", ");
+				}
+				sql.append(row);
+			}
+			return db.prepareStatement(sql.toString());
+		}
+
+		private void send(PreparedStatement statement) throws SQLException {
+			for (int i = 0; i < count; i++) {
+				switch (types[i]) {
+				case INT:
+					statement.setInt(i + 1, (int) numbers[i]);
+					break;
+				case DOUBLE:
+					statement.setDouble(i + 1, numbers[i]);
+					break;
+				case STRING:
+					statement.setString(i + 1, strings[i]);
+					strings[i] = null;
+					break;
+				default:
+					statement.setNull(i + 1, Types.INTEGER);
+				}
+			}
+			statement.executeUpdate();
+			count = 0;
+		}
+
+		public int close() throws SQLException {
+			try {
+				if (count > 0) {
+					PreparedStatement statement = prepare(count / numColumns);
+					try {
+						send(statement);
+					} finally {
+						statement.close();
+					}
+				}
+			} finally {
+				cancel();
+			}
+			return rows;
+		}
+
+		public void cancel() {
+			count = 0;
+			if (fullStatement != null) {
+				try {
+					fullStatement.close();
+				} catch (SQLException e) {
+					// nothing more to do with it
+				}
+				fullStatement = null;
+			}
+		}
+	}
+}
@@ -6,6 +6,7 @@ import java.sql.SQLException;
 import java.util.*;
 
 
+import edu.uoregon.tau.perfdmf.database.ConnectionManager;
 import edu.uoregon.tau.perfdmf.database.DB;
 import edu.uoregon.tau.perfdmf.*;
 import edu.uoregon.tau.perfdmf.Thread;
@@ -19,6 +20,44 @@ public class TAUdbDataSource extends DataSource {
 
     private TAUdbDatabaseAPI databaseAPI;  
 
+    private boolean lazyLoad = Boolean.getBoolean("perfdmf.taudbLazyLoad");
+    private int pageSize = Integer.getInteger("perfdmf.taudbPageSize", 64).intValue();
+
+    // lazy mode: what is needed to read the threads later
+    private int trialID;
+    private Map<Integer, Function> ieMap;
+    private Map<Integer, Metric> metricMap;
+    // the database id of each thread that hasn't been read yet, in thread order
+    private LinkedHashMap<Thread, Integer> pendingThreads = null;
+    // lazy mode: lends a pooled connection for each page, the one of the DatabaseAPI is closed by load()
+    private ConnectionManager connector = null;
+    // rows that came with another thread's page, kept until their own thread is used
+    private Map<Thread, PageRows> pagedRows = new HashMap<Thread, PageRows>();
+
+    // the timer_value rows of one thread
+    private static class PageRows {
+        List<Function> functions = new ArrayList<Function>();
+        // metric index, inclusive, exclusive, calls, subroutines per row
+        double values[] = new double[64];
+        int count = 0;
+
+        void add(Function function, double metric, double inclusive, double exclusive, double calls, double subr) {
+            if ((count + 1) * 5 > values.length) {
+                double newValues[] = new double[values.length * 2];
+                System.arraycopy(values, 0, newValues, 0, count * 5);
+                values = newValues;
+            }
+            functions.add(function);
+            int offset = count * 5;
+            values[offset] = metric;
+            values[offset + 1] = inclusive;
+            values[offset + 2] = exclusive;
+            values[offset + 3] = calls;
+            values[offset + 4] = subr;
+            count++;
+        }
+    }
+
     public TAUdbDataSource(DatabaseAPI dbAPI) {
         super();
         this.setMetrics(new Vector<Metric>());
@@ -35,6 +74,41 @@ public class TAUdbDataSource extends DataSource {
         return;
     }
 
+    /**
+     * When set, load() only reads the metrics, timers, user events, metadata and the
+     * aggregate threads (mean, total, etc.).  The function profiles of the individual
+     * threads are read the first time each thread is used, a page of neighbouring threads
+     * per query, on a connection borrowed from the database's connection pool for just
+     * that query.
+     * The [SUMMARY] functions of sampled trials are not generated in this mode: they are
+     * derived from every thread's [SAMPLE] profiles, which aren't there when load() runs.
+     * The default comes from the perfdmf.taudbLazyLoad property.
+     * 
+     * @param lazyLoad	whether to read the threads on demand
+     */
+    public void setLazyLoad(boolean lazyLoad) {
+        this.lazyLoad = lazyLoad;
+    }
+
+    public boolean getLazyLoad() {
+        return lazyLoad;
+    }
+
+    /**
+     * Sets how many threads are read in one query in lazy mode, the requested thread and
+     * the unread ones that follow it.  The default comes from the perfdmf.taudbPageSize
+     * property, or 64.
+     * 
+     * @param pageSize	the number of threads per query
+     */
+    public void setPageSize(int pageSize) {
+        this.pageSize = Math.max(1, pageSize);
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
     private Thread makeDerivedThread(int nodeID) {
 		int numMetrics = this.getNumberOfMetrics();
 		//Thread firstThread = getAllThreads().get(0);
@@ -93,9 +167,15 @@ public class TAUdbDataSource extends DataSource {
 			  return current;
 			  }
 	
-    private void fastGetIntervalEventData(int trialID, Map<Integer, Function> ieMap, Map<Integer, Metric> metricMap) throws SQLException {
-        int numMetrics = getNumberOfMetrics();
-        DB db = databaseAPI.getDb();
+    /**
+     * Reads timer_value rows into the threads.
+     * 
+     * @param threadClause	restricts the threads read, appended to the where clause
+     * @param requested		in lazy mode, the thread being loaded.  The rows of the other
+     * 						threads are kept in pagedRows.  Null to fill in every thread.
+     */
+    private void fastGetIntervalEventData(DB db, int trialID, Map<Integer, Function> ieMap, Map<Integer, Metric> metricMap,
+            String threadClause, Thread requested) throws SQLException {
 
         String buf = "select cp.id, v.metric, h.node_rank as node, h.context_rank as context, h.thread_rank as thread, " +
           "v.inclusive_value as inclusive, v.exclusive_value as inclusive, tcd.calls, tcd.subroutines " +
@@ -104,7 +184,7 @@ public class TAUdbDataSource extends DataSource {
           "left outer join " + db.getSchemaPrefix() + "timer_callpath cp on tcd.timer_callpath = cp.id " + 
           "left outer join " + db.getSchemaPrefix() + "timer t on cp.timer = t.id " + 
           "left outer join " + db.getSchemaPrefix() + "thread h on tcd.thread = h.id " + 
-          "where t.trial = " + trialID + " and h.trial = " + trialID;
+          "where t.trial = " + trialID + " and h.trial = " + trialID + threadClause;
           //"where h.node_rank > -1 and t.trial = " + trialID;
 
         /*
@@ -148,13 +228,6 @@ public class TAUdbDataSource extends DataSource {
               thread = makeDerivedThread(nodeID);
 			}
 
-            FunctionProfile functionProfile = thread.getFunctionProfile(function);
-
-            if (functionProfile == null) {
-                functionProfile = new FunctionProfile(function, numMetrics);
-                thread.addFunctionProfile(functionProfile);
-            }
-
             int metricIndex = metricMap.get(new Integer(resultSet.getInt(2))).getID();
             double inclusive, exclusive;
 
@@ -163,10 +236,17 @@ public class TAUdbDataSource extends DataSource {
             double numcalls = resultSet.getDouble(8);
             double numsubr = resultSet.getDouble(9);
 
-            functionProfile.setNumCalls(numcalls);
-            functionProfile.setNumSubr(numsubr);
-            functionProfile.setExclusive(metricIndex, exclusive);
-            functionProfile.setInclusive(metricIndex, inclusive);
+            if (requested != null && thread != requested) {
+                // another thread of the page, it is filled in when it is used
+                PageRows rows = pagedRows.get(thread);
+                if (rows == null) {
+                    rows = new PageRows();
+                    pagedRows.put(thread, rows);
+                }
+                rows.add(function, metricIndex, inclusive, exclusive, numcalls, numsubr);
+            } else {
+                setValues(thread, function, metricIndex, inclusive, exclusive, numcalls, numsubr);
+            }
         }
         time = (System.currentTimeMillis()) - time;
         //System.out.println("Processing : " + time);
@@ -184,12 +264,86 @@ public class TAUdbDataSource extends DataSource {
         resultSet.close();
     }
 
-  
+    private void setValues(Thread thread, Function function, int metricIndex, double inclusive, double exclusive,
+            double numcalls, double numsubr) {
+        FunctionProfile functionProfile = thread.getFunctionProfile(function);
+
+        if (functionProfile == null) {
+            functionProfile = new FunctionProfile(function, getNumberOfMetrics());
+            thread.addFunctionProfile(functionProfile);
+        }
+
+        functionProfile.setNumCalls(numcalls);
+        functionProfile.setNumSubr(numsubr);
+        functionProfile.setExclusive(metricIndex, exclusive);
+        functionProfile.setInclusive(metricIndex, inclusive);
+    }
+
+    /*
+     * Lazy mode, called by the thread the first time its profiles are used.  Reads the
+     * thread, and the next unread threads up to the page size, in one query.
+     */
+    protected synchronized void loadThreadData(Thread thread) {
+        PageRows rows = pagedRows.remove(thread);
+        if (rows != null) {
+            for (int i = 0; i < rows.count; i++) {
+                int offset = i * 5;
+                setValues(thread, rows.functions.get(i), (int) rows.values[offset], rows.values[offset + 1],
+                        rows.values[offset + 2], rows.values[offset + 3], rows.values[offset + 4]);
+            }
+        }
+        if (pendingThreads == null || !pendingThreads.containsKey(thread)) {
+            closeIfDone();
+            return;
+        }
+
+        StringBuilder ids = new StringBuilder();
+        List<Thread> page = new ArrayList<Thread>();
+        boolean found = false;
+        for (Iterator<Map.Entry<Thread, Integer>> it = pendingThreads.entrySet().iterator(); it.hasNext()
+                && page.size() < pageSize;) {
+            Map.Entry<Thread, Integer> entry = it.next();
+            if (entry.getKey() == thread) {
+                found = true;
+            }
+            if (found) {
+                ids.append(page.isEmpty() ? "" : ", ").append(entry.getValue());
+                page.add(entry.getKey());
+            }
+        }
+
+        // a connection per page, so open trials don't keep the pool's connections
+        DB threadDB = null;
+        try {
+            threadDB = connector.openConnection();
+            fastGetIntervalEventData(threadDB, trialID, ieMap, metricMap, " and h.id IN (" + ids + ")", thread);
+        } catch (SQLException e) {
+            // the page stays pending, the next use of the thread tries again
+            throw new DataSourceException(e);
+        } finally {
+            if (threadDB != null) {
+                threadDB.close();
+            }
+        }
+        for (Thread read : page) {
+            pendingThreads.remove(read);
+        }
+        closeIfDone();
+    }
+
+    // lazy mode, nothing is left to read once every thread has been read
+    private void closeIfDone() {
+        if (pendingThreads != null && pendingThreads.isEmpty() && pagedRows.isEmpty()) {
+            pendingThreads = null;
+            connector = null;
+        }
+    }
+
     public void load() throws SQLException {
 
         //System.out.println("Processing data, please wait ......");
         long time = System.currentTimeMillis();
-        int trialID = databaseAPI.getTrial().getID();
+        trialID = databaseAPI.getTrial().getID();
         databaseAPI.getTrial().setDataSource(this);
         DB db = databaseAPI.getDb();
         StringBuffer joe = new StringBuffer();
@@ -199,7 +353,7 @@ public class TAUdbDataSource extends DataSource {
         joe.append(databaseAPI.getTrial().getID());
         joe.append(" ORDER BY id ");
 
-        Map<Integer, Metric> metricMap = new HashMap<Integer, Metric>();
+        metricMap = new HashMap<Integer, Metric>();
 
         ResultSet resultSet = db.executeQuery(joe.toString());
         int numberOfMetrics = 0;
@@ -218,14 +372,16 @@ public class TAUdbDataSource extends DataSource {
 		// for each thread.
 		Map<Thread, Integer> threadMap = databaseAPI.getThreadsMap(trialID, this, databaseAPI.getDb(), true);
 
-        // map Interval Event ID's to Function objects
-        Map<Integer, Function> ieMap = new HashMap<Integer, Function>();
-
         // iterate over interval events (functions), create the function objects and add them to the map
         ieMap = databaseAPI.getIntervalEvents(this, numberOfMetrics);
 
         //getIntervalEventData(ieMap);
-        fastGetIntervalEventData(trialID,ieMap, metricMap);
+        if (lazyLoad) {
+            // just the aggregate threads, the others are read when they are used
+            fastGetIntervalEventData(db, trialID, ieMap, metricMap, " and h.node_rank < 0", null);
+        } else {
+            fastGetIntervalEventData(db, trialID, ieMap, metricMap, "", null);
+        }
 
         // get the user event counters and counter data
         databaseAPI.getAtomicEvents();
@@ -237,6 +393,9 @@ public class TAUdbDataSource extends DataSource {
         //ParaProf uses the metadata in the datas ource to load the side bar rather than 
         //what's in the trial so you have to do both.
         this.setMetaData(t.getMetaData());
+        if (lazyLoad) {
+            connector = databaseAPI.getConnector();
+        }
         databaseAPI.terminate();
         time = (System.currentTimeMillis()) - time;
         //System.out.println("Time to download file (in milliseconds): " + time);
@@ -246,9 +405,26 @@ public class TAUdbDataSource extends DataSource {
         // But, we need to compute other statistics anyway
         //TODO Deal with derived data.  Most of it will be saved in the DB?
         this.derivedProvided = true;
+        if (lazyLoad) {
+            // see setLazyLoad()
+            setGenerateSampleSummaries(false);
+        }
         this.generateDerivedData();
         this.aggregateMetaData();
 
+        if (lazyLoad) {
+            // the user events are already in, and were needed for their statistics
+            pendingThreads = new LinkedHashMap<Thread, Integer>();
+            for (Thread thread : getAllThreads()) {
+                Integer id = threadMap.get(thread);
+                if (id != null) {
+                    pendingThreads.put(thread, id);
+                    thread.setDataLoaded(false);
+                }
+            }
+            closeIfDone();
+        }
+
 
 		// get the stats
     }
@@ -1,8 +1,6 @@
 package edu.uoregon.tau.perfdmf.taudb;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -18,9 +16,6 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.Vector;
 
-import org.postgresql.PGConnection;
-import org.postgresql.copy.CopyManager;
-
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 
@@ -130,6 +125,21 @@ public class TAUdbDatabaseAPI extends DatabaseAPI {
 		super();
 	}
 
+	/**
+	 * Starts uploading a trial whose DataSource has not been loaded yet, see
+	 * TAUdbStreamingUpload.  Set the returned object as the DataSource's thread load
+	 * listener, load the data source, then call finish().
+	 *
+	 * @param writers	number of writer threads (and connections, with PostgreSQL)
+	 */
+	public TAUdbStreamingUpload startStreamingUpload(Trial trial, int writers) throws DatabaseException {
+		try {
+			return new TAUdbStreamingUpload(db, connector, trial, writers);
+		} catch (SQLException e) {
+			throw new DatabaseException("Saving Trial Failed: couldn't start the upload", e);
+		}
+	}
+
 	public static int uploadTrial(DB db, Trial trial, boolean summaryOnly) {
 
         DataSource dataSource = trial.getDataSource();
@@ -151,6 +161,10 @@ public class TAUdbDatabaseAPI extends DatabaseAPI {
             
             //TODO: Deal with upload size, I think this is for the progress bar.
           //  computeUploadSize(dataSource);
+
+            // the bulk tables are streamed (COPY for PostgreSQL) with IDs assigned here,
+            // so nothing has to be queried back after it is inserted
+            TAUdbBulkLoader bulk = new TAUdbBulkLoader(db);
             
             // upload the metrics and get a map that maps the metrics 0 -> n-1 to their unique DB IDs (e.g. 83, 84)
 			long before = System.currentTimeMillis();
@@ -158,101 +172,64 @@ public class TAUdbDatabaseAPI extends DatabaseAPI {
 			System.out.print("Inserting metrics...");
             uploadMetrics(newTrialID, dataSource.getMetrics(), db);
             Map<Metric, Integer> metricMap = getMetricIDMap(newTrialID, dataSource, db);
-			long after = System.currentTimeMillis();
-			System.out.println(" done. (" + (after - before) / 1000.0 + " seconds)");
-			before = after;
+			before = reportStage(before, metricMap.size());
             
 			System.out.print("Inserting timers...");
-            uploadFunctions(newTrialID, dataSource, db);
-            Map<Function, Integer> functionMap = getFunctionsIDMap(newTrialID, dataSource, db);
-			after = System.currentTimeMillis();
-			System.out.println(" done. (" + (after - before) / 1000.0 + " seconds)");
-			before = after;
+            Map<Function, Integer> functionMap = uploadFunctions(newTrialID, dataSource, bulk);
+			before = reportStage(before, functionMap.size());
             
 			if (!summaryOnly) { 
 			System.out.print("Inserting threads...");
-            uploadThreads(newTrialID, dataSource, db);
-            threadMap = getThreadsMap(newTrialID, dataSource, db, false);
-			after = System.currentTimeMillis();
-			System.out.println(" done. (" + (after - before) / 1000.0 + " seconds)");
-			before = after;
+            threadMap = uploadThreads(newTrialID, dataSource.getAllThreads(), false, dataSource, bulk);
+			before = reportStage(before, threadMap.size());
 			}
             
 			System.out.print("Inserting timer groups and parameters...");
             uploadTimerGroups(functionMap, db);
             uploadTimerParameter(functionMap, db);
-			after = System.currentTimeMillis();
-			System.out.println(" done. (" + (after - before) / 1000.0 + " seconds)");
-			before = after;
+			before = reportStage(before, 0);
             // this seems confusing... but let me explain. We have uploaded the timers,
             // which are just the flat profile. This call will upload the full call graph,
             // including all the nodes and edges. However, they are mapped from Function
             // objects to timer_callpath rows in the database.
 			System.out.print("Inserting call graph...");
-            callpathMap = uploadCallpathInfo(dataSource, functionMap, db);
-			after = System.currentTimeMillis();
-			System.out.println(" done. (" + (after - before) / 1000.0 + " seconds)");
-			before = after;
+            callpathMap = uploadCallpathInfo(dataSource, functionMap, bulk);
+			before = reportStage(before, callpathMap.size());
             
 			if (summaryOnly) { System.out.println("Only doing summary!"); }
 
+            Map<TimerCallData, Integer> timerCallDataMap = new HashMap<TimerCallData, Integer>();
 			if (!summaryOnly) { 
             // now that the graph is created, insert the call and subroutine data.
 			System.out.print("Inserting per-thread call data...");
-            uploadCallDataInfo(dataSource, callpathMap, metricMap, threadMap, db, false);
-			after = System.currentTimeMillis();
-			System.out.println(" done. (" + (after - before) / 1000.0 + " seconds)");
-			before = after;
+            int rows = uploadCallDataInfo(dataSource, callpathMap, threadMap, bulk, false, timerCallDataMap);
+			before = reportStage(before, rows);
 			}
 
             // also do it for the derived threads
 			System.out.print("Inserting derived threads...");
-            Map<Thread, Integer> derivedThreadMap = uploadDerivedThreads(newTrialID, dataSource, db);
-			after = System.currentTimeMillis();
-			System.out.println(" done. (" + (after - before) / 1000.0 + " seconds)");
-			before = after;
+            Map<Thread, Integer> derivedThreadMap = uploadThreads(newTrialID, dataSource.getAggThreads(), true, dataSource, bulk);
+			before = reportStage(before, derivedThreadMap.size());
 			System.out.print("Inserting derived threads call data...");
-            uploadCallDataInfo(dataSource, callpathMap, metricMap, derivedThreadMap, db, true);
-			after = System.currentTimeMillis();
-			System.out.println(" done. (" + (after - before) / 1000.0 + " seconds)");
-			before = after;
-			System.out.print("Querying new call data for IDs...");
-            Map<TimerCallData, Integer> timerCallDataMap = getCallDataMap(newTrialID, dataSource, callpathMap, db);
-			after = System.currentTimeMillis();
-			System.out.println(" done. (" + (after - before) / 1000.0 + " seconds)");
-			before = after;
+            int rows = uploadCallDataInfo(dataSource, callpathMap, derivedThreadMap, bulk, true, timerCallDataMap);
+			before = reportStage(before, rows);
 
 			System.out.print("Inserting timer measurements...");
-			if (!summaryOnly) { 
             // now upload the measurements
-            if(db.getDBType().equals("postgresql")){
-                uploadFunctionProfilesPSQL(dataSource, timerCallDataMap, metricMap, db);
-            }else{
-                uploadFunctionProfiles(dataSource, timerCallDataMap, metricMap, db);
-                uploadStatistics(dataSource, timerCallDataMap, metricMap, db);
-            }
-			} else {
-                uploadStatistics(dataSource, timerCallDataMap, metricMap, db);
-			}
-			after = System.currentTimeMillis();
-			System.out.println(" done. (" + (after - before) / 1000.0 + " seconds)");
-			before = after;
+            rows = uploadTimerValues(dataSource, timerCallDataMap, metricMap, bulk, !summaryOnly);
+			before = reportStage(before, rows);
 
 			if (!summaryOnly) { 
 			System.out.print("Inserting counters...");
-           uploadUserEvents(newTrialID, functionMap, dataSource, db);
-           Map<UserEvent, Integer> userEventMap = getUserEventsMap(newTrialID, dataSource, db);
+           Map<UserEvent, Integer> userEventMap = uploadUserEvents(newTrialID, dataSource, bulk);
 
-            uploadUserEventProfiles(dataSource, userEventMap, db, threadMap);
-			after = System.currentTimeMillis();
-			System.out.println(" done. (" + (after - before) / 1000.0 + " seconds)");
-			before = after;
+            rows = uploadUserEventProfiles(dataSource, userEventMap, bulk, threadMap);
+			before = reportStage(before, rows);
 		    }
                         
 			System.out.print("Inserting metadata...");
             uploadMetadata(dataSource, trial, callpathMap, threadMap, db, summaryOnly);
-			after = System.currentTimeMillis();
-			System.out.println(" done. (" + (after - before) / 1000.0 + " seconds)");
+			long after = reportStage(before, 0);
 			System.out.println("Total time to load : " + (after - veryStart) / 1000.0 + " seconds");
 
           //TODO: Deal with cancel upload
@@ -261,24 +238,6 @@ public class TAUdbDatabaseAPI extends DatabaseAPI {
 //              deleteTrial(newTrialID);
 //              return -1;
 //          }
-            /*
-             *We might in the future need to do something like this to detect if the batch statement uses too much memory 				
-				double freePercent =  ((double)Runtime.getRuntime().freeMemory())/Runtime.getRuntime().totalMemory();
-				if(freePercent< 0.05){
-//					System.out.print("Clearing batch: "+freePercent*100+"%");
-					timerValueInsert.executeBatch();
-					timerValueInsert.close();
-					timerValueInsert = db
-							.prepareStatement("INSERT INTO "
-									+ db.getSchemaPrefix()
-									+ "timer_value (timer, thread, metric, inclusive_percent, inclusive_value, exclusive_percent, "
-									+ " exclusive_value) VALUES (?, ?, ?, ?, ?, ?, ?)");
-
-//					 freePercent =  ((double)Runtime.getRuntime().freeMemory())/Runtime.getRuntime().totalMemory();
-//					System.out.print("After batch: +freePercent*100+"%");
-
-				}
-             */
         } catch (SQLException e) {
             try {
                 db.rollback();
@@ -304,108 +263,58 @@ public class TAUdbDatabaseAPI extends DatabaseAPI {
         return newTrialID;
 	}
 
-	private static Map<Thread, Integer> uploadDerivedThreads(int trialID,
-			DataSource dataSource, DB db) throws SQLException {
-		PreparedStatement stmt = db.prepareStatement("INSERT INTO "
-				+ db.getSchemaPrefix()
-				+ "thread (trial, node_rank, context_rank, thread_rank,  " +
-				" thread_index) VALUES (?, ?, ?, ?, ?)");
-		List<Thread> threads = dataSource.getAggThreads();
-
-		for (Thread t : threads) {
-			int node_rank = t.getNodeID();
-			int context_rank = t.getContextID();
-			int thread_rank = t.getThreadID();
-			int thread_index = node_rank; // same negative value 
-			stmt.setInt(1, trialID);
-			stmt.setInt(2, node_rank);
-			stmt.setInt(3, context_rank);
-			stmt.setInt(4, thread_rank);
-			stmt.setInt(5, thread_index);
-			stmt.addBatch();
-		}
-		stmt.executeBatch();
-		stmt.close();
-		return getDerivedThreadsMap(trialID, dataSource, db);
-	}
-	
-
-	private static void uploadStatistics(DataSource dataSource,
-			Map<TimerCallData, Integer> timerCallDataMap, Map<Metric, Integer> metricMap,
-			DB db) throws SQLException {
-
-		Group derived = dataSource.getGroup("TAU_CALLPATH_DERIVED");
-		PreparedStatement timerValueInsert = db
-				.prepareStatement("INSERT INTO "
-						+ db.getSchemaPrefix()
-						+ "timer_value (timer_call_data, metric, inclusive_percent, inclusive_value, exclusive_percent, "
-						+ " exclusive_value) VALUES (?, ?, ?, ?, ?, ?)");
-		for (Metric metric : dataSource.getMetrics()) {
-			Integer metricID = metricMap.get(metric);
-			if (metricID == null) {
-				// not saving this metric
-				continue;
-			}
-
-			for (Iterator<Function> func = dataSource.getFunctionIterator(); func
-					.hasNext();) {
-				Function function = func.next();
-				if (function.isGroupMember(derived)) {
-					continue;
-				}
-				
-				for (Thread thread : dataSource.getAggThreads()) {
-					TimerCallData tcd = new TimerCallData(function, thread, 0.0);
-					Integer tcdID = timerCallDataMap.get(tcd);
-					//this function may not have been called on this thread!
-					if (tcdID != null) {
-						int timerCallDataID = tcdID.intValue();
-						insertDerivedThreadValue(timerValueInsert, metric,
-								metricID, timerCallDataID, thread, function);
-					}
-				}
-			}
-
-
+	/**
+	 * Finishes the progress line for one upload stage with its time and throughput.
+	 * @return the current time, the start of the next stage
+	 */
+	static long reportStage(long before, int rows) {
+		long after = System.currentTimeMillis();
+		double seconds = (after - before) / 1000.0;
+		if (rows > 0 && after > before) {
+			System.out.println(" done. (" + rows + " rows, " + seconds + " seconds, " + (long) (rows / seconds) + " rows/second)");
+		} else {
+			System.out.println(" done. (" + seconds + " seconds)");
 		}
-		timerValueInsert.executeBatch();
-		timerValueInsert.close();
-
+		return after;
 	}
 
-	private static void insertDerivedThreadValue(
-			PreparedStatement timerValueInsert, Metric metric,
-			Integer metricID, Integer timerCallPathID, Thread thread, Function function
-			) throws SQLException {
-		FunctionProfile fp = thread.getFunctionProfile(function);
-		if (fp != null) { // only if this thread calls this function
-			// TODO: Deal with cancelUpload
-			// if (this.cancelUpload)
-			// return;
-			timerValueInsert.setInt(1, timerCallPathID);
-			timerValueInsert.setInt(2, metricID);
-			
-			timerValueInsert.setDouble(3, fp.getInclusivePercent(metric.getID()));
-			timerValueInsert.setDouble(4, fp.getInclusive(metric.getID()));
-			timerValueInsert.setDouble(5, fp.getExclusivePercent(metric.getID()));
-			timerValueInsert.setDouble(6, fp.getExclusive(metric.getID()));
-			//TODO: Find the sum_exclusive_square values
-//						timerValueInsert.setDouble(7, fp.get)
-			if (fp.getExclusive(metric.getID()) == 3.142998606E-313){
-				System.out.println("Found it");
+	private static Map<Thread, Integer> uploadThreads(int trialID, List<Thread> threads, boolean aggregates,
+			DataSource dataSource, TAUdbBulkLoader bulk) throws SQLException {
+		Map<Thread, Integer> map = new HashMap<Thread, Integer>();
+		int maxContextPerNode = dataSource.getMaxNCTNumbers()[1] +1;
+		int maxThreadsPerContext = dataSource.getMaxNCTNumbers()[2] +1;
 
+		int ids[] = bulk.allocateIDs("thread", threads.size());
+		TAUdbBulkLoader.RowWriter writer = bulk.open("thread", "id", "trial", "node_rank", "context_rank", "thread_rank",
+				"thread_index");
+		for (int i = 0; i < threads.size(); i++) {
+			Thread t = threads.get(i);
+			int node_rank = t.getNodeID();
+			int context_rank = t.getContextID();
+			int thread_rank = t.getThreadID();
+			int thread_index;
+			if (aggregates) {
+				thread_index = node_rank; // same negative value 
+			} else {
+				thread_index = node_rank * maxContextPerNode * maxThreadsPerContext + context_rank * maxThreadsPerContext + thread_rank; 
 			}
-			
-			timerValueInsert.addBatch();	
+			writer.add(ids[i]).add(trialID).add(node_rank).add(context_rank).add(thread_rank).add(thread_index);
+			writer.endRow();
+			map.put(t, ids[i]);
 		}
+		writer.close();
+		return map;
 	}
-
-	private static Integer getIDForCallpath(DataSource dataSource, DB db, Function current, 
-			Map<Function, Integer> callpathMap, Map<Function, Integer> functionMap) throws SQLException {
-		Integer id = callpathMap.get(current);
-		if (id == null) {
+	/**
+	 * Finds (or creates) the position of a callpath node in the list of timer_callpath rows,
+	 * parents always come before their children.
+	 */
+	private static Integer addCallpath(DataSource dataSource, Function current, Map<Function, Integer> positions,
+			List<Function> order, List<int[]> rows, Map<Function, Integer> functionMap) {
+		Integer position = positions.get(current);
+		if (position == null) {
 			Integer parent = null;
-			// get the parent's id
+			// get the parent's position
 			String parentName = CallPathUtilFuncs.getParentName(current.getName());
 			if (!parentName.equals("")) {
 				Function parentFunction = dataSource.getFunction(parentName);
@@ -413,7 +322,7 @@ public class TAUdbDatabaseAPI extends DatabaseAPI {
 					//System.out.println("Creating non-existent timer! : " + parentName);				
 					parentFunction = dataSource.addFunction(parentName, dataSource.getNumberOfMetrics());
 				}
-                parent = getIDForCallpath(dataSource, db, parentFunction, callpathMap, functionMap);
+                parent = addCallpath(dataSource, parentFunction, positions, order, rows, functionMap);
 			}
 			// get the timer name
 			String timerName = current.getCallpathNodeName();
@@ -423,52 +332,46 @@ public class TAUdbDatabaseAPI extends DatabaseAPI {
 			if (timer == null) {
 				return null;
 			}
-			PreparedStatement statement = db.prepareStatement("INSERT INTO "
-					+ db.getSchemaPrefix()
-					+ "timer_callpath (timer, parent) "
-					+ "VALUES (?, ?)");
-			statement.setInt(1, timer.intValue());
-			if (parent == null) {
-				statement.setNull(2, java.sql.Types.INTEGER);
-			} else {
-				statement.setInt(2, parent.intValue());
-			}
-	        statement.execute();
-	        statement.close();
-            String tmpStr = new String();
-            if (db.getDBType().compareTo("mysql") == 0)
-                tmpStr = "select LAST_INSERT_ID();";
-            else if (db.getDBType().compareTo("db2") == 0)
-                tmpStr = "select IDENTITY_VAL_LOCAL() FROM timer_callpath";
-            else if (db.getDBType().compareTo("sqlite") == 0)
-                tmpStr = "select seq from sqlite_sequence where name = 'timer_callpath'";
-            else if (db.getDBType().compareTo("derby") == 0)
-                tmpStr = "select IDENTITY_VAL_LOCAL() FROM timer_callpath";
-            else if (db.getDBType().compareTo("h2") == 0)
-                tmpStr = "select IDENTITY_VAL_LOCAL() FROM timer_callpath";
-            else if (db.getDBType().compareTo("oracle") == 0)
-                tmpStr = "select " + db.getSchemaPrefix() + "timer_callpath_id_seq.currval FROM dual";
-            else
-                tmpStr = "select currval('timer_callpath_id_seq');";
-            id = Integer.parseInt(db.getDataItem(tmpStr));
-            callpathMap.put(current, id);
+			position = order.size();
+			order.add(current);
+			rows.add(new int[] { timer.intValue(), parent == null ? -1 : parent.intValue() });
+            positions.put(current, position);
         }
-		return id.intValue();
+		return position;
 	}
 	
 	private static Map<Function, Integer> uploadCallpathInfo(DataSource dataSource,
-			Map<Function, Integer> functionMap, DB db) throws SQLException {
+			Map<Function, Integer> functionMap, TAUdbBulkLoader bulk) throws SQLException {
 
 		Group derived = dataSource.getGroup("TAU_CALLPATH_DERIVED");
-		Map<Function, Integer> callpathMap = new HashMap<Function, Integer>();
+		Map<Function, Integer> positions = new HashMap<Function, Integer>();
+		List<Function> order = new ArrayList<Function>();
+		List<int[]> rows = new ArrayList<int[]>();
 		Iterator<Function> funcs = dataSource.getFunctionIteratorCopy();
 		while (funcs.hasNext()) {
 			Function function = funcs.next();
 			if (function.isGroupMember(derived)) {
 				continue;
 			}
-			getIDForCallpath(dataSource, db, function, callpathMap, functionMap);
+			addCallpath(dataSource, function, positions, order, rows, functionMap);
+		}
+
+		// the whole graph is known now, so the nodes can be numbered and sent in one go
+		Map<Function, Integer> callpathMap = new LinkedHashMap<Function, Integer>();
+		int ids[] = bulk.allocateIDs("timer_callpath", order.size());
+		TAUdbBulkLoader.RowWriter writer = bulk.open("timer_callpath", "id", "timer", "parent");
+		for (int i = 0; i < order.size(); i++) {
+			int row[] = rows.get(i);
+			writer.add(ids[i]).add(row[0]);
+			if (row[1] < 0) {
+				writer.addNull();
+			} else {
+				writer.add(ids[row[1]]);
+			}
+			writer.endRow();
+			callpathMap.put(order.get(i), ids[i]);
 		}
+		writer.close();
 		return callpathMap;
 	}
 	
@@ -520,30 +423,46 @@ public class TAUdbDatabaseAPI extends DatabaseAPI {
 }
 
 	
-	private static void uploadCallDataInfo(DataSource dataSource,
-			Map<Function, Integer> functionMap, Map<Metric, Integer> metricMap,
-			Map<Thread, Integer> threadMap, DB db, boolean aggregates) throws SQLException {
-
-		PreparedStatement timerCallpathInsert = db
-				.prepareStatement("INSERT INTO "
-						+ db.getSchemaPrefix()
-						+ "timer_call_data (timer_callpath, thread, calls, subroutines) "
-						+ "VALUES (?, ?, ?, ?)");
+	/**
+	 * Uploads the calls and subroutines of every (callpath, thread) pair, and records the
+	 * timer_call_data id of each pair in timerCallDataMap.
+	 * @return the number of rows inserted
+	 */
+	private static int uploadCallDataInfo(DataSource dataSource,
+			Map<Function, Integer> functionMap, Map<Thread, Integer> threadMap, TAUdbBulkLoader bulk,
+			boolean aggregates, Map<TimerCallData, Integer> timerCallDataMap) throws SQLException {
 
 		Group derived = dataSource.getGroup("TAU_CALLPATH_DERIVED");
-		Iterator<Function> funcs = functionMap.keySet().iterator();
-		while (funcs.hasNext()) {
-			Function function = funcs.next();
+		List<Thread> threads = null;
+		if (aggregates) 
+			threads = dataSource.getAggThreads();
+		else 
+			threads = dataSource.getAllThreads();
+
+		// count the rows first, so that their ids can be allocated in one request
+		int count = 0;
+		for (Function function : functionMap.keySet()) {
+			if (function.isGroupMember(derived)) {
+				continue;
+			}
+			for (Thread thread : threads) {
+				FunctionProfile fp = thread.getFunctionProfile(function);
+				if (fp != null && fp.getNumCalls() > 0 && threadMap.get(thread) != null) {
+					count++;
+				}
+			}
+		}
+		int ids[] = bulk.allocateIDs("timer_call_data", count);
+
+		TAUdbBulkLoader.RowWriter writer = bulk.open("timer_call_data", "id", "timer_callpath", "thread", "calls",
+				"subroutines");
+		int row = 0;
+		for (Function function : functionMap.keySet()) {
 			if (function.isGroupMember(derived)) {
 				continue;
 			}
 			Integer timerID = functionMap.get(function);
 
-			List<Thread> threads = null;
-			if (aggregates) 
-				threads = dataSource.getAggThreads();
-			else 
-				threads = dataSource.getAllThreads();
 			for (Thread thread : threads) {
 				Integer threadID = threadMap.get(thread);
 
@@ -558,49 +477,15 @@ public class TAUdbDatabaseAPI extends DatabaseAPI {
 					// TODO: Deal with cancelUpload
 					// if (this.cancelUpload)
 					// return;
-					timerCallpathInsert.setInt(1, timerID);
-					timerCallpathInsert.setInt(2, threadID);
-					timerCallpathInsert.setInt(3, (int) fp.getNumCalls());
-					timerCallpathInsert.setInt(4, (int) fp.getNumSubr());
-					timerCallpathInsert.addBatch();
+					writer.add(ids[row]).add(timerID.intValue()).add(threadID.intValue());
+					writer.add((int) fp.getNumCalls()).add((int) fp.getNumSubr());
+					writer.endRow();
+					timerCallDataMap.put(new TimerCallData(function, thread, 0.0), ids[row]);
+					row++;
 				}
 			}
 		}
-		timerCallpathInsert.executeBatch();
-		timerCallpathInsert.close();
-	}
-
-	private static void uploadThreads(int trialID,
-			DataSource dataSource, DB db) throws SQLException {
-		int maxContextPerNode = dataSource.getMaxNCTNumbers()[1] +1;
-		int maxThreadsPerContext = dataSource.getMaxNCTNumbers()[2] +1;
-
-
-		PreparedStatement stmt = db.prepareStatement("INSERT INTO "
-						+ db.getSchemaPrefix()
-						+ "thread (trial, node_rank, context_rank, thread_rank,  " +
-						" thread_index) VALUES (?, ?, ?, ?, ?)");
-		List<Thread> threads = dataSource.getAllThreads();
-		for (Thread t : threads) {
-
-			int node_rank = t.getNodeID();
-			int context_rank = t.getContextID();
-			int thread_rank = t.getThreadID();
-			int thread_index = node_rank * maxContextPerNode * maxThreadsPerContext + context_rank * maxThreadsPerContext + thread_rank; 
-			
-	
-
-			stmt.setInt(1, trialID);
-			stmt.setInt(2, node_rank);
-			stmt.setInt(3, context_rank);
-			stmt.setInt(4, thread_rank);
-			stmt.setInt(5, thread_index);
-
-			stmt.addBatch();
-			
-		}
-		stmt.executeBatch();
-		stmt.close();
+		return writer.close();
 	}
 	public static Map<String, Integer> getCallDataMap(int trialID, DB db) throws SQLException {
 		Map<String, Integer> map = new HashMap<String, Integer>();
@@ -809,7 +694,7 @@ public class TAUdbDatabaseAPI extends DatabaseAPI {
 			int id = results.getInt(4);
 			Thread t = dataSource.getThread(node, context, thread);
 			if (t == null && createIfNotFound && node >= 0) {
-				dataSource.addThread(node, context, thread);
+				t = dataSource.addThread(node, context, thread);
 			}
 			map.put(t, id);
 		}
@@ -818,52 +703,7 @@ public class TAUdbDatabaseAPI extends DatabaseAPI {
 
 	}
 
-	private static Map<Thread, Integer> getDerivedThreadsMap(int trialID,DataSource dataSource, DB db) throws SQLException {
-		Map<Thread, Integer> map = new HashMap<Thread, Integer>();
-
-		PreparedStatement statement = db.prepareStatement("SELECT thread_index, id FROM "
-						+ db.getSchemaPrefix()
-						+ "thread WHERE trial=? and thread_index < 0 order by thread_index desc");
-		statement.setInt(1, trialID);
-		statement.execute();
-        ResultSet results = statement.getResultSet();
-
-		while (results.next()) {
-			int thread_index = results.getInt(1);
-			int id = results.getInt(2);
-			switch (thread_index) {
-			case MEAN_WITHOUT_NULL:
-				map.put(dataSource.getMeanDataNoNull(), id);
-				break; 
-			case TOTAL:
-				map.put(dataSource.getTotalData(), id);
-				break;
-			case STDDEV_WITHOUT_NULL:
-				map.put(dataSource.getStdDevDataNoNull(), id);
-				break;
-			case MIN:
-				map.put(dataSource.getMinData(), id);
-				break;
-			case MAX:
-				map.put(dataSource.getMaxData(), id);
-				break;
-			case MEAN_WITH_NULL:
-				map.put(dataSource.getMeanDataAll(), id);
-				break;
-			case STDDEV_WITH_NULL:
-				map.put(dataSource.getStdDevDataAll(), id);
-				break;
-			default:
-				break;
-			}
-		}
-		statement.close();
-        return map;
-
-	}
-
-
-	private static void uploadTimerParameter(Map<Function, Integer> map, DB db) throws SQLException {
+	static void uploadTimerParameter(Map<Function, Integer> map, DB db) throws SQLException {
 		Set<Function> funcs = map.keySet();
 		PreparedStatement statement = db.prepareStatement("INSERT INTO "
 				+ db.getSchemaPrefix()
@@ -884,7 +724,7 @@ public class TAUdbDatabaseAPI extends DatabaseAPI {
 		statement.close();		
 	}
 
-	private static void uploadTimerGroups(Map<Function, Integer> map, DB db) throws SQLException {
+	static void uploadTimerGroups(Map<Function, Integer> map, DB db) throws SQLException {
 		Set<Function> funcs = map.keySet();
 		PreparedStatement statement = db.prepareStatement("INSERT INTO "
 				+ db.getSchemaPrefix()
@@ -905,7 +745,7 @@ public class TAUdbDatabaseAPI extends DatabaseAPI {
 
 	}
 
-	private static void uploadMetrics(int trialID, List<Metric> metrics, DB db)
+	static void uploadMetrics(int trialID, List<Metric> metrics, DB db)
 			throws SQLException {
 
 		PreparedStatement insert = db.prepareStatement("INSERT INTO "
@@ -946,13 +786,10 @@ public class TAUdbDatabaseAPI extends DatabaseAPI {
 		return map;
 	}
 	// fills the timer table
-	private static void  uploadFunctions(int trialID, DataSource dataSource, DB db) throws SQLException {
+	private static Map<Function, Integer> uploadFunctions(int trialID, DataSource dataSource, TAUdbBulkLoader bulk) throws SQLException {
 
 		Group derived = dataSource.getGroup("TAU_CALLPATH_DERIVED");
-		Group callpath = dataSource.getGroup("TAU_CALLPATH");
-		PreparedStatement statement = db.prepareStatement("INSERT INTO " + db.getSchemaPrefix()
-				+ "timer (trial, name, source_file, line_number, line_number_end, column_number, column_number_end, short_name) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
-
+		List<Function> functions = new ArrayList<Function>();
 		for (Iterator<Function> it = dataSource.getFunctionIterator(); it.hasNext();) {
 			Function f = it.next();
 			if (f.isGroupMember(derived)) {
@@ -961,254 +798,121 @@ public class TAUdbDatabaseAPI extends DatabaseAPI {
 			if (f.isCallPathFunction()) {
 				continue; //don't save the a => b => c stuff here - in the timer_callpath table instead.
 			}
-			SourceRegion source = f.getSourceLink();
-
-			statement.setInt(1, trialID);
-			statement.setString(2, f.getName());
-			statement.setString(3, source.getFilename());
-			statement.setInt(4, source.getStartLine());
-			statement.setInt(5, source.getEndLine());
-			statement.setInt(6, source.getStartColumn());
-			statement.setInt(7, source.getEndColumn());
-			statement.setString(8, source.getShortName());
-			statement.addBatch();
-			//TODO: increment itemsDone for progress bar
-			//	            this.itemsDone++;
+			functions.add(f);
 		}
-		statement.executeBatch();
-		statement.close();
-
+		return uploadFunctions(trialID, functions, bulk);
 	}
-	    private static Map<Function, Integer>  getFunctionsIDMap(int trialID, DataSource dataSource, DB db) throws SQLException {
-	    		           
-		Map<Function, Integer> map = new HashMap<Function, Integer>();
-
-		PreparedStatement statement = db
-				.prepareStatement("SELECT id, name FROM " + db.getSchemaPrefix()
-						+ "timer WHERE trial=?");
-		statement.setInt(1, trialID);
-		statement.execute();
-		ResultSet results = statement.getResultSet();
 
-		while (results.next()) {
-			int funcID = results.getInt(1);
-			String name = results.getString(2);
+	/**
+	 * Inserts a timer row for each of the given (flat) functions.
+	 * @return the new timer ids
+	 */
+	static Map<Function, Integer> uploadFunctions(int trialID, List<Function> functions, TAUdbBulkLoader bulk)
+			throws SQLException {
+		Map<Function, Integer> map = new HashMap<Function, Integer>();
+		int ids[] = bulk.allocateIDs("timer", functions.size());
+		TAUdbBulkLoader.RowWriter writer = bulk.open("timer", "id", "trial", "name", "source_file", "line_number",
+				"line_number_end", "column_number", "column_number_end", "short_name");
+		for (int i = 0; i < functions.size(); i++) {
+			Function f = functions.get(i);
+			SourceRegion source = f.getSourceLink();
 
-			Function func = dataSource.getFunction(name);
-			map.put(func, funcID);
+			writer.add(ids[i]).add(trialID).add(f.getName()).add(source.getFilename());
+			writer.add(source.getStartLine()).add(source.getEndLine());
+			writer.add(source.getStartColumn()).add(source.getEndColumn());
+			writer.add(source.getShortName());
+			writer.endRow();
+			map.put(f, ids[i]);
+			//TODO: increment itemsDone for progress bar
+			//	            this.itemsDone++;
 		}
-		statement.close();
+		writer.close();
 		return map;
 	}
 
-	private static void uploadFunctionProfilesPSQL(DataSource dataSource,
+	/**
+	 * Uploads the timer_value rows: every metric in metricMap, for the aggregate threads and,
+	 * if requested, for every thread.  The timer_call_data rows must already exist.
+	 * @return the number of rows inserted
+	 */
+	private static int uploadTimerValues(DataSource dataSource,
 			Map<TimerCallData, Integer> timerCallDataMap, Map<Metric, Integer> metricMap,
-			DB db) throws SQLException {
-		org.postgresql.PGConnection conn;
-		if (db.getConnection() instanceof org.postgresql.PGConnection) {
-			conn = (PGConnection) db.getConnection();
-		} else {
-			System.err
-					.println("Upload using copy was called on a non postgresql database.");
-			return;
-		}
-		CopyManager copy = conn.getCopyAPI();
-		StringBuffer buf = new StringBuffer();
+			TAUdbBulkLoader bulk, boolean allThreads) throws SQLException {
 
+		TAUdbBulkLoader.RowWriter writer = bulk.open("timer_value", "timer_call_data", "metric", "inclusive_percent",
+				"inclusive_value", "exclusive_percent", "exclusive_value");
 		Group derived = dataSource.getGroup("TAU_CALLPATH_DERIVED");
-
-		for (Metric metric : dataSource.getMetrics()) {
-			Integer metricID = metricMap.get(metric);
-
-			for (Iterator<Function> func = dataSource.getFunctionIterator(); func
-					.hasNext();) {
-				Function function = func.next();
-				if (function.isGroupMember(derived)) {
-					continue;
-				}
-				for (Thread thread : dataSource.getAllThreads()) {
-					TimerCallData tcd = new TimerCallData(function, thread, 0.0);
-					Integer timerCallDataID = timerCallDataMap.get(tcd);
-					FunctionProfile fp = thread.getFunctionProfile(function);
-					if (fp != null && timerCallDataID != null) { // only if this thread calls this function
-						buf.append(timerCallDataID + "\t");
-						buf.append(metricID + "\t");
-
-						buf.append(checkDoubleValue(fp.getInclusivePercent(metric.getID()))
-								+ "\t");
-						buf.append(checkDoubleValue(fp.getInclusive(metric.getID())) + "\t");
-						buf.append(checkDoubleValue(fp.getExclusivePercent(metric.getID()))
-								+ "\t");
-						buf.append(checkDoubleValue(fp.getExclusive(metric.getID())) + "\n");
-					}
-				}
-				// now the aggregate threads
-				for (Thread thread : dataSource.getAggThreads()) {
-					TimerCallData tcd = new TimerCallData(function, thread, 0.0);
-					Integer timerCallDataID = timerCallDataMap.get(tcd);
-					FunctionProfile fp = thread.getFunctionProfile(function);
-					if (fp != null && timerCallDataID != null) { // only if this thread calls this function
-						buf.append(timerCallDataID + "\t");
-						buf.append(metricID + "\t");
-
-						buf.append(checkDoubleValue(fp.getInclusivePercent(metric.getID()))
-								+ "\t");
-						buf.append(checkDoubleValue(fp.getInclusive(metric.getID())) + "\t");
-						buf.append(checkDoubleValue(fp.getExclusivePercent(metric.getID()))
-								+ "\t");
-						buf.append(checkDoubleValue(fp.getExclusive(metric.getID())) + "\n");
-					}
-				}
-			}
-		}
-		// copy data from the given input stream to the table
-		InputStream input = new ByteArrayInputStream(buf.toString().getBytes());
-		try {
-			copy.copyIn(
-					"COPY timer_value (timer_call_data, metric, inclusive_percent, inclusive_value, exclusive_percent, "
-							+ " exclusive_value) FROM STDIN", input);
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		List<Thread> threads = new ArrayList<Thread>();
+		if (allThreads) {
+			threads.addAll(dataSource.getAllThreads());
 		}
-	}
-	private static double checkDoubleValue(double d){
-		/*
-		 * From the PostgreSQL Docs:
-		 * The double precision type typically has a range of around 1E-307 to 1E+308 with a precision of at least 15 digits. 
-		 * Values that are too large or too small will cause an error.
-		 * Rounding may take place if the precision of an input number is too high. 
-		 */
-		if(d<1E-307){
-			return 0;
-		}else if (d>1E+308){
-			return 9E+307;
-		}
-		return d;
-			
-		
-	}
-
-	private static void uploadFunctionProfiles(DataSource dataSource,
-			Map<TimerCallData, Integer> timerCallDataMap, Map<Metric, Integer> metricMap, DB db) throws SQLException {
-
-		PreparedStatement timerValueInsert = db
-				.prepareStatement("INSERT INTO "
-						+ db.getSchemaPrefix()
-						+ "timer_value (timer_call_data, metric, inclusive_percent, inclusive_value, exclusive_percent, "
-						+ " exclusive_value) VALUES (?, ?, ?, ?, ?, ?)");
-
-		Group derived = dataSource.getGroup("TAU_CALLPATH_DERIVED");
+		threads.addAll(dataSource.getAggThreads());
 
-		for (Metric metric:  dataSource.getMetrics()) {
+		for (Metric metric : dataSource.getMetrics()) {
 			Integer metricID = metricMap.get(metric);
 			if (metricID == null) {
-				// skip this metric
+				// not saving this metric
 				continue;
 			}
+			int m = metric.getID();
 
 			for (Iterator<Function> func = dataSource.getFunctionIterator(); func.hasNext();) {
 				Function function = func.next();
 				if (function.isGroupMember(derived)) {
 					continue;
 				}
-				for (Thread thread : dataSource.getAllThreads()) {
-					TimerCallData tcd = new TimerCallData(function, thread, 0.0); //TODO - this should be a timestamp, not null
-					Integer ID = timerCallDataMap.get(tcd);
+				for (Thread thread : threads) {
+					TimerCallData tcd = new TimerCallData(function, thread, 0.0);
+					Integer timerCallDataID = timerCallDataMap.get(tcd);
+					FunctionProfile fp = thread.getFunctionProfile(function);
 					// not all threads call all functions! If null, skip this permutation.
-					if (ID != null) {
-						int timerCallDataID = ID.intValue();
-						insertDerivedThreadValue(timerValueInsert, metric,
-							metricID, timerCallDataID, thread, function);
+					if (fp != null && timerCallDataID != null) {
+						// TODO: Deal with cancelUpload
+						writer.add(timerCallDataID.intValue()).add(metricID.intValue());
+						writer.add(fp.getInclusivePercent(m)).add(fp.getInclusive(m));
+						writer.add(fp.getExclusivePercent(m)).add(fp.getExclusive(m));
+						writer.endRow();
 					}
 				}
 			}
 		}
-		timerValueInsert.executeBatch();
-		timerValueInsert.close();
+		return writer.close();
 	}
-
-	private static void uploadUserEvents(int trialID, Map<Function, Integer> functionMap, DataSource dataSource,
-			DB db) throws SQLException {
-		
-		// first, build a map of timer names to integers
-		Map<String, Integer> contextMap = new HashMap<String, Integer>();
-		for (Function key : functionMap.keySet()) {
-			contextMap.put(key.getName(), functionMap.get(key)); 
-		}
+	private static Map<UserEvent, Integer> uploadUserEvents(int trialID, DataSource dataSource,
+			TAUdbBulkLoader bulk) throws SQLException {
 
 		// TODO: Need to load information for parent timer
-		PreparedStatement statement = db.prepareStatement("INSERT INTO "
-				+ db.getSchemaPrefix() + "counter (trial, name) VALUES (?, ?)");
-
-		for (Iterator<UserEvent> it = dataSource.getUserEventIterator(); it.hasNext();) {
-			UserEvent ue = it.next();
-
-			statement.setInt(1, trialID);
-			statement.setString(2, ue.getName());
-/*			if (ue.isContextEvent()) {
-				// this is a context event, so get the context
-				int contextStart = ue.getName().indexOf(" : ");
-				String context = ue.getName().substring(contextStart + 3).trim();
-				Integer func = contextMap.get(context);
-				// if this is not a callpath profile, we may not have this timer
-				if (func == null) {
-					context = context.substring(context.lastIndexOf(" => ") + 4).trim();
-					func = contextMap.get(context);
-				}
-				if (func != null) {
-					statement.setInt(3, func);
-				} else {
-					// we are out of ideas, there is no parent.
-					statement.setNull(3, java.sql.Types.INTEGER);
-				}
-			} else {
-				statement.setNull(3, java.sql.Types.INTEGER);
-			}
-*/			statement.addBatch();
-
-			// TODO: Add this to progress bar
-			// this.itemsDone++;
-		}
-		statement.executeBatch();
-		statement.close();
+		return uploadUserEvents(trialID, dataSource.getUserEvents(), bulk);
 	}
 
-	private static Map<UserEvent, Integer> getUserEventsMap(int trialID,
-			DataSource dataSource, DB db) throws SQLException {
+	/**
+	 * Inserts a counter row for each of the given user events.
+	 * @return the new counter ids
+	 */
+	static Map<UserEvent, Integer> uploadUserEvents(int trialID, List<UserEvent> userEvents, TAUdbBulkLoader bulk)
+			throws SQLException {
 		Map<UserEvent, Integer> map = new HashMap<UserEvent, Integer>();
+		int ids[] = bulk.allocateIDs("counter", userEvents.size());
+		TAUdbBulkLoader.RowWriter writer = bulk.open("counter", "id", "trial", "name");
+		for (int i = 0; i < userEvents.size(); i++) {
+			UserEvent ue = userEvents.get(i);
+			writer.add(ids[i]).add(trialID).add(ue.getName());
+			writer.endRow();
+			map.put(ue, ids[i]);
 
-		PreparedStatement statement = db
-				.prepareStatement("SELECT id, name FROM "
-						+ db.getSchemaPrefix() + "counter WHERE trial=?");
-		statement.setInt(1, trialID);
-		statement.execute();
-		ResultSet results = statement.getResultSet();
-
-		while (results.next()) {
-			int funcID = results.getInt(1);
-			String name = results.getString(2);
-
-			UserEvent func = dataSource.getUserEvent(name);
-			if(func==null)
-			{
-				System.out.println("Warning: Event "+name+" not found in data-source.");
-			}
-			map.put(func, funcID);
+			// TODO: Add this to progress bar
+			// this.itemsDone++;
 		}
-		statement.close();
+		writer.close();
 		return map;
 	}
 
-	private static void uploadUserEventProfiles(DataSource dataSource,
-			Map<UserEvent, Integer> userEventMap, DB db, Map<Thread, Integer> threadMap) throws SQLException {
+	private static int uploadUserEventProfiles(DataSource dataSource,
+			Map<UserEvent, Integer> userEventMap, TAUdbBulkLoader bulk, Map<Thread, Integer> threadMap) throws SQLException {
 
 		List<Thread> threads = dataSource.getThreads();
-		PreparedStatement statement = db
-				.prepareStatement("INSERT INTO "
-						+ db.getSchemaPrefix()
-						+ "counter_value (counter, thread, sample_count, maximum_value, minimum_value, mean_value, standard_deviation)"
-						+ "VALUES (?, ?, ?, ?, ?, ?, ?)");
+		TAUdbBulkLoader.RowWriter writer = bulk.open("counter_value", "counter", "thread", "sample_count", "maximum_value",
+				"minimum_value", "mean_value", "standard_deviation");
 
 		for (Thread thread : threads) {
 
@@ -1228,24 +932,18 @@ public class TAUdbDatabaseAPI extends DatabaseAPI {
 					int atomicEventID = uei
 							.intValue();
 				
-					statement.setInt(1, atomicEventID);
-					statement.setInt(2, threadMap.get(thread));
-					statement.setInt(3, (int) uep.getNumSamples());
-					statement.setDouble(4, uep.getMaxValue());
-					statement.setDouble(5, uep.getMinValue());
-					statement.setDouble(6, uep.getMeanValue());
-					statement.setDouble(7, uep.getSumSquared());
-					statement.addBatch();
+					writer.add(atomicEventID).add(threadMap.get(thread).intValue());
+					writer.add((int) uep.getNumSamples()).add(uep.getMaxValue()).add(uep.getMinValue());
+					writer.add(uep.getMeanValue()).add(uep.getSumSquared());
+					writer.endRow();
 				}
 
 			}
 		}
-		statement.executeBatch();
-		statement.close();
+		return writer.close();
 
 	}
-
-	private static void uploadMetadata(DataSource dataSource, Trial trial,
+	static void uploadMetadata(DataSource dataSource, Trial trial,
 			Map<Function, Integer> functionMap, Map<Thread, Integer> threadMap,
 			DB db, boolean summaryOnly) throws SQLException {
 		int trialID = trial.getID();
@@ -1657,12 +1355,7 @@ public class TAUdbDatabaseAPI extends DatabaseAPI {
                 Map<TimerCallData, Integer> timerCallDataMap = getCallDataMap(newTrialID, dataSource, null, db);
 
                 // now upload the measurements
-                if(db.getDBType().equals("postgresql")){
-                    uploadFunctionProfilesPSQL(dataSource, timerCallDataMap, metricMap, db);
-                }else{
-                    uploadFunctionProfiles(dataSource, timerCallDataMap, metricMap, db);
-                    uploadStatistics(dataSource, timerCallDataMap, metricMap, db);
-                }
+                uploadTimerValues(dataSource, timerCallDataMap, metricMap, new TAUdbBulkLoader(db), true);
             }
 
             for (Iterator<Integer> it = metricHash.keySet().iterator(); it.hasNext();) {
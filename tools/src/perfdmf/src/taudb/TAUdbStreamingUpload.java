@@ -0,0 +1,838 @@
+package edu.uoregon.tau.perfdmf.taudb;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.uoregon.tau.perfdmf.CallPathUtilFuncs;
+import edu.uoregon.tau.perfdmf.DataSource;
+import edu.uoregon.tau.perfdmf.DatabaseException;
+import edu.uoregon.tau.perfdmf.Function;
+import edu.uoregon.tau.perfdmf.FunctionProfile;
+import edu.uoregon.tau.perfdmf.Group;
+import edu.uoregon.tau.perfdmf.Metric;
+import edu.uoregon.tau.perfdmf.Thread;
+import edu.uoregon.tau.perfdmf.ThreadLoadListener;
+import edu.uoregon.tau.perfdmf.Trial;
+import edu.uoregon.tau.perfdmf.UserEvent;
+import edu.uoregon.tau.perfdmf.UserEventProfile;
+import edu.uoregon.tau.perfdmf.database.ConnectionManager;
+import edu.uoregon.tau.perfdmf.database.DB;
+
+/**
+ * Uploads a trial to TAUdb while its DataSource is still loading.  Each thread the data
+ * source reports as complete (see DataSource.setThreadLoadListener()) is copied on the
+ * loading thread and put on a bounded queue, writer threads insert its timer_call_data,
+ * timer_value and counter_value rows while the loader goes on parsing.  The loader blocks
+ * when the writers fall behind.  Timers, call paths, metrics, counters and thread rows are
+ * inserted as they are first seen, before the rows that need them.
+ *
+ * Once load() has returned, finish() waits for the writers and then, in one transaction,
+ * uploads whatever could not be streamed: functions and values added while generating the
+ * derived data, metrics added after a thread was streamed (derived metrics), threads of
+ * data sources that don't report them, the aggregate threads and their statistics, and the
+ * metadata.
+ *
+ * If a writer fails, the loader stops waiting for it: the threads it reports after that are
+ * dropped, and finish() rolls the upload back and throws the failure.
+ *
+ * With PostgreSQL each writer has its own connection and the ids come from the sequences.
+ * The writers commit before the final step, so if anything fails the trial is deleted
+ * again.  The other databases can't hand out ids to concurrent connections, they get a
+ * single writer that shares the main connection and the whole upload is one transaction.
+ *
+ * <pre>
+ * TAUdbStreamingUpload upload = api.startStreamingUpload(trial, 4);
+ * dataSource.setThreadLoadListener(upload);
+ * dataSource.load();
+ * int trialID = upload.finish();
+ * </pre>
+ *
+ * @see TAUdbDatabaseAPI#uploadTrial(DB, Trial, boolean)
+ */
+public class TAUdbStreamingUpload implements ThreadLoadListener {
+	// threads that may be waiting for each writer before the loader blocks
+	private static final int QUEUE_PER_WRITER = 4;
+	// a writer combines queued threads into one insert per table up to about this many rows
+	private static final int ROWS_PER_WRITE = 1 << 16;
+	// how often (in ms) a loader waiting for room in the queue checks that the writers still run
+	private static final long QUEUE_WAIT = 100;
+	private static final ThreadRows END = new ThreadRows(null);
+
+	private DB db;
+	private Trial trial;
+	private DataSource dataSource;
+	private int trialID = -1;
+	private boolean separateConnections;
+	private TAUdbBulkLoader registryBulk;
+
+	private BlockingQueue<ThreadRows> queue;
+	private List<java.lang.Thread> writers = new ArrayList<java.lang.Thread>();
+	private List<DB> writerConnections = new ArrayList<DB>();
+	private volatile Throwable failure = null;
+	private boolean writersJoined = false;
+	private AtomicInteger streamedThreads = new AtomicInteger();
+	private AtomicInteger streamedRows = new AtomicInteger();
+	private long start;
+
+	// only used on the loading thread
+	private Map<Function, Boolean> registered = new HashMap<Function, Boolean>();
+	private Set<Function> registeredTimers = new HashSet<Function>();
+	private Set<Metric> registeredMetrics = new HashSet<Metric>();
+	private Set<UserEvent> registeredUserEvents = new HashSet<UserEvent>();
+	private Set<Thread> registeredThreads = new HashSet<Thread>();
+	// the functions whose rows were streamed, by function id, for each streamed thread
+	private Map<Thread, BitSet> streamedFunctions = new HashMap<Thread, BitSet>();
+	// the metrics each streamed thread's rows were written with
+	private Map<Thread, List<Metric>> streamedMetrics = new HashMap<Thread, List<Metric>>();
+
+	// rows the writers need before their own, inserted by flushRegistry()
+	private Object registryLock = new Object();
+	private List<Function> pendingTimers = new ArrayList<Function>();
+	private List<Function[]> pendingCallpaths = new ArrayList<Function[]>();
+	private List<Metric> pendingMetrics = new ArrayList<Metric>();
+	private List<UserEvent> pendingUserEvents = new ArrayList<UserEvent>();
+	private List<Thread> pendingThreads = new ArrayList<Thread>();
+
+	private Map<Function, Integer> timerMap = new ConcurrentHashMap<Function, Integer>();
+	private Map<Function, Integer> callpathMap = new ConcurrentHashMap<Function, Integer>();
+	private Map<Metric, Integer> metricMap = new ConcurrentHashMap<Metric, Integer>();
+	private Map<UserEvent, Integer> userEventMap = new ConcurrentHashMap<UserEvent, Integer>();
+	private Map<Thread, Integer> threadMap = new ConcurrentHashMap<Thread, Integer>();
+
+	/**
+	 * The values of one thread, copied so that the writers never touch the DataSource.
+	 */
+	private static class ThreadRows {
+		final Thread thread;
+		List<Metric> metrics;
+		List<Function> functions = new ArrayList<Function>();
+		// per function: calls, subroutines, then per metric the inclusive percent,
+		// inclusive, exclusive percent and exclusive values
+		double values[] = new double[0];
+		int numValues = 0;
+		List<UserEvent> userEvents = new ArrayList<UserEvent>();
+		// per user event: samples, maximum, minimum, mean, sum of squares
+		double eventValues[] = new double[0];
+		int numEventValues = 0;
+
+		ThreadRows(Thread thread) {
+			this.thread = thread;
+		}
+
+		void add(double value) {
+			if (numValues == values.length) {
+				double newValues[] = new double[Math.max(64, values.length * 2)];
+				System.arraycopy(values, 0, newValues, 0, numValues);
+				values = newValues;
+			}
+			values[numValues++] = value;
+		}
+
+		void addEvent(double value) {
+			if (numEventValues == eventValues.length) {
+				double newValues[] = new double[Math.max(16, eventValues.length * 2)];
+				System.arraycopy(eventValues, 0, newValues, 0, numEventValues);
+				eventValues = newValues;
+			}
+			eventValues[numEventValues++] = value;
+		}
+
+		int getRowCount() {
+			return functions.size() * (1 + metrics.size()) + userEvents.size();
+		}
+	}
+
+	/**
+	 * Inserts the trial row and starts the writers.
+	 *
+	 * @param db		the main connection, the final step runs on it
+	 * @param connector	opens the writer connections (PostgreSQL only)
+	 * @param trial		the trial to upload, its DataSource must not be loaded yet
+	 * @param numWriters	number of writer threads
+	 */
+	public TAUdbStreamingUpload(DB db, ConnectionManager connector, Trial trial, int numWriters) throws SQLException {
+		this.db = db;
+		this.trial = trial;
+		this.dataSource = trial.getDataSource();
+
+		separateConnections = db.getDBType().equals("postgresql");
+		if (!separateConnections && numWriters > 1) {
+			System.out.println("Only PostgreSQL supports concurrent writers, using one.");
+			numWriters = 1;
+		}
+		numWriters = Math.max(1, numWriters);
+
+		start = System.currentTimeMillis();
+		// with separate connections the trial and the shared rows have to be committed
+		// before the writers can refer to them
+		db.setAutoCommit(separateConnections);
+		registryBulk = new TAUdbBulkLoader(db);
+		// not trial.saveTrial(), the thread counts aren't known yet, see updateThreadIndices()
+		trialID = registryBulk.allocateIDs("trial", 1)[0];
+		PreparedStatement statement = db.prepareStatement("INSERT INTO " + db.getSchemaPrefix()
+				+ "trial (id, name, data_source, node_count, contexts_per_node, threads_per_context, total_threads)"
+				+ " VALUES (?, ?, ?, 0, 0, 0, 0)");
+		statement.setInt(1, trialID);
+		statement.setString(2, trial.getName());
+		statement.setInt(3, dataSource.getFileType());
+		statement.executeUpdate();
+		statement.close();
+		trial.setID(trialID);
+
+		queue = new ArrayBlockingQueue<ThreadRows>(QUEUE_PER_WRITER * numWriters);
+		for (int i = 0; i < numWriters; i++) {
+			final DB connection;
+			if (separateConnections) {
+				connection = connector.openConnection();
+				connection.setAutoCommit(false);
+			} else {
+				connection = db;
+			}
+			writerConnections.add(connection);
+			java.lang.Thread writer = new java.lang.Thread("TAUdb writer " + i) {
+				public void run() {
+					write(connection);
+				}
+			};
+			writer.setDaemon(true);
+			writers.add(writer);
+			writer.start();
+		}
+	}
+
+	public int getTrialID() {
+		return trialID;
+	}
+
+	public void threadLoaded(Thread thread) {
+		if (failure != null) {
+			return;
+		}
+		ThreadRows rows = collect(thread, true);
+		try {
+			while (!queue.offer(rows, QUEUE_WAIT, TimeUnit.MILLISECONDS)) {
+				if (!writing()) {
+					// finish() reports the failure
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			java.lang.Thread.currentThread().interrupt();
+		}
+	}
+
+	// false once a writer has failed, so nothing is taken off the queue any more
+	private boolean writing() {
+		if (failure != null) {
+			return false;
+		}
+		for (java.lang.Thread writer : writers) {
+			if (writer.isAlive()) {
+				return true;
+			}
+		}
+		failure = new SQLException("The upload writers stopped");
+		return false;
+	}
+
+	// the writer threads
+	private void write(DB connection) {
+		TAUdbBulkLoader bulk;
+		try {
+			bulk = new TAUdbBulkLoader(connection);
+		} catch (SQLException e) {
+			failure = e;
+			bulk = null;
+		}
+		List<ThreadRows> batch = new ArrayList<ThreadRows>();
+		while (true) {
+			ThreadRows rows;
+			try {
+				rows = queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (rows == END) {
+				// leave it for the other writers
+				queue.offer(END);
+				return;
+			}
+			if (failure != null) {
+				// keep taking them, so that the loader never blocks
+				continue;
+			}
+
+			// take whatever else is already waiting, up to a reasonable amount of rows
+			batch.clear();
+			batch.add(rows);
+			int count = rows.getRowCount();
+			ThreadRows next;
+			while (count < ROWS_PER_WRITE && (next = queue.poll()) != null) {
+				if (next == END) {
+					queue.offer(END);
+					break;
+				}
+				batch.add(next);
+				count += next.getRowCount();
+			}
+
+			try {
+				streamedRows.addAndGet(writeRows(batch, bulk));
+				streamedThreads.addAndGet(batch.size());
+			} catch (Throwable t) {
+				// anything, or the loader would wait for this writer forever
+				failure = t;
+			}
+		}
+	}
+
+	/**
+	 * Copies a thread's rows and notes the timers, call paths, metrics, counters and the
+	 * thread itself for flushRegistry().  Runs on the loading thread only.
+	 *
+	 * @param streaming	true while the data source is still loading: the percentages are
+	 * 					computed here, the thread data isn't there yet
+	 */
+	private ThreadRows collect(Thread thread, boolean streaming) {
+		BitSet streamed = streamedFunctions.get(thread);
+		ThreadRows rows = new ThreadRows(thread);
+		rows.metrics = new ArrayList<Metric>(dataSource.getMetrics());
+		if (streaming) {
+			streamed = new BitSet();
+			streamedFunctions.put(thread, streamed);
+			streamedMetrics.put(thread, rows.metrics);
+		}
+		for (Metric metric : rows.metrics) {
+			if (registeredMetrics.add(metric)) {
+				synchronized (registryLock) {
+					pendingMetrics.add(metric);
+				}
+			}
+		}
+		if (registeredThreads.add(thread)) {
+			synchronized (registryLock) {
+				pendingThreads.add(thread);
+			}
+		}
+
+		int numMetrics = rows.metrics.size();
+		double percentDividers[] = null;
+		if (streaming) {
+			// what Thread.setThreadData() will use later
+			percentDividers = new double[numMetrics];
+			for (Iterator<FunctionProfile> it = thread.getFunctionProfileIterator(); it.hasNext();) {
+				FunctionProfile fp = it.next();
+				if (fp != null) {
+					for (int m = 0; m < numMetrics; m++) {
+						percentDividers[m] = Math.max(percentDividers[m], fp.getInclusive(m));
+					}
+				}
+			}
+			for (int m = 0; m < numMetrics; m++) {
+				percentDividers[m] /= 100.0;
+			}
+		}
+
+		Group derived = dataSource.getGroup("TAU_CALLPATH_DERIVED");
+		for (Iterator<FunctionProfile> it = thread.getFunctionProfileIterator(); it.hasNext();) {
+			FunctionProfile fp = it.next();
+			if (fp == null) {
+				continue;
+			}
+			Function function = fp.getFunction();
+			if (!streaming && streamed != null && streamed.get(function.getID())) {
+				continue;
+			}
+			if (function.isGroupMember(derived) || !registerFunction(function)) {
+				continue;
+			}
+			// only if this thread calls this function
+			if (fp.getNumCalls() <= 0) {
+				continue;
+			}
+			if (streaming) {
+				streamed.set(function.getID());
+			}
+			rows.functions.add(function);
+			rows.add(fp.getNumCalls());
+			rows.add(fp.getNumSubr());
+			for (int m = 0; m < numMetrics; m++) {
+				if (streaming) {
+					double divider = percentDividers[m];
+					rows.add(divider == 0 ? 0 : fp.getInclusive(m) / divider);
+					rows.add(fp.getInclusive(m));
+					rows.add(divider == 0 ? 0 : fp.getExclusive(m) / divider);
+					rows.add(fp.getExclusive(m));
+				} else {
+					rows.add(fp.getInclusivePercent(m));
+					rows.add(fp.getInclusive(m));
+					rows.add(fp.getExclusivePercent(m));
+					rows.add(fp.getExclusive(m));
+				}
+			}
+		}
+
+		if (thread.getNodeID() >= 0 && (streaming || streamed == null)) {
+			for (Iterator<UserEventProfile> it = thread.getUserEventProfiles(); it.hasNext();) {
+				UserEventProfile uep = it.next();
+				if (uep == null) {
+					continue;
+				}
+				UserEvent ue = uep.getUserEvent();
+				if (registeredUserEvents.add(ue)) {
+					synchronized (registryLock) {
+						pendingUserEvents.add(ue);
+					}
+				}
+				rows.userEvents.add(ue);
+				rows.addEvent(uep.getNumSamples());
+				rows.addEvent(uep.getMaxValue());
+				rows.addEvent(uep.getMinValue());
+				rows.addEvent(uep.getMeanValue());
+				rows.addEvent(uep.getSumSquared());
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Notes the timer_callpath row (and the timer and parents it needs) for a function,
+	 * the same rows as TAUdbDatabaseAPI.uploadCallpathInfo() would create.
+	 *
+	 * @return false if the function has no timer, and so no call path
+	 */
+	private boolean registerFunction(Function function) {
+		Boolean known = registered.get(function);
+		if (known != null) {
+			return known.booleanValue();
+		}
+		Function parent = null;
+		String parentName = CallPathUtilFuncs.getParentName(function.getName());
+		if (!parentName.equals("")) {
+			parent = dataSource.getFunction(parentName);
+			if (parent == null) {
+				parent = dataSource.addFunction(parentName, dataSource.getNumberOfMetrics());
+			}
+			if (!registerFunction(parent)) {
+				parent = null;
+			}
+		}
+		Function timer = dataSource.getFunction(function.getCallpathNodeName());
+		Group derived = dataSource.getGroup("TAU_CALLPATH_DERIVED");
+		if (timer == null || timer.isCallPathFunction() || timer.isGroupMember(derived)) {
+			registered.put(function, Boolean.FALSE);
+			return false;
+		}
+		synchronized (registryLock) {
+			if (registeredTimers.add(timer)) {
+				pendingTimers.add(timer);
+			}
+			pendingCallpaths.add(new Function[] { function, timer, parent });
+		}
+		registered.put(function, Boolean.TRUE);
+		return true;
+	}
+
+	/**
+	 * Inserts the pending metrics, timers, call paths, counters and threads on the main
+	 * connection.  Whichever writer gets here first inserts the rows the others need too.
+	 */
+	private void flushRegistry() throws SQLException {
+		synchronized (registryLock) {
+			if (!pendingMetrics.isEmpty()) {
+				TAUdbDatabaseAPI.uploadMetrics(trialID, pendingMetrics, db);
+				Map<String, Metric> names = new HashMap<String, Metric>();
+				for (Metric metric : pendingMetrics) {
+					names.put(metric.getName(), metric);
+				}
+				PreparedStatement select = db.prepareStatement("SELECT id, name FROM " + db.getSchemaPrefix()
+						+ "metric WHERE trial=?");
+				select.setInt(1, trialID);
+				ResultSet results = select.executeQuery();
+				while (results.next()) {
+					Metric metric = names.get(results.getString(2));
+					if (metric != null) {
+						metric.setDbMetricID(results.getInt(1));
+						metricMap.put(metric, results.getInt(1));
+					}
+				}
+				results.close();
+				select.close();
+				pendingMetrics.clear();
+			}
+
+			if (!pendingTimers.isEmpty()) {
+				timerMap.putAll(TAUdbDatabaseAPI.uploadFunctions(trialID, pendingTimers, registryBulk));
+				pendingTimers.clear();
+			}
+
+			if (!pendingCallpaths.isEmpty()) {
+				// parents were always noted before their children
+				int ids[] = registryBulk.allocateIDs("timer_callpath", pendingCallpaths.size());
+				TAUdbBulkLoader.RowWriter writer = registryBulk.open("timer_callpath", "id", "timer", "parent");
+				Map<Function, Integer> added = new HashMap<Function, Integer>();
+				for (int i = 0; i < ids.length; i++) {
+					Function callpath[] = pendingCallpaths.get(i);
+					writer.add(ids[i]).add(timerMap.get(callpath[1]).intValue());
+					Integer parent = null;
+					if (callpath[2] != null) {
+						parent = added.get(callpath[2]);
+						if (parent == null) {
+							parent = callpathMap.get(callpath[2]);
+						}
+					}
+					if (parent == null) {
+						writer.addNull();
+					} else {
+						writer.add(parent.intValue());
+					}
+					writer.endRow();
+					added.put(callpath[0], ids[i]);
+				}
+				writer.close();
+				callpathMap.putAll(added);
+				pendingCallpaths.clear();
+			}
+
+			if (!pendingUserEvents.isEmpty()) {
+				userEventMap.putAll(TAUdbDatabaseAPI.uploadUserEvents(trialID, pendingUserEvents, registryBulk));
+				pendingUserEvents.clear();
+			}
+
+			if (!pendingThreads.isEmpty()) {
+				// thread_index needs the final number of contexts and threads, see finish()
+				int ids[] = registryBulk.allocateIDs("thread", pendingThreads.size());
+				TAUdbBulkLoader.RowWriter writer = registryBulk.open("thread", "id", "trial", "node_rank",
+						"context_rank", "thread_rank", "thread_index");
+				for (int i = 0; i < ids.length; i++) {
+					Thread thread = pendingThreads.get(i);
+					int threadIndex = thread.getNodeID() < 0 ? thread.getNodeID() : 0;
+					writer.add(ids[i]).add(trialID).add(thread.getNodeID()).add(thread.getContextID());
+					writer.add(thread.getThreadID()).add(threadIndex);
+					writer.endRow();
+					threadMap.put(thread, ids[i]);
+				}
+				writer.close();
+				pendingThreads.clear();
+			}
+		}
+	}
+
+	/**
+	 * Inserts the timer_call_data, timer_value and counter_value rows of some threads.
+	 * @return the number of rows inserted
+	 */
+	private int writeRows(List<ThreadRows> batch, TAUdbBulkLoader bulk) throws SQLException {
+		flushRegistry();
+
+		int count = 0;
+		for (ThreadRows rows : batch) {
+			count += rows.functions.size();
+		}
+		int ids[] = bulk.allocateIDs("timer_call_data", count);
+
+		TAUdbBulkLoader.RowWriter writer = bulk.open("timer_call_data", "id", "timer_callpath", "thread", "calls",
+				"subroutines");
+		int row = 0;
+		for (ThreadRows rows : batch) {
+			int threadID = threadMap.get(rows.thread).intValue();
+			int width = 2 + 4 * rows.metrics.size();
+			for (int i = 0; i < rows.functions.size(); i++) {
+				writer.add(ids[row++]).add(callpathMap.get(rows.functions.get(i)).intValue()).add(threadID);
+				writer.add((int) rows.values[i * width]).add((int) rows.values[i * width + 1]);
+				writer.endRow();
+			}
+		}
+		int inserted = writer.close();
+
+		writer = bulk.open("timer_value", "timer_call_data", "metric", "inclusive_percent", "inclusive_value",
+				"exclusive_percent", "exclusive_value");
+		row = 0;
+		for (ThreadRows rows : batch) {
+			int width = 2 + 4 * rows.metrics.size();
+			for (int i = 0; i < rows.functions.size(); i++) {
+				for (int m = 0; m < rows.metrics.size(); m++) {
+					int offset = i * width + 2 + 4 * m;
+					writer.add(ids[row]).add(metricMap.get(rows.metrics.get(m)).intValue());
+					writer.add(rows.values[offset]).add(rows.values[offset + 1]);
+					writer.add(rows.values[offset + 2]).add(rows.values[offset + 3]);
+					writer.endRow();
+				}
+				row++;
+			}
+		}
+		inserted += writer.close();
+
+		writer = bulk.open("counter_value", "counter", "thread", "sample_count", "maximum_value", "minimum_value",
+				"mean_value", "standard_deviation");
+		for (ThreadRows rows : batch) {
+			int threadID = threadMap.get(rows.thread).intValue();
+			for (int i = 0; i < rows.userEvents.size(); i++) {
+				int offset = i * 5;
+				writer.add(userEventMap.get(rows.userEvents.get(i)).intValue()).add(threadID);
+				writer.add((int) rows.eventValues[offset]).add(rows.eventValues[offset + 1]);
+				writer.add(rows.eventValues[offset + 2]).add(rows.eventValues[offset + 3]);
+				writer.add(rows.eventValues[offset + 4]);
+				writer.endRow();
+			}
+		}
+		inserted += writer.close();
+		return inserted;
+	}
+
+	/**
+	 * Waits for the writers to insert the threads queued so far and ends their transactions.
+	 * Until it returns, the main connection may be in use by a writer.  finish() calls it,
+	 * it only has to be called first if the main connection is needed in between.
+	 */
+	public void joinWriters() throws DatabaseException {
+		if (writersJoined) {
+			if (failure != null) {
+				// rolled back by the first call
+				throw new DatabaseException("Saving Trial Failed, rollbacks successful", toSQLException(failure));
+			}
+			return;
+		}
+		writersJoined = true;
+		try {
+			while (!queue.offer(END, QUEUE_WAIT, TimeUnit.MILLISECONDS) && writing()) {
+				// a writer is still busy
+			}
+		} catch (InterruptedException e) {
+			java.lang.Thread.currentThread().interrupt();
+		}
+		for (java.lang.Thread writer : writers) {
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				java.lang.Thread.currentThread().interrupt();
+			}
+		}
+		if (separateConnections) {
+			for (DB connection : writerConnections) {
+				try {
+					if (failure == null) {
+						connection.commit();
+					} else {
+						connection.rollback();
+					}
+				} catch (SQLException e) {
+					if (failure == null) {
+						failure = e;
+					}
+				}
+				connection.close();
+			}
+		}
+		if (failure != null) {
+			abort(failure);
+		}
+	}
+
+	/**
+	 * Waits for the writers, then uploads the rest of the trial and commits.  Call it once
+	 * the DataSource has finished loading (including its statistics).
+	 *
+	 * @return the trial id
+	 */
+	public int finish() throws DatabaseException {
+		joinWriters();
+		System.out.println("Streamed " + streamedThreads.get() + " threads while loading (" + streamedRows.get()
+				+ " rows, " + (System.currentTimeMillis() - start) / 1000.0 + " seconds)");
+
+		try {
+			db.setAutoCommit(false);
+
+			long before = System.currentTimeMillis();
+			System.out.print("Inserting remaining call data...");
+			Group derived = dataSource.getGroup("TAU_CALLPATH_DERIVED");
+			for (Iterator<Function> it = dataSource.getFunctionIteratorCopy(); it.hasNext();) {
+				Function function = it.next();
+				if (!function.isGroupMember(derived)) {
+					registerFunction(function);
+				}
+			}
+			int rows = writeAll(dataSource.getAllThreads());
+			rows += writeLateMetrics();
+			before = TAUdbDatabaseAPI.reportStage(before, rows);
+
+			System.out.print("Inserting derived threads...");
+			rows = writeAll(dataSource.getAggThreads());
+			before = TAUdbDatabaseAPI.reportStage(before, rows);
+
+			System.out.print("Inserting timer groups and parameters...");
+			Map<Function, Integer> timers = new HashMap<Function, Integer>(timerMap);
+			TAUdbDatabaseAPI.uploadTimerGroups(timers, db);
+			TAUdbDatabaseAPI.uploadTimerParameter(timers, db);
+			updateThreadIndices();
+			before = TAUdbDatabaseAPI.reportStage(before, 0);
+
+			System.out.print("Inserting metadata...");
+			TAUdbDatabaseAPI.uploadMetadata(dataSource, trial, callpathMap, threadMap, db, false);
+			long after = TAUdbDatabaseAPI.reportStage(before, 0);
+			System.out.println("Total time to load : " + (after - start) / 1000.0 + " seconds");
+
+			db.commit();
+			db.setAutoCommit(true);
+		} catch (SQLException e) {
+			abort(e);
+		}
+		return trialID;
+	}
+
+	/**
+	 * Gives up on the upload, from the loading thread.
+	 */
+	public void cancel() {
+		if (failure == null) {
+			failure = new SQLException("Upload cancelled");
+		}
+		try {
+			finish();
+		} catch (DatabaseException e) {
+			// expected
+		}
+	}
+
+	// writes the rows of threads that were not (completely) streamed, in batches
+	private int writeAll(List<Thread> threads) throws SQLException {
+		int inserted = 0;
+		List<ThreadRows> batch = new ArrayList<ThreadRows>();
+		int count = 0;
+		for (Thread thread : threads) {
+			ThreadRows rows = collect(thread, false);
+			if (rows.getRowCount() == 0) {
+				continue;
+			}
+			batch.add(rows);
+			count += rows.getRowCount();
+			if (count >= ROWS_PER_WRITE) {
+				inserted += writeRows(batch, registryBulk);
+				batch.clear();
+				count = 0;
+			}
+		}
+		// the threads without any rows still need their thread rows
+		inserted += writeRows(batch, registryBulk);
+		return inserted;
+	}
+
+	/**
+	 * Inserts the timer_value rows of the metrics that were added after a thread was
+	 * streamed, for the timer_call_data rows that were streamed without them.  Runs after
+	 * writeAll(), which inserted the metric rows.
+	 */
+	private int writeLateMetrics() throws SQLException {
+		Map<Long, Integer> callData = null;
+		TAUdbBulkLoader.RowWriter writer = null;
+		for (Map.Entry<Thread, List<Metric>> entry : streamedMetrics.entrySet()) {
+			List<Metric> late = new ArrayList<Metric>(dataSource.getMetrics());
+			late.removeAll(entry.getValue());
+			if (late.isEmpty()) {
+				continue;
+			}
+			if (callData == null) {
+				callData = selectCallData();
+				writer = registryBulk.open("timer_value", "timer_call_data", "metric", "inclusive_percent",
+						"inclusive_value", "exclusive_percent", "exclusive_value");
+			}
+			Thread thread = entry.getKey();
+			long threadID = threadMap.get(thread).longValue();
+			BitSet streamed = streamedFunctions.get(thread);
+			for (Iterator<FunctionProfile> it = thread.getFunctionProfileIterator(); it.hasNext();) {
+				FunctionProfile fp = it.next();
+				if (fp == null || !streamed.get(fp.getFunction().getID())) {
+					continue;
+				}
+				int callpath = callpathMap.get(fp.getFunction()).intValue();
+				int id = callData.get(threadID << 32 | callpath).intValue();
+				for (Metric metric : late) {
+					int m = metric.getID();
+					writer.add(id).add(metricMap.get(metric).intValue());
+					writer.add(fp.getInclusivePercent(m)).add(fp.getInclusive(m));
+					writer.add(fp.getExclusivePercent(m)).add(fp.getExclusive(m));
+					writer.endRow();
+				}
+			}
+		}
+		return writer == null ? 0 : writer.close();
+	}
+
+	// the ids of the trial's timer_call_data rows, by thread id (high half) and call path id
+	private Map<Long, Integer> selectCallData() throws SQLException {
+		Map<Long, Integer> callData = new HashMap<Long, Integer>();
+		PreparedStatement select = db.prepareStatement("SELECT d.id, d.thread, d.timer_callpath FROM "
+				+ db.getSchemaPrefix() + "timer_call_data d INNER JOIN " + db.getSchemaPrefix()
+				+ "thread t ON d.thread = t.id WHERE t.trial = ?");
+		select.setInt(1, trialID);
+		ResultSet results = select.executeQuery();
+		while (results.next()) {
+			callData.put((long) results.getInt(2) << 32 | results.getInt(3), results.getInt(1));
+		}
+		results.close();
+		select.close();
+		return callData;
+	}
+
+	// now that all threads are known
+	private void updateThreadIndices() throws SQLException {
+		int maxContextPerNode = dataSource.getMaxNCTNumbers()[1] + 1;
+		int maxThreadsPerContext = dataSource.getMaxNCTNumbers()[2] + 1;
+		PreparedStatement statement = db.prepareStatement("UPDATE " + db.getSchemaPrefix()
+				+ "thread SET thread_index = node_rank * ? + context_rank * ? + thread_rank WHERE trial = ? AND node_rank >= 0");
+		statement.setInt(1, maxContextPerNode * maxThreadsPerContext);
+		statement.setInt(2, maxThreadsPerContext);
+		statement.setInt(3, trialID);
+		statement.executeUpdate();
+		statement.close();
+
+		// the trial row was written before the threads were known
+		statement = db.prepareStatement("UPDATE " + db.getSchemaPrefix()
+				+ "trial SET node_count = ?, contexts_per_node = ?, threads_per_context = ?, total_threads = ? WHERE id = ?");
+		statement.setInt(1, dataSource.getMaxNode());
+		statement.setInt(2, dataSource.getMaxContextPerNode());
+		statement.setInt(3, dataSource.getMaxThreadsPerContext());
+		statement.setInt(4, dataSource.getNumThreads());
+		statement.setInt(5, trialID);
+		statement.executeUpdate();
+		statement.close();
+	}
+
+	private void abort(Throwable e) throws DatabaseException {
+		try {
+			db.rollback();
+			if (separateConnections) {
+				// the streamed rows are already committed
+				TAUdbTrial.deleteTrial(db, new int[] { trialID });
+				db.commit();
+			}
+			db.setAutoCommit(true);
+		} catch (SQLException e2) {
+			e.printStackTrace();
+			throw new DatabaseException("Saving Trial Failed, rollbacks failed!", e2);
+		}
+		e.printStackTrace();
+		if (e instanceof Error) {
+			throw (Error) e;
+		}
+		throw new DatabaseException("Saving Trial Failed, rollbacks successful", toSQLException(e));
+	}
+
+	private static SQLException toSQLException(Throwable e) {
+		return e instanceof SQLException ? (SQLException) e : new SQLException(e.toString(), e);
+	}
+}
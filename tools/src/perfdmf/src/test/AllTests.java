@@ -0,0 +1,24 @@
+package edu.uoregon.tau.perfdmf.test;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+public class AllTests {
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite("Test for perfdmf");
+        //$JUnit-BEGIN$
+        suite.addTestSuite(PackedProfileDataSourceTest.class);
+        suite.addTestSuite(TAUdbStreamingUploadTest.class);
+        suite.addTestSuite(LazyThreadTest.class);
+        suite.addTestSuite(DBConnectionPoolTest.class);
+        suite.addTestSuite(MetricExpressionTest.class);
+        suite.addTestSuite(TraceDataSourceTest.class);
+        suite.addTestSuite(TauDataSourceTest.class);
+        suite.addTestSuite(FunctionProfileBlockTest.class);
+        suite.addTestSuite(StatisticsTest.class);
+        //$JUnit-END$
+        return suite;
+    }
+
+}
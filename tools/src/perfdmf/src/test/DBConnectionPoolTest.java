@@ -0,0 +1,258 @@
+package edu.uoregon.tau.perfdmf.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import edu.uoregon.tau.perfdmf.Database;
+import edu.uoregon.tau.perfdmf.database.DB;
+import edu.uoregon.tau.perfdmf.database.DBConnectionPool;
+import edu.uoregon.tau.perfdmf.database.StatementCache;
+
+/**
+ * Checks DBConnectionPool and StatementCache against an embedded H2 database, with the
+ * driver read from ../contrib/h2.jar relative to tools/src/perfdmf.
+ */
+public class DBConnectionPoolTest extends TestCase {
+
+    private File directory;
+    private DBConnectionPool pool;
+
+    // the statements prepared on the counting connection, in order
+    private List<PreparedStatement> prepared = new ArrayList<PreparedStatement>();
+
+    public DBConnectionPoolTest(String arg0) {
+        super(arg0);
+    }
+
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("pool", "");
+        directory.delete();
+        directory.mkdir();
+
+        File config = new File(directory, "perfdmf.cfg");
+        FileWriter writer = new FileWriter(config);
+        writer.write("jdbc_db_jarfile:../contrib/h2.jar\n" + "jdbc_db_driver:org.h2.Driver\n" + "jdbc_db_type:h2\n"
+                + "db_dbname:" + new File(directory, "perfdmf").getAbsolutePath() + "\n" + "db_username:\n"
+                + "db_password:\n" + "db_schemafile:etc/taudb.sql\n");
+        writer.close();
+        pool = new DBConnectionPool("", "", new Database(config.getAbsolutePath()));
+
+        DB db = pool.acquire();
+        db.executeUpdate("CREATE TABLE item (id INT, name VARCHAR(20))");
+        db.executeUpdate("INSERT INTO item VALUES (1, 'one')");
+        db.executeUpdate("INSERT INTO item VALUES (2, 'two')");
+        db.close();
+    }
+
+    protected void tearDown() throws Exception {
+        pool.close();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private static String name(PreparedStatement statement, int id) throws SQLException {
+        statement.setInt(1, id);
+        ResultSet results = statement.executeQuery();
+        assertTrue(results.next());
+        String name = results.getString(1);
+        results.close();
+        return name;
+    }
+
+    // an H2 connection that remembers the statements prepared on it
+    private Connection countingConnection() throws SQLException {
+        final Connection connection = DriverManager.getConnection("jdbc:h2:"
+                + new File(directory, "perfdmf").getAbsolutePath());
+        InvocationHandler handler = new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                try {
+                    Object result = method.invoke(connection, args);
+                    if (method.getName().equals("prepareStatement")) {
+                        prepared.add((PreparedStatement) result);
+                    }
+                    return result;
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        };
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, handler);
+    }
+
+    public final void testCheckoutAndReturn() throws Exception {
+        DB first = pool.acquire();
+        DB second = pool.acquire();
+        Connection firstConnection = first.getConnection();
+        Connection secondConnection = second.getConnection();
+        assertNotSame(firstConnection, secondConnection);
+        assertEquals(2, pool.getSize());
+
+        first.close();
+        second.close();
+        assertNull(first.getConnection());
+        assertEquals(2, pool.getSize());
+
+        // the connections given back are lent again, the most recent first
+        DB third = pool.acquire();
+        assertSame(secondConnection, third.getConnection());
+        assertEquals(2, pool.getSize());
+
+        // an unfinished transaction is rolled back when the connection comes back
+        third.setAutoCommit(false);
+        third.executeUpdate("DELETE FROM item");
+        third.close();
+        DB fourth = pool.acquire();
+        assertTrue(fourth.getConnection().getAutoCommit());
+        assertEquals("2", fourth.getDataItem("SELECT COUNT(*) FROM item"));
+        fourth.close();
+
+        // a closed connection isn't lent again
+        DB fifth = pool.acquire();
+        Connection broken = fifth.getConnection();
+        broken.close();
+        fifth.close();
+        assertEquals(1, pool.getSize());
+        DB sixth = pool.acquire();
+        assertNotSame(broken, sixth.getConnection());
+        sixth.close();
+    }
+
+    public final void testTimeout() throws Exception {
+        pool.setMaxSize(1);
+        pool.setTimeout(200);
+        DB db = pool.acquire();
+        long start = System.currentTimeMillis();
+        try {
+            pool.acquire();
+            fail("there is no free connection");
+        } catch (SQLException expected) {
+            assertTrue(System.currentTimeMillis() - start >= 190);
+        }
+
+        // a waiting acquire() gets the connection given back
+        pool.setTimeout(10000);
+        final DB lent = db;
+        java.lang.Thread releaser = new java.lang.Thread() {
+            public void run() {
+                try {
+                    java.lang.Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    // give it back early
+                }
+                lent.close();
+            }
+        };
+        releaser.start();
+        DB next = pool.acquire();
+        assertEquals(1, pool.getSize());
+        next.close();
+        releaser.join();
+
+        // closing the pool wakes the waiters
+        pool.close();
+        try {
+            pool.acquire();
+            fail("the pool is closed");
+        } catch (SQLException expected) {
+        }
+        assertEquals(0, pool.getSize());
+    }
+
+    public final void testStatementReuse() throws Exception {
+        String sql = "SELECT name FROM item WHERE id = ?";
+        StatementCache cache = new StatementCache(countingConnection(), 2);
+
+        PreparedStatement statement = cache.prepare(sql);
+        assertEquals("one", name(statement, 1));
+        statement.close();
+        assertTrue(statement.isClosed());
+        try {
+            statement.executeQuery();
+            fail("the statement was given back");
+        } catch (SQLException expected) {
+        }
+
+        // the same SQL reuses the statement, with its parameters cleared
+        statement = cache.prepare(sql);
+        assertEquals(1, prepared.size());
+        try {
+            statement.executeQuery();
+            fail("the parameters should have been cleared");
+        } catch (SQLException expected) {
+        }
+        assertEquals("two", name(statement, 2));
+
+        // while in use, the same SQL gets a statement of its own
+        PreparedStatement nested = cache.prepare(sql);
+        assertEquals(2, prepared.size());
+        assertEquals("one", name(nested, 1));
+        nested.close();
+        statement.close();
+        // only one of the two is kept
+        assertEquals(1, cache.getIdleCount());
+        assertTrue(prepared.get(1).isClosed());
+        assertFalse(prepared.get(0).isClosed());
+
+        // beyond the cache size, the least recently used statement is closed
+        cache.prepare("SELECT id FROM item WHERE name = ?").close();
+        cache.prepare("SELECT COUNT(*) FROM item WHERE id > ?").close();
+        assertEquals(2, cache.getIdleCount());
+        assertTrue(prepared.get(0).isClosed());
+        assertFalse(prepared.get(2).isClosed());
+        assertFalse(prepared.get(3).isClosed());
+
+        // closing the cache closes every statement, the ones in use included
+        PreparedStatement open = cache.prepare(sql);
+        cache.close();
+        assertTrue(open.isClosed());
+        for (PreparedStatement each : prepared) {
+            assertTrue(each.isClosed());
+        }
+        cache.getConnection().close();
+    }
+
+    public final void testStatementLifecycle() throws Exception {
+        String sql = "SELECT name FROM item WHERE id = ?";
+        pool.setMaxSize(1);
+
+        DB db = pool.acquire();
+        Connection connection = db.getConnection();
+        PreparedStatement kept = db.prepareStatement(sql);
+        assertEquals("one", name(kept, 1));
+        // closing the DB closes what was prepared through it, for its user only
+        db.close();
+        assertTrue(kept.isClosed());
+        try {
+            name(kept, 2);
+            fail("the statement outlived its DB");
+        } catch (SQLException expected) {
+        }
+
+        // the next loan of the connection finds the statement in the cache
+        db = pool.acquire();
+        assertSame(connection, db.getConnection());
+        PreparedStatement reused = db.prepareStatement(sql);
+        assertEquals("two", name(reused, 2));
+        reused.close();
+        db.close();
+
+        // closing the pool closes the connection, and its statements with it
+        pool.close();
+        assertTrue(connection.isClosed());
+    }
+}
@@ -0,0 +1,143 @@
+package edu.uoregon.tau.perfdmf.test;
+
+import junit.framework.TestCase;
+import edu.uoregon.tau.perfdmf.DataSource;
+import edu.uoregon.tau.perfdmf.Function;
+import edu.uoregon.tau.perfdmf.FunctionProfile;
+import edu.uoregon.tau.perfdmf.Thread;
+
+public class FunctionProfileBlockTest extends TestCase {
+
+    private static final int NODES = 4;
+    private static final int FUNCTIONS = 6;
+    private static final int SNAPSHOTS = 3;
+    private static final int METRICS = 2;
+
+    /**
+     * Grows its threads the way the readers do: profiles are set for the first metric and
+     * snapshot, then snapshots and a metric are added and filled in, and a profile is
+     * added last, after the growth.
+     */
+    private static class GrowingDataSource extends DataSource {
+        GrowingDataSource(boolean compact) {
+            setCompactStorage(compact);
+        }
+
+        public void load() {
+            addMetric("TIME");
+            for (int n = 0; n < NODES; n++) {
+                Thread thread = addThread(n, 0, 0);
+                for (int f = 0; f < FUNCTIONS - 1; f++) {
+                    if (called(n, f)) {
+                        FunctionProfile fp = new FunctionProfile(addFunction("f" + f, 1), 1);
+                        thread.addFunctionProfile(fp);
+                        fill(fp, n, f, 0, 0);
+                    }
+                }
+                thread.addSnapshot("first");
+                thread.addSnapshot("second");
+                for (FunctionProfile fp : thread.getFunctionProfiles()) {
+                    if (fp != null) {
+                        fill(fp, n, number(fp), 1, 0);
+                    }
+                }
+            }
+
+            addMetric("PAPI_FP_OPS");
+            for (int n = 0; n < NODES; n++) {
+                Thread thread = getThread(n, 0, 0);
+                for (FunctionProfile fp : thread.getFunctionProfiles()) {
+                    if (fp != null) {
+                        fill(fp, n, number(fp), 0, 1);
+                        fill(fp, n, number(fp), 1, 1);
+                    }
+                }
+                thread.addSnapshot("third");
+                for (FunctionProfile fp : thread.getFunctionProfiles()) {
+                    if (fp != null) {
+                        fill(fp, n, number(fp), 2, 0);
+                        fill(fp, n, number(fp), 2, 1);
+                    }
+                }
+
+                // a profile added once the thread has every snapshot and metric
+                Function last = addFunction("f" + (FUNCTIONS - 1), 1);
+                FunctionProfile fp = new FunctionProfile(last, METRICS, SNAPSHOTS);
+                thread.addFunctionProfile(fp);
+                for (int s = 0; s < SNAPSHOTS; s++) {
+                    for (int m = 0; m < METRICS; m++) {
+                        fill(fp, n, FUNCTIONS - 1, s, m);
+                    }
+                }
+            }
+        }
+
+        public int getProgress() {
+            return 0;
+        }
+
+        public void cancelLoad() {
+        }
+    }
+
+    public FunctionProfileBlockTest(String arg0) {
+        super(arg0);
+    }
+
+    private static boolean called(int node, int function) {
+        return function == FUNCTIONS - 1 || (node + function) % 3 != 0;
+    }
+
+    private static int number(FunctionProfile fp) {
+        return Integer.parseInt(fp.getName().substring(1));
+    }
+
+    private static double value(int node, int function, int snapshot, int metric, int kind) {
+        return node * 10000.0 + function * 1000.0 + snapshot * 100.0 + metric * 10.0 + kind + 0.5;
+    }
+
+    private static void fill(FunctionProfile fp, int node, int function, int snapshot, int metric) {
+        fp.setInclusive(snapshot, metric, value(node, function, snapshot, metric, 0));
+        fp.setExclusive(snapshot, metric, value(node, function, snapshot, metric, 1));
+        if (metric == 0) {
+            fp.setNumCalls(snapshot, value(node, function, snapshot, 0, 2));
+            fp.setNumSubr(snapshot, value(node, function, snapshot, 0, 3));
+        }
+    }
+
+    public final void testGrowth() {
+        GrowingDataSource plain = new GrowingDataSource(false);
+        plain.load();
+        GrowingDataSource compact = new GrowingDataSource(true);
+        compact.load();
+
+        assertEquals(METRICS, compact.getNumberOfMetrics());
+        for (int n = 0; n < NODES; n++) {
+            Thread plainThread = plain.getThread(n, 0, 0);
+            Thread compactThread = compact.getThread(n, 0, 0);
+            assertEquals(SNAPSHOTS, compactThread.getNumSnapshots());
+            for (int f = 0; f < FUNCTIONS; f++) {
+                FunctionProfile expected = plainThread.getFunctionProfile(plain.getFunction("f" + f));
+                FunctionProfile actual = compactThread.getFunctionProfile(compact.getFunction("f" + f));
+                if (!called(n, f)) {
+                    assertNull(expected);
+                    assertNull(actual);
+                    continue;
+                }
+                for (int s = 0; s < SNAPSHOTS; s++) {
+                    assertEquals(value(n, f, s, 0, 2), actual.getNumCalls(s), 0.0);
+                    assertEquals(value(n, f, s, 0, 3), actual.getNumSubr(s), 0.0);
+                    assertEquals(expected.getNumCalls(s), actual.getNumCalls(s), 0.0);
+                    assertEquals(expected.getNumSubr(s), actual.getNumSubr(s), 0.0);
+                    for (int m = 0; m < METRICS; m++) {
+                        assertEquals(value(n, f, s, m, 0), actual.getInclusive(s, m), 0.0);
+                        assertEquals(value(n, f, s, m, 1), actual.getExclusive(s, m), 0.0);
+                        assertEquals(expected.getInclusive(s, m), actual.getInclusive(s, m), 0.0);
+                        assertEquals(expected.getExclusive(s, m), actual.getExclusive(s, m), 0.0);
+                        assertEquals(expected.getInclusivePerCall(s, m), actual.getInclusivePerCall(s, m), 0.0);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package edu.uoregon.tau.perfdmf.test;
+
+import junit.framework.TestCase;
+import edu.uoregon.tau.perfdmf.DataSource;
+import edu.uoregon.tau.perfdmf.DataSourceException;
+import edu.uoregon.tau.perfdmf.Function;
+import edu.uoregon.tau.perfdmf.FunctionProfile;
+import edu.uoregon.tau.perfdmf.Thread;
+
+public class LazyThreadTest extends TestCase {
+
+    /**
+     * Pages in one function profile per thread, failing the first attempt.
+     */
+    private static class FlakyDataSource extends DataSource {
+        int attempts = 0;
+
+        public void load() {
+            addMetric("TIME");
+            addFunction("main", 1);
+            addThread(0, 0, 0).setDataLoaded(false);
+        }
+
+        protected void loadThreadData(Thread thread) {
+            if (attempts++ == 0) {
+                throw new DataSourceException("connection lost");
+            }
+            FunctionProfile fp = new FunctionProfile(getFunction("main"), 1);
+            thread.addFunctionProfile(fp);
+            fp.setExclusive(0, 42);
+            fp.setInclusive(0, 42);
+            fp.setNumCalls(1);
+        }
+
+        public int getProgress() {
+            return 0;
+        }
+
+        public void cancelLoad() {
+        }
+    }
+
+    public LazyThreadTest(String arg0) {
+        super(arg0);
+    }
+
+    public final void testFailedLoadIsRetried() {
+        FlakyDataSource dataSource = new FlakyDataSource();
+        dataSource.load();
+        Thread thread = dataSource.getThread(0, 0, 0);
+        Function main = dataSource.getFunction("main");
+        try {
+            thread.getFunctionProfile(main);
+            fail("the first load should fail");
+        } catch (DataSourceException expected) {
+        }
+        assertFalse(thread.isDataLoaded());
+
+        assertEquals(42, thread.getFunctionProfile(main).getExclusive(0), 0.0);
+        assertTrue(thread.isDataLoaded());
+        assertEquals(2, dataSource.attempts);
+        thread.getFunctionProfiles();
+        assertEquals(2, dataSource.attempts);
+    }
+}
@@ -0,0 +1,161 @@
+package edu.uoregon.tau.perfdmf.test;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import edu.uoregon.tau.perfdmf.MetricExpression;
+
+public class MetricExpressionTest extends TestCase {
+
+    public MetricExpressionTest(String arg0) {
+        super(arg0);
+    }
+
+    /**
+     * Evaluates the expression on one row.  The values are given by variable name, in pairs.
+     */
+    private static double evaluate(String expression, Object... values) throws ParseException {
+        MetricExpression compiled = MetricExpression.parse(expression);
+        double[][] columns = new double[compiled.getVariables().size()][];
+        for (int v = 0; v < columns.length; v++) {
+            String name = compiled.getVariables().get(v);
+            for (int i = 0; i < values.length; i += 2) {
+                if (values[i].equals(name)) {
+                    columns[v] = new double[] { ((Number) values[i + 1]).doubleValue() };
+                }
+            }
+            assertNotNull("no value for " + name, columns[v]);
+        }
+        double[] result = new double[1];
+        compiled.evaluate(columns, result, 1);
+        return result[0];
+    }
+
+    private static void assertParseError(String expression) {
+        try {
+            MetricExpression.parse(expression);
+            fail("parsed " + expression);
+        } catch (ParseException expected) {
+        }
+    }
+
+    public final void testPrecedence() throws Exception {
+        assertEquals(14.0, evaluate("a + b * c", "a", 2, "b", 3, "c", 4), 0.0);
+        assertEquals(20.0, evaluate("(a + b) * c", "a", 2, "b", 3, "c", 4), 0.0);
+        assertEquals(4.0, evaluate("a * b - c / a", "a", 2, "b", 3, "c", 4), 0.0);
+        // left to right
+        assertEquals(1.0, evaluate("a / b / c", "a", 12, "b", 3, "c", 4), 0.0);
+        assertEquals(3.0, evaluate("a - b + c", "a", 5, "b", 4, "c", 2), 0.0);
+        assertEquals(6.0, evaluate("((a))*((b + c))", "a", 2, "b", 1, "c", 2), 0.0);
+    }
+
+    public final void testUnaryMinus() throws Exception {
+        assertEquals(-6.0, evaluate("-a * 3", "a", 2), 0.0);
+        assertEquals(-6.0, evaluate("a * -3", "a", 2), 0.0);
+        assertEquals(-5.0, evaluate("-(a + 3)", "a", 2), 0.0);
+        assertEquals(2.0, evaluate("- -a", "a", 2), 0.0);
+        // the binary minus stops at 0, the unary one doesn't
+        assertEquals(5.0, evaluate("a - -3", "a", 2), 0.0);
+        assertEquals(0.0, evaluate("a - 3", "a", 2), 0.0);
+        MetricExpression negative = MetricExpression.parse("-2.5");
+        assertEquals(0, negative.getOperations());
+        assertEquals("-2.5", negative.toString());
+    }
+
+    public final void testConstants() throws Exception {
+        MetricExpression folded = MetricExpression.parse("2 * 3 + 1");
+        assertTrue(folded.getVariables().isEmpty());
+        assertEquals("7.0", folded.toString());
+        assertEquals(2, folded.getOperations());
+        assertEquals(1e-3, evaluate("1e-3"), 0.0);
+        assertEquals(2.5e3, evaluate("2.5E+3"), 0.0);
+        assertEquals(1.0, evaluate("1e-3 * a - 1", "a", 2000), 0.0);
+        // but not in a metric name
+        assertEquals(Arrays.asList("L1e"), MetricExpression.parse("L1e-3").getVariables());
+        assertEquals(3.5, evaluate("a + 1.5", "a", 2), 0.0);
+
+        MetricExpression named = MetricExpression.parse("FLOPS = PAPI_FP_OPS / TIME");
+        assertEquals("FLOPS", named.getName());
+        assertEquals(Arrays.asList("PAPI_FP_OPS", "TIME"), named.getVariables());
+        assertNull(MetricExpression.parse("TIME").getName());
+        assertTrue(MetricExpression.parse("TIME").isVariable());
+    }
+
+    public final void testQuotedNames() throws Exception {
+        MetricExpression quoted = MetricExpression.parse("\"L1 MISS-RATE\" / \"a=b\" + \"L1 MISS-RATE\"");
+        assertNull(quoted.getName());
+        // each name once, in order
+        assertEquals(Arrays.asList("L1 MISS-RATE", "a=b"), quoted.getVariables());
+        assertEquals(6.0, evaluate("\"L1 MISS-RATE\" / \"a=b\" + \"L1 MISS-RATE\"", "L1 MISS-RATE", 4, "a=b", 2), 0.0);
+        // a quoted number is a metric name
+        assertEquals(Arrays.asList("2"), MetricExpression.parse("\"2\" * 2").getVariables());
+    }
+
+    public final void testDivisionByZero() throws Exception {
+        assertEquals(0.0, evaluate("a / b", "a", 2, "b", 0), 0.0);
+        assertEquals(0.0, evaluate("a / 0", "a", 2), 0.0);
+        assertEquals(0.0, evaluate("1 / 0"), 0.0);
+        assertEquals(0.0, evaluate("a / (b - b)", "a", 2, "b", 1), 0.0);
+
+        // an infinite quotient is 0 only when asked
+        MetricExpression infinite = MetricExpression.parse("a / b", false);
+        MetricExpression zero = MetricExpression.parse("a / b", true);
+        double[][] columns = { { Double.MAX_VALUE }, { 0.5 } };
+        double[] result = new double[1];
+        infinite.evaluate(columns, result, 1);
+        assertTrue(Double.isInfinite(result[0]));
+        zero.evaluate(columns, result, 1);
+        assertEquals(0.0, result[0], 0.0);
+    }
+
+    public final void testParseErrors() {
+        assertParseError("");
+        assertParseError("a +");
+        assertParseError("* a");
+        assertParseError("(a + b");
+        assertParseError("a + b)");
+        assertParseError("\"a + b");
+        assertParseError("a \"b\"");
+        assertParseError("a + ()");
+    }
+
+    public final void testColumns() throws Exception {
+        // every thread has enough rows to run in parallel, and a few blocks
+        final int rows = 70000;
+        MetricExpression expression = MetricExpression.parse("(a + b) * 2 - a / b");
+        expression.setThreads(4);
+        List<MetricExpression.Columns> threads = new ArrayList<MetricExpression.Columns>();
+        final double[][][] results = new double[3][][];
+        for (int t = 0; t < results.length; t++) {
+            final int thread = t;
+            threads.add(new MetricExpression.Columns() {
+                public int size() {
+                    return rows;
+                }
+
+                public double[] getValues(int variable, boolean inclusive) {
+                    double[] values = new double[rows];
+                    for (int i = 0; i < rows; i++) {
+                        values[i] = (variable == 0) ? i + thread : (inclusive ? 2.0 : 1.0);
+                    }
+                    return values;
+                }
+
+                public void setValues(double[] inclusive, double[] exclusive) {
+                    results[thread] = new double[][] { inclusive, exclusive };
+                }
+            });
+        }
+        expression.evaluate(threads);
+        for (int t = 0; t < results.length; t++) {
+            for (int i = 0; i < rows; i += 997) {
+                double a = i + t;
+                assertEquals(Math.max(0.0, (a + 2) * 2 - a / 2), results[t][0][i], 1e-9);
+                assertEquals(Math.max(0.0, (a + 1) * 2 - a), results[t][1][i], 1e-9);
+            }
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package edu.uoregon.tau.perfdmf.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+import edu.uoregon.tau.perfdmf.DataSource;
+import edu.uoregon.tau.perfdmf.DataSourceExport;
+import edu.uoregon.tau.perfdmf.Function;
+import edu.uoregon.tau.perfdmf.FunctionProfile;
+import edu.uoregon.tau.perfdmf.PackedProfileDataSource;
+import edu.uoregon.tau.perfdmf.Thread;
+import edu.uoregon.tau.perfdmf.UserEvent;
+import edu.uoregon.tau.perfdmf.UserEventProfile;
+
+public class PackedProfileDataSourceTest extends TestCase {
+
+    private static final int NODES = 64;
+    private static final int FUNCTIONS = 20;
+    private static final int SNAPSHOTS = 3;
+
+    private File file;
+
+    /**
+     * A trial built in memory: NODES threads calling FUNCTIONS functions, two metrics,
+     * and one user event.  Every value is derived from the node and function number.
+     */
+    private static class GeneratedDataSource extends DataSource {
+        public void load() {
+            addMetric("TIME");
+            addMetric("PAPI_FP_OPS");
+            UserEvent userEvent = addUserEvent("Message size");
+            setUserEventsPresent(true);
+            for (int n = 0; n < NODES; n++) {
+                Thread thread = addThread(n, 0, 0);
+                for (int f = 0; f < FUNCTIONS; f++) {
+                    Function function = addFunction("function " + f, 2);
+                    FunctionProfile fp = new FunctionProfile(function, 2);
+                    thread.addFunctionProfile(fp);
+                    fp.setNumCalls(calls(n, f));
+                    fp.setNumSubr(f);
+                    for (int m = 0; m < 2; m++) {
+                        fp.setExclusive(m, value(n, f, m));
+                        fp.setInclusive(m, 2 * value(n, f, m));
+                    }
+                }
+                UserEventProfile uep = new UserEventProfile(userEvent);
+                uep.setNumSamples(n + 1);
+                uep.setMinValue(1);
+                uep.setMaxValue(n + 1);
+                uep.setMeanValue(n);
+                uep.setSumSquared(n * n);
+                uep.updateMax();
+                thread.addUserEventProfile(uep);
+            }
+            generateDerivedData();
+        }
+
+        public int getProgress() {
+            return 0;
+        }
+
+        public void cancelLoad() {
+        }
+    }
+
+    /**
+     * A smaller trial with SNAPSHOTS snapshots on every thread, each with its own values.
+     */
+    private static class SnapshotDataSource extends DataSource {
+        public void load() {
+            addMetric("TIME");
+            UserEvent userEvent = addUserEvent("Message size");
+            setUserEventsPresent(true);
+            for (int n = 0; n < 4; n++) {
+                Thread thread = addThread(n, 0, 0);
+                for (int s = 0; s < SNAPSHOTS; s++) {
+                    thread.addSnapshot("snapshot " + s).setTimestamp(1000 * (s + 1));
+                }
+                for (int f = 0; f < 3; f++) {
+                    FunctionProfile fp = new FunctionProfile(addFunction("function " + f, 1), 1, SNAPSHOTS);
+                    thread.addFunctionProfile(fp);
+                    for (int s = 0; s < SNAPSHOTS; s++) {
+                        fp.setNumCalls(s, calls(n, f) * (s + 1));
+                        fp.setNumSubr(s, s);
+                        fp.setExclusive(s, 0, value(n, f, 0) * (s + 1));
+                        fp.setInclusive(s, 0, 2 * value(n, f, 0) * (s + 1));
+                    }
+                }
+                UserEventProfile uep = new UserEventProfile(userEvent, SNAPSHOTS);
+                for (int s = 0; s < SNAPSHOTS; s++) {
+                    uep.setNumSamples(n + s + 1, s);
+                    uep.setMinValue(1, s);
+                    uep.setMaxValue(n + s + 1, s);
+                    uep.setMeanValue(n + s, s);
+                    uep.setSumSquared((n + s) * (n + s), s);
+                }
+                uep.updateMax();
+                thread.addUserEventProfile(uep);
+            }
+            generateDerivedData();
+        }
+
+        public int getProgress() {
+            return 0;
+        }
+
+        public void cancelLoad() {
+        }
+    }
+
+    private static double calls(int node, int function) {
+        return node * 100 + function + 1;
+    }
+
+    private static double value(int node, int function, int metric) {
+        return node * 1000.0 + function * 10.0 + metric + 0.5;
+    }
+
+    public PackedProfileDataSourceTest(String arg0) {
+        super(arg0);
+    }
+
+    protected void setUp() throws Exception {
+        GeneratedDataSource source = new GeneratedDataSource();
+        source.load();
+        file = File.createTempFile("packed", ".ppk");
+        DataSourceExport.writePacked(source, file, DataSourceExport.PACKED_INDEXED_VERSION);
+    }
+
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    private PackedProfileDataSource load(boolean lazy) throws Exception {
+        return load(file, lazy);
+    }
+
+    private static PackedProfileDataSource load(File file, boolean lazy) throws Exception {
+        PackedProfileDataSource dataSource = new PackedProfileDataSource(file);
+        dataSource.setLazyLoad(lazy);
+        dataSource.load();
+        return dataSource;
+    }
+
+    private static void checkThread(DataSource dataSource, Thread thread) {
+        int n = thread.getNodeID();
+        for (int f = 0; f < FUNCTIONS; f++) {
+            FunctionProfile fp = thread.getFunctionProfile(dataSource.getFunction("function " + f));
+            assertNotNull("function " + f + " on node " + n, fp);
+            assertEquals(calls(n, f), fp.getNumCalls(), 0.0);
+            assertEquals(f, fp.getNumSubr(), 0.0);
+            for (int m = 0; m < 2; m++) {
+                assertEquals(value(n, f, m), fp.getExclusive(m), 0.0);
+                assertEquals(2 * value(n, f, m), fp.getInclusive(m), 0.0);
+            }
+        }
+        UserEventProfile uep = thread.getUserEventProfile(dataSource.getUserEvent("Message size"));
+        assertEquals(n + 1, uep.getNumSamples(), 0.0);
+        assertEquals(n + 1, uep.getMaxValue(), 0.0);
+        assertEquals(n, uep.getMeanValue(), 0.0);
+    }
+
+    public final void testRoundTrip() throws Exception {
+        PackedProfileDataSource eager = load(false);
+        PackedProfileDataSource lazy = load(true);
+        assertEquals(NODES, lazy.getAllThreads().size());
+        for (Thread thread : lazy.getAllThreads()) {
+            assertFalse(thread.isDataLoaded());
+        }
+        for (Thread thread : lazy.getAllThreads()) {
+            checkThread(lazy, thread);
+            assertTrue(thread.isDataLoaded());
+        }
+        for (Thread thread : eager.getAllThreads()) {
+            checkThread(eager, thread);
+        }
+
+        // the aggregates are read with the header, and match the ones computed on load
+        Function function = lazy.getFunction("function 3");
+        assertEquals(eager.getMeanData().getFunctionProfile(function).getExclusive(0),
+                lazy.getMeanData().getFunctionProfile(function).getExclusive(0), 1e-9);
+        assertEquals(31530.5, lazy.getMeanData().getFunctionProfile(function).getExclusive(0), 1e-9);
+    }
+
+    public final void testConcurrentPaging() throws Exception {
+        final PackedProfileDataSource dataSource = load(true);
+        final List<Thread> threads = dataSource.getAllThreads();
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<java.lang.Thread> workers = new ArrayList<java.lang.Thread>();
+        for (int w = 0; w < 8; w++) {
+            final int offset = w * 7;
+            java.lang.Thread worker = new java.lang.Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        // every worker walks all the threads, starting at a different one
+                        for (int i = 0; i < threads.size(); i++) {
+                            checkThread(dataSource, threads.get((i + offset) % threads.size()));
+                        }
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            };
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (java.lang.Thread worker : workers) {
+            worker.join();
+        }
+        assertTrue(failures.toString(), failures.isEmpty());
+    }
+
+    public final void testClose() throws Exception {
+        PackedProfileDataSource dataSource = load(true);
+        Thread first = dataSource.getThread(0, 0, 0);
+        checkThread(dataSource, first);
+        dataSource.close();
+        // the threads left to page in reopen the file
+        for (Thread thread : dataSource.getAllThreads()) {
+            checkThread(dataSource, thread);
+        }
+        dataSource.close();
+    }
+
+    public final void testSnapshots() throws Exception {
+        SnapshotDataSource source = new SnapshotDataSource();
+        source.load();
+        File snapshots = File.createTempFile("snapshots", ".ppk");
+        try {
+            DataSourceExport.writePacked(source, snapshots, DataSourceExport.PACKED_INDEXED_VERSION);
+            for (int lazy = 0; lazy < 2; lazy++) {
+                PackedProfileDataSource dataSource = load(snapshots, lazy == 1);
+                UserEvent userEvent = dataSource.getUserEvent("Message size");
+                for (Thread thread : dataSource.getAllThreads()) {
+                    int n = thread.getNodeID();
+                    assertEquals(SNAPSHOTS, thread.getNumSnapshots());
+                    for (int s = 0; s < SNAPSHOTS; s++) {
+                        assertEquals("snapshot " + s, thread.getSnapshots().get(s).getName());
+                        assertEquals(1000 * (s + 1), thread.getSnapshots().get(s).getTimestamp());
+                    }
+                    for (int f = 0; f < 3; f++) {
+                        FunctionProfile fp = thread.getFunctionProfile(dataSource.getFunction("function " + f));
+                        for (int s = 0; s < SNAPSHOTS; s++) {
+                            assertEquals(calls(n, f) * (s + 1), fp.getNumCalls(s), 0.0);
+                            assertEquals(s, fp.getNumSubr(s), 0.0);
+                            assertEquals(value(n, f, 0) * (s + 1), fp.getExclusive(s, 0), 0.0);
+                            assertEquals(2 * value(n, f, 0) * (s + 1), fp.getInclusive(s, 0), 0.0);
+                        }
+                    }
+                    UserEventProfile uep = thread.getUserEventProfile(userEvent);
+                    for (int s = 0; s < SNAPSHOTS; s++) {
+                        assertEquals(n + s + 1, uep.getNumSamples(s), 0.0);
+                        assertEquals(n + s + 1, uep.getMaxValue(s), 0.0);
+                        assertEquals(n + s, uep.getMeanValue(s), 0.0);
+                        assertEquals((n + s) * (n + s), uep.getSumSquared(s), 0.0);
+                    }
+                }
+
+                // and the aggregates of every snapshot
+                Thread mean = dataSource.getMeanData();
+                assertEquals(SNAPSHOTS, mean.getNumSnapshots());
+                for (int f = 0; f < 3; f++) {
+                    FunctionProfile expected = source.getMeanData().getFunctionProfile(source.getFunction("function " + f));
+                    FunctionProfile actual = mean.getFunctionProfile(dataSource.getFunction("function " + f));
+                    for (int s = 0; s < SNAPSHOTS; s++) {
+                        assertEquals(expected.getExclusive(s, 0), actual.getExclusive(s, 0), 0.0);
+                        assertEquals(expected.getNumCalls(s), actual.getNumCalls(s), 0.0);
+                    }
+                }
+                dataSource.close();
+            }
+        } finally {
+            snapshots.delete();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package edu.uoregon.tau.perfdmf.test;
+
+import junit.framework.TestCase;
+import edu.uoregon.tau.perfdmf.DataSource;
+import edu.uoregon.tau.perfdmf.Function;
+import edu.uoregon.tau.perfdmf.FunctionProfile;
+import edu.uoregon.tau.perfdmf.Thread;
+
+public class StatisticsTest extends TestCase {
+
+    // enough (function, thread) pairs for the statistics to be computed in parallel
+    private static final int NODES = 700;
+    private static final int FUNCTIONS = 200;
+
+    /**
+     * A trial whose values don't add up exactly in floating point, so a change in the order
+     * of the sums would show.  Not every node calls every function.
+     */
+    private static class GeneratedDataSource extends DataSource {
+        GeneratedDataSource(int statisticsThreads) {
+            setStatisticsThreads(statisticsThreads);
+        }
+
+        public void load() {
+            addMetric("TIME");
+            addMetric("PAPI_FP_OPS");
+            for (int n = 0; n < NODES; n++) {
+                Thread thread = addThread(n, 0, 0);
+                for (int f = 0; f < FUNCTIONS; f++) {
+                    Function function = addFunction("function " + f, 2);
+                    if ((n * 7 + f) % 11 == 0) {
+                        continue;
+                    }
+                    FunctionProfile fp = new FunctionProfile(function, 2);
+                    thread.addFunctionProfile(fp);
+                    fp.setNumCalls(n % 13 + f + 1);
+                    fp.setNumSubr(f % 5);
+                    for (int m = 0; m < 2; m++) {
+                        double value = Math.sqrt(n * 1.1 + f * 0.7 + m) * 1e3 / 3;
+                        fp.setExclusive(m, value);
+                        fp.setInclusive(m, value * 1.5);
+                    }
+                }
+            }
+            generateDerivedData();
+        }
+
+        public int getProgress() {
+            return 0;
+        }
+
+        public void cancelLoad() {
+        }
+    }
+
+    public StatisticsTest(String arg0) {
+        super(arg0);
+    }
+
+    private static void assertSameProfile(String name, FunctionProfile expected, FunctionProfile actual) {
+        assertNotNull(name, expected);
+        assertNotNull(name, actual);
+        assertEquals(name, expected.getNumCalls(), actual.getNumCalls(), 0.0);
+        assertEquals(name, expected.getNumSubr(), actual.getNumSubr(), 0.0);
+        for (int m = 0; m < 2; m++) {
+            assertEquals(name, expected.getExclusive(m), actual.getExclusive(m), 0.0);
+            assertEquals(name, expected.getInclusive(m), actual.getInclusive(m), 0.0);
+            assertEquals(name, expected.getExclusivePercent(m), actual.getExclusivePercent(m), 0.0);
+        }
+    }
+
+    public final void testParallelStatistics() {
+        GeneratedDataSource serial = new GeneratedDataSource(1);
+        serial.load();
+        for (int workers = 2; workers <= 8; workers *= 2) {
+            GeneratedDataSource parallel = new GeneratedDataSource(workers);
+            parallel.load();
+            Thread[][] threads = {
+                    { serial.getMeanData(), parallel.getMeanData() },
+                    { serial.getTotalData(), parallel.getTotalData() },
+                    { serial.getStdDevData(), parallel.getStdDevData() },
+                    { serial.getMinData(), parallel.getMinData() },
+                    { serial.getMaxData(), parallel.getMaxData() },
+                    { serial.getMeanDataAll(), parallel.getMeanDataAll() },
+                    { serial.getStdDevDataAll(), parallel.getStdDevDataAll() } };
+            for (int f = 0; f < FUNCTIONS; f++) {
+                Function expected = serial.getFunction("function " + f);
+                Function actual = parallel.getFunction("function " + f);
+                for (int t = 0; t < threads.length; t++) {
+                    assertSameProfile(threads[t][0] + " " + expected.getName(),
+                            threads[t][0].getFunctionProfile(expected), threads[t][1].getFunctionProfile(actual));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package edu.uoregon.tau.perfdmf.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+import edu.uoregon.tau.perfdmf.DataSource;
+import edu.uoregon.tau.perfdmf.Database;
+import edu.uoregon.tau.perfdmf.DatabaseException;
+import edu.uoregon.tau.perfdmf.FunctionProfile;
+import edu.uoregon.tau.perfdmf.Metric;
+import edu.uoregon.tau.perfdmf.Thread;
+import edu.uoregon.tau.perfdmf.Trial;
+import edu.uoregon.tau.perfdmf.UtilFncs;
+import edu.uoregon.tau.perfdmf.database.ConnectionManager;
+import edu.uoregon.tau.perfdmf.database.DB;
+import edu.uoregon.tau.perfdmf.loader.LoadTrial;
+import edu.uoregon.tau.perfdmf.taudb.TAUdbDatabaseAPI;
+import edu.uoregon.tau.perfdmf.taudb.TAUdbStreamingUpload;
+
+/**
+ * Streams a small TAU profile into an embedded H2 TAUdb.  The schema is read from
+ * etc/taudb.sql and the driver from ../contrib/h2.jar, relative to tools/src/perfdmf; the
+ * perfdmf.schema property overrides the schema file.
+ */
+public class TAUdbStreamingUploadTest extends TestCase {
+
+    private static final int NODES = 10;
+
+    private File directory;
+    private File config;
+    private TAUdbDatabaseAPI api;
+
+    public TAUdbStreamingUploadTest(String arg0) {
+        super(arg0);
+    }
+
+    private static void write(File file, String text) throws IOException {
+        FileWriter writer = new FileWriter(file);
+        writer.write(text);
+        writer.close();
+    }
+
+    // main calls foo twice, node n spends 10 * (n + 1) in each
+    private void writeProfiles() throws IOException {
+        for (int n = 0; n < NODES; n++) {
+            double foo = 10.0 * (n + 1);
+            write(new File(directory, "profile." + n + ".0.0"), "3 templated_functions_MULTI_TIME\n"
+                    + "# Name Calls Subrs Excl Incl ProfileCalls\n"
+                    + "\"main\" 1 2 " + (2 * foo) + " " + (4 * foo) + " 0 GROUP=\"TAU_DEFAULT\"\n"
+                    + "\"foo\" 2 0 " + (2 * foo) + " " + (2 * foo) + " 0 GROUP=\"TAU_DEFAULT\"\n"
+                    + "\"main => foo\" 2 0 " + (2 * foo) + " " + (2 * foo) + " 0 GROUP=\"TAU_CALLPATH\"\n"
+                    + "0 aggregates\n"
+                    + "1 userevents\n"
+                    + "# eventname numevents max min mean sumsqr\n"
+                    + "\"Message size\" 4 " + (n + 4) + " 1 " + (n + 2) + " 100\n");
+        }
+    }
+
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("streaming", "");
+        directory.delete();
+        directory.mkdir();
+        writeProfiles();
+
+        config = new File(directory, "perfdmf.cfg");
+        write(config, "jdbc_db_jarfile:../contrib/h2.jar\n" + "jdbc_db_driver:org.h2.Driver\n" + "jdbc_db_type:h2\n"
+                + "db_dbname:" + new File(directory, "perfdmf").getAbsolutePath() + "\n" + "db_username:\n"
+                + "db_password:\n" + "db_schemafile:" + System.getProperty("perfdmf.schema", "etc/taudb.sql") + "\n");
+        Database database = new Database(config.getAbsolutePath());
+        ConnectionManager connector = new ConnectionManager(database, "");
+        connector.connect();
+        assertEquals(0, connector.genParentSchema());
+        connector.dbclose();
+
+        api = new TAUdbDatabaseAPI();
+        api.initialize(database, "");
+    }
+
+    protected void tearDown() throws Exception {
+        api.terminate();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private DataSource dataSource() {
+        DataSource dataSource = UtilFncs.initializeDataSource(new File[] { directory }, DataSource.TAUPROFILE, false);
+        dataSource.setGenerateTAUdbStatistics(true);
+        return dataSource;
+    }
+
+    private static Trial trial(DataSource dataSource) {
+        Trial trial = new Trial();
+        trial.setDataSource(dataSource);
+        trial.setName("streamed");
+        return trial;
+    }
+
+    private double query(String sql, int trialID) throws SQLException {
+        DB db = api.db();
+        ResultSet results = db.executeQuery(sql.replaceAll("TRIAL", Integer.toString(trialID)));
+        assertTrue(results.next());
+        double value = results.getDouble(1);
+        results.close();
+        return value;
+    }
+
+    public final void testStreaming() throws Exception {
+        DataSource dataSource = dataSource();
+        Trial trial = trial(dataSource);
+        TAUdbStreamingUpload upload = api.startStreamingUpload(trial, 1);
+        dataSource.setThreadLoadListener(upload);
+        dataSource.load();
+        dataSource.setThreadLoadListener(null);
+
+        // a derived metric, added after every thread was streamed
+        Metric derived = dataSource.addMetric("DOUBLED");
+        for (Thread thread : dataSource.getAllThreads()) {
+            for (Iterator<FunctionProfile> it = thread.getFunctionProfileIterator(); it.hasNext();) {
+                FunctionProfile fp = it.next();
+                if (fp != null) {
+                    fp.setExclusive(derived.getID(), 2 * fp.getExclusive(0));
+                    fp.setInclusive(derived.getID(), 2 * fp.getInclusive(0));
+                }
+            }
+        }
+        dataSource.generateDerivedData();
+
+        int trialID = upload.finish();
+        assertEquals(trialID, trial.getID());
+
+        String threadValues = "SELECT SUM(v.exclusive_value) FROM timer_value v"
+                + " INNER JOIN timer_call_data d ON v.timer_call_data = d.id"
+                + " INNER JOIN thread t ON d.thread = t.id INNER JOIN metric m ON v.metric = m.id"
+                + " INNER JOIN timer_callpath c ON d.timer_callpath = c.id"
+                + " WHERE t.trial = TRIAL AND t.node_rank >= 0 AND c.parent IS NULL AND m.name = ";
+        assertEquals(NODES, query("SELECT COUNT(*) FROM thread WHERE trial = TRIAL AND node_rank >= 0", trialID), 0);
+        // main and foo: 4 * 10 * (1 + ... + NODES)
+        assertEquals(40.0 * NODES * (NODES + 1) / 2, query(threadValues + "'TIME'", trialID), 1e-9);
+        assertEquals(80.0 * NODES * (NODES + 1) / 2, query(threadValues + "'DOUBLED'", trialID), 1e-9);
+        assertEquals(NODES * 3, query("SELECT COUNT(*) FROM timer_call_data d INNER JOIN thread t ON d.thread = t.id"
+                + " WHERE t.trial = TRIAL AND t.node_rank >= 0", trialID), 0);
+        assertEquals(NODES * (NODES + 3) / 2.0, query("SELECT AVG(v.mean_value) * COUNT(*) FROM counter_value v"
+                + " INNER JOIN thread t ON v.thread = t.id WHERE t.trial = TRIAL AND t.node_rank >= 0", trialID), 1e-9);
+    }
+
+    private void assertTrial(int trialID) throws SQLException {
+        assertEquals(NODES, query("SELECT COUNT(*) FROM thread WHERE trial = TRIAL AND node_rank >= 0", trialID), 0);
+        assertEquals(40.0 * NODES * (NODES + 1) / 2, query("SELECT SUM(v.exclusive_value) FROM timer_value v"
+                + " INNER JOIN timer_call_data d ON v.timer_call_data = d.id"
+                + " INNER JOIN thread t ON d.thread = t.id INNER JOIN timer_callpath c ON d.timer_callpath = c.id"
+                + " WHERE t.trial = TRIAL AND t.node_rank >= 0 AND c.parent IS NULL", trialID), 1e-9);
+        assertEquals(NODES * 3, query("SELECT COUNT(*) FROM timer_call_data d INNER JOIN thread t ON d.thread = t.id"
+                + " WHERE t.trial = TRIAL AND t.node_rank >= 0", trialID), 0);
+    }
+
+    public final void testMultipleWriters() throws Exception {
+        // more writers than this database supports, the upload goes on with what it can have
+        DataSource dataSource = dataSource();
+        Trial trial = trial(dataSource);
+        TAUdbStreamingUpload upload = api.startStreamingUpload(trial, 4);
+        dataSource.setThreadLoadListener(upload);
+        dataSource.load();
+        dataSource.setThreadLoadListener(null);
+        assertTrial(upload.finish());
+    }
+
+    public final void testLoadTrialWriters() throws Exception {
+        // taudb_loadtrial -w 4 -a application -x experiment, the views are created while
+        // the upload is still open
+        LoadTrial loader = new LoadTrial(config.getAbsolutePath(), new String[] { directory.getPath() });
+        loader.trialName = "loaded";
+        loader.appName = "application";
+        loader.expName = "experiment";
+        loader.setUploadWriters(4);
+        loader.loadTrial(DataSource.TAUPROFILE);
+        assertTrue(loader.trialID > 0);
+
+        assertTrial(loader.trialID);
+        assertEquals(1, query("SELECT COUNT(*) FROM trial WHERE id = TRIAL AND name = 'loaded'", loader.trialID), 0);
+        assertEquals(1, query("SELECT COUNT(*) FROM primary_metadata WHERE trial = TRIAL AND name = 'Application'"
+                + " AND value = 'application'", loader.trialID), 0);
+        assertEquals(2, query("SELECT COUNT(*) FROM taudb_view WHERE name IN ('Application-application',"
+                + " 'Experiment-experiment')", loader.trialID), 0);
+    }
+
+    public final void testWriterFailure() throws Exception {
+        // every write of the counter values fails
+        api.db().executeUpdate("DROP TABLE counter_value CASCADE");
+
+        final DataSource dataSource = dataSource();
+        Trial trial = trial(dataSource);
+        TAUdbStreamingUpload upload = api.startStreamingUpload(trial, 1);
+        dataSource.setThreadLoadListener(upload);
+
+        // more threads than the queue holds, the loader must not wait for the failed writer
+        final Exception loadFailure[] = new Exception[1];
+        java.lang.Thread loader = new java.lang.Thread() {
+            public void run() {
+                try {
+                    dataSource.load();
+                } catch (Exception e) {
+                    loadFailure[0] = e;
+                }
+            }
+        };
+        loader.start();
+        loader.join(60000);
+        assertFalse("the loader is blocked", loader.isAlive());
+        assertNull(loadFailure[0]);
+
+        try {
+            upload.finish();
+            fail("the upload should have failed");
+        } catch (DatabaseException expected) {
+            assertTrue(expected.getException() instanceof SQLException);
+        }
+        assertEquals(0, query("SELECT COUNT(*) FROM trial WHERE id = TRIAL", upload.getTrialID()), 0);
+    }
+}
@@ -0,0 +1,165 @@
+package edu.uoregon.tau.perfdmf.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+import edu.uoregon.tau.perfdmf.DataSource;
+import edu.uoregon.tau.perfdmf.Function;
+import edu.uoregon.tau.perfdmf.FunctionProfile;
+import edu.uoregon.tau.perfdmf.TauDataSource;
+import edu.uoregon.tau.perfdmf.Thread;
+import edu.uoregon.tau.perfdmf.UserEventProfile;
+import edu.uoregon.tau.perfdmf.UtilFncs;
+
+public class TauDataSourceTest extends TestCase {
+
+    private static final int NODES = 24;
+    private static final String[] METRICS = { "TIME", "PAPI_FP_OPS" };
+
+    private File directory;
+
+    public TauDataSourceTest(String arg0) {
+        super(arg0);
+    }
+
+    private static void write(File file, String text) throws IOException {
+        FileWriter writer = new FileWriter(file);
+        writer.write(text);
+        writer.close();
+    }
+
+    /*
+     * One MULTI__ directory per metric.  Node n calls n % 5 + 1 of the functions, so later
+     * nodes add functions the earlier ones didn't have, and every other node has a user event.
+     */
+    private void writeProfiles() throws IOException {
+        for (int m = 0; m < METRICS.length; m++) {
+            File metric = new File(directory, "MULTI__" + METRICS[m]);
+            metric.mkdir();
+            for (int n = 0; n < NODES; n++) {
+                int functions = n % 5 + 1;
+                StringBuffer profile = new StringBuffer();
+                profile.append((functions + 1) + " templated_functions_MULTI_" + METRICS[m] + "\n");
+                profile.append("# Name Calls Subrs Excl Incl ProfileCalls\n");
+                double total = 0;
+                for (int f = 0; f < functions; f++) {
+                    double value = (m + 1) * (n * 10.0 + f + 0.25);
+                    total += value;
+                    profile.append("\"f" + f + "\" " + (f + 1) + " 0 " + value + " " + value
+                            + " 0 GROUP=\"TAU_DEFAULT\"\n");
+                }
+                profile.append("\"main\" 1 " + functions + " " + (m + 1) + " " + (total + m + 1)
+                        + " 0 GROUP=\"TAU_DEFAULT\"\n");
+                profile.append("0 aggregates\n");
+                if (n % 2 == 0) {
+                    profile.append("1 userevents\n");
+                    profile.append("# eventname numevents max min mean sumsqr\n");
+                    profile.append("\"Message size\" 2 " + (n + 2) + " 2 " + (n / 2 + 2) + " " + (n * n + 4) + "\n");
+                }
+                write(new File(metric, "profile." + n + ".0.0"), profile.toString());
+            }
+        }
+    }
+
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("profiles", "");
+        directory.delete();
+        directory.mkdir();
+        writeProfiles();
+    }
+
+    protected void tearDown() throws Exception {
+        for (File metric : directory.listFiles()) {
+            for (File file : metric.listFiles()) {
+                file.delete();
+            }
+            metric.delete();
+        }
+        directory.delete();
+    }
+
+    private TauDataSource load(int loadThreads) throws Exception {
+        TauDataSource dataSource = (TauDataSource) UtilFncs.initializeDataSource(new File[] { directory },
+                DataSource.TAUPROFILE, false);
+        dataSource.setLoadThreads(loadThreads);
+        dataSource.load();
+        return dataSource;
+    }
+
+    private static void assertSameThread(Thread expected, Thread actual, int metrics) {
+        List<FunctionProfile> expectedProfiles = expected.getFunctionProfiles();
+        List<FunctionProfile> actualProfiles = actual.getFunctionProfiles();
+        assertEquals(expectedProfiles.size(), actualProfiles.size());
+        for (int i = 0; i < expectedProfiles.size(); i++) {
+            FunctionProfile e = expectedProfiles.get(i);
+            FunctionProfile a = actualProfiles.get(i);
+            if (e == null) {
+                assertNull(a);
+                continue;
+            }
+            assertEquals(e.getName(), a.getName());
+            assertEquals(e.getNumCalls(), a.getNumCalls(), 0.0);
+            assertEquals(e.getNumSubr(), a.getNumSubr(), 0.0);
+            for (int m = 0; m < metrics; m++) {
+                assertEquals(e.getExclusive(m), a.getExclusive(m), 0.0);
+                assertEquals(e.getInclusive(m), a.getInclusive(m), 0.0);
+            }
+        }
+        Iterator<UserEventProfile> actualEvents = actual.getUserEventProfiles();
+        for (Iterator<UserEventProfile> it = expected.getUserEventProfiles(); it.hasNext();) {
+            UserEventProfile e = it.next();
+            UserEventProfile a = actualEvents.next();
+            if (e == null) {
+                assertNull(a);
+                continue;
+            }
+            assertEquals(e.getName(), a.getName());
+            assertEquals(e.getNumSamples(), a.getNumSamples(), 0.0);
+            assertEquals(e.getMaxValue(), a.getMaxValue(), 0.0);
+            assertEquals(e.getMeanValue(), a.getMeanValue(), 0.0);
+        }
+        assertFalse(actualEvents.hasNext());
+    }
+
+    public final void testParallelLoad() throws Exception {
+        TauDataSource serial = load(1);
+        assertEquals(NODES, serial.getAllThreads().size());
+        assertEquals(6, serial.getFunctions().size());
+        assertEquals(METRICS.length, serial.getNumberOfMetrics());
+
+        for (int loadThreads = 2; loadThreads <= 8; loadThreads *= 2) {
+            TauDataSource parallel = load(loadThreads);
+            assertEquals(serial.getNumberOfMetrics(), parallel.getNumberOfMetrics());
+            for (int m = 0; m < serial.getNumberOfMetrics(); m++) {
+                assertEquals(serial.getMetricName(m), parallel.getMetricName(m));
+            }
+
+            // the functions get the same IDs
+            List<Function> functions = parallel.getFunctions();
+            assertEquals(serial.getFunctions().size(), functions.size());
+            for (int i = 0; i < functions.size(); i++) {
+                Function function = serial.getFunctions().get(i);
+                assertEquals(function.getName(), functions.get(i).getName());
+                assertEquals(function.getID(), functions.get(i).getID());
+            }
+            assertEquals(serial.getUserEvents().size(), parallel.getUserEvents().size());
+
+            // and the threads, in the same order, the same values
+            List<Thread> threads = parallel.getAllThreads();
+            assertEquals(serial.getAllThreads().size(), threads.size());
+            for (int i = 0; i < threads.size(); i++) {
+                Thread thread = serial.getAllThreads().get(i);
+                assertEquals(thread.getNodeID(), threads.get(i).getNodeID());
+                assertEquals(thread.getContextID(), threads.get(i).getContextID());
+                assertEquals(thread.getThreadID(), threads.get(i).getThreadID());
+                assertSameThread(thread, threads.get(i), serial.getNumberOfMetrics());
+            }
+            assertSameThread(serial.getMeanData(), parallel.getMeanData(), serial.getNumberOfMetrics());
+            assertSameThread(serial.getTotalData(), parallel.getTotalData(), serial.getNumberOfMetrics());
+        }
+    }
+}
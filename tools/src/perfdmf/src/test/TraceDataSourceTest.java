@@ -0,0 +1,176 @@
+package edu.uoregon.tau.perfdmf.test;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+import edu.uoregon.tau.perfdmf.FunctionProfile;
+import edu.uoregon.tau.perfdmf.Thread;
+import edu.uoregon.tau.perfdmf.TraceDataSource;
+import edu.uoregon.tau.perfdmf.UserEventProfile;
+import edu.uoregon.tau.trace.TraceWriter;
+
+/**
+ * Replays a small set of TAU traces, written with TraceWriter, into profiles.
+ */
+public class TraceDataSourceTest extends TestCase {
+
+    private static final int NODES = 4;
+
+    private File directory;
+
+    public TraceDataSourceTest(String arg0) {
+        super(arg0);
+    }
+
+    /*
+     * Node n runs main from 0 to 500.  Within it, A calls B three times, B lasting 30 + n,
+     * then n sends a message to the next node and receives one from the previous, and R
+     * calls itself once.
+     */
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("trace", "");
+        directory.delete();
+        directory.mkdir();
+
+        for (int n = 0; n < NODES; n++) {
+            TraceWriter writer = new TraceWriter(new File(directory, "tautrace." + n + ".0.0.trc").getPath(),
+                    new File(directory, "events." + n + ".edf").getPath());
+            writer.defStateGroup("TAU_DEFAULT", 1);
+            writer.defState(1, "main", 1);
+            writer.defState(2, "A", 1);
+            writer.defState(3, "B", 1);
+            writer.defState(4, "R", 1);
+            writer.defUserEvent(5, "size", 0);
+
+            writer.enterState(0, n, 0, 1);
+            for (int i = 0; i < 3; i++) {
+                writer.enterState(10 + 100 * i, n, 0, 2);
+                writer.eventTrigger(10 + 100 * i, n, 0, 5, i + 1);
+                writer.enterState(20 + 100 * i, n, 0, 3);
+                writer.leaveState(50 + n + 100 * i, n, 0, 3);
+                writer.leaveState(60 + 100 * i, n, 0, 2);
+            }
+            writer.sendMessage(300, n, 0, (n + 1) % NODES, 0, 64, 1, 0);
+            writer.recvMessage(310, (n + NODES - 1) % NODES, 0, n, 0, 32, 1, 0);
+            writer.enterState(400, n, 0, 4);
+            writer.enterState(410, n, 0, 4);
+            writer.leaveState(420, n, 0, 4);
+            writer.leaveState(430, n, 0, 4);
+            writer.leaveState(500, n, 0, 1);
+            writer.closeTrace();
+        }
+    }
+
+    protected void tearDown() throws Exception {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private TraceDataSource load(int loadThreads, boolean callPaths, long snapshotInterval) throws Exception {
+        TraceDataSource dataSource = new TraceDataSource(new File[] { directory });
+        dataSource.setLoadThreads(loadThreads);
+        dataSource.setCallPaths(callPaths);
+        dataSource.setSnapshotInterval(snapshotInterval);
+        dataSource.load();
+        assertEquals(NODES, dataSource.getAllThreads().size());
+        return dataSource;
+    }
+
+    private static FunctionProfile profile(TraceDataSource dataSource, Thread thread, String name) {
+        assertNotNull("no function " + name, dataSource.getFunction(name));
+        FunctionProfile fp = thread.getFunctionProfile(dataSource.getFunction(name));
+        assertNotNull("no profile of " + name, fp);
+        return fp;
+    }
+
+    // inclusive, exclusive, calls and subroutines of the last snapshot
+    private static void assertProfile(FunctionProfile fp, double inclusive, double exclusive, double calls,
+            double subroutines) {
+        assertEquals(fp.getName() + " inclusive", inclusive, fp.getInclusive(0), 0.0);
+        assertEquals(fp.getName() + " exclusive", exclusive, fp.getExclusive(0), 0.0);
+        assertEquals(fp.getName() + " calls", calls, fp.getNumCalls(), 0.0);
+        assertEquals(fp.getName() + " subroutines", subroutines, fp.getNumSubr(), 0.0);
+    }
+
+    public final void testFlatProfile() throws Exception {
+        // one worker or several, the profiles are the same
+        for (int loadThreads = 1; loadThreads <= 3; loadThreads += 2) {
+            TraceDataSource dataSource = load(loadThreads, false, 0);
+            assertNull(dataSource.getFunction("main => A"));
+            for (int n = 0; n < NODES; n++) {
+                Thread thread = dataSource.getThread(n, 0, 0);
+                double b = 3 * (30 + n);
+                assertProfile(profile(dataSource, thread, "main"), 500, 500 - 150 - 30, 1, 4);
+                assertProfile(profile(dataSource, thread, "A"), 150, 150 - b, 3, 3);
+                assertProfile(profile(dataSource, thread, "B"), b, b, 3, 0);
+                // the recursive call is in the calls, but its time is only counted once
+                assertProfile(profile(dataSource, thread, "R"), 30, 30, 2, 1);
+
+                UserEventProfile size = thread.getUserEventProfile(dataSource.getUserEvent("size"));
+                assertEquals(3.0, size.getNumSamples(), 0.0);
+                assertEquals(1.0, size.getMinValue(), 0.0);
+                assertEquals(3.0, size.getMaxValue(), 0.0);
+                assertEquals(2.0, size.getMeanValue(), 0.0);
+                UserEventProfile sent = thread.getUserEventProfile(dataSource
+                        .getUserEvent("Message size sent to all nodes"));
+                assertEquals(1.0, sent.getNumSamples(), 0.0);
+                assertEquals(64.0, sent.getMeanValue(), 0.0);
+                UserEventProfile received = thread.getUserEventProfile(dataSource
+                        .getUserEvent("Message size received from all nodes"));
+                assertEquals(1.0, received.getNumSamples(), 0.0);
+                assertEquals(32.0, received.getMeanValue(), 0.0);
+            }
+        }
+    }
+
+    public final void testCallPaths() throws Exception {
+        TraceDataSource dataSource = load(2, true, 0);
+        assertTrue(dataSource.getCallPathDataPresent());
+        for (int n = 0; n < NODES; n++) {
+            Thread thread = dataSource.getThread(n, 0, 0);
+            double b = 3 * (30 + n);
+            assertProfile(profile(dataSource, thread, "main"), 500, 320, 1, 4);
+            assertProfile(profile(dataSource, thread, "main => A"), 150, 150 - b, 3, 3);
+            assertProfile(profile(dataSource, thread, "main => A => B"), b, b, 3, 0);
+            assertProfile(profile(dataSource, thread, "main => R"), 30, 20, 1, 1);
+            assertProfile(profile(dataSource, thread, "main => R => R"), 10, 10, 1, 0);
+            assertProfile(profile(dataSource, thread, "R"), 30, 30, 2, 1);
+        }
+    }
+
+    public final void testSnapshots() throws Exception {
+        TraceDataSource dataSource = load(2, false, 200);
+        for (int n = 0; n < NODES; n++) {
+            Thread thread = dataSource.getThread(n, 0, 0);
+            assertEquals(3, thread.getNumSnapshots());
+            double b = 30 + n;
+
+            // at 200, main is open and A and B have run twice
+            FunctionProfile main = profile(dataSource, thread, "main");
+            FunctionProfile a = profile(dataSource, thread, "A");
+            FunctionProfile r = profile(dataSource, thread, "R");
+            assertEquals(200.0, main.getInclusive(0, 0), 0.0);
+            assertEquals(100.0, main.getExclusive(0, 0), 0.0);
+            assertEquals(1.0, main.getNumCalls(0), 0.0);
+            assertEquals(100.0, a.getInclusive(0, 0), 0.0);
+            assertEquals(100.0 - 2 * b, a.getExclusive(0, 0), 0.0);
+            assertEquals(2.0, a.getNumCalls(0), 0.0);
+            assertEquals(2 * b, profile(dataSource, thread, "B").getInclusive(0, 0), 0.0);
+            assertEquals(0.0, r.getNumCalls(0), 0.0);
+
+            // at 400, the last A has run, R is just entered
+            assertEquals(400.0, main.getInclusive(1, 0), 0.0);
+            assertEquals(250.0, main.getExclusive(1, 0), 0.0);
+            assertEquals(3.0, a.getNumCalls(1), 0.0);
+            assertEquals(0.0, r.getInclusive(1, 0), 0.0);
+
+            // the last snapshot is the whole trace
+            assertEquals(500.0, main.getInclusive(2, 0), 0.0);
+            assertEquals(320.0, main.getExclusive(2, 0), 0.0);
+            assertEquals(30.0, r.getInclusive(2, 0), 0.0);
+            assertEquals(2.0, r.getNumCalls(2), 0.0);
+        }
+    }
+}
@@ -1069,18 +1069,21 @@ public class PerfExplorerActionListener implements ActionListener {
 	            Application application = (Application) clickedOnObject;
 	            if (databaseAPI != null) {
 	                databaseAPI.deleteApplication(application.getID());
+	                PerfExplorerServer.getServer().getTrialResultCache().clear();
 	                //treeModel.removeNodeFromParent(application.getDMTN());
 	            }
 	        } else if (clickedOnObject instanceof Experiment) {
 	            Experiment experiment = (Experiment) clickedOnObject;
 	            if (databaseAPI != null) {
 	                databaseAPI.deleteExperiment(experiment.getID());
+	                PerfExplorerServer.getServer().getTrialResultCache().clear();
                     //treeModel.removeNodeFromParent(experiment.getDMTN());
 	            }	
 	        } else if (clickedOnObject instanceof Trial) {
 	        	Trial ppTrial = (Trial) clickedOnObject;
                 if (databaseAPI != null) {
                     databaseAPI.deleteTrial(ppTrial.getID());
+                    PerfExplorerServer.getServer().getTrialResultCache().invalidate(ppTrial.getID());
                     //treeModel.removeNodeFromParent(ppTrial.getDMTN());
                 }
 	        }
@@ -163,6 +163,16 @@ public class PerfExplorerConnection {
 		return tmpString;
 	}
 
+	public boolean cancelAnalysis(int analysisID) {
+		boolean cancelled = false;
+		try {
+			cancelled = server.cancelAnalysis(analysisID);
+		} catch (RemoteException e) {
+			handleError(e, "cancelAnalysis(" + analysisID + ")");
+		}
+		return cancelled;
+	}
+
 	public RMIPerformanceResults getPerformanceResults(PerfExplorerModel model) {
 		RMIPerformanceResults results = null;
 		try {
@@ -271,6 +271,7 @@ public class PerfExplorerTreeMouseListener implements MouseListener,
 
 			if (databaseAPI != null) {
 				databaseAPI.deleteApplication(application.getID());
+				PerfExplorerServer.getServer().getTrialResultCache().clear();
 				deleteTreeItem(application);
 				// databaseAPI.terminate();
 				// Remove any loaded trials associated with this
@@ -299,6 +300,7 @@ public class PerfExplorerTreeMouseListener implements MouseListener,
 					.getSession(experiment.getDatabase());
 			if (databaseAPI != null) {
 				databaseAPI.deleteExperiment(experiment.getID());
+				PerfExplorerServer.getServer().getTrialResultCache().clear();
 				deleteTreeItem(experiment);
 				// databaseAPI.terminate();
 				// Remove any loaded trials associated with this
@@ -334,6 +336,7 @@ public class PerfExplorerTreeMouseListener implements MouseListener,
 			// this.getDatabaseAPI(ppTrial.getDatabase());
 			if (databaseAPI != null) {
 				databaseAPI.deleteTrial(trial.getID());
+				PerfExplorerServer.getServer().getTrialResultCache().invalidate(trial.getID());
 				deleteTreeItem(trial);
 				// databaseAPI.terminate();
 				// Remove any loaded trials associated with this
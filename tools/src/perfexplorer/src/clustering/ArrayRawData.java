@@ -0,0 +1,141 @@
+package edu.uoregon.tau.perfexplorer.clustering;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Implementation of the RawData interface with a plain array of vectors.
+ * The native clustering engines work on the array directly, see getData().
+ *
+ * @see JavaKMeansCluster
+ */
+public class ArrayRawData implements RawDataInterface, Serializable {
+
+    private static final long serialVersionUID = -4506216412553925012L;
+    private String name = null;
+    private List<String> eventNames = null;
+    private double[][] values = null;
+    private double maximum = 0.0;
+
+    /**
+     * Constructor.
+     *
+     * @param name The description of the data
+     * @param attributes The list of column names
+     * @param vectors The number of rows in the data
+     * @param dimensions The number of dimensions to be stored
+     */
+    public ArrayRawData(String name, List<String> attributes, int vectors, int dimensions) {
+        this(name, attributes, new double[vectors][dimensions]);
+    }
+
+    /**
+     * Constructor, around existing vectors.  The array is not copied.
+     *
+     * @param name The description of the data
+     * @param attributes The list of column names
+     * @param values The vectors
+     */
+    public ArrayRawData(String name, List<String> attributes, double[][] values) {
+        this.name = name;
+        this.eventNames = new ArrayList<String>(attributes);
+        this.values = values;
+        for (double[] vector : values) {
+            for (double value : vector) {
+                maximum = Math.max(maximum, value);
+            }
+        }
+    }
+
+    public void addValue(int vectorIndex, int dimensionIndex, double value) {
+        values[vectorIndex][dimensionIndex] = value;
+        if (maximum < value)
+            maximum = value;
+    }
+
+    public void addValue(int vectorIndex, int dimensionIndex, String value) {
+        addValue(vectorIndex, dimensionIndex, Double.parseDouble(value));
+    }
+
+    public double getValue(int vectorIndex, int dimensionIndex) {
+        return values[vectorIndex][dimensionIndex];
+    }
+
+    public double getManhattanDistance(int firstVector, int secondVector) {
+        return DistanceMatrix.manhattanDistance(values[firstVector], values[secondVector]);
+    }
+
+    public double getCartesianDistance(int firstVector, int secondVector) {
+        return DistanceMatrix.cartesianDistance(values[firstVector], values[secondVector]);
+    }
+
+    /**
+     * @return the vectors, as a double[][] (not a copy)
+     */
+    public Object getData() {
+        return values;
+    }
+
+    public List<String> getEventNames() {
+        return eventNames;
+    }
+
+    public int numVectors() {
+        return values.length;
+    }
+
+    public int numDimensions() {
+        return values.length == 0 ? eventNames.size() : values[0].length;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getMaximum() {
+        return maximum;
+    }
+
+    public double[] getVector(int i) {
+        return values[i].clone();
+    }
+
+    public double getCorrelation(int x, int y) {
+        int vectors = values.length;
+        double xAvg = 0.0;
+        double yAvg = 0.0;
+        for (int i = 0 ; i < vectors ; i++) {
+            xAvg += values[i][x];
+            yAvg += values[i][y];
+        }
+        xAvg = xAvg / vectors;
+        yAvg = yAvg / vectors;
+
+        double xStDev = 0.0;
+        double yStDev = 0.0;
+        double r = 0.0;
+        for (int i = 0 ; i < vectors ; i++) {
+            double xDiff = values[i][x] - xAvg;
+            double yDiff = values[i][y] - yAvg;
+            xStDev += xDiff * xDiff;
+            yStDev += yDiff * yDiff;
+            r += xDiff * yDiff;
+        }
+        xStDev = Math.sqrt(xStDev / (vectors - 1));
+        yStDev = Math.sqrt(yStDev / (vectors - 1));
+        return r / (xStDev * yStDev * (vectors - 1));
+    }
+
+    public void addMainValue(int threadIndex, int eventIndex, double value) {
+    }
+
+    public double getMainValue(int threadIndex) {
+        return 0.0;
+    }
+
+    public String getMainEventName() {
+        return "";
+    }
+}
@@ -0,0 +1,445 @@
+package edu.uoregon.tau.perfexplorer.clustering;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+ /**
+  * This class computes the correlations between variables, and the linear
+  * regressions of one on the other: either between all the pairs of a set
+  * of variables, or between each variable of a set x (the predictors) and
+  * each variable of a set y (the responses).  The variables are given as
+  * arrays of observations, one value per thread.
+  *
+  * <P>The co-moments are accumulated in one pass over the observations with
+  * Welford's update, on values shifted by the first observation, so that
+  * the results stay accurate for values with a large mean and a small
+  * variance.  The matrix is computed in blocks of variables, on
+  * perfexplorer.correlationThreads threads (the number of processors by
+  * default).  solve() keeps the whole matrix, and solveTop() keeps only the
+  * most correlated pairs.</P>
+  *
+  * @see DistanceMatrix
+  */
+public class CorrelationMatrix {
+
+    /**
+     * Chooses the pairs of variables which are reported.
+     */
+    public interface PairFilter {
+        /**
+         * @param x the index of the predictor
+         * @param y the index of the response
+         * @return true if the pair is wanted
+         */
+        public boolean accept(int x, int y);
+    }
+
+    /**
+     * The correlation of two variables, and the linear regression of the
+     * response on the predictor.
+     */
+    public static class Pair {
+        private final int x;
+        private final int y;
+        private final double correlation;
+        private final double slope;
+        private final double intercept;
+
+        private Pair(int x, int y, double correlation, double slope, double intercept) {
+            this.x = x;
+            this.y = y;
+            this.correlation = correlation;
+            this.slope = slope;
+            this.intercept = intercept;
+        }
+
+        /** @return the index of the predictor */
+        public int getX() {
+            return x;
+        }
+
+        /** @return the index of the response */
+        public int getY() {
+            return y;
+        }
+
+        /** @return the correlation coefficient r */
+        public double getCorrelation() {
+            return correlation;
+        }
+
+        public double getSlope() {
+            return slope;
+        }
+
+        public double getIntercept() {
+            return intercept;
+        }
+
+        public String toString() {
+            return x + ", " + y + ": r = " + correlation + ", y = " + slope + "x + " + intercept;
+        }
+    }
+
+    // the least correlated pair first
+    private static final Comparator<Pair> WEAKEST_FIRST = new Comparator<Pair>() {
+        public int compare(Pair a, Pair b) {
+            return Double.compare(Math.abs(a.correlation), Math.abs(b.correlation));
+        }
+    };
+
+    // the variables are taken in blocks of this many predictors and responses
+    private static final int BLOCK = 64;
+
+    private final boolean symmetric;
+    private final int observations;
+    private final int xCount;
+    private final int yCount;
+    // the observations, one row per observation (the same rows for x and y
+    // when symmetric)
+    private final double[][] xRows;
+    private final double[][] yRows;
+    private final double[] xMean;
+    private final double[] xM2;
+    private final double[] yMean;
+    private final double[] yM2;
+    // the co-moments, sum((x - mean x) * (y - mean y)), after solve()
+    private double[][] comoments = null;
+    private PairFilter filter = null;
+    private int threads = Integer.getInteger("perfexplorer.correlationThreads",
+        Runtime.getRuntime().availableProcessors()).intValue();
+
+    /**
+     * Constructor, for the correlations between all the pairs of a set of
+     * variables.  In the pairs, the predictor comes before the response.
+     *
+     * @param variables the values of each variable, one per observation
+     */
+    public CorrelationMatrix(double[][] variables) {
+        this(variables, null);
+    }
+
+    /**
+     * Constructor, for the correlations between the variables of two sets.
+     *
+     * @param x the values of each predictor, one per observation
+     * @param y the values of each response, one per observation, or null
+     * to correlate the variables of x with each other
+     */
+    public CorrelationMatrix(double[][] x, double[][] y) {
+        this.symmetric = (y == null);
+        this.xCount = x.length;
+        this.yCount = symmetric ? x.length : y.length;
+        this.observations = (xCount > 0) ? x[0].length : ((yCount > 0) ? y[0].length : 0);
+        this.xRows = transpose(x, observations);
+        this.yRows = symmetric ? xRows : transpose(y, observations);
+        this.xMean = new double[xCount];
+        this.xM2 = new double[xCount];
+        moments(xRows, x, xMean, xM2);
+        if (symmetric) {
+            this.yMean = xMean;
+            this.yM2 = xM2;
+        } else {
+            this.yMean = new double[yCount];
+            this.yM2 = new double[yCount];
+            moments(yRows, y, yMean, yM2);
+        }
+    }
+
+    /**
+     * Makes the rows of observations, each variable shifted by its first
+     * value: the moments don't change, but the values are small, so the
+     * updates of the means lose less to rounding.
+     */
+    private static double[][] transpose(double[][] variables, int observations) {
+        double[][] rows = new double[observations][variables.length];
+        for (int v = 0; v < variables.length ; v++) {
+            if (variables[v].length != observations) {
+                throw new IllegalArgumentException("Variable " + v + " has " + variables[v].length
+                    + " observations, instead of " + observations);
+            }
+            double shift = (observations > 0) ? variables[v][0] : 0.0;
+            for (int k = 0; k < observations ; k++) {
+                rows[k][v] = variables[v][k] - shift;
+            }
+        }
+        return rows;
+    }
+
+    // Welford's update of the means and the sums of squared differences,
+    // then the shifts are added back to the means
+    private static void moments(double[][] rows, double[][] variables, double[] mean, double[] m2) {
+        for (int k = 0; k < rows.length ; k++) {
+            double[] row = rows[k];
+            double inverse = 1.0 / (k + 1);
+            for (int v = 0; v < row.length ; v++) {
+                double delta = row[v] - mean[v];
+                mean[v] += delta * inverse;
+                m2[v] += delta * (row[v] - mean[v]);
+            }
+        }
+        if (rows.length > 0) {
+            for (int v = 0; v < variables.length ; v++) {
+                mean[v] += variables[v][0];
+            }
+        }
+    }
+
+    /**
+     * Computes the co-moments of all the pairs, for the get methods.
+     */
+    public void solve() {
+        final double[][] result = new double[xCount][yCount];
+        run(new BlockHandler() {
+            public void handle(int xStart, int xEnd, int yStart, int yEnd, double[] block) {
+                int width = yEnd - yStart;
+                for (int i = xStart; i < xEnd ; i++) {
+                    System.arraycopy(block, (i - xStart) * width, result[i], yStart, width);
+                }
+            }
+        });
+        this.comoments = result;
+    }
+
+    /**
+     * Computes the pairs with the strongest correlations (positive or
+     * negative), without keeping the others.
+     *
+     * @param count the number of pairs
+     * @return the pairs, strongest first
+     */
+    public List<Pair> solveTop(final int count) {
+        final PriorityQueue<Pair> top = new PriorityQueue<Pair>(Math.max(1, count), WEAKEST_FIRST);
+        if (count > 0) {
+            run(new BlockHandler() {
+                public void handle(int xStart, int xEnd, int yStart, int yEnd, double[] block) {
+                    int width = yEnd - yStart;
+                    PriorityQueue<Pair> local = new PriorityQueue<Pair>(count, WEAKEST_FIRST);
+                    for (int i = xStart; i < xEnd ; i++) {
+                        for (int j = yStart; j < yEnd ; j++) {
+                            if (wanted(i, j)) {
+                                offer(local, pair(i, j, block[((i - xStart) * width) + (j - yStart)]), count);
+                            }
+                        }
+                    }
+                    synchronized (top) {
+                        for (Pair pair : local) {
+                            offer(top, pair, count);
+                        }
+                    }
+                }
+            });
+        }
+        List<Pair> pairs = new ArrayList<Pair>(top);
+        Collections.sort(pairs, Collections.reverseOrder(WEAKEST_FIRST));
+        return pairs;
+    }
+
+    private static void offer(PriorityQueue<Pair> queue, Pair pair, int count) {
+        if (queue.size() < count) {
+            queue.add(pair);
+        } else if (WEAKEST_FIRST.compare(pair, queue.peek()) > 0) {
+            queue.poll();
+            queue.add(pair);
+        }
+    }
+
+    private boolean wanted(int x, int y) {
+        return (!symmetric || x < y) && (filter == null || filter.accept(x, y));
+    }
+
+    /**
+     * Receives the co-moments of a block of pairs, row after row.
+     */
+    private interface BlockHandler {
+        public void handle(int xStart, int xEnd, int yStart, int yEnd, double[] block);
+    }
+
+    private void run(final BlockHandler handler) {
+        List<Runnable> blocks = new ArrayList<Runnable>();
+        for (int xStart = 0; xStart < xCount ; xStart += BLOCK) {
+            // when symmetric, only the blocks on or above the diagonal
+            for (int yStart = symmetric ? xStart : 0; yStart < yCount ; yStart += BLOCK) {
+                final int xFirst = xStart;
+                final int xEnd = Math.min(xCount, xStart + BLOCK);
+                final int yFirst = yStart;
+                final int yEnd = Math.min(yCount, yStart + BLOCK);
+                blocks.add(new Runnable() {
+                    public void run() {
+                        handler.handle(xFirst, xEnd, yFirst, yEnd, solveBlock(xFirst, xEnd, yFirst, yEnd));
+                    }
+                });
+            }
+        }
+        if (threads <= 1 || blocks.size() <= 1) {
+            for (Runnable block : blocks) {
+                block.run();
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (Runnable block : blocks) {
+                futures.add(executor.submit(block));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            java.lang.Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while computing correlations", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Accumulates the co-moments of a block of pairs, in one pass over the
+     * observations: C += (x - old mean x) * (y - new mean y).
+     */
+    private double[] solveBlock(int xStart, int xEnd, int yStart, int yEnd) {
+        int height = xEnd - xStart;
+        int width = yEnd - yStart;
+        double[] block = new double[height * width];
+        double[] meanX = new double[height];
+        double[] meanY = new double[width];
+        double[] deltaY = new double[width];
+        for (int k = 0; k < observations ; k++) {
+            double[] x = xRows[k];
+            double[] y = yRows[k];
+            double inverse = 1.0 / (k + 1);
+            for (int j = 0; j < width ; j++) {
+                meanY[j] += (y[yStart + j] - meanY[j]) * inverse;
+                deltaY[j] = y[yStart + j] - meanY[j];
+            }
+            for (int i = 0; i < height ; i++) {
+                double deltaX = x[xStart + i] - meanX[i];
+                meanX[i] += deltaX * inverse;
+                int row = i * width;
+                for (int j = 0; j < width ; j++) {
+                    block[row + j] += deltaX * deltaY[j];
+                }
+            }
+        }
+        return block;
+    }
+
+    private Pair pair(int x, int y, double comoment) {
+        double correlation = 0.0;
+        if (xM2[x] > 0.0 && yM2[y] > 0.0) {
+            correlation = comoment / Math.sqrt(xM2[x] * yM2[y]);
+            // rounding can take it just past 1
+            correlation = Math.max(-1.0, Math.min(1.0, correlation));
+        }
+        double slope = (xM2[x] > 0.0) ? comoment / xM2[x] : 0.0;
+        return new Pair(x, y, correlation, slope, yMean[y] - (slope * xMean[x]));
+    }
+
+    private double comoment(int x, int y) {
+        if (comoments == null) {
+            throw new IllegalStateException("The matrix hasn't been solved");
+        }
+        return (symmetric && x > y) ? comoments[y][x] : comoments[x][y];
+    }
+
+    /**
+     * The correlation coefficient, and the linear regression of y on x, of
+     * a pair, after solve().  The correlation of a variable which doesn't
+     * vary is 0.
+     *
+     * @param x the index of the predictor
+     * @param y the index of the response
+     * @return the pair
+     */
+    public Pair getPair(int x, int y) {
+        return pair(x, y, comoment(x, y));
+    }
+
+    /**
+     * @return the pairs accepted by the filter (each pair once, when
+     * symmetric), after solve()
+     */
+    public List<Pair> getPairs() {
+        List<Pair> pairs = new ArrayList<Pair>();
+        for (int i = 0; i < xCount ; i++) {
+            for (int j = 0; j < yCount ; j++) {
+                if (wanted(i, j)) {
+                    pairs.add(pair(i, j, comoment(i, j)));
+                }
+            }
+        }
+        return pairs;
+    }
+
+    public double getCorrelation(int x, int y) {
+        return getPair(x, y).getCorrelation();
+    }
+
+    /**
+     * @return the sample covariance of a pair, after solve()
+     */
+    public double getCovariance(int x, int y) {
+        return (observations > 1) ? comoment(x, y) / (observations - 1) : 0.0;
+    }
+
+    /**
+     * @return true if neither variable of the pair is constant, so the
+     * correlation is defined
+     */
+    public boolean isDefined(int x, int y) {
+        return xM2[x] > 0.0 && yM2[y] > 0.0;
+    }
+
+    public double getXMean(int x) {
+        return xMean[x];
+    }
+
+    public double getYMean(int y) {
+        return yMean[y];
+    }
+
+    /**
+     * @return the sample variance of a predictor
+     */
+    public double getXVariance(int x) {
+        return (observations > 1) ? xM2[x] / (observations - 1) : 0.0;
+    }
+
+    /**
+     * @return the sample variance of a response
+     */
+    public double getYVariance(int y) {
+        return (observations > 1) ? yM2[y] / (observations - 1) : 0.0;
+    }
+
+    public int getObservations() {
+        return observations;
+    }
+
+    /**
+     * @param filter chooses the pairs which are reported by getPairs() and
+     * solveTop(), null for all
+     */
+    public void setFilter(PairFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * @param threads the number of threads which compute the blocks
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+}
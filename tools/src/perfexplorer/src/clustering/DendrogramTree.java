@@ -215,14 +215,24 @@ public class DendrogramTree {
      */
     public List<Integer> getIndexes() {
     	List<Integer> list = new ArrayList<Integer>();
-    	if (left != null) {
-        	list.addAll(left.getIndexes());
+    	// walk the tree without recursion, a dendrogram of thousands of
+    	// instances can be thousands of levels deep
+    	List<DendrogramTree> stack = new ArrayList<DendrogramTree>();
+    	stack.add(this);
+    	while (!stack.isEmpty()) {
+    		DendrogramTree tree = stack.remove(stack.size()-1);
+    		if (tree.isLeaf()) {
+    			list.add(new Integer(Math.abs(tree.id)-1));
+    			continue;
+    		}
+    		// right first, so that the left leaves come out first
+    		if (tree.right != null) {
+    			stack.add(tree.right);
+    		}
+    		if (tree.left != null) {
+    			stack.add(tree.left);
+    		}
     	}
-    	if (right != null) {
-        	list.addAll(right.getIndexes());
-    	}
-        if (isLeaf())
-            list.add(new Integer(Math.abs(id)-1));
     	return list;
     }
 
@@ -4,12 +4,31 @@
  */
 package edu.uoregon.tau.perfexplorer.clustering;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 
  /**
   * This class is used to build a square distance matrix.  The distance matrix
   * is used to hold the distances between elements in a vector.  The matrix
-  * is a diagonal matrix, and only the lower-left quadrants below the
-  * diagonal are used.
+  * is symmetric, with zeroes on the diagonal, so only the lower-left triangle
+  * below the diagonal is stored, packed row after row.
+  *
+  * <P>The triangle is stored in doubles, in floats (half the memory), or in
+  * floats in a memory-mapped temporary file, for matrices that don't fit in
+  * the heap.  By default the storage is chosen from the size of the matrix,
+  * see the perfexplorer.distanceStorage property.  The solve methods compute
+  * the distances in blocks, on perfexplorer.distanceThreads threads (the
+  * number of processors by default).</P>
   *
   * <P>CVS $Id: DistanceMatrix.java,v 1.7 2009/11/18 10:17:32 khuck Exp $</P>
   * @author khuck
@@ -19,128 +38,481 @@ package edu.uoregon.tau.perfexplorer.clustering;
   */
 public class DistanceMatrix {
 
+    /** Choose the storage from the size of the matrix and the free heap. */
+    public static final int AUTOMATIC_STORAGE = 0;
+    /** Store the distances as doubles. */
+    public static final int DOUBLE_STORAGE = 1;
+    /** Store the distances as floats. */
+    public static final int FLOAT_STORAGE = 2;
+    /** Store the distances as floats in a memory-mapped temporary file. */
+    public static final int MAPPED_STORAGE = 3;
+
+    // the rows are computed in blocks of this many rows and columns
+    private static final int BLOCK = 64;
+
     protected int dimension = 0;
-    protected double[][] distances = null;
+    protected TriangleStore distances = null;
     protected double[] weights = null;
-    
+
     /**
     * Default constructor - requires a dimension parameter.
-    * 
+    *
     * @param dimension The height/width of the matrix.
     */
     public DistanceMatrix(int dimension) {
+        this(dimension, defaultStorage());
+    }
+
+    /**
+    * Constructor with a choice of storage.
+    *
+    * @param dimension The height/width of the matrix.
+    * @param storage One of the storage constants
+    */
+    public DistanceMatrix(int dimension, int storage) {
         this.dimension = dimension;
-        this.distances = new double[dimension][dimension];
+        this.distances = createStore(triangleSize(dimension), storage);
         this.weights = new double[dimension];
         for (int i = 0; i < dimension ; i++) {
-            for (int j = i+1; j < dimension ; j++) {
-                this.distances[i][j] = 0.0;
-            }
             weights[i] = 1.0;
         }
     }
-    
+
     /**
     * Copy constructor - requires a DistanceMatrix parameter.
-    * 
+    *
     * @param distances Another distance matrix to copy.
     */
     public DistanceMatrix(DistanceMatrix distances) {
         this.dimension = distances.dimension;
-        this.distances = new double[dimension][dimension];
-        this.weights = new double[dimension];
-        for (int i = 0; i < dimension ; i++) {
-            for (int j = 0; j < dimension ; j++) {
-                this.distances[i][j] = distances.distances[i][j];
-            }
-            weights[i] = distances.weights[i];
-        }
+        this.distances = distances.distances.copy();
+        this.weights = distances.weights.clone();
     }
-    
+
     /**
     * Accessor method to get the dimension of the distance matrix.
-    * 
+    *
     * @return
     */
     public int getDimension() {
         return this.dimension;
     }
-    
+
     /**
     * Accessor method to get the value at a specified location.
-    * 
+    *
     * @param x
     * @param y
     * @return
     */
     public double elementAt(int x, int y) {
-        return distances[x][y];
+        if (x == y) {
+            return 0.0;
+        }
+        return distances.get(index(x, y));
+    }
+
+    /**
+    * Accessor method to set the distance between two items.  The matrix
+    * stays symmetric.
+    *
+    * @param x
+    * @param y
+    * @param value
+    */
+    public void setElementAt(int x, int y, double value) {
+        if (x != y) {
+            distances.set(index(x, y), value);
+        }
     }
-    
+
+    /**
+    * @return how the distances are stored, DOUBLE_STORAGE, FLOAT_STORAGE or MAPPED_STORAGE
+    */
+    public int getStorage() {
+        return distances.getStorage();
+    }
+
+    // the position of (x,y) in the packed lower triangle
+    private static long index(int x, int y) {
+        if (x < y) {
+            int tmp = x;
+            x = y;
+            y = tmp;
+        }
+        return (((long)x * (x - 1)) >>> 1) + y;
+    }
+
+    private static long triangleSize(int dimension) {
+        return ((long)dimension * (dimension - 1)) >>> 1;
+    }
+
     /**
     * Create a sparse matrix of Manhattan distances.  This method populates
     * the matrix with the cartesian distances between the items.
-    * 
+    *
     * @param data
     */
     public void solveManhattanDistances(RawDataInterface data) {
 		System.out.println("Using Manhattan distances...");
-        for (int i = 0; i < dimension ; i++) {
-            for (int j = 0; j < i ; j++) {
-                distances[i][j] = distances[j][i] = data.getManhattanDistance(i,j);
-            }
-        }
+        solve(data, false);
     }
-    
+
     /**
-    * Create a sparse matrix of Cartesian distances.  This method populates 
+    * Create a sparse matrix of Cartesian distances.  This method populates
     * the matrix with the cartesian distances between the items.
-    * 
+    *
     * @param data
     */
     public void solveCartesianDistances(RawDataInterface data) {
 		System.out.println("Using Cartesian distances...");
+        solve(data, true);
+    }
+
+    /**
+    * Compute all the distances.  The vectors are copied out of the raw data
+    * once, and the triangle is cut into blocks of rows, which are computed
+    * in parallel.  Within a block, the columns are taken a block at a time,
+    * so that the vectors being compared stay in the cache.
+    */
+    private void solve(RawDataInterface data, final boolean cartesian) {
+        final double[][] vectors = new double[dimension][];
         for (int i = 0; i < dimension ; i++) {
-            for (int j = 0; j < i ; j++) {
-                distances[i][j] = distances[j][i] = data.getCartesianDistance(i,j);
+            vectors[i] = data.getVector(i);
+        }
+
+        int threads = Math.max(1, Integer.getInteger("perfexplorer.distanceThreads",
+            Runtime.getRuntime().availableProcessors()).intValue());
+        List<Runnable> blocks = new ArrayList<Runnable>();
+        for (int first = 0; first < dimension ; first += BLOCK) {
+            final int rowStart = first;
+            final int rowEnd = Math.min(dimension, first + BLOCK);
+            blocks.add(new Runnable() {
+                public void run() {
+                    solveBlock(vectors, rowStart, rowEnd, cartesian);
+                }
+            });
+        }
+        if (threads == 1 || blocks.size() == 1) {
+            for (Runnable block : blocks) {
+                block.run();
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            // the last rows are the longest, start them first
+            for (int i = blocks.size() - 1; i >= 0 ; i--) {
+                futures.add(executor.submit(blocks.get(i)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            java.lang.Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while computing distances", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void solveBlock(double[][] vectors, int rowStart, int rowEnd, boolean cartesian) {
+        for (int columnStart = 0; columnStart < rowEnd ; columnStart += BLOCK) {
+            int columnEnd = Math.min(rowEnd, columnStart + BLOCK);
+            for (int i = rowStart; i < rowEnd ; i++) {
+                double[] x = vectors[i];
+                long row = index(i, 0);
+                int end = Math.min(i, columnEnd);
+                for (int j = columnStart; j < end ; j++) {
+                    distances.set(row + j, cartesian ? cartesianDistance(x, vectors[j]) :
+                        manhattanDistance(x, vectors[j]));
+                }
+            }
+        }
+    }
+
+    /**
+    * The Manhattan distance between two vectors of the same length.
+    *
+    * @param x
+    * @param y
+    * @return
+    */
+    public static double manhattanDistance(double[] x, double[] y) {
+        double distance = 0.0;
+        for (int k = 0; k < x.length ; k++) {
+            distance += Math.abs(x[k] - y[k]);
+        }
+        return distance;
+    }
+
+    /**
+    * The Cartesian distance between two vectors of the same length.
+    *
+    * @param x
+    * @param y
+    * @return
+    */
+    public static double cartesianDistance(double[] x, double[] y) {
+        return Math.sqrt(squaredDistance(x, y, Double.POSITIVE_INFINITY));
+    }
+
+    /**
+    * The squared Cartesian distance between two vectors.  The sum stops as
+    * soon as it passes the limit, for callers that only want to know if it
+    * is smaller.
+    *
+    * @param x
+    * @param y
+    * @param limit
+    * @return
+    */
+    public static double squaredDistance(double[] x, double[] y, double limit) {
+        double distance = 0.0;
+        for (int k = 0; k < x.length ; k++) {
+            double tmp = x[k] - y[k];
+            distance += tmp * tmp;
+            if (distance > limit) {
+                break;
             }
         }
+        return distance;
     }
-    
+
     /**
      * Useful method for debugging.
-     * 
+     *
      * @return
      */
     public String toString() {
         StringBuilder buf = new StringBuilder();
         for (int i = 0; i < dimension ; i++) {
             for (int j = 0; j < dimension ; j++) {
-                buf.append(distances[i][j] + " ");
+                buf.append(elementAt(i, j) + " ");
             }
             buf.append("\n");
-        }		
+        }
         return buf.toString();
     }
-    
+
     /**
-    * Merge the distances between two vectors
-    * 
-    * I would prefer that this method use the Lance Williams dissimilarity
-    * update formula algorithm, if I could find it...
-    * 
+    * Merge the distances between two vectors.  The distances to x become
+    * the weighted average of the distances to x and to y, and x carries
+    * the weight of both from then on.
+    *
     * @param x
     * @param y
     */
     public void mergeDistances (int x, int y) {
-    	// merge the horizontal distances
+        double firstWeight = weights[x];
+        double secondWeight = weights[y];
+        double totalWeight = firstWeight + secondWeight;
         for (int i = 0 ; i < dimension ; i++) {
-            double firstWeight = weights[x];
-            double secondWeight = weights[y];
-            double totalWeight = firstWeight + secondWeight;
-            distances[x][i] = ((distances[x][i] * firstWeight) + 
-                    (distances[y][i] * firstWeight)) / totalWeight;
-            weights[x] = totalWeight;
+            if (i == x || i == y) {
+                continue;
+            }
+            setElementAt(x, i, ((elementAt(x, i) * firstWeight) +
+                    (elementAt(y, i) * secondWeight)) / totalWeight);
+        }
+        weights[x] = totalWeight;
+    }
+
+    private static int defaultStorage() {
+        String storage = System.getProperty("perfexplorer.distanceStorage", "auto");
+        if (storage.equalsIgnoreCase("double")) {
+            return DOUBLE_STORAGE;
+        } else if (storage.equalsIgnoreCase("float")) {
+            return FLOAT_STORAGE;
+        } else if (storage.equalsIgnoreCase("mapped")) {
+            return MAPPED_STORAGE;
+        }
+        return AUTOMATIC_STORAGE;
+    }
+
+    private static TriangleStore createStore(long size, int storage) {
+        if (storage == AUTOMATIC_STORAGE) {
+            // leave room for a copy, and for everything else
+            Runtime runtime = Runtime.getRuntime();
+            long available = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+            if (size * 8 * 3 < available) {
+                storage = DOUBLE_STORAGE;
+            } else if (size * 4 * 3 < available) {
+                storage = FLOAT_STORAGE;
+            } else {
+                storage = MAPPED_STORAGE;
+            }
+        }
+        switch (storage) {
+        case FLOAT_STORAGE:
+            return new FloatStore(size);
+        case MAPPED_STORAGE:
+            return new MappedStore(size);
+        default:
+            return new DoubleStore(size);
+        }
+    }
+
+    /**
+     * The packed triangle.  It is cut in chunks, so that it can be bigger
+     * than the largest Java array.
+     */
+    protected static abstract class TriangleStore {
+        protected static final int CHUNK_BITS = 27;
+        protected static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+        protected static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+        protected final long size;
+
+        protected TriangleStore(long size) {
+            this.size = size;
+        }
+
+        protected int chunks() {
+            return (int)((size + CHUNK_SIZE - 1) >>> CHUNK_BITS);
+        }
+
+        protected int chunkLength(int chunk) {
+            return (int)Math.min(CHUNK_SIZE, size - ((long)chunk << CHUNK_BITS));
+        }
+
+        abstract double get(long index);
+        abstract void set(long index, double value);
+        abstract TriangleStore copy();
+        abstract int getStorage();
+    }
+
+    private static class DoubleStore extends TriangleStore {
+        private double[][] chunks;
+
+        DoubleStore(long size) {
+            super(size);
+            chunks = new double[chunks()][];
+            for (int i = 0; i < chunks.length ; i++) {
+                chunks[i] = new double[chunkLength(i)];
+            }
+        }
+
+        private DoubleStore(DoubleStore other) {
+            super(other.size);
+            chunks = new double[other.chunks.length][];
+            for (int i = 0; i < chunks.length ; i++) {
+                chunks[i] = other.chunks[i].clone();
+            }
+        }
+
+        double get(long index) {
+            return chunks[(int)(index >>> CHUNK_BITS)][(int)(index & CHUNK_MASK)];
+        }
+
+        void set(long index, double value) {
+            chunks[(int)(index >>> CHUNK_BITS)][(int)(index & CHUNK_MASK)] = value;
+        }
+
+        TriangleStore copy() {
+            return new DoubleStore(this);
+        }
+
+        int getStorage() {
+            return DOUBLE_STORAGE;
+        }
+    }
+
+    private static class FloatStore extends TriangleStore {
+        private float[][] chunks;
+
+        FloatStore(long size) {
+            super(size);
+            chunks = new float[chunks()][];
+            for (int i = 0; i < chunks.length ; i++) {
+                chunks[i] = new float[chunkLength(i)];
+            }
+        }
+
+        private FloatStore(FloatStore other) {
+            super(other.size);
+            chunks = new float[other.chunks.length][];
+            for (int i = 0; i < chunks.length ; i++) {
+                chunks[i] = other.chunks[i].clone();
+            }
+        }
+
+        double get(long index) {
+            return chunks[(int)(index >>> CHUNK_BITS)][(int)(index & CHUNK_MASK)];
+        }
+
+        void set(long index, double value) {
+            chunks[(int)(index >>> CHUNK_BITS)][(int)(index & CHUNK_MASK)] = (float)value;
+        }
+
+        TriangleStore copy() {
+            return new FloatStore(this);
+        }
+
+        int getStorage() {
+            return FLOAT_STORAGE;
+        }
+    }
+
+    /**
+     * Floats in a temporary file, mapped a chunk per buffer.  The file is
+     * deleted as soon as it is mapped, so the space goes back to the disk
+     * once the buffers are collected; the operating system pages it in and
+     * out as needed.  Where a mapped file can't be deleted (Windows), it is
+     * deleted when the JVM exits.
+     */
+    private static class MappedStore extends TriangleStore {
+        private MappedByteBuffer[] chunks;
+
+        MappedStore(long size) {
+            super(size);
+            chunks = new MappedByteBuffer[chunks()];
+            try {
+                File file = File.createTempFile("distances", ".dat");
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    raf.setLength(size * 4);
+                    FileChannel channel = raf.getChannel();
+                    for (int i = 0; i < chunks.length ; i++) {
+                        chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                            ((long)i << CHUNK_BITS) * 4, (long)chunkLength(i) * 4);
+                    }
+                } finally {
+                    // the mappings stay valid after the file is closed and deleted
+                    raf.close();
+                    if (!file.delete()) {
+                        file.deleteOnExit();
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to map a distance matrix of " + size + " distances", e);
+            }
+        }
+
+        double get(long index) {
+            return chunks[(int)(index >>> CHUNK_BITS)].getFloat((int)(index & CHUNK_MASK) << 2);
+        }
+
+        void set(long index, double value) {
+            chunks[(int)(index >>> CHUNK_BITS)].putFloat((int)(index & CHUNK_MASK) << 2, (float)value);
+        }
+
+        TriangleStore copy() {
+            MappedStore copy = new MappedStore(size);
+            for (int i = 0; i < chunks.length ; i++) {
+                MappedByteBuffer source = (MappedByteBuffer)chunks[i].duplicate();
+                source.clear();
+                copy.chunks[i].put(source);
+                copy.chunks[i].clear();
+            }
+            return copy;
+        }
+
+        int getStorage() {
+            return MAPPED_STORAGE;
         }
     }
 }
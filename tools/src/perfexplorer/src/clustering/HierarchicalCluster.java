@@ -17,6 +17,24 @@ package edu.uoregon.tau.perfexplorer.clustering;
   */
 public interface HierarchicalCluster extends ClusterInterface {
 
+    /**
+     * The distance between two clusters is the distance between their
+     * closest members.
+     */
+    public static final int SINGLE_LINKAGE = 0;
+
+    /**
+     * The distance between two clusters is the distance between their
+     * farthest members.
+     */
+    public static final int COMPLETE_LINKAGE = 1;
+
+    /**
+     * The distance between two clusters is the average distance between
+     * their members (UPGMA).
+     */
+    public static final int AVERAGE_LINKAGE = 2;
+
     /**
      * Method to build the resulting dendrogram tree
      * 
@@ -38,4 +56,18 @@ public interface HierarchicalCluster extends ClusterInterface {
      */
     public int getK();
 
+    /**
+     * Set the linkage criterion used to merge clusters
+     * 
+     * @param linkage One of SINGLE_LINKAGE, COMPLETE_LINKAGE, AVERAGE_LINKAGE
+     */
+    public void setLinkage(int linkage);
+
+    /**
+     * Get the linkage criterion used to merge clusters
+     * 
+     * @return
+     */
+    public int getLinkage();
+
 }
\ No newline at end of file
@@ -0,0 +1,154 @@
+package edu.uoregon.tau.perfexplorer.clustering;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * Times the hierarchical clustering of random data, with the
+ * nearest-neighbor chain clustering and with the full-scan loop that
+ * JavaHierarchicalCluster used before it.
+ *
+ * <pre>
+ * java edu.uoregon.tau.perfexplorer.clustering.HierarchicalClusterBenchmark [sizes] [dimensions]
+ * </pre>
+ *
+ * The sizes default to 1000,10000,20000,50000 threads, with 10 dimensions (events).
+ * The full scan is O(n^3), so it only runs up to benchmark.maxScan threads
+ * (2000 by default).  Complete and average linkage need the distance matrix,
+ * and are skipped for the sizes where two copies of it don't fit in the heap
+ * as doubles; single linkage runs from the raw data at any size.  The time to
+ * build the matrix is reported for every size, with the storage it gets.
+ */
+public class HierarchicalClusterBenchmark {
+
+    private static final String[] LINKAGES = { "single", "complete", "average" };
+    private static final String[] STORAGES = { "automatic", "double", "float", "mapped" };
+
+    public static void main(String[] args) {
+        String sizes = (args.length > 0) ? args[0] : "1000,10000,20000,50000";
+        int dimensions = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+        int maxScan = Integer.getInteger("benchmark.maxScan", 2000).intValue();
+
+        for (String token : sizes.split(",")) {
+            int n = Integer.parseInt(token.trim());
+            RawDataInterface data = makeData(n, dimensions, 4);
+            // the matrix (the packed triangle of doubles), and the copy the
+            // clustering works on
+            boolean matrixFits = 2.5 * 4.0 * n * n < Runtime.getRuntime().maxMemory();
+            DistanceMatrix distances = null;
+            if (matrixFits) {
+                long start = System.currentTimeMillis();
+                distances = new DistanceMatrix(n, DistanceMatrix.DOUBLE_STORAGE);
+                distances.solveCartesianDistances(data);
+                System.out.println(n + " threads: distance matrix " + (System.currentTimeMillis() - start) + " ms");
+            } else {
+                // time the matrix in the storage it would get, and drop it
+                long start = System.currentTimeMillis();
+                DistanceMatrix large = new DistanceMatrix(n);
+                large.solveCartesianDistances(data);
+                System.out.println(n + " threads: distance matrix " + (System.currentTimeMillis() - start) +
+                    " ms, " + STORAGES[large.getStorage()] + " storage");
+            }
+
+            if (matrixFits && n <= maxScan) {
+                long start = System.currentTimeMillis();
+                scanCluster(new DistanceMatrix(distances));
+                System.out.println(n + " threads: full scan " + (System.currentTimeMillis() - start) + " ms");
+            } else {
+                System.out.println(n + " threads: full scan skipped");
+            }
+
+            for (String name : LINKAGES) {
+                NNChainClusterer clusterer = new NNChainClusterer(NNChainClusterer.parseLinkage(name));
+                long start = System.currentTimeMillis();
+                DendrogramTree root = null;
+                String method = "NN chain";
+                if (matrixFits) {
+                    root = clusterer.cluster(new DistanceMatrix(distances));
+                } else if (clusterer.getLinkage() == HierarchicalCluster.SINGLE_LINKAGE) {
+                    root = clusterer.cluster(data);
+                    method = "spanning tree";
+                } else {
+                    System.out.println(n + " threads: " + name + " linkage skipped, the distance matrix doesn't fit");
+                    continue;
+                }
+                System.out.println(n + " threads: " + name + " linkage, " + method + " " +
+                    (System.currentTimeMillis() - start) + " ms, root height " + root.getHeight());
+                if (clusterer.getLinkage() == HierarchicalCluster.SINGLE_LINKAGE && matrixFits) {
+                    start = System.currentTimeMillis();
+                    clusterer.cluster(data);
+                    System.out.println(n + " threads: single linkage, spanning tree " +
+                        (System.currentTimeMillis() - start) + " ms");
+                }
+            }
+        }
+    }
+
+    /**
+     * The clustering loop JavaHierarchicalCluster used before the NN chain:
+     * every merge scans the whole matrix for the closest pair.
+     */
+    private static DendrogramTree scanCluster(DistanceMatrix distances) {
+        int dimension = distances.getDimension();
+        LinkedHashSet<Integer> remainingIndices = new LinkedHashSet<Integer>(dimension);
+        DendrogramTree[] trees = new DendrogramTree[dimension];
+        for (int i = 0 ; i < dimension ; i++) {
+            remainingIndices.add(new Integer(i));
+            trees[i] = new DendrogramTree(((-1)-i), 0);
+        }
+        DendrogramTree newTree = null;
+        while (remainingIndices.size() > 1) {
+            boolean first = true;
+            double min = 0.0;
+            int[] location = {0,0};
+            for (int i = 0 ; i < dimension ; i++) {
+                if (!remainingIndices.contains(new Integer(i)))
+                    continue;
+                for (int j = 0 ; j < i ; j++) {
+                    if (!remainingIndices.contains(new Integer(j)))
+                        continue;
+                    if (first || min > distances.elementAt(i,j)) {
+                        first = false;
+                        min = distances.elementAt(i,j);
+                        location[0] = i;
+                        location[1] = j;
+                    }
+                }
+            }
+            remainingIndices.remove(new Integer(location[0]));
+            newTree = new DendrogramTree(location[1], min);
+            newTree.setLeftAndRight(trees[location[1]], trees[location[0]]);
+            trees[location[1]] = newTree;
+            distances.mergeDistances(location[1], location[0]);
+        }
+        return newTree;
+    }
+
+    /**
+     * Random vectors around a few centers.
+     */
+    private static RawDataInterface makeData(int vectors, int dimensions, int centers) {
+        Random random = new Random(42);
+        double[][] centerValues = new double[centers][dimensions];
+        for (int c = 0 ; c < centers ; c++) {
+            for (int j = 0 ; j < dimensions ; j++) {
+                centerValues[c][j] = random.nextDouble() * 10.0;
+            }
+        }
+        List<String> names = new ArrayList<String>();
+        for (int j = 0 ; j < dimensions ; j++) {
+            names.add("event " + j);
+        }
+        ArrayRawData data = new ArrayRawData("benchmark", names, vectors, dimensions);
+        for (int i = 0 ; i < vectors ; i++) {
+            double[] center = centerValues[random.nextInt(centers)];
+            for (int j = 0 ; j < dimensions ; j++) {
+                data.addValue(i, j, center[j] + random.nextGaussian());
+            }
+        }
+        return data;
+    }
+}
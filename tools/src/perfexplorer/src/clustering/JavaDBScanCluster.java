@@ -0,0 +1,998 @@
+package edu.uoregon.tau.perfexplorer.clustering;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+
+/**
+ * This class does a DBSCAN clustering for a RawData object, with a KD-tree
+ * for the neighborhood queries instead of comparing every pair of vectors.
+ *
+ * <P>The clustering is done in three parallel passes over the vectors, on
+ * perfexplorer.dbscanThreads threads (the number of processors by default):
+ * the neighbors of every vector are counted to find the core vectors, the
+ * core vectors which are neighbors are joined in clusters (a union-find,
+ * where each cluster is named after its lowest vector), and the other
+ * vectors are given to the lowest cluster they are a neighbor of, if any.
+ * This is the clustering the sequential algorithm finds: the clusters are
+ * numbered in the order of their first core vector, and the noise is in
+ * cluster -1.</P>
+ *
+ * <P>New vectors can be added to a clustering with addVectors(), for
+ * example the threads of a new trial: only the neighborhoods of the new
+ * vectors, and of the vectors which become core vectors, are searched.
+ * The clusters can merge, and the noise can join a cluster, as in the
+ * incremental DBSCAN of Ester et al.  A vector which is a neighbor of two
+ * clusters may end up in either one.</P>
+ *
+ * <P>Like Weka, the dimensions are normalized to the range of the values
+ * before the distances are computed, so the error (epsilon) is in the same
+ * units as with the Weka engine; see setNormalize().  The range is the one
+ * of the vectors given to findClusters(), added vectors are scaled the same
+ * way.  The standard deviations of the clusters are sample standard
+ * deviations, as with JavaKMeansCluster.</P>
+ *
+ * @see DBScanClusterInterface
+ * @see JavaKMeansCluster
+ */
+public class JavaDBScanCluster implements DBScanClusterInterface {
+
+    // the most vectors in a leaf of the tree
+    private static final int LEAF_SIZE = 16;
+    // the smallest block of vectors given to a thread
+    private static final int MIN_BLOCK = 256;
+
+    private double e = 0.0;
+    private int minPoints = 4;
+    private boolean normalize = true;
+    private int threads = Math.max(1, Integer.getInteger("perfexplorer.dbscanThreads",
+        Runtime.getRuntime().availableProcessors()).intValue());
+
+    // the input data: the vectors as they are, and as they are compared
+    private RawDataInterface inputData = null;
+    private double[][] vectors = null;
+    private double[][] points = null;
+    private int count = 0;
+    private int dimensions = 0;
+    private double[] offsets = null;
+    private double[] scales = null;
+    private KDTree tree = null;
+
+    // the clustering
+    private int[] neighborCounts = null;
+    private AtomicIntegerArray parents = null;
+    private int[] borders = null;
+
+    // the results
+    private double[][] centroids = null;
+    private double[][] minimums = null;
+    private double[][] maximums = null;
+    private double[][] deviations = null;
+    private int[] clusterSizes = null;
+    private int[] clusterIDs = null;
+
+    /**
+     * A growable array of ints, for the results of the range queries.
+     */
+    private static final class IntList {
+        int[] values = new int[16];
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    /**
+     * A KD-tree over the first vectors of an array.  Each node splits its
+     * vectors at the median of the dimension with the widest range, and
+     * keeps the bounding box of its vectors, to skip the nodes which are too
+     * far from a query.
+     */
+    private static final class KDTree {
+        private final double[][] points;
+        private final int size;
+        private final int[] indexes;
+        // the nodes: their range in indexes, children, and bounding boxes
+        private int nodes = 0;
+        private int[] starts;
+        private int[] ends;
+        private int[] lefts;
+        private int[] rights;
+        private double[][] lows;
+        private double[][] highs;
+
+        KDTree(double[][] points, int size) {
+            this.points = points;
+            this.size = size;
+            this.indexes = new int[size];
+            for (int i = 0 ; i < size ; i++) {
+                indexes[i] = i;
+            }
+            int capacity = Math.max(1, 4 * ((size / LEAF_SIZE) + 1));
+            starts = new int[capacity];
+            ends = new int[capacity];
+            lefts = new int[capacity];
+            rights = new int[capacity];
+            lows = new double[capacity][];
+            highs = new double[capacity][];
+            if (size > 0) {
+                build(0, size);
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        private int build(int start, int end) {
+            int node = nodes++;
+            if (node == starts.length) {
+                int capacity = node * 2;
+                starts = Arrays.copyOf(starts, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+                lefts = Arrays.copyOf(lefts, capacity);
+                rights = Arrays.copyOf(rights, capacity);
+                lows = Arrays.copyOf(lows, capacity);
+                highs = Arrays.copyOf(highs, capacity);
+            }
+            starts[node] = start;
+            ends[node] = end;
+            lefts[node] = -1;
+            rights[node] = -1;
+            double[] low = points[indexes[start]].clone();
+            double[] high = low.clone();
+            for (int i = start + 1 ; i < end ; i++) {
+                double[] x = points[indexes[i]];
+                for (int j = 0 ; j < x.length ; j++) {
+                    low[j] = Math.min(low[j], x[j]);
+                    high[j] = Math.max(high[j], x[j]);
+                }
+            }
+            lows[node] = low;
+            highs[node] = high;
+            if (end - start <= LEAF_SIZE) {
+                return node;
+            }
+            int split = 0;
+            for (int j = 1 ; j < low.length ; j++) {
+                if (high[j] - low[j] > high[split] - low[split]) {
+                    split = j;
+                }
+            }
+            if (high[split] <= low[split]) {
+                // all the vectors are the same
+                return node;
+            }
+            int middle = (start + end) >>> 1;
+            select(start, end - 1, middle, split);
+            int left = build(start, middle);
+            int right = build(middle, end);
+            lefts[node] = left;
+            rights[node] = right;
+            return node;
+        }
+
+        /**
+         * Puts the k-th vector (by the value of a dimension) of a range of
+         * indexes in its place, with the smaller ones before it and the
+         * larger ones after it (quickselect).
+         */
+        private void select(int left, int right, int k, int dimension) {
+            while (right > left) {
+                int middle = (left + right) >>> 1;
+                double pivot = points[indexes[middle]][dimension];
+                int i = left;
+                int j = right;
+                while (i <= j) {
+                    while (points[indexes[i]][dimension] < pivot) {
+                        i++;
+                    }
+                    while (points[indexes[j]][dimension] > pivot) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        int tmp = indexes[i];
+                        indexes[i++] = indexes[j];
+                        indexes[j--] = tmp;
+                    }
+                }
+                if (k <= j) {
+                    right = j;
+                } else if (k >= i) {
+                    left = i;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Adds the vectors within a squared distance of a query to a list.
+         */
+        void range(double[] query, double limit, IntList result) {
+            if (size > 0) {
+                range(0, query, limit, result);
+            }
+        }
+
+        private void range(int node, double[] query, double limit, IntList result) {
+            if (boxDistance(node, query, limit) > limit) {
+                return;
+            }
+            if (lefts[node] < 0) {
+                for (int i = starts[node] ; i < ends[node] ; i++) {
+                    if (DistanceMatrix.squaredDistance(points[indexes[i]], query, limit) <= limit) {
+                        result.add(indexes[i]);
+                    }
+                }
+                return;
+            }
+            range(lefts[node], query, limit, result);
+            range(rights[node], query, limit, result);
+        }
+
+        /**
+         * The k nearest vectors to a query, as a heap of squared distances
+         * (the largest first) which is updated.
+         *
+         * @param heap the k smallest distances found so far
+         * @param heapSize the number of distances in the heap
+         * @return the new number of distances in the heap
+         */
+        int nearest(double[] query, double[] heap, int heapSize) {
+            return (size > 0) ? nearest(0, query, heap, heapSize) : heapSize;
+        }
+
+        private int nearest(int node, double[] query, double[] heap, int heapSize) {
+            double limit = (heapSize < heap.length) ? Double.POSITIVE_INFINITY : heap[0];
+            if (boxDistance(node, query, limit) > limit) {
+                return heapSize;
+            }
+            if (lefts[node] < 0) {
+                for (int i = starts[node] ; i < ends[node] ; i++) {
+                    heapSize = offer(heap, heapSize, DistanceMatrix.squaredDistance(points[indexes[i]], query,
+                        (heapSize < heap.length) ? Double.POSITIVE_INFINITY : heap[0]));
+                }
+                return heapSize;
+            }
+            // the nearer child first, to find close vectors sooner
+            int first = lefts[node];
+            int second = rights[node];
+            if (boxDistance(second, query, Double.POSITIVE_INFINITY) < boxDistance(first, query, Double.POSITIVE_INFINITY)) {
+                first = rights[node];
+                second = lefts[node];
+            }
+            heapSize = nearest(first, query, heap, heapSize);
+            return nearest(second, query, heap, heapSize);
+        }
+
+        private double boxDistance(int node, double[] query, double limit) {
+            double[] low = lows[node];
+            double[] high = highs[node];
+            double distance = 0.0;
+            for (int j = 0 ; j < query.length ; j++) {
+                double tmp = (query[j] < low[j]) ? low[j] - query[j] :
+                    (query[j] > high[j]) ? query[j] - high[j] : 0.0;
+                distance += tmp * tmp;
+                if (distance > limit) {
+                    break;
+                }
+            }
+            return distance;
+        }
+    }
+
+    public JavaDBScanCluster() {
+        super();
+    }
+
+    /* (non-Javadoc)
+     * @see clustering.ClusterInterface#findClusters()
+     */
+    public void findClusters() throws ClusterException {
+        if (inputData == null) {
+            throw new ClusterException("No input data to cluster");
+        }
+        reset();
+        loadVectors();
+        if (tree.size() < count) {
+            tree = new KDTree(points, count);
+        }
+        neighborCounts = new int[count];
+        parents = new AtomicIntegerArray(points.length);
+        for (int i = 0 ; i < points.length ; i++) {
+            parents.set(i, i);
+        }
+        borders = new int[points.length];
+        Arrays.fill(borders, -1);
+
+        ExecutorService executor = (threads > 1) ? Executors.newFixedThreadPool(threads) : null;
+        try {
+            final double limit = e * e;
+            // count the neighbors of every vector
+            List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+            for (final int[] block : blocks(0, count)) {
+                tasks.add(new Callable<Object>() {
+                    public Object call() {
+                        IntList neighbors = new IntList();
+                        for (int i = block[0] ; i < block[1] ; i++) {
+                            neighbors.size = 0;
+                            tree.range(points[i], limit, neighbors);
+                            neighborCounts[i] = neighbors.size;
+                        }
+                        return null;
+                    }
+                });
+            }
+            run(tasks, executor);
+
+            // join the core vectors which are neighbors
+            tasks.clear();
+            for (final int[] block : blocks(0, count)) {
+                tasks.add(new Callable<Object>() {
+                    public Object call() {
+                        IntList neighbors = new IntList();
+                        for (int i = block[0] ; i < block[1] ; i++) {
+                            if (isCore(i)) {
+                                neighbors.size = 0;
+                                tree.range(points[i], limit, neighbors);
+                                for (int n = 0 ; n < neighbors.size ; n++) {
+                                    int j = neighbors.values[n];
+                                    if (j < i && isCore(j)) {
+                                        union(i, j);
+                                    }
+                                }
+                            }
+                        }
+                        return null;
+                    }
+                });
+            }
+            run(tasks, executor);
+
+            // give the other vectors to the lowest cluster they are next to
+            tasks.clear();
+            for (final int[] block : blocks(0, count)) {
+                tasks.add(new Callable<Object>() {
+                    public Object call() {
+                        IntList neighbors = new IntList();
+                        for (int i = block[0] ; i < block[1] ; i++) {
+                            if (!isCore(i)) {
+                                neighbors.size = 0;
+                                tree.range(points[i], limit, neighbors);
+                                for (int n = 0 ; n < neighbors.size ; n++) {
+                                    attach(i, neighbors.values[n]);
+                                }
+                            }
+                        }
+                        return null;
+                    }
+                });
+            }
+            run(tasks, executor);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+        summarize();
+    }
+
+    /**
+     * Adds vectors to the clustering, without clustering the others again.
+     * The vectors are numbered after the current ones, and the numbers of
+     * the clusters can change, since clusters can merge.  If there is no
+     * clustering yet, the vectors are added to the input data, and
+     * clustered with the others by findClusters().
+     *
+     * @param moreData the vectors to add, with the same dimensions
+     * @throws ClusterException
+     */
+    public void addVectors(RawDataInterface moreData) throws ClusterException {
+        if (inputData == null) {
+            setInputData(moreData);
+            return;
+        }
+        loadVectors();
+        if (moreData.numVectors() > 0 && moreData.numDimensions() != dimensions) {
+            throw new ClusterException("The vectors have " + moreData.numDimensions() +
+                " dimensions, not " + dimensions);
+        }
+        final int first = count;
+        append(moreData);
+        if (clusterIDs == null) {
+            // not clustered yet
+            return;
+        }
+        if (count - tree.size() > Math.max(LEAF_SIZE * 16, tree.size() / 4)) {
+            tree = new KDTree(points, count);
+        }
+        neighborCounts = Arrays.copyOf(neighborCounts, count);
+        borders = Arrays.copyOf(borders, count);
+        AtomicIntegerArray oldParents = parents;
+        parents = new AtomicIntegerArray(count);
+        for (int i = 0 ; i < count ; i++) {
+            parents.set(i, (i < first) ? oldParents.get(i) : i);
+        }
+        for (int i = first ; i < count ; i++) {
+            borders[i] = -1;
+        }
+
+        ExecutorService executor = (threads > 1) ? Executors.newFixedThreadPool(threads) : null;
+        try {
+            // the neighborhoods of the new vectors
+            final int[][] neighborhoods = new int[count][];
+            neighborhoods(first, count, neighborhoods, executor);
+
+            // update the counts, and find the new core vectors
+            List<Integer> cores = new ArrayList<Integer>();
+            for (int p = first ; p < count ; p++) {
+                neighborCounts[p] = neighborhoods[p].length;
+                for (int q : neighborhoods[p]) {
+                    if (q < first && ++neighborCounts[q] == minPoints) {
+                        cores.add(q);
+                    }
+                }
+            }
+            for (int p = first ; p < count ; p++) {
+                if (isCore(p)) {
+                    cores.add(p);
+                }
+            }
+            List<Integer> searched = new ArrayList<Integer>();
+            for (Integer c : cores) {
+                if (neighborhoods[c] == null) {
+                    searched.add(c);
+                }
+            }
+            neighborhoods(searched, neighborhoods, executor);
+
+            // join them to their core neighbors, and their other neighbors to them
+            for (Integer c : cores) {
+                for (int q : neighborhoods[c]) {
+                    if (q != c && isCore(q)) {
+                        union(c, q);
+                    }
+                }
+                borders[c] = -1;
+            }
+            for (Integer c : cores) {
+                for (int q : neighborhoods[c]) {
+                    if (!isCore(q)) {
+                        attach(q, c);
+                    }
+                }
+            }
+            for (int p = first ; p < count ; p++) {
+                if (!isCore(p)) {
+                    for (int q : neighborhoods[p]) {
+                        attach(p, q);
+                    }
+                }
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+        summarize();
+    }
+
+    /**
+     * Search the neighborhoods of a range of vectors, in parallel.
+     */
+    private void neighborhoods(int start, int end, int[][] neighborhoods, ExecutorService executor)
+        throws ClusterException {
+        List<Integer> indexes = new ArrayList<Integer>(end - start);
+        for (int i = start ; i < end ; i++) {
+            indexes.add(i);
+        }
+        neighborhoods(indexes, neighborhoods, executor);
+    }
+
+    private void neighborhoods(final List<Integer> indexes, final int[][] neighborhoods,
+        ExecutorService executor) throws ClusterException {
+        final double limit = e * e;
+        final int overflow = tree.size();
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for (final int[] block : blocks(0, indexes.size())) {
+            tasks.add(new Callable<Object>() {
+                public Object call() {
+                    IntList neighbors = new IntList();
+                    for (int b = block[0] ; b < block[1] ; b++) {
+                        int i = indexes.get(b).intValue();
+                        neighbors.size = 0;
+                        tree.range(points[i], limit, neighbors);
+                        // the vectors added since the tree was built
+                        for (int j = overflow ; j < count ; j++) {
+                            if (DistanceMatrix.squaredDistance(points[j], points[i], limit) <= limit) {
+                                neighbors.add(j);
+                            }
+                        }
+                        neighborhoods[i] = neighbors.toArray();
+                    }
+                    return null;
+                }
+            });
+        }
+        run(tasks, executor);
+    }
+
+    private boolean isCore(int i) {
+        return neighborCounts[i] >= minPoints;
+    }
+
+    /**
+     * The cluster of a core vector: its lowest vector.  The path is halved
+     * on the way.
+     */
+    private int find(int i) {
+        while (true) {
+            int parent = parents.get(i);
+            if (parent == i) {
+                return i;
+            }
+            int grandParent = parents.get(parent);
+            if (parent != grandParent) {
+                parents.compareAndSet(i, parent, grandParent);
+            }
+            i = parent;
+        }
+    }
+
+    /**
+     * Joins the clusters of two core vectors; the higher one is linked to
+     * the lower one, so it can be done from several threads.
+     */
+    private void union(int i, int j) {
+        while (true) {
+            int a = find(i);
+            int b = find(j);
+            if (a == b) {
+                return;
+            }
+            if (a < b) {
+                int tmp = a;
+                a = b;
+                b = tmp;
+            }
+            if (parents.compareAndSet(a, a, b)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gives a vector which isn't a core vector to the cluster of a
+     * neighbor, if the neighbor is a core vector and its cluster is lower
+     * than the one the vector has.
+     */
+    private void attach(int i, int neighbor) {
+        if (!isCore(neighbor)) {
+            return;
+        }
+        if (borders[i] < 0 || find(neighbor) < find(borders[i])) {
+            borders[i] = neighbor;
+        }
+    }
+
+    /**
+     * Number the clusters, and compute the results: the centroids of the
+     * clusters (the means), their sizes, minimums, maximums and standard
+     * deviations.  The noise is in no cluster.
+     */
+    private void summarize() {
+        int[] numbers = new int[count];
+        int clusters = 0;
+        for (int i = 0 ; i < count ; i++) {
+            if (isCore(i) && find(i) == i) {
+                numbers[i] = clusters++;
+            }
+        }
+        clusterIDs = new int[count];
+        for (int i = 0 ; i < count ; i++) {
+            if (isCore(i)) {
+                clusterIDs[i] = numbers[find(i)];
+            } else if (borders[i] >= 0) {
+                clusterIDs[i] = numbers[find(borders[i])];
+            } else {
+                clusterIDs[i] = -1;
+            }
+        }
+
+        clusterSizes = new int[clusters];
+        centroids = new double[clusters][dimensions];
+        minimums = new double[clusters][dimensions];
+        maximums = new double[clusters][dimensions];
+        deviations = new double[clusters][dimensions];
+        for (double[] row : minimums) {
+            Arrays.fill(row, Double.POSITIVE_INFINITY);
+        }
+        for (double[] row : maximums) {
+            Arrays.fill(row, Double.NEGATIVE_INFINITY);
+        }
+        for (int i = 0 ; i < count ; i++) {
+            int c = clusterIDs[i];
+            if (c < 0) {
+                continue;
+            }
+            clusterSizes[c]++;
+            double[] x = vectors[i];
+            for (int j = 0 ; j < dimensions ; j++) {
+                centroids[c][j] += x[j];
+                minimums[c][j] = Math.min(minimums[c][j], x[j]);
+                maximums[c][j] = Math.max(maximums[c][j], x[j]);
+            }
+        }
+        for (int c = 0 ; c < clusters ; c++) {
+            for (int j = 0 ; j < dimensions ; j++) {
+                centroids[c][j] /= clusterSizes[c];
+            }
+        }
+        for (int i = 0 ; i < count ; i++) {
+            int c = clusterIDs[i];
+            if (c < 0) {
+                continue;
+            }
+            double[] x = vectors[i];
+            for (int j = 0 ; j < dimensions ; j++) {
+                double tmp = x[j] - centroids[c][j];
+                deviations[c][j] += tmp * tmp;
+            }
+        }
+        for (int c = 0 ; c < clusters ; c++) {
+            for (int j = 0 ; j < dimensions ; j++) {
+                deviations[c][j] = (clusterSizes[c] > 1) ?
+                    Math.sqrt(deviations[c][j] / (clusterSizes[c] - 1)) : 0.0;
+            }
+        }
+    }
+
+    /**
+     * Get the vectors of the input data, and scale them.
+     */
+    private void loadVectors() {
+        if (vectors != null) {
+            return;
+        }
+        int n = inputData.numVectors();
+        if (inputData.getData() instanceof double[][]) {
+            vectors = (double[][])inputData.getData();
+        } else {
+            vectors = new double[n][];
+            for (int i = 0 ; i < n ; i++) {
+                vectors[i] = inputData.getVector(i);
+            }
+        }
+        count = n;
+        dimensions = (n == 0) ? inputData.numDimensions() : vectors[0].length;
+        offsets = new double[dimensions];
+        scales = new double[dimensions];
+        Arrays.fill(scales, 1.0);
+        if (normalize && n > 0) {
+            double[] low = vectors[0].clone();
+            double[] high = vectors[0].clone();
+            for (int i = 1 ; i < n ; i++) {
+                for (int j = 0 ; j < dimensions ; j++) {
+                    low[j] = Math.min(low[j], vectors[i][j]);
+                    high[j] = Math.max(high[j], vectors[i][j]);
+                }
+            }
+            for (int j = 0 ; j < dimensions ; j++) {
+                offsets[j] = low[j];
+                // like Weka, a dimension with a single value doesn't count
+                scales[j] = (high[j] > low[j]) ? 1.0 / (high[j] - low[j]) : 0.0;
+            }
+        }
+        points = scale(vectors, n);
+        tree = new KDTree(points, count);
+    }
+
+    private double[][] scale(double[][] values, int n) {
+        if (!normalize) {
+            return values;
+        }
+        double[][] scaled = new double[n][dimensions];
+        for (int i = 0 ; i < n ; i++) {
+            for (int j = 0 ; j < dimensions ; j++) {
+                scaled[i][j] = (values[i][j] - offsets[j]) * scales[j];
+            }
+        }
+        return scaled;
+    }
+
+    /**
+     * Add vectors after the current ones.
+     */
+    private void append(RawDataInterface moreData) {
+        int added = moreData.numVectors();
+        double[][] more = new double[added][];
+        for (int i = 0 ; i < added ; i++) {
+            more[i] = moreData.getVector(i);
+        }
+        double[][] scaled = scale(more, added);
+        double[][] allVectors = Arrays.copyOf(vectors, count + added);
+        double[][] allPoints = (points == vectors) ? allVectors : Arrays.copyOf(points, count + added);
+        for (int i = 0 ; i < added ; i++) {
+            allVectors[count + i] = more[i];
+            allPoints[count + i] = scaled[i];
+        }
+        // the tree only searches the vectors it was built with
+        vectors = allVectors;
+        points = allPoints;
+        count += added;
+        if (clusterIDs == null) {
+            tree = new KDTree(points, count);
+        }
+    }
+
+    /**
+     * Adds a squared distance to a heap of the k smallest ones (the
+     * largest first).
+     *
+     * @return the new number of distances in the heap
+     */
+    private static int offer(double[] heap, int heapSize, double distance) {
+        int i;
+        if (heapSize < heap.length) {
+            i = heapSize++;
+            while (i > 0 && heap[(i - 1) / 2] < distance) {
+                heap[i] = heap[(i - 1) / 2];
+                i = (i - 1) / 2;
+            }
+            heap[i] = distance;
+        } else if (distance < heap[0]) {
+            i = 0;
+            while (true) {
+                int child = (2 * i) + 1;
+                if (child >= heapSize) {
+                    break;
+                }
+                if (child + 1 < heapSize && heap[child + 1] > heap[child]) {
+                    child++;
+                }
+                if (heap[child] <= distance) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = distance;
+        }
+        return heapSize;
+    }
+
+    /**
+     * Split the vectors from start to end in blocks: a few per thread, so
+     * that the threads stay busy if some blocks take longer.
+     *
+     * @return the start and end of each block
+     */
+    private int[][] blocks(int start, int end) {
+        int m = end - start;
+        int size = Math.max(MIN_BLOCK, (m + (threads * 4) - 1) / (threads * 4));
+        int blocks = Math.max(1, (m + size - 1) / size);
+        int[][] result = new int[blocks][];
+        for (int b = 0 ; b < blocks ; b++) {
+            result[b] = new int[] { start + (b * size), Math.min(end, start + ((b + 1) * size)) };
+        }
+        return result;
+    }
+
+    private <T> List<T> run(List<Callable<T>> tasks, ExecutorService executor) throws ClusterException {
+        List<T> results = new ArrayList<T>(tasks.size());
+        try {
+            if (executor == null || tasks.size() == 1) {
+                for (Callable<T> task : tasks) {
+                    results.add(task.call());
+                }
+            } else {
+                for (Future<T> future : executor.invokeAll(tasks)) {
+                    results.add(future.get());
+                }
+            }
+        } catch (InterruptedException e) {
+            java.lang.Thread.currentThread().interrupt();
+            throw new ClusterException("Interrupted while clustering", e);
+        } catch (ExecutionException e) {
+            throw new ClusterException(e.getCause());
+        } catch (Exception e) {
+            throw new ClusterException(e);
+        }
+        return results;
+    }
+
+    private RawDataInterface createResult(String name, double[][] values) {
+        if (values == null) {
+            return null;
+        }
+        List<String> names = inputData.getEventNames();
+        if (names.size() > dimensions) {
+            names = names.subList(0, dimensions);
+        }
+        return new ArrayRawData(name, names, values);
+    }
+
+    public int guessEpsilonIndex() {
+        double[] kDistances = getKDistances();
+        // start at the next-to-last one
+        int index = kDistances.length - 2;
+        // find "inflection" point
+        for (int i = index ; i > 1 ; i--) {
+            // average the three values
+            double avg = (kDistances[i-1] + kDistances[i] + kDistances[i+1]) / 3.0;
+            if (avg < kDistances[i]) {
+                index = i+1; // take the worst one of the three, to be conservative
+                break;
+            }
+        }
+        return index;
+    }
+
+    public double guessEpsilon() {
+        double[] kDistances = getKDistances();
+        return kDistances[guessEpsilonIndex()];
+    }
+
+    /**
+     * The distance of each vector to its minPoints-th nearest neighbor
+     * (not counting itself), sorted.  The distances are found with the
+     * tree, in parallel, and are in the same (normalized) units as the
+     * error.
+     */
+    public double[] getKDistances() {
+        loadVectors();
+        final double[] kDistances = new double[count];
+        if (count == 0) {
+            return kDistances;
+        }
+        final int k = Math.min(count, minPoints + 1);
+        final int overflow = tree.size();
+        ExecutorService executor = (threads > 1) ? Executors.newFixedThreadPool(threads) : null;
+        try {
+            List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+            for (final int[] block : blocks(0, count)) {
+                tasks.add(new Callable<Object>() {
+                    public Object call() {
+                        double[] heap = new double[k];
+                        for (int i = block[0] ; i < block[1] ; i++) {
+                            int heapSize = tree.nearest(points[i], heap, 0);
+                            for (int j = overflow ; j < count ; j++) {
+                                heapSize = offer(heap, heapSize, DistanceMatrix.squaredDistance(points[j], points[i],
+                                    Double.POSITIVE_INFINITY));
+                            }
+                            // the heap has the k-th nearest on top, counting the vector itself
+                            kDistances[i] = Math.sqrt(heap[0]);
+                        }
+                        return null;
+                    }
+                });
+            }
+            run(tasks, executor);
+        } catch (ClusterException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+        Arrays.sort(kDistances);
+        return kDistances;
+    }
+
+    /* (non-Javadoc)
+     * @see clustering.ClusterInterface#getClusterDescription(int)
+     */
+    public ClusterDescription getClusterDescription(int i) throws ClusterException {
+        return null;
+    }
+
+    public void setInputData(RawDataInterface inputData) {
+        this.inputData = inputData;
+        this.vectors = null;
+        this.points = null;
+        this.tree = null;
+        this.count = 0;
+        reset();
+    }
+
+    public RawDataInterface getClusterCentroids() {
+        return createResult("Cluster Centroids", centroids);
+    }
+
+    public RawDataInterface getClusterMinimums() {
+        return createResult("Cluster Minimums", minimums);
+    }
+
+    public RawDataInterface getClusterMaximums() {
+        return createResult("Cluster Maximums", maximums);
+    }
+
+    public RawDataInterface getClusterStandardDeviations() {
+        return createResult("Cluster Standard Deviations", deviations);
+    }
+
+    public void reset() {
+        this.neighborCounts = null;
+        this.parents = null;
+        this.borders = null;
+        this.centroids = null;
+        this.minimums = null;
+        this.maximums = null;
+        this.deviations = null;
+        this.clusterSizes = null;
+        this.clusterIDs = null;
+    }
+
+    public int[] getClusterSizes() {
+        return clusterSizes;
+    }
+
+    public int[] clusterInstances() {
+        return clusterIDs;
+    }
+
+    /**
+     * @return the cluster of a vector, or -1 if it is noise
+     */
+    public int clusterInstance(int i) {
+        return (clusterIDs == null) ? -1 : clusterIDs[i];
+    }
+
+    public int getNumInstances() {
+        return (vectors != null) ? count : (inputData == null) ? 0 : inputData.numVectors();
+    }
+
+    public void setError(double e) {
+        this.e = e;
+    }
+
+    public double getError() {
+        return e;
+    }
+
+    public void setMinPoints(int minPoints) {
+        this.minPoints = minPoints;
+    }
+
+    public int getMinPoints() {
+        return minPoints;
+    }
+
+    public boolean getNormalize() {
+        return normalize;
+    }
+
+    /**
+     * @param normalize whether the dimensions are scaled to the range of
+     * their values (the default, like Weka), or compared as they are
+     */
+    public void setNormalize(boolean normalize) {
+        this.normalize = normalize;
+        this.vectors = null;
+        reset();
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+}
@@ -0,0 +1,707 @@
+package edu.uoregon.tau.perfexplorer.clustering;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.uoregon.tau.perfexplorer.common.PerfExplorerOutput;
+
+
+/**
+ * This class solves a k-means clustering for a RawData object, directly on
+ * arrays of doubles.  If the input is an ArrayRawData, its vectors are used
+ * as they are, otherwise they are copied out once.
+ *
+ * <P>The initial centroids are chosen with k-means++ seeding.  Then the
+ * vectors are assigned to the nearest centroid and the centroids are moved
+ * to the mean of their vectors (Lloyd's algorithm), until no vector changes
+ * cluster, or the squared error improves by less than the tolerance.  Both
+ * steps split the vectors in blocks, which are processed on
+ * perfexplorer.kmeansThreads threads (the number of processors by default).
+ * A cluster that ends up empty is given the vector farthest from its
+ * centroid.</P>
+ *
+ * <P>Data sets of more than 100000 vectors are clustered in mini-batches:
+ * each iteration moves the centroids towards a random sample of the vectors,
+ * and the clustering stops when the (smoothed) error of the samples hasn't
+ * improved for a while.  The batch size can be set with setBatchSize(), or
+ * the perfexplorer.kmeansBatchSize property; 0 turns mini-batches off.</P>
+ *
+ * <P>The results have the same form as those of the Weka engine: empty
+ * clusters are dropped, and the standard deviations are sample standard
+ * deviations.</P>
+ *
+ * @see KMeansClusterInterface
+ * @see ArrayRawData
+ */
+public class JavaKMeansCluster implements KMeansClusterInterface {
+
+    /** Use mini-batches for more than 100000 vectors. */
+    public static final int AUTOMATIC_BATCH = -1;
+
+    private static final int MINI_BATCH_THRESHOLD = 100000;
+    private static final int DEFAULT_BATCH_SIZE = 10000;
+    // the mini-batches stop after this many batches without improvement
+    private static final int MAX_NO_IMPROVEMENT = 10;
+    // the smallest block of vectors given to a thread
+    private static final int MIN_BLOCK = 1024;
+
+    private int k = 0;
+    private boolean doPCA = false;
+    private int maxIterations = 100;
+    private double tolerance = 1.0e-6;
+    private int batchSize = Integer.getInteger("perfexplorer.kmeansBatchSize", AUTOMATIC_BATCH).intValue();
+    private int threads = Math.max(1, Integer.getInteger("perfexplorer.kmeansThreads",
+        Runtime.getRuntime().availableProcessors()).intValue());
+    private long seed = 10;
+
+    // the input data
+    private RawDataInterface inputData = null;
+    private double[][] vectors = null;
+    private int dimensions = 0;
+
+    // the results
+    private double[][] centroids = null;
+    private double[][] minimums = null;
+    private double[][] maximums = null;
+    private double[][] deviations = null;
+    private int[] clusterSizes = null;
+    private int[] clusterIDs = null;
+    private double squaredError = 0.0;
+    private int iterations = 0;
+
+    /**
+     * The sums a block of vectors contributes to an iteration.
+     */
+    private static final class Partial {
+        double[][] sums;
+        int[] counts;
+        double error = 0.0;
+        int changed = 0;
+        int farthest = -1;
+        double farthestDistance = -1.0;
+
+        Partial(int clusters, int dimensions) {
+            sums = new double[clusters][dimensions];
+            counts = new int[clusters];
+        }
+
+        void add(Partial other) {
+            for (int c = 0 ; c < counts.length ; c++) {
+                counts[c] += other.counts[c];
+                double[] sum = sums[c];
+                double[] otherSum = other.sums[c];
+                for (int j = 0 ; j < sum.length ; j++) {
+                    sum[j] += otherSum[j];
+                }
+            }
+            error += other.error;
+            changed += other.changed;
+            if (other.farthestDistance > farthestDistance) {
+                farthestDistance = other.farthestDistance;
+                farthest = other.farthest;
+            }
+        }
+    }
+
+    public JavaKMeansCluster() {
+        super();
+    }
+
+    /* (non-Javadoc)
+     * @see clustering.ClusterInterface#findClusters()
+     */
+    public void findClusters() throws ClusterException {
+        if (inputData == null) {
+            throw new ClusterException("No input data to cluster");
+        }
+        reset();
+        loadVectors();
+        int n = vectors.length;
+        if (n == 0 || k < 1) {
+            throw new ClusterException("Unable to find " + k + " clusters in " + n + " vectors");
+        }
+        if (doPCA) {
+            PerfExplorerOutput.println("The native k-means engine doesn't do PCA, clustering the data as it is.");
+        }
+        int clusters = Math.min(k, n);
+        int batch = batchSize;
+        if (batch == AUTOMATIC_BATCH) {
+            batch = (n > MINI_BATCH_THRESHOLD) ? DEFAULT_BATCH_SIZE : 0;
+        }
+        boolean miniBatch = batch > 0 && batch < n;
+
+        Random random = new Random(seed);
+        ExecutorService executor = (threads > 1) ? Executors.newFixedThreadPool(threads) : null;
+        try {
+            int[] assignment = new int[n];
+            Arrays.fill(assignment, -1);
+            double[][] centers = null;
+            if (miniBatch) {
+                // seed from a sample, the whole data set can be very large
+                centers = seed(clusters, sample(Math.min(n, batch * 10), random), random, executor);
+                miniBatch(centers, batch, random, executor);
+            } else {
+                centers = seed(clusters, null, random, executor);
+                lloyd(centers, assignment, executor);
+            }
+            summarize(centers, assignment, executor);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private void loadVectors() {
+        if (vectors != null) {
+            return;
+        }
+        if (inputData.getData() instanceof double[][]) {
+            vectors = (double[][])inputData.getData();
+        } else {
+            vectors = new double[inputData.numVectors()][];
+            for (int i = 0 ; i < vectors.length ; i++) {
+                vectors[i] = inputData.getVector(i);
+            }
+        }
+        dimensions = (vectors.length == 0) ? 0 : vectors[0].length;
+    }
+
+    private int[] sample(int size, Random random) {
+        int[] indexes = new int[size];
+        for (int i = 0 ; i < size ; i++) {
+            indexes[i] = random.nextInt(vectors.length);
+        }
+        return indexes;
+    }
+
+    /**
+     * k-means++ seeding: each new centroid is a vector picked with a
+     * probability proportional to its squared distance to the nearest
+     * centroid so far.  A few vectors are drawn for each centroid, and the
+     * one that lowers the sum of those distances the most is kept (greedy
+     * k-means++), which makes bad seedings much less likely.
+     *
+     * @param indexes the vectors to pick from, null for all of them
+     */
+    private double[][] seed(int clusters, final int[] indexes, Random random, ExecutorService executor)
+        throws ClusterException {
+        final int m = (indexes == null) ? vectors.length : indexes.length;
+        final double[] nearest = new double[m];
+        Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+        final double[][] centers = new double[clusters][];
+        final int[][] blocks = blocks(m);
+        int trials = 2 + (int)Math.log(clusters);
+
+        int first = random.nextInt(m);
+        centers[0] = vectors[(indexes == null) ? first : indexes[first]].clone();
+        double[] blockTotals = updateNearest(nearest, centers[0], indexes, blocks, executor);
+        for (int c = 1 ; c < clusters ; c++) {
+            double total = 0.0;
+            for (double blockTotal : blockTotals) {
+                total += blockTotal;
+            }
+            if (total <= 0.0) {
+                // all the vectors are on a centroid already
+                int pick = random.nextInt(m);
+                centers[c] = vectors[(indexes == null) ? pick : indexes[pick]].clone();
+                continue;
+            }
+
+            // draw the candidates, and sum the distances with each of them
+            final double[][] candidates = new double[trials][];
+            for (int t = 0 ; t < trials ; t++) {
+                int pick = pick(random.nextDouble() * total, nearest, blocks, blockTotals);
+                candidates[t] = vectors[(indexes == null) ? pick : indexes[pick]];
+            }
+            List<Callable<double[]>> tasks = new ArrayList<Callable<double[]>>(blocks.length);
+            for (final int[] block : blocks) {
+                tasks.add(new Callable<double[]>() {
+                    public double[] call() {
+                        double[] sums = new double[candidates.length];
+                        for (int p = block[0] ; p < block[1] ; p++) {
+                            double[] x = vectors[(indexes == null) ? p : indexes[p]];
+                            for (int t = 0 ; t < candidates.length ; t++) {
+                                sums[t] += Math.min(nearest[p], DistanceMatrix.squaredDistance(x, candidates[t], nearest[p]));
+                            }
+                        }
+                        return sums;
+                    }
+                });
+            }
+            double[] sums = new double[trials];
+            for (double[] partial : run(tasks, executor)) {
+                for (int t = 0 ; t < trials ; t++) {
+                    sums[t] += partial[t];
+                }
+            }
+            int best = 0;
+            for (int t = 1 ; t < trials ; t++) {
+                if (sums[t] < sums[best]) {
+                    best = t;
+                }
+            }
+            centers[c] = candidates[best].clone();
+            if (c < clusters - 1) {
+                blockTotals = updateNearest(nearest, centers[c], indexes, blocks, executor);
+            }
+        }
+        return centers;
+    }
+
+    /**
+     * Update the squared distances to the nearest centroid, with a new one.
+     *
+     * @return the sum of the distances, by block
+     */
+    private double[] updateNearest(final double[] nearest, final double[] center, final int[] indexes,
+        int[][] blocks, ExecutorService executor) throws ClusterException {
+        List<Callable<Double>> tasks = new ArrayList<Callable<Double>>(blocks.length);
+        for (final int[] block : blocks) {
+            tasks.add(new Callable<Double>() {
+                public Double call() {
+                    double total = 0.0;
+                    for (int p = block[0] ; p < block[1] ; p++) {
+                        double[] x = vectors[(indexes == null) ? p : indexes[p]];
+                        nearest[p] = Math.min(nearest[p], DistanceMatrix.squaredDistance(x, center, nearest[p]));
+                        total += nearest[p];
+                    }
+                    return total;
+                }
+            });
+        }
+        List<Double> totals = run(tasks, executor);
+        double[] blockTotals = new double[blocks.length];
+        for (int b = 0 ; b < blocks.length ; b++) {
+            blockTotals[b] = totals.get(b).doubleValue();
+        }
+        return blockTotals;
+    }
+
+    /**
+     * Find the vector at a point of the cumulative distances: the block
+     * first, then the vector in the block.
+     */
+    private static int pick(double target, double[] nearest, int[][] blocks, double[] blockTotals) {
+        int b = 0;
+        while (b < blocks.length - 1 && target >= blockTotals[b]) {
+            target -= blockTotals[b++];
+        }
+        int pick = blocks[b][1] - 1;
+        for (int p = blocks[b][0] ; p < blocks[b][1] ; p++) {
+            target -= nearest[p];
+            if (target < 0.0 && nearest[p] > 0.0) {
+                pick = p;
+                break;
+            }
+        }
+        return pick;
+    }
+
+    /**
+     * Lloyd's algorithm, on all the vectors.
+     */
+    private void lloyd(double[][] centers, int[] assignment, ExecutorService executor) throws ClusterException {
+        double previousError = Double.POSITIVE_INFINITY;
+        for (iterations = 1 ; iterations <= maxIterations ; iterations++) {
+            Partial total = assign(centers, null, assignment, executor);
+            boolean reseeded = false;
+            for (int c = 0 ; c < centers.length ; c++) {
+                if (total.counts[c] > 0) {
+                    double[] center = centers[c];
+                    for (int j = 0 ; j < dimensions ; j++) {
+                        center[j] = total.sums[c][j] / total.counts[c];
+                    }
+                } else if (!reseeded && total.farthestDistance > 0.0) {
+                    // one empty cluster per iteration takes the worst placed vector
+                    centers[c] = vectors[total.farthest].clone();
+                    reseeded = true;
+                }
+            }
+            if (reseeded) {
+                previousError = Double.POSITIVE_INFINITY;
+                continue;
+            }
+            if (total.changed == 0 || (!Double.isInfinite(previousError) &&
+                previousError - total.error <= tolerance * previousError)) {
+                break;
+            }
+            previousError = total.error;
+        }
+        iterations = Math.min(iterations, maxIterations);
+    }
+
+    /**
+     * Mini-batch k-means: each centroid moves towards the vectors of the
+     * batch nearest to it, by a step that shrinks with the number of vectors
+     * it has been given so far.
+     */
+    private void miniBatch(double[][] centers, int batch, Random random, ExecutorService executor)
+        throws ClusterException {
+        long[] given = new long[centers.length];
+        int[] batchAssignment = new int[batch];
+        double alpha = Math.min(1.0, batch * 2.0 / (vectors.length + 1));
+        double smoothedError = Double.NaN;
+        double bestError = Double.POSITIVE_INFINITY;
+        int noImprovement = 0;
+        for (iterations = 1 ; iterations <= maxIterations ; iterations++) {
+            int[] indexes = sample(batch, random);
+            Partial total = assign(centers, indexes, batchAssignment, executor);
+            for (int p = 0 ; p < batch ; p++) {
+                int c = batchAssignment[p];
+                double[] x = vectors[indexes[p]];
+                double[] center = centers[c];
+                double eta = 1.0 / (++given[c]);
+                for (int j = 0 ; j < dimensions ; j++) {
+                    center[j] += eta * (x[j] - center[j]);
+                }
+            }
+            double error = total.error / batch;
+            smoothedError = Double.isNaN(smoothedError) ? error : (alpha * error) + ((1.0 - alpha) * smoothedError);
+            if (smoothedError < bestError * (1.0 - tolerance)) {
+                bestError = smoothedError;
+                noImprovement = 0;
+            } else if (++noImprovement >= MAX_NO_IMPROVEMENT) {
+                break;
+            }
+        }
+        iterations = Math.min(iterations, maxIterations);
+    }
+
+    /**
+     * Assign the vectors to the nearest centroid, and sum them by cluster.
+     *
+     * @param indexes the vectors to assign, null for all of them
+     * @param assignment the cluster of each vector assigned, which is
+     * updated; it is indexed like indexes
+     */
+    private Partial assign(final double[][] centers, final int[] indexes, final int[] assignment,
+        ExecutorService executor) throws ClusterException {
+        int m = (indexes == null) ? vectors.length : indexes.length;
+        List<Callable<Partial>> tasks = new ArrayList<Callable<Partial>>();
+        for (final int[] block : blocks(m)) {
+            tasks.add(new Callable<Partial>() {
+                public Partial call() {
+                    Partial partial = new Partial(centers.length, dimensions);
+                    for (int p = block[0] ; p < block[1] ; p++) {
+                        int i = (indexes == null) ? p : indexes[p];
+                        double[] x = vectors[i];
+                        int best = 0;
+                        double min = DistanceMatrix.squaredDistance(x, centers[0], Double.POSITIVE_INFINITY);
+                        for (int c = 1 ; c < centers.length ; c++) {
+                            double d = DistanceMatrix.squaredDistance(x, centers[c], min);
+                            if (d < min) {
+                                min = d;
+                                best = c;
+                            }
+                        }
+                        if (assignment[p] != best) {
+                            assignment[p] = best;
+                            partial.changed++;
+                        }
+                        partial.counts[best]++;
+                        double[] sum = partial.sums[best];
+                        for (int j = 0 ; j < x.length ; j++) {
+                            sum[j] += x[j];
+                        }
+                        partial.error += min;
+                        if (min > partial.farthestDistance) {
+                            partial.farthestDistance = min;
+                            partial.farthest = i;
+                        }
+                    }
+                    return partial;
+                }
+            });
+        }
+        Partial total = null;
+        for (Partial partial : run(tasks, executor)) {
+            if (total == null) {
+                total = partial;
+            } else {
+                total.add(partial);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Assign all the vectors to the final centroids, and compute the
+     * results: the centroids of the clusters (the means), their sizes,
+     * minimums, maximums and standard deviations.  Empty clusters are dropped.
+     */
+    private void summarize(double[][] centers, final int[] assignment, ExecutorService executor)
+        throws ClusterException {
+        final int n = vectors.length;
+        Partial total = assign(centers, null, assignment, executor);
+        int[] renumber = new int[centers.length];
+        int clusters = 0;
+        for (int c = 0 ; c < centers.length ; c++) {
+            renumber[c] = (total.counts[c] > 0) ? clusters++ : -1;
+        }
+
+        final int numClusters = clusters;
+        clusterSizes = new int[clusters];
+        centroids = new double[clusters][dimensions];
+        for (int c = 0 ; c < centers.length ; c++) {
+            if (renumber[c] >= 0) {
+                clusterSizes[renumber[c]] = total.counts[c];
+                for (int j = 0 ; j < dimensions ; j++) {
+                    centroids[renumber[c]][j] = total.sums[c][j] / total.counts[c];
+                }
+            }
+        }
+        clusterIDs = new int[n];
+        for (int i = 0 ; i < n ; i++) {
+            clusterIDs[i] = renumber[assignment[i]];
+        }
+
+        // the minimums, maximums and squared deviations, by block
+        List<Callable<double[][][]>> tasks = new ArrayList<Callable<double[][][]>>();
+        for (final int[] block : blocks(n)) {
+            tasks.add(new Callable<double[][][]>() {
+                public double[][][] call() {
+                    double[][] min = new double[numClusters][dimensions];
+                    double[][] max = new double[numClusters][dimensions];
+                    double[][] squares = new double[numClusters][dimensions];
+                    for (double[] row : min) {
+                        Arrays.fill(row, Double.POSITIVE_INFINITY);
+                    }
+                    for (double[] row : max) {
+                        Arrays.fill(row, Double.NEGATIVE_INFINITY);
+                    }
+                    for (int i = block[0] ; i < block[1] ; i++) {
+                        int c = clusterIDs[i];
+                        double[] x = vectors[i];
+                        double[] centroid = centroids[c];
+                        for (int j = 0 ; j < dimensions ; j++) {
+                            min[c][j] = Math.min(min[c][j], x[j]);
+                            max[c][j] = Math.max(max[c][j], x[j]);
+                            double tmp = x[j] - centroid[j];
+                            squares[c][j] += tmp * tmp;
+                        }
+                    }
+                    return new double[][][] { min, max, squares };
+                }
+            });
+        }
+        minimums = null;
+        for (double[][][] partial : run(tasks, executor)) {
+            if (minimums == null) {
+                minimums = partial[0];
+                maximums = partial[1];
+                deviations = partial[2];
+                continue;
+            }
+            for (int c = 0 ; c < clusters ; c++) {
+                for (int j = 0 ; j < dimensions ; j++) {
+                    minimums[c][j] = Math.min(minimums[c][j], partial[0][c][j]);
+                    maximums[c][j] = Math.max(maximums[c][j], partial[1][c][j]);
+                    deviations[c][j] += partial[2][c][j];
+                }
+            }
+        }
+        squaredError = 0.0;
+        for (int c = 0 ; c < clusters ; c++) {
+            for (int j = 0 ; j < dimensions ; j++) {
+                squaredError += deviations[c][j];
+                deviations[c][j] = (clusterSizes[c] > 1) ?
+                    Math.sqrt(deviations[c][j] / (clusterSizes[c] - 1)) : 0.0;
+            }
+        }
+    }
+
+    /**
+     * Split m vectors in blocks: a few per thread, so that the threads stay
+     * busy if some blocks take longer.
+     *
+     * @return the start and end of each block
+     */
+    private int[][] blocks(int m) {
+        int size = Math.max(MIN_BLOCK, (m + (threads * 4) - 1) / (threads * 4));
+        int count = Math.max(1, (m + size - 1) / size);
+        int[][] blocks = new int[count][];
+        for (int b = 0 ; b < count ; b++) {
+            blocks[b] = new int[] { b * size, Math.min(m, (b + 1) * size) };
+        }
+        return blocks;
+    }
+
+    private <T> List<T> run(List<Callable<T>> tasks, ExecutorService executor) throws ClusterException {
+        List<T> results = new ArrayList<T>(tasks.size());
+        try {
+            if (executor == null || tasks.size() == 1) {
+                for (Callable<T> task : tasks) {
+                    results.add(task.call());
+                }
+            } else {
+                for (Future<T> future : executor.invokeAll(tasks)) {
+                    results.add(future.get());
+                }
+            }
+        } catch (InterruptedException e) {
+            java.lang.Thread.currentThread().interrupt();
+            throw new ClusterException("Interrupted while clustering", e);
+        } catch (ExecutionException e) {
+            throw new ClusterException(e.getCause());
+        } catch (Exception e) {
+            throw new ClusterException(e);
+        }
+        return results;
+    }
+
+    private RawDataInterface createResult(String name, double[][] values) {
+        if (values == null) {
+            return null;
+        }
+        List<String> names = inputData.getEventNames();
+        if (names.size() > dimensions) {
+            names = names.subList(0, dimensions);
+        }
+        return new ArrayRawData(name, names, values);
+    }
+
+    /* (non-Javadoc)
+     * @see clustering.ClusterInterface#getClusterDescription(int)
+     */
+    public ClusterDescription getClusterDescription(int i) throws ClusterException {
+        return null;
+    }
+
+    public void setInputData(RawDataInterface inputData) {
+        this.inputData = inputData;
+        this.vectors = null;
+        reset();
+    }
+
+    public RawDataInterface getClusterCentroids() {
+        return createResult("Cluster Centroids", centroids);
+    }
+
+    public RawDataInterface getClusterMinimums() {
+        return createResult("Cluster Minimums", minimums);
+    }
+
+    public RawDataInterface getClusterMaximums() {
+        return createResult("Cluster Maximums", maximums);
+    }
+
+    public RawDataInterface getClusterStandardDeviations() {
+        return createResult("Cluster Standard Deviations", deviations);
+    }
+
+    public void reset() {
+        this.centroids = null;
+        this.minimums = null;
+        this.maximums = null;
+        this.deviations = null;
+        this.clusterSizes = null;
+        this.clusterIDs = null;
+        this.squaredError = 0.0;
+        this.iterations = 0;
+    }
+
+    public int[] getClusterSizes() {
+        return clusterSizes;
+    }
+
+    public int[] clusterInstances() {
+        return clusterIDs;
+    }
+
+    public int clusterInstance(int i) {
+        return (clusterIDs == null) ? 0 : clusterIDs[i];
+    }
+
+    public int getNumInstances() {
+        return (inputData == null) ? 0 : inputData.numVectors();
+    }
+
+    /**
+     * The native engine doesn't reduce the dimensions; the flag is only
+     * kept for the interface.
+     */
+    public void doPCA(boolean doPCA) {
+        this.doPCA = doPCA;
+    }
+
+    public void setK(int k) {
+        this.k = k;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * @return the sum of the squared distances from the vectors to their centroids
+     */
+    public double getSquaredError() {
+        return squaredError;
+    }
+
+    /**
+     * @return the number of iterations (or mini-batches) of the last clustering
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    /**
+     * @param maxIterations the most iterations (or mini-batches) to do, 100 by default
+     */
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * @param tolerance the clustering stops when the squared error improves
+     * by less than this fraction, 1.0e-6 by default
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize the number of vectors in a mini-batch, 0 to use all
+     * the vectors in every iteration, or AUTOMATIC_BATCH
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * @param seed the seed of the random choices, so that the clustering
+     * can be repeated
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+}
@@ -0,0 +1,682 @@
+package edu.uoregon.tau.perfexplorer.clustering;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * This class performs PCA with a randomized singular value decomposition,
+ * without building the covariance matrix.  The data is centered and
+ * multiplied by a few random vectors, the result is refined with power
+ * iterations, and the small matrix this gives is decomposed exactly.
+ *
+ * <P>The vectors are read a block at a time (see setBlockSize(), or the
+ * perfexplorer.pcaBlockSize property), so only the blocks being processed,
+ * and arrays of (vectors x components) and (dimensions x components), are
+ * in memory.  Each pass over the data is split among
+ * perfexplorer.pcaThreads threads (the number of processors by default),
+ * each thread taking a block at a time from its share of the vectors.  If
+ * the input is an ArrayRawData, its vectors are used as they are.</P>
+ *
+ * <P>The number of components is the one given to setMaxComponents().  If
+ * it isn't set, up to 20 components are computed, and those which cover
+ * 95% of the variance are kept, as Weka does.  The results have the same
+ * form as those of the Weka engine: one vector per input vector, with a
+ * value per component, and the components are named after their largest
+ * coefficients.</P>
+ *
+ * @see PrincipalComponentsAnalysisInterface
+ */
+public class JavaPrincipalComponents implements PrincipalComponentsAnalysisInterface {
+
+    /** The number of vectors read at a time, by default. */
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    // the components computed when the number isn't given
+    private static final int DEFAULT_RANK = 20;
+    // the variance the components cover, when the number isn't given
+    private static final double VARIANCE_COVERED = 0.95;
+    // the extra random vectors, which make the leading components accurate
+    private static final int OVERSAMPLING = 10;
+    // the largest coefficients used to name a component
+    private static final int NAME_TERMS = 5;
+
+    private RawDataInterface inputData = null;
+    private ClusterInterface clusterer = null;
+    private int maxComponents = -1;
+    private int blockSize = Integer.getInteger("perfexplorer.pcaBlockSize", DEFAULT_BLOCK_SIZE).intValue();
+    private int threads = Math.max(1, Integer.getInteger("perfexplorer.pcaThreads",
+        Runtime.getRuntime().availableProcessors()).intValue());
+    private int powerIterations = 2;
+    private long seed = 10;
+
+    // the data
+    private int vectors = 0;
+    private int dimensions = 0;
+    private double[] mean = null;
+    private double totalVariance = 0.0;
+
+    // the results
+    private double[][] components = null;
+    private double[] variances = null;
+    private RawDataInterface results = null;
+    private RawDataInterface[] clusters = null;
+
+    /**
+     * Constructor.
+     */
+    public JavaPrincipalComponents() {
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param inputData
+     */
+    public JavaPrincipalComponents(RawDataInterface inputData) {
+        this.inputData = inputData;
+    }
+
+    /**
+     * A pass over a share of the vectors, a block at a time.  Each thread
+     * has its own pass, and the passes are merged at the end.
+     */
+    private abstract class Pass implements Callable<Pass> {
+        private int first = 0;
+        private int last = 0;
+
+        public Pass call() {
+            double[][] data = (inputData.getData() instanceof double[][]) ? (double[][])inputData.getData() : null;
+            double[][] block = null;
+            for (int start = first ; start < last ; start += blockSize) {
+                int end = Math.min(last, start + blockSize);
+                if (data == null) {
+                    block = new double[end - start][];
+                    for (int i = start ; i < end ; i++) {
+                        block[i - start] = inputData.getVector(i);
+                    }
+                }
+                for (int i = start ; i < end ; i++) {
+                    process(i, (data == null) ? block[i - start] : data[i]);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * @param index the index of the vector
+         * @param vector the values of the vector
+         */
+        protected abstract void process(int index, double[] vector);
+    }
+
+    private interface PassFactory {
+        public Pass create();
+    }
+
+    /* (non-Javadoc)
+     * @see clustering.PrincipalComponentsAnalysisInterface#doPCA()
+     */
+    public void doPCA() throws ClusterException {
+        reset();
+        vectors = inputData.numVectors();
+        dimensions = inputData.numDimensions();
+        if (vectors == 0 || dimensions == 0) {
+            components = new double[0][];
+            variances = new double[0];
+            results = new ArrayRawData("Principal Components", new ArrayList<String>(), new double[vectors][0]);
+            return;
+        }
+
+        ExecutorService executor = (threads > 1) ? Executors.newFixedThreadPool(threads) : null;
+        try {
+            computeMean(executor);
+            int rank = (maxComponents > 0) ? maxComponents : DEFAULT_RANK;
+            int samples = Math.min(Math.min(vectors, dimensions), rank + OVERSAMPLING);
+
+            // the range of the data: Q = orth(A * random)
+            Random random = new Random(seed);
+            double[][] omega = new double[dimensions][samples];
+            for (double[] row : omega) {
+                for (int j = 0 ; j < samples ; j++) {
+                    row[j] = random.nextGaussian();
+                }
+            }
+            double[][] q = multiply(omega, samples, executor);
+            orthonormalize(q, samples);
+            for (int i = 0 ; i < powerIterations ; i++) {
+                double[][] z = multiplyTransposed(q, samples, executor);
+                orthonormalize(z, samples);
+                q = multiply(z, samples, executor);
+                orthonormalize(q, samples);
+            }
+
+            // B = Q' * A is small, decompose B * B' = U * S^2 * U'
+            double[][] bt = multiplyTransposed(q, samples, executor);
+            double[][] g = new double[samples][samples];
+            for (double[] row : bt) {
+                for (int i = 0 ; i < samples ; i++) {
+                    for (int j = 0 ; j < samples ; j++) {
+                        g[i][j] += row[i] * row[j];
+                    }
+                }
+            }
+            double[][] u = new double[samples][samples];
+            double[] eigenvalues = eigen(g, u);
+
+            int count = chooseComponents(eigenvalues, rank);
+            variances = new double[count];
+            components = new double[count][dimensions];
+            // the components are V = B' * U / S, and the scores Q * U * S
+            double[][] scores = new double[vectors][count];
+            for (int c = 0 ; c < count ; c++) {
+                double sigma = Math.sqrt(eigenvalues[c]);
+                variances[c] = eigenvalues[c] / Math.max(1, vectors - 1);
+                double[] component = components[c];
+                for (int t = 0 ; t < dimensions ; t++) {
+                    double sum = 0.0;
+                    for (int j = 0 ; j < samples ; j++) {
+                        sum += bt[t][j] * u[j][c];
+                    }
+                    component[t] = sum / sigma;
+                }
+                // the sign is arbitrary, make the largest coefficient positive
+                double sign = 1.0;
+                double largest = 0.0;
+                for (double value : component) {
+                    if (Math.abs(value) > largest) {
+                        largest = Math.abs(value);
+                        sign = (value < 0.0) ? -1.0 : 1.0;
+                    }
+                }
+                for (int t = 0 ; t < dimensions ; t++) {
+                    component[t] *= sign;
+                }
+                for (int i = 0 ; i < vectors ; i++) {
+                    double sum = 0.0;
+                    for (int j = 0 ; j < samples ; j++) {
+                        sum += q[i][j] * u[j][c];
+                    }
+                    scores[i][c] = sum * sigma * sign;
+                }
+            }
+            List<String> names = new ArrayList<String>(count);
+            for (int c = 0 ; c < count ; c++) {
+                names.add(componentName(components[c]));
+            }
+            results = new ArrayRawData("Principal Components", names, scores);
+            System.out.println("variance covered: " + getVarianceCovered());
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * The means of the dimensions, and the total variance, merging the
+     * passes with Chan's formula.
+     */
+    private void computeMean(ExecutorService executor) throws ClusterException {
+        class MeanPass extends Pass {
+            private long count = 0;
+            private double[] mean = new double[dimensions];
+            private double[] m2 = new double[dimensions];
+
+            protected void process(int index, double[] vector) {
+                count++;
+                double inverse = 1.0 / count;
+                for (int t = 0 ; t < dimensions ; t++) {
+                    double delta = vector[t] - mean[t];
+                    mean[t] += delta * inverse;
+                    m2[t] += delta * (vector[t] - mean[t]);
+                }
+            }
+        }
+        List<Pass> passes = run(new PassFactory() {
+            public Pass create() {
+                return new MeanPass();
+            }
+        }, executor);
+        MeanPass total = new MeanPass();
+        for (Pass pass : passes) {
+            MeanPass partial = (MeanPass)pass;
+            if (partial.count == 0) {
+                continue;
+            }
+            long count = total.count + partial.count;
+            for (int t = 0 ; t < dimensions ; t++) {
+                double delta = partial.mean[t] - total.mean[t];
+                total.mean[t] += delta * partial.count / count;
+                total.m2[t] += partial.m2[t] + (delta * delta * total.count * partial.count / count);
+            }
+            total.count = count;
+        }
+        mean = total.mean;
+        totalVariance = 0.0;
+        for (double m2 : total.m2) {
+            totalVariance += m2;
+        }
+        totalVariance /= Math.max(1, vectors - 1);
+    }
+
+    /**
+     * @return the centered data times a (dimensions x columns) matrix, one
+     * row per vector
+     */
+    private double[][] multiply(final double[][] right, final int columns, ExecutorService executor)
+        throws ClusterException {
+        final double[][] product = new double[vectors][columns];
+        run(new PassFactory() {
+            public Pass create() {
+                return new Pass() {
+                    protected void process(int index, double[] vector) {
+                        double[] row = product[index];
+                        for (int t = 0 ; t < dimensions ; t++) {
+                            double value = vector[t] - mean[t];
+                            if (value != 0.0) {
+                                double[] r = right[t];
+                                for (int j = 0 ; j < columns ; j++) {
+                                    row[j] += value * r[j];
+                                }
+                            }
+                        }
+                    }
+                };
+            }
+        }, executor);
+        return product;
+    }
+
+    /**
+     * @return the transpose of the centered data times a (vectors x
+     * columns) matrix, one row per dimension
+     */
+    private double[][] multiplyTransposed(final double[][] right, final int columns, ExecutorService executor)
+        throws ClusterException {
+        class ProductPass extends Pass {
+            private final double[][] product = new double[dimensions][columns];
+
+            protected void process(int index, double[] vector) {
+                double[] r = right[index];
+                for (int t = 0 ; t < dimensions ; t++) {
+                    double value = vector[t] - mean[t];
+                    if (value != 0.0) {
+                        double[] row = product[t];
+                        for (int j = 0 ; j < columns ; j++) {
+                            row[j] += value * r[j];
+                        }
+                    }
+                }
+            }
+        }
+        List<Pass> passes = run(new PassFactory() {
+            public Pass create() {
+                return new ProductPass();
+            }
+        }, executor);
+        double[][] product = ((ProductPass)passes.get(0)).product;
+        for (int p = 1 ; p < passes.size() ; p++) {
+            double[][] partial = ((ProductPass)passes.get(p)).product;
+            for (int t = 0 ; t < dimensions ; t++) {
+                for (int j = 0 ; j < columns ; j++) {
+                    product[t][j] += partial[t][j];
+                }
+            }
+        }
+        return product;
+    }
+
+    /**
+     * Makes the columns of a matrix orthonormal, with modified Gram-Schmidt
+     * done twice.  Columns which are dependent on the previous ones become
+     * zero.
+     */
+    private static void orthonormalize(double[][] matrix, int columns) {
+        for (int j = 0 ; j < columns ; j++) {
+            double before = columnNorm(matrix, j);
+            for (int repeat = 0 ; repeat < 2 ; repeat++) {
+                for (int p = 0 ; p < j ; p++) {
+                    double dot = 0.0;
+                    for (double[] row : matrix) {
+                        dot += row[p] * row[j];
+                    }
+                    for (double[] row : matrix) {
+                        row[j] -= dot * row[p];
+                    }
+                }
+            }
+            double norm = columnNorm(matrix, j);
+            double scale = (norm > before * 1.0e-10 && norm > 0.0) ? 1.0 / norm : 0.0;
+            for (double[] row : matrix) {
+                row[j] *= scale;
+            }
+        }
+    }
+
+    private static double columnNorm(double[][] matrix, int column) {
+        double sum = 0.0;
+        for (double[] row : matrix) {
+            sum += row[column] * row[column];
+        }
+        return Math.sqrt(sum);
+    }
+
+    /**
+     * The eigenvalues and eigenvectors of a small symmetric matrix, with the
+     * cyclic Jacobi method.
+     *
+     * @param matrix the matrix, which is overwritten
+     * @param vectors gets the eigenvectors, in its columns
+     * @return the eigenvalues, largest first
+     */
+    private static double[] eigen(double[][] matrix, double[][] vectors) {
+        int n = matrix.length;
+        for (int i = 0 ; i < n ; i++) {
+            Arrays.fill(vectors[i], 0.0);
+            vectors[i][i] = 1.0;
+        }
+        for (int sweep = 0 ; sweep < 100 ; sweep++) {
+            double off = 0.0;
+            double diagonal = 0.0;
+            for (int i = 0 ; i < n ; i++) {
+                diagonal += Math.abs(matrix[i][i]);
+                for (int j = i + 1 ; j < n ; j++) {
+                    off += Math.abs(matrix[i][j]);
+                }
+            }
+            if (off <= diagonal * 1.0e-15 || off == 0.0) {
+                break;
+            }
+            for (int p = 0 ; p < n ; p++) {
+                for (int r = p + 1 ; r < n ; r++) {
+                    if (matrix[p][r] == 0.0) {
+                        continue;
+                    }
+                    double theta = (matrix[r][r] - matrix[p][p]) / (2.0 * matrix[p][r]);
+                    double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt((theta * theta) + 1.0));
+                    if (theta == 0.0) {
+                        t = 1.0;
+                    }
+                    double c = 1.0 / Math.sqrt((t * t) + 1.0);
+                    double s = t * c;
+                    for (int k = 0 ; k < n ; k++) {
+                        double kp = matrix[k][p];
+                        double kr = matrix[k][r];
+                        matrix[k][p] = (c * kp) - (s * kr);
+                        matrix[k][r] = (s * kp) + (c * kr);
+                    }
+                    for (int k = 0 ; k < n ; k++) {
+                        double pk = matrix[p][k];
+                        double rk = matrix[r][k];
+                        matrix[p][k] = (c * pk) - (s * rk);
+                        matrix[r][k] = (s * pk) + (c * rk);
+                    }
+                    for (int k = 0 ; k < n ; k++) {
+                        double kp = vectors[k][p];
+                        double kr = vectors[k][r];
+                        vectors[k][p] = (c * kp) - (s * kr);
+                        vectors[k][r] = (s * kp) + (c * kr);
+                    }
+                }
+            }
+        }
+
+        // sort, largest first
+        Integer[] order = new Integer[n];
+        for (int i = 0 ; i < n ; i++) {
+            order[i] = i;
+        }
+        final double[] values = new double[n];
+        for (int i = 0 ; i < n ; i++) {
+            values[i] = Math.max(0.0, matrix[i][i]);
+        }
+        Arrays.sort(order, new java.util.Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Double.compare(values[b], values[a]);
+            }
+        });
+        double[] sorted = new double[n];
+        double[][] copy = new double[n][];
+        for (int i = 0 ; i < n ; i++) {
+            copy[i] = vectors[i].clone();
+        }
+        for (int c = 0 ; c < n ; c++) {
+            sorted[c] = values[order[c]];
+            for (int k = 0 ; k < n ; k++) {
+                vectors[k][c] = copy[k][order[c]];
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * @return the number of components to keep
+     */
+    private int chooseComponents(double[] eigenvalues, int rank) {
+        int count = 0;
+        double covered = 0.0;
+        double total = totalVariance * Math.max(1, vectors - 1);
+        while (count < Math.min(rank, eigenvalues.length) && eigenvalues[count] > 0.0) {
+            if (maxComponents <= 0 && count > 0 && covered >= VARIANCE_COVERED * total) {
+                break;
+            }
+            covered += eigenvalues[count];
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Names a component after its largest coefficients, as Weka does:
+     * "0.707a+0.707b".
+     */
+    private String componentName(double[] component) {
+        Integer[] order = new Integer[component.length];
+        for (int t = 0 ; t < order.length ; t++) {
+            order[t] = t;
+        }
+        final double[] magnitudes = new double[component.length];
+        for (int t = 0 ; t < component.length ; t++) {
+            magnitudes[t] = Math.abs(component[t]);
+        }
+        Arrays.sort(order, new java.util.Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Double.compare(magnitudes[b], magnitudes[a]);
+            }
+        });
+        List<String> names = inputData.getEventNames();
+        int terms = Math.min(NAME_TERMS, component.length);
+        StringBuilder name = new StringBuilder();
+        for (int i = 0 ; i < terms ; i++) {
+            double value = component[order[i]];
+            if (i > 0 && value >= 0.0) {
+                name.append("+");
+            }
+            name.append(String.format("%.3f", value));
+            name.append(names.get(order[i]));
+        }
+        if (terms < component.length) {
+            name.append("...");
+        }
+        return name.toString();
+    }
+
+    /**
+     * Splits the vectors among the threads, and runs a pass for each.
+     */
+    private List<Pass> run(PassFactory factory, ExecutorService executor) throws ClusterException {
+        int count = (executor == null) ? 1 : Math.max(1, Math.min(threads, (vectors + blockSize - 1) / blockSize));
+        int share = (vectors + count - 1) / count;
+        List<Pass> passes = new ArrayList<Pass>(count);
+        for (int p = 0 ; p < count ; p++) {
+            Pass pass = factory.create();
+            pass.first = Math.min(vectors, p * share);
+            pass.last = Math.min(vectors, (p + 1) * share);
+            passes.add(pass);
+        }
+        try {
+            if (count == 1) {
+                passes.get(0).call();
+            } else {
+                for (Future<Pass> future : executor.invokeAll(passes)) {
+                    future.get();
+                }
+            }
+        } catch (InterruptedException e) {
+            java.lang.Thread.currentThread().interrupt();
+            throw new ClusterException("Interrupted while performing PCA", e);
+        } catch (ExecutionException e) {
+            throw new ClusterException(e.getCause());
+        }
+        return passes;
+    }
+
+    /* (non-Javadoc)
+     * @see clustering.PrincipalComponentsAnalysisInterface#getComponentDescription(int)
+     */
+    public ClusterDescription getComponentDescription(int i) throws ClusterException {
+        return null;
+    }
+
+    public void setInputData(RawDataInterface inputData) {
+        this.inputData = inputData;
+        reset();
+    }
+
+    /**
+     * @return one vector per input vector, with its value for each component
+     */
+    public RawDataInterface getResults() {
+        return results;
+    }
+
+    public void setClusterer(ClusterInterface clusterer) {
+        this.clusterer = clusterer;
+        this.clusters = null;
+    }
+
+    /**
+     * Splits the first two components of the results by cluster, for the
+     * scatterplot (PCAPlotDataset).  With DBSCAN, the noise is in the last
+     * cluster.
+     */
+    public RawDataInterface[] getClusters() {
+        if (clusterer == null || results == null) {
+            return clusters;
+        }
+        int[] clusterSizes = clusterer.getClusterSizes();
+        int k = clusterSizes.length;
+        if (k == 0) {
+            clusters = null;
+            return clusters;
+        }
+        if (clusterer instanceof DBScanClusterInterface) {
+            k++; // add one for noise
+        }
+        List<List<double[]>> points = new ArrayList<List<double[]>>(k);
+        for (int i = 0 ; i < k ; i++) {
+            points.add(new ArrayList<double[]>());
+        }
+        int count = results.numDimensions();
+        for (int i = 0 ; i < vectors ; i++) {
+            int location = clusterer.clusterInstance(i);
+            if (location < 0 || location >= k) {
+                location = k - 1; // put the noise in the last cluster
+            }
+            double[] point = new double[2];
+            point[0] = (count > 0) ? results.getValue(i, 0) : 0.0;
+            point[1] = (count > 1) ? results.getValue(i, 1) : 0.0;
+            points.get(location).add(point);
+        }
+        List<String> names = new ArrayList<String>(results.getEventNames());
+        while (names.size() < 2) {
+            names.add("");
+        }
+        names = names.subList(0, 2);
+        clusters = new RawDataInterface[k];
+        for (int i = 0 ; i < k ; i++) {
+            clusters[i] = new ArrayRawData("Cluster " + i, names, points.get(i).toArray(new double[0][]));
+        }
+        return clusters;
+    }
+
+    public void reset() {
+        mean = null;
+        components = null;
+        variances = null;
+        results = null;
+        clusters = null;
+    }
+
+    /**
+     * @param maxComponents the number of components, or 0 or less to keep
+     * those covering 95% of the variance
+     */
+    public void setMaxComponents(int maxComponents) {
+        this.maxComponents = maxComponents;
+    }
+
+    public int getMaxComponents() {
+        return maxComponents;
+    }
+
+    /**
+     * @return the components, one array of coefficients per component
+     */
+    public double[][] getComponents() {
+        return components;
+    }
+
+    /**
+     * @return the variance of the data along each component
+     */
+    public double[] getVariances() {
+        return variances;
+    }
+
+    /**
+     * @return the fraction of the variance of the data the components cover
+     */
+    public double getVarianceCovered() {
+        if (variances == null || totalVariance <= 0.0) {
+            return 0.0;
+        }
+        double covered = 0.0;
+        for (double variance : variances) {
+            covered += variance;
+        }
+        return Math.min(1.0, covered / totalVariance);
+    }
+
+    /**
+     * @param blockSize the number of vectors read at a time
+     */
+    public void setBlockSize(int blockSize) {
+        this.blockSize = Math.max(1, blockSize);
+    }
+
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * @param powerIterations the number of passes refining the components
+     * (2 by default); more passes are more accurate when the variances of
+     * the components are close
+     */
+    public void setPowerIterations(int powerIterations) {
+        this.powerIterations = Math.max(0, powerIterations);
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+}
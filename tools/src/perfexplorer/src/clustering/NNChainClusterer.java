@@ -0,0 +1,284 @@
+package edu.uoregon.tau.perfexplorer.clustering;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+
+/**
+ * This class builds the dendrogram of an agglomerative hierarchical
+ * clustering with the nearest-neighbor chain algorithm.  Starting from any
+ * cluster, the chain follows nearest neighbors until it reaches two clusters
+ * that are each other's nearest neighbor, and merges them.  The distances to
+ * the merged cluster are updated with the Lance-Williams formula for the
+ * linkage, so the whole clustering takes O(n^2) time and no memory beyond the
+ * distance matrix.  Single linkage can also be solved from the raw data as a
+ * minimum spanning tree, without a distance matrix at all.
+ *
+ * <P>The dendrogram has the same form as the one the old clustering loop
+ * built: leaves have the IDs -1 to -n, and each node has the (0 based)
+ * lowest index of its members as ID, the merge distance as height, and the
+ * subtree with the lower index on the left.</P>
+ *
+ * @see HierarchicalCluster
+ * @see DendrogramTree
+ */
+public class NNChainClusterer {
+
+    private int linkage = HierarchicalCluster.AVERAGE_LINKAGE;
+
+    // the merges, in the order they were found
+    private int[] mergeLeft = null;
+    private int[] mergeRight = null;
+    private double[] mergeHeight = null;
+    private int merges = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param linkage One of the HierarchicalCluster linkages
+     */
+    public NNChainClusterer(int linkage) {
+        if (linkage != HierarchicalCluster.SINGLE_LINKAGE &&
+            linkage != HierarchicalCluster.COMPLETE_LINKAGE &&
+            linkage != HierarchicalCluster.AVERAGE_LINKAGE) {
+            throw new IllegalArgumentException("Unknown linkage: " + linkage);
+        }
+        this.linkage = linkage;
+    }
+
+    /**
+     * Cluster the items of a distance matrix.  The matrix is overwritten
+     * with the distances between the clusters as they are merged, so pass
+     * a copy if it is needed afterwards.
+     *
+     * @param distances
+     * @return the root of the dendrogram, null if there are less than two items
+     */
+    public DendrogramTree cluster(DistanceMatrix distances) {
+        int n = distances.getDimension();
+        startMerges(n);
+
+        // the clusters still active, and the position of each in that list
+        int[] active = new int[n];
+        int[] position = new int[n];
+        int[] size = new int[n];
+        for (int i = 0 ; i < n ; i++) {
+            active[i] = i;
+            position[i] = i;
+            size[i] = 1;
+        }
+        int count = n;
+
+        int[] chain = new int[n];
+        int length = 0;
+        while (count > 1) {
+            if (length == 0) {
+                chain[length++] = active[0];
+            }
+            int a = chain[length-1];
+            int previous = (length > 1) ? chain[length-2] : -1;
+
+            // find the nearest neighbor of a.  On a tie, keep the previous
+            // link of the chain, so that the chain can't go in circles.
+            int b = previous;
+            double min = (previous >= 0) ? distances.elementAt(a, previous) : Double.POSITIVE_INFINITY;
+            for (int i = 0 ; i < count ; i++) {
+                int k = active[i];
+                if (k == a) {
+                    continue;
+                }
+                double d = distances.elementAt(a, k);
+                if (d < min || b < 0) {
+                    min = d;
+                    b = k;
+                }
+            }
+
+            if (b != previous) {
+                chain[length++] = b;
+                continue;
+            }
+
+            // a and b are each other's nearest neighbors, merge them
+            length -= 2;
+            int low = Math.min(a, b);
+            int high = Math.max(a, b);
+            addMerge(low, high, min);
+            for (int i = 0 ; i < count ; i++) {
+                int k = active[i];
+                if (k == low || k == high) {
+                    continue;
+                }
+                distances.setElementAt(low, k, linkageDistance(
+                    distances.elementAt(low, k), size[low],
+                    distances.elementAt(high, k), size[high]));
+            }
+            size[low] += size[high];
+            // remove high from the active clusters
+            int last = active[--count];
+            active[position[high]] = last;
+            position[last] = position[high];
+        }
+        return buildTree(n);
+    }
+
+    /**
+     * Cluster the vectors of the raw data, with the cartesian distance
+     * between them.  Single linkage is solved as a minimum spanning tree
+     * (Prim's algorithm), computing the distances as they are needed;
+     * the other linkages build the distance matrix first.
+     *
+     * @param data
+     * @return the root of the dendrogram, null if there are less than two vectors
+     */
+    public DendrogramTree cluster(RawDataInterface data) {
+        int n = data.numVectors();
+        if (linkage != HierarchicalCluster.SINGLE_LINKAGE) {
+            DistanceMatrix distances = new DistanceMatrix(n);
+            distances.solveCartesianDistances(data);
+            return cluster(distances);
+        }
+        startMerges(n);
+        if (n == 0) {
+            return null;
+        }
+
+        double[][] vectors = new double[n][];
+        for (int i = 0 ; i < n ; i++) {
+            vectors[i] = data.getVector(i);
+        }
+
+        // the vectors not in the tree yet, with their distance to the tree
+        // and the tree vector at that distance
+        int[] outside = new int[n-1];
+        double[] best = new double[n];
+        int[] nearest = new int[n];
+        for (int i = 1 ; i < n ; i++) {
+            outside[i-1] = i;
+            best[i] = Double.POSITIVE_INFINITY;
+        }
+        int count = n-1;
+        int current = 0;
+        while (count > 0) {
+            int next = 0;
+            for (int i = 0 ; i < count ; i++) {
+                int k = outside[i];
+                double d = DistanceMatrix.cartesianDistance(vectors[current], vectors[k]);
+                if (d < best[k]) {
+                    best[k] = d;
+                    nearest[k] = current;
+                }
+                if (best[k] < best[outside[next]]) {
+                    next = i;
+                }
+            }
+            current = outside[next];
+            outside[next] = outside[--count];
+            addMerge(nearest[current], current, best[current]);
+        }
+        return buildTree(n);
+    }
+
+    /**
+     * The Lance-Williams update: the distance from a third cluster to the
+     * union of clusters x and y.
+     */
+    private double linkageDistance(double toX, int sizeX, double toY, int sizeY) {
+        switch (linkage) {
+        case HierarchicalCluster.SINGLE_LINKAGE:
+            return Math.min(toX, toY);
+        case HierarchicalCluster.COMPLETE_LINKAGE:
+            return Math.max(toX, toY);
+        default:
+            return ((toX * sizeX) + (toY * sizeY)) / (sizeX + sizeY);
+        }
+    }
+
+    private void startMerges(int n) {
+        int capacity = Math.max(0, n-1);
+        mergeLeft = new int[capacity];
+        mergeRight = new int[capacity];
+        mergeHeight = new double[capacity];
+        merges = 0;
+    }
+
+    private void addMerge(int x, int y, double height) {
+        mergeLeft[merges] = x;
+        mergeRight[merges] = y;
+        mergeHeight[merges] = height;
+        merges++;
+    }
+
+    /**
+     * Build the dendrogram from the merges.  They are not found in order of
+     * height, so they are sorted first, and the clusters they join are
+     * looked up with a union-find.
+     */
+    private DendrogramTree buildTree(int n) {
+        if (merges == 0) {
+            return null;
+        }
+        Integer[] order = new Integer[merges];
+        for (int i = 0 ; i < merges ; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer x, Integer y) {
+                return Double.compare(mergeHeight[x], mergeHeight[y]);
+            }
+        });
+
+        int[] parent = new int[n];
+        // the lowest member of each cluster, by union-find root
+        int[] lowest = new int[n];
+        // the trees, by lowest member
+        DendrogramTree[] trees = new DendrogramTree[n];
+        for (int i = 0 ; i < n ; i++) {
+            parent[i] = i;
+            lowest[i] = i;
+            trees[i] = new DendrogramTree(((-1)-i), 0);
+        }
+
+        DendrogramTree newTree = null;
+        for (Integer m : order) {
+            int x = find(parent, mergeLeft[m]);
+            int y = find(parent, mergeRight[m]);
+            int low = Math.min(lowest[x], lowest[y]);
+            int high = Math.max(lowest[x], lowest[y]);
+            newTree = new DendrogramTree(low, mergeHeight[m]);
+            newTree.setLeftAndRight(trees[low], trees[high]);
+            trees[low] = newTree;
+            trees[high] = null;
+            parent[y] = x;
+            lowest[x] = low;
+        }
+        return newTree;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    public int getLinkage() {
+        return linkage;
+    }
+
+    /**
+     * @param name single, complete or average
+     * @return the linkage, or -1 if the name is not one
+     */
+    public static int parseLinkage(String name) {
+        if (name.equalsIgnoreCase("single")) {
+            return HierarchicalCluster.SINGLE_LINKAGE;
+        } else if (name.equalsIgnoreCase("complete")) {
+            return HierarchicalCluster.COMPLETE_LINKAGE;
+        } else if (name.equalsIgnoreCase("average")) {
+            return HierarchicalCluster.AVERAGE_LINKAGE;
+        }
+        return -1;
+    }
+}
@@ -8,10 +8,14 @@ package edu.uoregon.tau.perfexplorer.clustering.weka;
 
 import java.util.List;
 
+import edu.uoregon.tau.perfexplorer.clustering.ArrayRawData;
 import edu.uoregon.tau.perfexplorer.clustering.ClassifierInterface;
 import edu.uoregon.tau.perfexplorer.clustering.DBScanClusterInterface;
 import edu.uoregon.tau.perfexplorer.clustering.DataNormalizer;
 import edu.uoregon.tau.perfexplorer.clustering.HierarchicalCluster;
+import edu.uoregon.tau.perfexplorer.clustering.JavaDBScanCluster;
+import edu.uoregon.tau.perfexplorer.clustering.JavaKMeansCluster;
+import edu.uoregon.tau.perfexplorer.clustering.JavaPrincipalComponents;
 import edu.uoregon.tau.perfexplorer.clustering.KMeansClusterInterface;
 import edu.uoregon.tau.perfexplorer.clustering.LinearRegressionInterface;
 import edu.uoregon.tau.perfexplorer.clustering.PrincipalComponentsAnalysisInterface;
@@ -62,14 +66,71 @@ public class AnalysisFactory {
     	return new WekaRawData(name, attributes, vectors, dimensions, classAttributes);
     }
     
+    /**
+     * Method to create the input data for the KMeansClusterInterface.
+     * The native engine clusters the vectors as they are, the Weka engine
+     * gets a copy of them.
+     *
+     * @param name The description of the data
+     * @param attributes The list of column names
+     * @param vectors The data, one row per vector
+     * @return
+     */
+    public static RawDataInterface createKMeansData(String name,
+        List<String> attributes, double[][] vectors){
+    	if (!useWekaKMeans()) {
+    		return new ArrayRawData(name, attributes, vectors);
+    	}
+    	return copyRawData(name, attributes, vectors);
+    }
+
+    /**
+     * Method to create the input data for the DBScanClusterInterface.
+     * The native engine clusters the vectors as they are, the Weka engine
+     * gets a copy of them.
+     *
+     * @param name The description of the data
+     * @param attributes The list of column names
+     * @param vectors The data, one row per vector
+     * @return
+     */
+    public static RawDataInterface createDBScanData(String name,
+        List<String> attributes, double[][] vectors){
+    	if (!useWekaDBScan()) {
+    		return new ArrayRawData(name, attributes, vectors);
+    	}
+    	return copyRawData(name, attributes, vectors);
+    }
+
+    private static RawDataInterface copyRawData(String name,
+        List<String> attributes, double[][] vectors){
+    	int dimensions = attributes.size();
+    	RawDataInterface data = createRawData(name, attributes, vectors.length, dimensions, null);
+    	for (int i = 0 ; i < vectors.length ; i++) {
+    		for (int j = 0 ; j < dimensions ; j++) {
+    			data.addValue(i, j, vectors[i][j]);
+    		}
+    	}
+    	return data;
+    }
+
     /**
      * Method to create the KMeansClusterInterface.
      * Any extention of the AnalysisFactory class has to implement this method.
+     * This is the native engine, unless the perfexplorer.kmeansEngine
+     * property is set to "weka".
      *  
      * @return
      */
     public static KMeansClusterInterface createKMeansEngine(){
-    	return new WekaKMeansCluster();
+    	if (useWekaKMeans()) {
+    		return new WekaKMeansCluster();
+    	}
+    	return new JavaKMeansCluster();
+    }
+
+    private static boolean useWekaKMeans() {
+    	return System.getProperty("perfexplorer.kmeansEngine", "native").equalsIgnoreCase("weka");
     }
     
     /**
@@ -95,12 +156,29 @@ public class AnalysisFactory {
         
     /**
      * Method to create a component to perform PCA analysis on the data.
+     * The native engine reads the vectors a block at a time, the Weka
+     * engine (perfexplorer.pcaEngine=weka) gets a copy of them.
      * 
-     * @param cubeData The data which specifies the ordering of the dimensions
+     * @param rawData The data to analyze
      * @return
      */
     public static PrincipalComponentsAnalysisInterface 
         createPCAEngine(RawDataInterface rawData){
+    	if (!System.getProperty("perfexplorer.pcaEngine", "native").equalsIgnoreCase("weka")) {
+    		return new JavaPrincipalComponents(rawData);
+    	}
+    	if (!(rawData instanceof WekaRawData)) {
+    		int vectors = rawData.numVectors();
+    		int dimensions = rawData.numDimensions();
+    		RawDataInterface data = createRawData(rawData.getName(), rawData.getEventNames(), vectors, dimensions, null);
+    		for (int i = 0 ; i < vectors ; i++) {
+    			double[] vector = rawData.getVector(i);
+    			for (int j = 0 ; j < dimensions ; j++) {
+    				data.addValue(i, j, vector[j]);
+    			}
+    		}
+    		rawData = data;
+    	}
     	return new WekaPrincipalComponents(rawData);
     }
         
@@ -154,7 +232,20 @@ public class AnalysisFactory {
 		return new JavaHierarchicalCluster();
 	}
 
+	/**
+	 * Method to create the DBScanClusterInterface.  This is the native
+	 * engine, unless the perfexplorer.dbscanEngine property is set to "weka".
+	 *
+	 * @return
+	 */
 	public static DBScanClusterInterface createDBScanEngine() {
-		return new WekaDBScanCluster();
+		if (useWekaDBScan()) {
+			return new WekaDBScanCluster();
+		}
+		return new JavaDBScanCluster();
+	}
+
+	private static boolean useWekaDBScan() {
+		return System.getProperty("perfexplorer.dbscanEngine", "native").equalsIgnoreCase("weka");
 	}
 }
@@ -6,7 +6,6 @@ package edu.uoregon.tau.perfexplorer.clustering.weka;
 
 
 import java.util.ArrayList;
-import java.util.LinkedHashSet;
 import java.util.List;
 
 import weka.core.Instance;
@@ -16,6 +15,7 @@ import edu.uoregon.tau.perfexplorer.clustering.ClusterException;
 import edu.uoregon.tau.perfexplorer.clustering.DendrogramTree;
 import edu.uoregon.tau.perfexplorer.clustering.DistanceMatrix;
 import edu.uoregon.tau.perfexplorer.clustering.HierarchicalCluster;
+import edu.uoregon.tau.perfexplorer.clustering.NNChainClusterer;
 import edu.uoregon.tau.perfexplorer.clustering.RawDataInterface;
 import edu.uoregon.tau.perfexplorer.common.PerfExplorerOutput;
 
@@ -29,12 +29,12 @@ public class JavaHierarchicalCluster implements HierarchicalCluster {
 	
 	private DistanceMatrix distances = null;
 	private int dimension = 0;
-	private LinkedHashSet<Integer> remainingIndices = null;
-	private DendrogramTree[] trees = null;
 	private DendrogramTree root = null;
 	private DendrogramTree[] clusters = null;
 	private List<Integer>[] clusterIndexes = null;
 	private int k = 0; // number of clusters
+	private int linkage = defaultLinkage();
+	private int[] clusterIDs = null;
 	private Instances instances = null;
 	private Instances clusterCentroids = null;
 	private Instances clusterMaximums = null;
@@ -60,114 +60,25 @@ public class JavaHierarchicalCluster implements HierarchicalCluster {
 	 * Build the dendrogram tree.
 	 * 
 	 * Using the distance matric passed in, perform a hierarchical cluster
-	 * on the data.
+	 * on the data.  See NNChainClusterer for the algorithm.  Without a
+	 * distance matrix, single linkage works from the raw data directly, so
+	 * it doesn't need the O(n^2) memory of the matrix.
 	 */
 	public DendrogramTree buildDendrogramTree() {
+		NNChainClusterer clusterer = new NNChainClusterer(linkage);
 		if (distances == null) {
-			distances = new DistanceMatrix(inputData.numVectors());
-			//distances.solveManhattanDistances(inputData);
-			distances.solveCartesianDistances(inputData);
+			this.dimension = inputData.numVectors();
+			this.root = clusterer.cluster(inputData);
+		} else {
+			this.dimension = distances.getDimension();
+			// the clustering overwrites the matrix
+			this.root = clusterer.cluster(new DistanceMatrix(distances));
 		}
-		
-		this.dimension = distances.getDimension();
-		
-		// create a set of the remaining indices
-		remainingIndices = new LinkedHashSet<Integer>(dimension);
-		// create an initial array of leaf trees
-		trees = new DendrogramTree[dimension];
-		
-		// initialize the HashSet and the tree array
-		for (int i = 0 ; i < dimension ; i++) {
-			remainingIndices.add(new Integer(i));
-			trees[i] = new DendrogramTree(((-1)-i), 0);
-		}
-		
-		DendrogramTree newTree = null;
-		//int newline = 0;
-		while (remainingIndices.size() > 1) {
-			boolean first = true;
-			double min = 0.0;
-			int[] location = {0,0}; 
-			for (int i = 0 ; i < dimension ; i++) {
-				// skip the ones we have merged already
-				if (!remainingIndices.contains(new Integer(i)))
-					continue;
-				
-				for (int j = 0 ; j < i ; j++) {
-					// skip the ones we have merged already
-					if (!remainingIndices.contains(new Integer(j)))
-						continue;
-
-					// if this is the first pass, save the first distance
-					if (first) {
-						first = false;
-						min = distances.elementAt(i,j);
-						location[0] = i;
-						location[1] = j;
-					} else {
-						// find the two closest vectors
-						if (min > distances.elementAt(i,j)) {
-							min = distances.elementAt(i,j);
-							location[0] = i;
-							location[1] = j;
-						} //if
-					} //else
-				} //for
-			} //for
-			
-			//ok, we found the two closest.  Now what?
-			// remove the second index from the hash set
-			remainingIndices.remove(new Integer(location[0]));
-			//PerfExplorerOutput.print(" " + location[0]);
-			//if (++newline % 20 == 0) PerfExplorerOutput.println(" : " + newline / 20);
-			
-			// create a new tree node, with the left and right leaves
-			newTree = new DendrogramTree(location[1], min);
-			newTree.setLeftAndRight(trees[location[1]], trees[location[0]]);
-			trees[location[1]] = newTree;
-			
-			// merge the two vectors into one in the distance matrix
-			distances.mergeDistances(location[1], location[0]);
-			//PerfExplorerOutput.println(distances.toString());
-			// lather, rinse, repeat
-		}
-		this.root = newTree;
-		return newTree;
+		return this.root;
 	}
 	
 	public int clusterInstance(int index) {
-		int clusterID = 0;
-		if (this.clusters == null) {
-			try {
-				findClusters();
-			} catch (ClusterException e) {
-				System.err.println("Error clustering");
-				e.printStackTrace();
-			}
-		}
-		// remember, the instances are 1 indexed, not 0 indexed, so add one here
-		index++;
-
-		// iterate over the array, until we have as many subtrees as we have desired clusters
-		for (int i = 0 ; i < this.k ; i++) {
-			if (isInTree(index, this.clusters[i])) {
-				clusterID = i;
-				break;
-			}
-		}
-		
-		return clusterID;
-	}
-
-	private boolean isInTree(int i, DendrogramTree tree) {
-		if (tree.isLeaf()) {
-			if (Math.abs(tree.getID()) == i) {
-				return true;
-			}
-			return false;
-		} else if (isInTree(i, tree.getLeft()) || isInTree(i, tree.getRight()))
-			return true;
-		return false;
+		return clusterInstances()[index];
 	}
 
 	public int[] clusterInstances() {
@@ -179,12 +90,16 @@ public class JavaHierarchicalCluster implements HierarchicalCluster {
 				e.printStackTrace();
 			}
 		
-		// there is a WAY faster way to this...
-		int[] clusterIDs = new int[this.dimension];
-		for (int i = 0 ; i < this.dimension ; i++) { 
-			clusterIDs[i] = clusterInstance(i);
+		if (this.clusterIDs == null) {
+			int[] ids = new int[this.dimension];
+			for (int i = 0 ; i < this.k ; i++) { 
+				for (Integer index : this.clusters[i].getIndexes()) {
+					ids[index.intValue()] = i;
+				}
+			}
+			this.clusterIDs = ids;
 		}
-		return clusterIDs;
+		return this.clusterIDs;
 	}
 
 	public void findClusters() throws ClusterException {
@@ -339,7 +254,7 @@ public class JavaHierarchicalCluster implements HierarchicalCluster {
 	}
 
 	public int getNumInstances() {
-		return trees.length;
+		return dimension;
 	}
 
 	public void reset() {
@@ -353,6 +268,7 @@ public class JavaHierarchicalCluster implements HierarchicalCluster {
 		this.clusterStandardDeviations = null;
 		this.clusterSizes = null;
 		this.clusterIndexes = null;
+		this.clusterIDs = null;
 	}
 
 	public void setInputData(RawDataInterface inputData) {
@@ -362,6 +278,28 @@ public class JavaHierarchicalCluster implements HierarchicalCluster {
 	public void setK(int k) {
 		this.k = k;
 	}
+
+	public int getLinkage() {
+		return linkage;
+	}
+
+	/**
+	 * Sets the linkage.  The default is average linkage, or the one named
+	 * by the perfexplorer.clusterLinkage property (single, complete or average).
+	 */
+	public void setLinkage(int linkage) {
+		if (linkage != this.linkage) {
+			this.linkage = linkage;
+			this.root = null;
+			reset();
+		}
+	}
+
+	private static int defaultLinkage() {
+		int linkage = NNChainClusterer.parseLinkage(
+			System.getProperty("perfexplorer.clusterLinkage", "average"));
+		return (linkage < 0) ? AVERAGE_LINKAGE : linkage;
+	}
 	
 	/**
 	 * Testing method...
@@ -69,6 +69,15 @@ public interface RMIPerfExplorer extends Remote {
     public String requestAnalysis(RMIPerfExplorerModel model, boolean force)
         throws RemoteException;
 
+    /**
+     * Cancels an analysis request which is queued or running.
+     *
+     * @param analysisID The analysis ID given to the request.
+     * @return false if the request had already finished
+     * @throws RemoteException
+     */
+    public boolean cancelAnalysis(int analysisID) throws RemoteException;
+
     /**
      * Requests the results of cluster or correlation analysis.
      *
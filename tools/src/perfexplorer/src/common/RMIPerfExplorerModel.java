@@ -76,6 +76,7 @@ public class RMIPerfExplorerModel implements Serializable {
 	protected Metric metric = null;
 	protected RMISortableIntervalEvent event = null;
 	protected int analysisID = 0;
+	protected int priority = 0;
 	protected Object[] fullPath = null;
 	protected int connectionIndex = 0;
 
@@ -144,6 +145,7 @@ public class RMIPerfExplorerModel implements Serializable {
 		this.metric = source.metric;
 		this.event = source.event;
 		this.analysisID = source.analysisID;
+		this.priority = source.priority;
 		this.fullPath = source.fullPath;
 		this.connectionIndex = source.connectionIndex;
 		
@@ -515,6 +517,25 @@ public class RMIPerfExplorerModel implements Serializable {
 		this.analysisID = analysisID;
 	}
 
+    /**
+     * Gets the priority of the analysis request.
+     * Requests with a higher priority are started first.
+     *
+     * @return
+     */
+	public int getPriority() {
+		return this.priority;
+	}
+
+    /**
+     * Sets the priority of the analysis request.  The default is 0.
+     *
+     * @param priority
+     */
+	public void setPriority(int priority) {
+		this.priority = priority;
+	}
+
     /**
      * Adds the selection to the multiselection in the
      * client navigation tree, provided it is the same type as the
@@ -6,6 +6,7 @@ package edu.uoregon.tau.perfexplorer.glue;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -29,26 +30,14 @@ public abstract class AbstractResult implements PerformanceResult, Serializable
 	/**
 	 * 
 	 */
-	private static final long serialVersionUID = -3937052262151788760L;
+	private static final long serialVersionUID = -3262960452946171094L;
 	protected Set<Integer> threads = new TreeSet<Integer>();
 	protected Set<String> events = new TreeSet<String>();
 	protected Set<String> metrics = new TreeSet<String>();
 	protected Set<String> userEvents = new TreeSet<String>();
 	
-	protected Map<Integer, Map<String, Map<String, Double>>> inclusiveData = 
-			new HashMap<Integer, Map<String, Map<String, Double>>>();
-
-	protected Map<Integer, Map<String, Map<String, Double>>> exclusiveData = 
-		new HashMap<Integer, Map<String, Map<String, Double>>>();
-
-	protected Map<Integer, Map<String, Double>> callData = 
-		new HashMap<Integer, Map<String, Double>>();
-
-	protected Map<Integer, Map<String, Double>> subroutineData = 
-		new HashMap<Integer, Map<String, Double>>();
-
-	protected Map<Integer, Map<String, Double[]>> usereventData = 
-		new HashMap<Integer, Map<String, Double[]>>();
+	// the values, see DenseResultData
+	private DenseResultData data = new DenseResultData();
 
 	public static final int INCLUSIVE = 0;
 	public static final int EXCLUSIVE = 1;
@@ -146,32 +135,54 @@ public abstract class AbstractResult implements PerformanceResult, Serializable
 	}
 
 	private void copyData(PerformanceResult input) {
+		List<String> metricList = new ArrayList<String>(input.getMetrics());
 		for (Integer thread : input.getThreads()) {
+			// the input's values a row at a time, in the order of its events
+			double[][] exclusive = new double[metricList.size()][];
+			double[][] inclusive = new double[metricList.size()][];
+			for (int m = 0 ; m < metricList.size() ; m++) {
+				exclusive[m] = input.getEventValues(thread, metricList.get(m), EXCLUSIVE);
+				inclusive[m] = input.getEventValues(thread, metricList.get(m), INCLUSIVE);
+			}
+			double[] calls = input.getEventValues(thread, null, CALLS);
+			double[] subroutines = input.getEventValues(thread, null, SUBROUTINES);
+			int e = 0;
 			for (String event : input.getEvents()) {
-				for (String metric : input.getMetrics()) {
-					putExclusive(thread, event, metric, 
-							input.getExclusive(thread, event, metric));
-					putInclusive(thread, event, metric, 
-							input.getInclusive(thread, event, metric));
+				for (int m = 0 ; m < metricList.size() ; m++) {
+					putExclusive(thread, event, metricList.get(m), exclusive[m][e]);
+					putInclusive(thread, event, metricList.get(m), inclusive[m][e]);
 				}
-				putCalls(thread, event, input.getCalls(thread, event));
-				putSubroutines(thread, event, input.getSubroutines(thread, event));
+				putCalls(thread, event, calls[e]);
+				putSubroutines(thread, event, subroutines[e]);
+				e++;
 			}
-			for (String event : input.getUserEvents()) {
-				putDataPoint(thread, event, null, USEREVENT_NUMEVENTS, 
-						getDataPoint(thread, event, null, USEREVENT_NUMEVENTS));
-				putDataPoint(thread, event, null, USEREVENT_MAX, 
-						getDataPoint(thread, event, null, USEREVENT_MAX));
-				putDataPoint(thread, event, null, USEREVENT_MIN, 
-						getDataPoint(thread, event, null, USEREVENT_MIN));
-				putDataPoint(thread, event, null, USEREVENT_MEAN, 
-						getDataPoint(thread, event, null, USEREVENT_MEAN));
-				putDataPoint(thread, event, null, USEREVENT_SUMSQR, 
-						getDataPoint(thread, event, null, USEREVENT_SUMSQR));
+			for (int type = USEREVENT_NUMEVENTS ; type <= USEREVENT_SUMSQR ; type++) {
+				double[] values = input.getEventValues(thread, null, type);
+				e = 0;
+				for (String event : input.getUserEvents()) {
+					putDataPoint(thread, event, null, type, values[e++]);
+				}
 			}
 		}	
 	}
 	
+	/**
+	 * Makes this result a copy of the values of another one: all the
+	 * values, names and the main event, but not the trial.  The copy is
+	 * made array by array, without going through the put methods.
+	 */
+	protected void copyResult(AbstractResult source) {
+		this.data = source.data.copy();
+		this.threads = new TreeSet<Integer>(source.threads);
+		this.events = new TreeSet<String>(source.events);
+		this.metrics = new TreeSet<String>(source.metrics);
+		this.userEvents = new TreeSet<String>(source.userEvents);
+		this.mainEvent = source.mainEvent;
+		this.mainInclusive = source.mainInclusive;
+		this.mainMetric = source.mainMetric;
+		this.eventMap = new HashMap<Integer, String>(source.eventMap);
+	}
+
 	private void copyFields(PerformanceResult input) {
 		this.eventMap = input.getEventMap();
 		this.mainEvent = input.getMainEvent();
@@ -183,23 +194,7 @@ public abstract class AbstractResult implements PerformanceResult, Serializable
 	}
 
 	public void putInclusive(Integer thread, String event, String metric, double value) {
-		if (!threads.contains(thread)) {
-			threads.add(thread);
-		}
-		if (!events.contains(event)) {
-			events.add(event);
-		}
-		if (!metrics.contains(metric)) {
-			metrics.add(metric);
-		}
-		
-		if (!inclusiveData.containsKey(thread)) {
-			inclusiveData.put(thread, new HashMap<String, Map<String, Double>>());
-		}
-		if (!inclusiveData.get(thread).containsKey(event)) {
-			inclusiveData.get(thread).put(event, new HashMap<String, Double>());
-		}
-		inclusiveData.get(thread).get(event).put(metric, value);
+		putMeasurement(thread, event, metric, INCLUSIVE, value);
 
 		//if (thread == 0 || this.mainEvent == null) {
 			//if (value > mainInclusive && !event.contains(" => ") && !event.startsWith(".TAU ") && (mainMetric == null || mainMetric.equals(metric))) {
@@ -214,281 +209,177 @@ public abstract class AbstractResult implements PerformanceResult, Serializable
 	}
 	
 	public void putExclusive(Integer thread, String event, String metric, double value) {
-		if (!threads.contains(thread)) {
-			threads.add(thread);
-		}
-		if (!events.contains(event)) {
-			events.add(event);
-		}
-		if (!metrics.contains(metric)) {
-			metrics.add(metric);
-		}
-
-		if (!exclusiveData.containsKey(thread)) {
-			exclusiveData.put(thread, new HashMap<String, Map<String, Double>>());
-		}
-		if (!exclusiveData.get(thread).containsKey(event)) {
-			exclusiveData.get(thread).put(event, new HashMap<String, Double>());
-		}
-		exclusiveData.get(thread).get(event).put(metric, value);
+		putMeasurement(thread, event, metric, EXCLUSIVE, value);
 	}
 
 	public void putCalls(Integer thread, String event, double value) {
-		if (!threads.contains(thread)) {
-			threads.add(thread);
-		}
-		if (!events.contains(event)) {
-			events.add(event);
-		}
-
-		if (!callData.containsKey(thread)) {
-			callData.put(thread, new HashMap<String, Double>());
-		}
-		callData.get(thread).put(event, value);
+		putMeasurement(thread, event, null, CALLS, value);
 	}
 
 	public void putSubroutines(Integer thread, String event, double value) {
-		if (!threads.contains(thread)) {
-			threads.add(thread);
-		}
-		if (!events.contains(event)) {
-			events.add(event);
-		}
-
-		if (!subroutineData.containsKey(thread)) {
-			subroutineData.put(thread, new HashMap<String, Double>());
-		}
-		subroutineData.get(thread).put(event, value);
+		putMeasurement(thread, event, null, SUBROUTINES, value);
 	}
 
 	public void putUsereventNumevents(Integer thread, String event, double value) {
-		if (!threads.contains(thread)) {
-			threads.add(thread);
-		}
-		if (!userEvents.contains(event)) {
-			userEvents.add(event);
-		}
-
-		if (!usereventData.containsKey(thread)) {
-			usereventData.put(thread, new HashMap<String, Double[]>());
-		}
-		Double[] data = usereventData.get(thread).get(event);
-		if (data == null) {
-			data = new Double[5];
-		}
-		data[USEREVENT_NUMEVENTS - USEREVENT_NUMEVENTS] = value;
-		usereventData.get(thread).put(event, data);
+		putMeasurement(thread, event, null, USEREVENT_NUMEVENTS, value);
 	}
 
 	public void putUsereventMax(Integer thread, String event, double value) {
-		if (!threads.contains(thread)) {
-			threads.add(thread);
-		}
-		if (!userEvents.contains(event)) {
-			userEvents.add(event);
-		}
-
-		if (!usereventData.containsKey(thread)) {
-			usereventData.put(thread, new HashMap<String, Double[]>());
-		}
-		Double[] data = usereventData.get(thread).get(event);
-		if (data == null) {
-			data = new Double[5];
-		}
-		data[USEREVENT_MAX - USEREVENT_NUMEVENTS] = value;
-		usereventData.get(thread).put(event, data);
+		putMeasurement(thread, event, null, USEREVENT_MAX, value);
 	}
 
 	public void putUsereventMin(Integer thread, String event, double value) {
-		if (!threads.contains(thread)) {
-			threads.add(thread);
-		}
-		if (!userEvents.contains(event)) {
-			userEvents.add(event);
-		}
-
-		if (!usereventData.containsKey(thread)) {
-			usereventData.put(thread, new HashMap<String, Double[]>());
-		}
-		Double[] data = usereventData.get(thread).get(event);
-		if (data == null) {
-			data = new Double[5];
-		}
-		data[USEREVENT_MIN - USEREVENT_NUMEVENTS] = value;
-		usereventData.get(thread).put(event, data);
+		putMeasurement(thread, event, null, USEREVENT_MIN, value);
 	}
 
 	public void putUsereventMean(Integer thread, String event, double value) {
-		if (!threads.contains(thread)) {
-			threads.add(thread);
-		}
-		if (!userEvents.contains(event)) {
-			userEvents.add(event);
-		}
-
-		if (!usereventData.containsKey(thread)) {
-			usereventData.put(thread, new HashMap<String, Double[]>());
-		}
-		Double[] data = usereventData.get(thread).get(event);
-		if (data == null) {
-			data = new Double[5];
-		}
-		data[USEREVENT_MEAN - USEREVENT_NUMEVENTS] = value;
-		usereventData.get(thread).put(event, data);
+		putMeasurement(thread, event, null, USEREVENT_MEAN, value);
 	}
 
 	public void putUsereventSumsqr(Integer thread, String event, double value) {
-		if (!threads.contains(thread)) {
+		putMeasurement(thread, event, null, USEREVENT_SUMSQR, value);
+	}
+
+	/**
+	 * Stores the value in the dense storage, adding the thread, event and
+	 * metric to their sets the first time they are seen.
+	 */
+	private void putMeasurement(Integer thread, String event, String metric, int type, double value) {
+		DenseResultData.ThreadBlock block = data.getBlock(thread);
+		if (block == null) {
+			block = data.internThread(thread);
 			threads.add(thread);
 		}
-		if (!userEvents.contains(event)) {
-			userEvents.add(event);
-		}
-
-		if (!usereventData.containsKey(thread)) {
-			usereventData.put(thread, new HashMap<String, Double[]>());
+		int eventIndex;
+		if (type >= USEREVENT_NUMEVENTS) {
+			eventIndex = data.userEventIndex(event);
+			if (eventIndex < 0) {
+				eventIndex = data.internUserEvent(event);
+				userEvents.add(event);
+			}
+		} else {
+			eventIndex = data.eventIndex(event);
+			if (eventIndex < 0) {
+				eventIndex = data.internEvent(event);
+				events.add(event);
+			}
 		}
-		Double[] data = usereventData.get(thread).get(event);
-		if (data == null) {
-			data = new Double[5];
+		int metricIndex = -1;
+		if (type == INCLUSIVE || type == EXCLUSIVE) {
+			metricIndex = data.metricIndex(metric);
+			if (metricIndex < 0) {
+				metricIndex = data.internMetric(metric);
+				metrics.add(metric);
+			}
 		}
-		data[USEREVENT_SUMSQR - USEREVENT_NUMEVENTS] = value;
-		usereventData.get(thread).put(event, data);
+		data.put(block, eventIndex, metricIndex, type, value);
 	}
 
 	public double getInclusive(Integer thread, String event, String metric) {
-		Double value = null;
-		try {
-			value = inclusiveData.get(thread).get(event).get(metric);
-			if (value != null) {
-				return (value.doubleValue());
-			}
-		} catch (NullPointerException e) {
-			if (!ignoreWarnings)
-				System.err.println("*** Warning - null inclusive value for thread: " + thread + ", event: " + event + ", metric: " + metric + " ***");
-			return 0.0;
-		}
-		return 0.0;
+		return getMeasurement(thread, event, metric, INCLUSIVE);
 	}
 	
 	public double getExclusive(Integer thread, String event, String metric) {
-		Double value = null;
-		try {
-			value = exclusiveData.get(thread).get(event).get(metric);
-			if (value != null) {
-				return (value.doubleValue());
-			}
-		} catch (NullPointerException e) {
-			if (!ignoreWarnings)
-				System.err.println("*** Warning - null exclusive value for thread: " + thread + ", event: " + event + ", metric: " + metric + " ***");
-			return 0.0;
-		}
-		return 0.0;
+		return getMeasurement(thread, event, metric, EXCLUSIVE);
 	}
 
 	public double getCalls(Integer thread, String event) {
-		Double value = null;
-		try {
-			value = callData.get(thread).get(event);
-			if (value != null) {
-				return (value.doubleValue());
-			}
-		} catch (NullPointerException e) {
-			if (!ignoreWarnings)
-				System.err.println("*** Warning - null calls value for thread: " + thread + ", event: " + event + " ***");
-			return 0.0;
-		}
-		return 0.0;
+		return getMeasurement(thread, event, null, CALLS);
 	}
 
 	public double getSubroutines(Integer thread, String event) {
-		Double value = null;
-		try {
-			value = callData.get(thread).get(event);
-			if (value != null) {
-				return (value.doubleValue());
-			}
-		} catch (NullPointerException e) {
-			if (!ignoreWarnings)
-				System.err.println("*** Warning - null subroutine value for thread: " + thread + ", event: " + event + " ***");
-			return 0.0;
-		}
-		return 0.0;
+		return getMeasurement(thread, event, null, SUBROUTINES);
 	}
 
 	public double getUsereventNumevents(Integer thread, String event) {
-		Double[] value = null;
-		try {
-			value = usereventData.get(thread).get(event);
-			if (value != null) {
-				return (value[USEREVENT_NUMEVENTS - USEREVENT_NUMEVENTS].doubleValue());
-			}
-		} catch (NullPointerException e) {
-			if (!ignoreWarnings)
-				System.err.println("*** Warning - null userevent value for thread: " + thread + ", event: " + event + " ***");
-			return 0.0;
-		}
-		return 0.0;
+		return getMeasurement(thread, event, null, USEREVENT_NUMEVENTS);
 	}
 
 	public double getUsereventMax(Integer thread, String event) {
-		Double[] value = null;
-		try {
-			value = usereventData.get(thread).get(event);
-			if (value != null) {
-				return (value[USEREVENT_MAX - USEREVENT_NUMEVENTS].doubleValue());
-			}
-		} catch (NullPointerException e) {
-			if (!ignoreWarnings)
-				System.err.println("*** Warning - null userevent max value for thread: " + thread + ", event: " + event + " ***");
-			return 0.0;
-		}
-		return 0.0;
+		return getMeasurement(thread, event, null, USEREVENT_MAX);
 	}
 
 	public double getUsereventMin(Integer thread, String event) {
-		Double[] value = null;
-		try {
-			value = usereventData.get(thread).get(event);
-			if (value != null) {
-				return (value[USEREVENT_MIN - USEREVENT_NUMEVENTS].doubleValue());
-			}
-		} catch (NullPointerException e) {
-			if (!ignoreWarnings)
-				System.err.println("*** Warning - null userevent min value for thread: " + thread + ", event: " + event + " ***");
-			return 0.0;
-		}
-		return 0.0;
+		return getMeasurement(thread, event, null, USEREVENT_MIN);
 	}
 
 	public double getUsereventMean(Integer thread, String event) {
-		Double[] value = null;
-		try {
-			value = usereventData.get(thread).get(event);
-			if (value != null) {
-				return (value[USEREVENT_MEAN - USEREVENT_NUMEVENTS].doubleValue());
-			}
-		} catch (NullPointerException e) {
-			if (!ignoreWarnings)
-				System.err.println("*** Warning - null userevent mean value for thread: " + thread + ", event: " + event + " ***");
-			return 0.0;
+		return getMeasurement(thread, event, null, USEREVENT_MEAN);
+	}
+
+	public double getUsereventSumsqr(Integer thread, String event) {
+		return getMeasurement(thread, event, null, USEREVENT_SUMSQR);
+	}
+
+	/**
+	 * Gets the value from the dense storage.  A value that was never stored
+	 * is 0.0, with a warning if the thread (or, for the inclusive and exclusive
+	 * values, the event) has no values of the type at all.
+	 */
+	private double getMeasurement(Integer thread, String event, String metric, int type) {
+		DenseResultData.Column column = data.getColumn(data.getBlock(thread), metric, type);
+		int index = data.nameIndex(event, type);
+		if (column != null && index >= 0 && column.contains(index)) {
+			return column.get(index);
+		}
+		if (!ignoreWarnings && !data.containsEvent(thread, event, type)) {
+			System.err.println("*** Warning - null " + warningName(type) + " value for thread: " + thread + ", event: " + event
+					+ (type == INCLUSIVE || type == EXCLUSIVE ? ", metric: " + metric : "") + " ***");
 		}
 		return 0.0;
 	}
 
-	public double getUsereventSumsqr(Integer thread, String event) {
-		Double[] value = null;
-		try {
-			value = usereventData.get(thread).get(event);
-			if (value != null) {
-				return (value[USEREVENT_SUMSQR - USEREVENT_NUMEVENTS].doubleValue());
+	private static String warningName(int type) {
+		switch (type) {
+		case INCLUSIVE:
+			return "inclusive";
+		case EXCLUSIVE:
+			return "exclusive";
+		case CALLS:
+			return "calls";
+		case SUBROUTINES:
+			return "subroutine";
+		case USEREVENT_NUMEVENTS:
+			return "userevent";
+		case USEREVENT_MAX:
+			return "userevent max";
+		case USEREVENT_MIN:
+			return "userevent min";
+		case USEREVENT_MEAN:
+			return "userevent mean";
+		case USEREVENT_SUMSQR:
+			return "userevent sumsqr";
+		}
+		return "";
+	}
+
+	/**
+	 * @return true if a value of this type was stored for the thread, event,
+	 * metric combination
+	 */
+	protected boolean hasDataPoint(Integer thread, String event, String metric, int type) {
+		return data.contains(thread, event, metric, type);
+	}
+
+	public double[] getEventValues(Integer thread, String metric, int type) {
+		DenseResultData.Column column = data.getColumn(data.getBlock(thread), metric, type);
+		return DenseResultData.getRow(column, data.getOrder(type >= USEREVENT_NUMEVENTS ? userEvents : events, type));
+	}
+
+	public double[] getThreadValues(String event, String metric, int type) {
+		double[] values = new double[threads.size()];
+		int index = data.nameIndex(event, type);
+		if (index >= 0) {
+			int i = 0;
+			for (Integer thread : threads) {
+				DenseResultData.Column column = data.getColumn(data.getBlock(thread), metric, type);
+				if (column != null) {
+					values[i] = column.get(index);
+				}
+				i++;
 			}
-		} catch (NullPointerException e) {
-			if (!ignoreWarnings)
-				System.err.println("*** Warning - null userevent sumsqr value for thread: " + thread + ", event: " + event + " ***");
-			return 0.0;
 		}
-		return 0.0;
+		return values;
 	}
 
 	public Set<String> getEvents() {
@@ -512,12 +403,16 @@ public abstract class AbstractResult implements PerformanceResult, Serializable
 	}
 
 	public Set<String> getUserEvents(Integer thread) {
-		Set<String> ues = null;
-		try {
-			ues = usereventData.get(thread).keySet();
-		} catch (NullPointerException e) {
+		DenseResultData.ThreadBlock block = data.getBlock(thread);
+		if (block == null || block.userEventsStored.isEmpty()) {
 			if (!ignoreWarnings)
 				System.err.println("*** Warning - null userevent set for thread: " + thread + " ***");
+			return null;
+		}
+		Set<String> ues = new LinkedHashSet<String>();
+		List<String> names = data.getUserEventNames();
+		for (int i = block.userEventsStored.nextSetBit(0) ; i >= 0 ; i = block.userEventsStored.nextSetBit(i + 1)) {
+			ues.add(names.get(i));
 		}
 		return ues;
 	}
@@ -590,22 +485,31 @@ public abstract class AbstractResult implements PerformanceResult, Serializable
 		switch (type) {
 		case INCLUSIVE:
 			this.putInclusive(thread, event, metric, value);
+			break;
 		case EXCLUSIVE:
 			this.putExclusive(thread, event, metric, value);
+			break;
 		case CALLS:
 			this.putCalls(thread, event, value);
+			break;
 		case SUBROUTINES:
 			this.putSubroutines(thread, event, value);
+			break;
 		case USEREVENT_NUMEVENTS:
 			this.putUsereventNumevents(thread, event, value);
+			break;
 		case USEREVENT_MAX:
 			this.putUsereventMax(thread, event, value);
+			break;
 		case USEREVENT_MIN:
 			this.putUsereventMin(thread, event, value);
+			break;
 		case USEREVENT_MEAN:
 			this.putUsereventMean(thread, event, value);
+			break;
 		case USEREVENT_SUMSQR:
 			this.putUsereventSumsqr(thread, event, value);
+			break;
 		}
 	}
 	
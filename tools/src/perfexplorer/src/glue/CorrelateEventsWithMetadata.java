@@ -8,9 +8,7 @@ import java.util.Hashtable;
 import java.util.List;
 
 import edu.uoregon.tau.perfdmf.Trial;
-import edu.uoregon.tau.perfexplorer.clustering.LinearRegressionInterface;
-import edu.uoregon.tau.perfexplorer.clustering.RawDataInterface;
-import edu.uoregon.tau.perfexplorer.clustering.weka.AnalysisFactory;
+import edu.uoregon.tau.perfexplorer.clustering.CorrelationMatrix;
 
 /**
  * @author khuck
@@ -25,6 +23,7 @@ public class CorrelateEventsWithMetadata extends AbstractPerformanceOperation {
 	private PerformanceResult trialData = null;
 	private TrialThreadMetadata trialMetadata = null;
 	private List<TrialMetadata> metadatas = null;
+	private int topPairs = 0;
 	
 	/**
 	 * @param input
@@ -80,77 +79,80 @@ public class CorrelateEventsWithMetadata extends AbstractPerformanceOperation {
         
 		CorrelationResult correlation = new CorrelationResult(trialData, false);
 		outputs.add(correlation);
-		// now, loop over all event / metric / type
-		
-		for (String event : trialData.getEvents()) {
-			for (String metric : trialData.getMetrics()) {
-				for (Integer type : AbstractResult.getTypes(false)) {
-//					Integer type = AbstractResult.EXCLUSIVE;
-					// now, loop over all metadata fields
-					for (String event2 : trialMetadata.getEvents()) {
-						String metric2 = "METADATA";
-						// "Exclusive" is the only type of data in metadata
-						Integer type2 = AbstractResult.EXCLUSIVE;
-						// solve for r
-						double r = 0.0;
-						double[] y1 = new double[trialData.getThreads().size()];
-						double[] y2 = new double[trialData.getThreads().size()];
-						List<String> eventList = new ArrayList<String>();
-						eventList.add(event);
-						eventList.add(event2);
-						RawDataInterface data = AnalysisFactory.createRawData("Correlation Test", eventList, trialData.getThreads().size(), eventList.size(), null);
-						for (Integer thread : trialData.getThreads()) {
-							// BE CAREFUL!  The first value is the predictor, and the second is the response.
-							// When working with metadata, be sure to correlate the PERFORMANCE with the METADATA!
-							y1[thread.intValue()] = trialMetadata.getDataPoint(thread, event2, metric2, type2);
-							y2[thread.intValue()] = trialData.getDataPoint(thread, event, metric, type);
-	        				data.addValue(thread, 0, trialMetadata.getDataPoint(thread, event2, metric2, type2));
-	        				data.addValue(thread, 1, trialData.getDataPoint(thread, event, metric, type));
-						}
-						// if all the measurement or metadata values are the same, ignore it.
-						boolean same = true;
-						for (int i = 1 ; i < trialData.getThreads().size(); i++) {
-							if (y2[i] != y2[i-1] && y1[i] != y1[i-1]) {
-								same = false;
-								break;
-							}
-						}
-						if (!same) {
-							// solve with Clustering Utilities
-							r = AnalysisFactory.getUtilities().doCorrelation(y1, y2, trialData.getThreads().size());
-							if (Double.isNaN(r) || Double.isInfinite(r)) {
-								r = 0.0;
-							}
-							correlation.putDataPoint(CorrelationResult.CORRELATION, event + ":" + metric + ":" + AbstractResult.typeToString(type), event2 + ":" + metric2, type2, r);
-//							correlation.putDataPoint(CorrelationResult.CORRELATION, event + ":" + metric, event2 + ":" + metric2, type, r);
-							
-							LinearRegressionInterface regression = AnalysisFactory.createLinearRegressionEngine();
-							regression.setInputData(data);
-							try {
-								regression.findCoefficients();
-							} catch (Exception e) {
-								System.err.println("failure to perform linear regression.");
-								System.exit(0);
-							}
-						
-							List<Double> coefficients = regression.getCoefficients();
-			
-							double slope = coefficients.get(0);
-							double intercept = coefficients.get(2);
-							if (Double.isNaN(slope) || Double.isInfinite(slope)) {
-								slope = 0.0;
-							}
-							if (Double.isNaN(intercept) || Double.isInfinite(intercept)) {
-								intercept = 0.0;
-							}
-							correlation.putDataPoint(CorrelationResult.SLOPE, event + ":" + metric + ":" + AbstractResult.typeToString(type), event2 + ":" + metric2, type2, slope);
-							correlation.putDataPoint(CorrelationResult.INTERCEPT, event + ":" + metric + ":" + AbstractResult.typeToString(type), event2 + ":" + metric2, type2, intercept);
-							correlation.assertFact(event, metric, type, event2, metric2, CorrelationResult.METADATA, r, slope, intercept);
-						}
-					} // for events2
-				} // for types
-			} // for metrics
-		} // for events
+		String metric2 = "METADATA";
+		// "Exclusive" is the only type of data in metadata
+		Integer type2 = AbstractResult.EXCLUSIVE;
+
+		// BE CAREFUL!  The first value is the predictor, and the second is the response.
+		// When working with metadata, be sure to correlate the PERFORMANCE with the METADATA!
+		// So the metadata fields are the predictors, and each event / metric / type a response.
+		List<String> fields = new ArrayList<String>(trialMetadata.getEvents());
+		double[][] predictors = new double[fields.size()][trialData.getThreads().size()];
+		for (int f = 0 ; f < fields.size() ; f++) {
+			int k = 0;
+			for (Integer thread : trialData.getThreads()) {
+				predictors[f][k++] = trialMetadata.getDataPoint(thread, fields.get(f), metric2, type2);
+			}
+		}
+		List<String> events = new ArrayList<String>(trialData.getEvents());
+		List<String> metrics = new ArrayList<String>(trialData.getMetrics());
+		List<Integer> types = AbstractResult.getTypes(false);
+		int perEvent = metrics.size() * types.size();
+		double[][] responses = new double[events.size() * perEvent][];
+		int v = 0;
+		for (String event : events) {
+			for (String metric : metrics) {
+				for (Integer type : types) {
+					responses[v++] = trialData.getThreadValues(event, metric, type);
+				}
+			}
+		}
+
+		final CorrelationMatrix matrix = new CorrelationMatrix(predictors, responses);
+		// if all the measurement or metadata values are the same, ignore it.
+		matrix.setFilter(new CorrelationMatrix.PairFilter() {
+			public boolean accept(int x, int y) {
+				return matrix.isDefined(x, y);
+			}
+		});
+		List<CorrelationMatrix.Pair> pairs = null;
+		if (topPairs > 0) {
+			pairs = matrix.solveTop(topPairs);
+		} else {
+			matrix.solve();
+			// loop over all event / metric / type, then over all metadata fields
+			pairs = new ArrayList<CorrelationMatrix.Pair>();
+			for (int y = 0 ; y < responses.length ; y++) {
+				for (int x = 0 ; x < predictors.length ; x++) {
+					if (matrix.isDefined(x, y)) {
+						pairs.add(matrix.getPair(x, y));
+					}
+				}
+			}
+		}
+
+		for (CorrelationMatrix.Pair pair : pairs) {
+			String event = events.get(pair.getY() / perEvent);
+			String metric = metrics.get((pair.getY() % perEvent) / types.size());
+			Integer type = types.get(pair.getY() % types.size());
+			String event2 = fields.get(pair.getX());
+			double r = pair.getCorrelation();
+			double slope = pair.getSlope();
+			double intercept = pair.getIntercept();
+			if (Double.isNaN(r) || Double.isInfinite(r)) {
+				r = 0.0;
+			}
+			if (Double.isNaN(slope) || Double.isInfinite(slope)) {
+				slope = 0.0;
+			}
+			if (Double.isNaN(intercept) || Double.isInfinite(intercept)) {
+				intercept = 0.0;
+			}
+			correlation.putDataPoint(CorrelationResult.CORRELATION, event + ":" + metric + ":" + AbstractResult.typeToString(type), event2 + ":" + metric2, type2, r);
+			correlation.putDataPoint(CorrelationResult.SLOPE, event + ":" + metric + ":" + AbstractResult.typeToString(type), event2 + ":" + metric2, type2, slope);
+			correlation.putDataPoint(CorrelationResult.INTERCEPT, event + ":" + metric + ":" + AbstractResult.typeToString(type), event2 + ":" + metric2, type2, intercept);
+			correlation.assertFact(event, metric, type, event2, metric2, CorrelationResult.METADATA, r, slope, intercept);
+		}
 	}
 
 	private void processNTrials() {
@@ -197,5 +199,20 @@ public class CorrelateEventsWithMetadata extends AbstractPerformanceOperation {
 		processOneTrial();
 	}
 
-	
+	/**
+	 * @return the number of most correlated pairs reported, 0 for all
+	 */
+	public int getTopPairs() {
+		return topPairs;
+	}
+
+	/**
+	 * Reports only the most correlated pairs (positive or negative), the
+	 * others are not kept.
+	 *
+	 * @param topPairs the number of pairs, 0 for all
+	 */
+	public void setTopPairs(int topPairs) {
+		this.topPairs = topPairs;
+	}
 }
@@ -6,9 +6,7 @@ package edu.uoregon.tau.perfexplorer.glue;
 import java.util.ArrayList;
 import java.util.List;
 
-import edu.uoregon.tau.perfexplorer.clustering.LinearRegressionInterface;
-import edu.uoregon.tau.perfexplorer.clustering.RawDataInterface;
-import edu.uoregon.tau.perfexplorer.clustering.weka.AnalysisFactory;
+import edu.uoregon.tau.perfexplorer.clustering.CorrelationMatrix;
 
 /**
  * @author khuck
@@ -20,6 +18,7 @@ public class CorrelationOperation extends DefaultOperation {
 	 * 
 	 */
 	private static final long serialVersionUID = 7970275023917032653L;
+	private int topPairs = 0;
 
 	/**
 	 * @param inputs
@@ -36,7 +35,8 @@ public class CorrelationOperation extends DefaultOperation {
 	}
 
 	/**
-	 * Dummy implementation which is a no-op on the input data
+	 * Correlates each event / metric / type with those of the other events,
+	 * over the threads, and fits a linear regression to each pair.
 	 */
 	public List<PerformanceResult> processData() {
 
@@ -44,62 +44,70 @@ public class CorrelationOperation extends DefaultOperation {
 			// first, since we need the average and stddev foreach event/metric,
 			// get the basic stats for this input
 			CorrelationResult correlation = new CorrelationResult(input, false);
-			// now, loop over all event / metric / type
-			Object[] events = input.getEvents().toArray();
-			for (int outerIndex = 0; outerIndex < input.getEvents().size() ; outerIndex++) {
-				String event = (String)events[outerIndex];
-				for (String metric : input.getMetrics()) {
-					for (Integer type : AbstractResult.getTypes(false)) {
-//					Integer type = AbstractResult.EXCLUSIVE;
-						// now, loop over all event / metric / type AGAIN
-						for (int innerIndex = outerIndex+1; innerIndex < input.getEvents().size() ; innerIndex++) {
-							String event2 = (String)events[innerIndex];
-							for (String metric2 : input.getMetrics()) {
-								for (Integer type2 : AbstractResult.getTypes(false)) {
-//								Integer type2 = AbstractResult.EXCLUSIVE;
-									// solve for r
-									double r = 0.0;
-									double[] y1 = new double[input.getThreads().size()];
-									double[] y2 = new double[input.getThreads().size()];
-									List<String> eventList = new ArrayList<String>();
-									eventList.add(event);
-									eventList.add(event2);
-									RawDataInterface data = AnalysisFactory.createRawData("Correlation Test", eventList, input.getThreads().size(), eventList.size(), null);
-									for (Integer thread : input.getThreads()) {
-										y1[thread.intValue()] = input.getDataPoint(thread, event, metric, type);
-										y2[thread.intValue()] = input.getDataPoint(thread, event2, metric2, type2);
-					        			data.addValue(thread, 0, input.getDataPoint(thread, event, metric, type));
-					        			data.addValue(thread, 1, input.getDataPoint(thread, event2, metric2, type2));
-									}
-									// solve with Clustering Utilities
-									r = AnalysisFactory.getUtilities().doCorrelation(y1, y2, input.getThreads().size());
-									correlation.putDataPoint(CorrelationResult.CORRELATION, event + ":" + metric + ":" + AbstractResult.typeToString(type), event2 + ":" + metric2, type2, r);
-
-									LinearRegressionInterface regression = AnalysisFactory.createLinearRegressionEngine();
-									regression.setInputData(data);
-									try {
-										regression.findCoefficients();
-									} catch (Exception e) {
-										System.err.println("failure to perform linear regression.");
-										System.exit(0);
-									}
-								
-									List<Double> coefficients = regression.getCoefficients();
-
-									double slope = coefficients.get(0);
-									double intercept = coefficients.get(2);
-									correlation.putDataPoint(CorrelationResult.SLOPE, event + ":" + metric + ":" + AbstractResult.typeToString(type), event2 + ":" + metric2, type2, slope);
-									correlation.putDataPoint(CorrelationResult.INTERCEPT, event + ":" + metric + ":" + AbstractResult.typeToString(type), event2 + ":" + metric2, type2, intercept);
-									correlation.assertFact(event, metric, type, event2, metric2, type2, r, slope, intercept);
-								}
-							}
-						}
+			// each event / metric / type is a variable, with one value per thread
+			List<String> events = new ArrayList<String>(input.getEvents());
+			List<String> metrics = new ArrayList<String>(input.getMetrics());
+			List<Integer> types = AbstractResult.getTypes(false);
+			final int perEvent = metrics.size() * types.size();
+			double[][] variables = new double[events.size() * perEvent][];
+			int v = 0;
+			for (String event : events) {
+				for (String metric : metrics) {
+					for (Integer type : types) {
+						variables[v++] = input.getThreadValues(event, metric, type);
 					}
 				}
 			}
+			CorrelationMatrix matrix = new CorrelationMatrix(variables);
+			// only the pairs of different events
+			matrix.setFilter(new CorrelationMatrix.PairFilter() {
+				public boolean accept(int x, int y) {
+					return (x / perEvent) != (y / perEvent);
+				}
+			});
+			List<CorrelationMatrix.Pair> pairs = null;
+			if (topPairs > 0) {
+				pairs = matrix.solveTop(topPairs);
+			} else {
+				matrix.solve();
+				pairs = matrix.getPairs();
+			}
+
+			for (CorrelationMatrix.Pair pair : pairs) {
+				String event = events.get(pair.getX() / perEvent);
+				String metric = metrics.get((pair.getX() % perEvent) / types.size());
+				Integer type = types.get(pair.getX() % types.size());
+				String event2 = events.get(pair.getY() / perEvent);
+				String metric2 = metrics.get((pair.getY() % perEvent) / types.size());
+				Integer type2 = types.get(pair.getY() % types.size());
+				double r = pair.getCorrelation();
+				double slope = pair.getSlope();
+				double intercept = pair.getIntercept();
+				correlation.putDataPoint(CorrelationResult.CORRELATION, event + ":" + metric + ":" + AbstractResult.typeToString(type), event2 + ":" + metric2, type2, r);
+				correlation.putDataPoint(CorrelationResult.SLOPE, event + ":" + metric + ":" + AbstractResult.typeToString(type), event2 + ":" + metric2, type2, slope);
+				correlation.putDataPoint(CorrelationResult.INTERCEPT, event + ":" + metric + ":" + AbstractResult.typeToString(type), event2 + ":" + metric2, type2, intercept);
+				correlation.assertFact(event, metric, type, event2, metric2, type2, r, slope, intercept);
+			}
 			outputs.add(correlation);
 		}
 		return outputs;
 	}
+
+	/**
+	 * @return the number of most correlated pairs reported, 0 for all
+	 */
+	public int getTopPairs() {
+		return topPairs;
+	}
+
+	/**
+	 * Reports only the most correlated pairs (positive or negative), the
+	 * others are not kept.
+	 *
+	 * @param topPairs the number of pairs, 0 for all
+	 */
+	public void setTopPairs(int topPairs) {
+		this.topPairs = topPairs;
+	}
 }
 
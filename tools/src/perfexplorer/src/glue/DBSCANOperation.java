@@ -4,11 +4,14 @@
 package edu.uoregon.tau.perfexplorer.glue;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import edu.uoregon.tau.perfdmf.Trial;
 import edu.uoregon.tau.perfexplorer.clustering.ClusterInterface;
 import edu.uoregon.tau.perfexplorer.clustering.DBScanClusterInterface;
+import edu.uoregon.tau.perfexplorer.clustering.JavaDBScanCluster;
 import edu.uoregon.tau.perfexplorer.clustering.RawDataInterface;
 import edu.uoregon.tau.perfexplorer.clustering.weka.AnalysisFactory;
 
@@ -23,6 +26,7 @@ public class DBSCANOperation extends ClusterOperation {
 	 */
 	private static final long serialVersionUID = 5632054318526909240L;
 	private double epsilon = 1.0;
+	private transient RawDataInterface lastData = null;
 
 	/**
 	 * @param input
@@ -109,19 +113,11 @@ public class DBSCANOperation extends ClusterOperation {
 	 */
 	protected ClusterInterface doClustering(PerformanceResult input) {
     	List<String> eventList = new ArrayList<String>(input.getEvents());
-		RawDataInterface data = AnalysisFactory.createRawData("Cluster Test", eventList, input.getThreads().size(), eventList.size(), null);
-		for(Integer thread : input.getThreads()) {
-			int eventIndex = 0;
-			for (String event : eventList) {
-				data.addValue(thread, eventIndex++, input.getDataPoint(thread, event, metric, type));
-				if (event.equals(input.getMainEvent())) {
-					data.addMainValue(thread, eventIndex-1, input.getDataPoint(thread, event, metric, type));
-				}
-			}
-		}
+		RawDataInterface data = AnalysisFactory.createDBScanData("Cluster Test", eventList, getVectors(input));
 		DBScanClusterInterface clusterer = AnalysisFactory.createDBScanEngine();
 		clusterer.setInputData(data);
 		clusterer.setError(epsilon);
+		lastData = data;
 		try {
 			clusterer.findClusters();
 		} catch (Exception e) {
@@ -131,4 +127,106 @@ public class DBSCANOperation extends ClusterOperation {
 		return clusterer;
 	}
 
+	/**
+	 * Adds the threads of another input (a new trial, with the same events)
+	 * to the last clustering, after the threads already clustered.  The
+	 * values are matched to the clustered columns by event name, in
+	 * whatever order the input has them.  With
+	 * the native engine only the neighborhoods of the new threads are
+	 * searched; with the Weka engine all the threads are clustered again.
+	 * The clusters can merge, so the cluster IDs of the threads already
+	 * clustered can change, see getClusterer().
+	 *
+	 * @param input the new threads
+	 * @return the stddevs, centroids, minimums and maximums of the clusters,
+	 * and the cluster IDs of the new threads
+	 * @throws IllegalArgumentException if the input doesn't have the events
+	 * clustered, and only those
+	 */
+	public List<PerformanceResult> addThreads(PerformanceResult input) {
+		if (clusterer == null) {
+			throw new IllegalStateException("There is no clustering to add the threads to");
+		}
+		List<String> events = lastData.getEventNames();
+		double[][] vectors = getVectors(input, events);
+		List<PerformanceResult> results = new ArrayList<PerformanceResult>();
+		int first = clusterer.getNumInstances();
+		RawDataInterface data = AnalysisFactory.createDBScanData("Cluster Test", events, vectors);
+		try {
+			if (clusterer instanceof JavaDBScanCluster) {
+				((JavaDBScanCluster)clusterer).addVectors(data);
+			} else {
+				double[][] all = new double[first + data.numVectors()][];
+				for (int i = 0 ; i < all.length ; i++) {
+					all[i] = (i < first) ? lastData.getVector(i) : data.getVector(i - first);
+				}
+				data = AnalysisFactory.createDBScanData("Cluster Test", events, all);
+				clusterer.setInputData(data);
+				clusterer.findClusters();
+				lastData = data;
+			}
+		} catch (Exception e) {
+			System.err.println("failure to cluster.");
+			System.exit(0);
+		}
+		results.add(new ClusterOutputResult(clusterer.getClusterStandardDeviations(), metric, type));
+		results.add(new ClusterOutputResult(clusterer.getClusterCentroids(), metric, type));
+		results.add(new ClusterOutputResult(clusterer.getClusterMinimums(), metric, type));
+		results.add(new ClusterOutputResult(clusterer.getClusterMaximums(), metric, type));
+		PerformanceResult clusterIDs = new DefaultResult(input);
+		int i = first;
+		for (Integer thread : input.getThreads()) {
+			clusterIDs.putCalls(thread, "Cluster ID", clusterer.clusterInstance(i++));
+		}
+		results.add(clusterIDs);
+		return results;
+	}
+
+	/**
+	 * @return the clustering of the last input, with the threads added to it
+	 */
+	public ClusterInterface getClusterer() {
+		return clusterer;
+	}
+
+	/**
+	 * @return the values of the threads, in the order of getEvents()
+	 */
+	private double[][] getVectors(PerformanceResult input) {
+		double[][] vectors = new double[input.getThreads().size()][];
+		int i = 0;
+		for (Integer thread : input.getThreads()) {
+			vectors[i++] = input.getEventValues(thread, metric, type);
+		}
+		return vectors;
+	}
+
+	/**
+	 * @return the values of the threads, in the order of the given events
+	 */
+	private double[][] getVectors(PerformanceResult input, List<String> events) {
+		// the values come in the order of getEvents()
+		Map<String, Integer> positions = new HashMap<String, Integer>();
+		for (String event : input.getEvents()) {
+			positions.put(event, positions.size());
+		}
+		if (positions.size() != events.size() || !positions.keySet().containsAll(events)) {
+			throw new IllegalArgumentException("The events of the threads to add, " + input.getEvents()
+				+ ", are not the events clustered, " + events);
+		}
+		int[] columns = new int[events.size()];
+		for (int e = 0 ; e < columns.length ; e++) {
+			columns[e] = positions.get(events.get(e)).intValue();
+		}
+		double[][] vectors = getVectors(input);
+		for (int i = 0 ; i < vectors.length ; i++) {
+			double[] values = vectors[i];
+			vectors[i] = new double[columns.length];
+			for (int e = 0 ; e < columns.length ; e++) {
+				vectors[i][e] = values[columns[e]];
+			}
+		}
+		return vectors;
+	}
+
 }
@@ -503,4 +503,37 @@ public class DataSourceResult extends AbstractResult {
 				.println("*** putUsereventsSumsqr not implemented for DataSourceResult ***");
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * edu.uoregon.tau.perfexplorer.glue.PerformanceResult#getEventValues(java
+	 * .lang.Integer, java.lang.String, int)
+	 */
+	public double[] getEventValues(Integer thread, String metric, int type) {
+		Set<String> names = (type >= USEREVENT_NUMEVENTS) ? getUserEvents() : getEvents();
+		double[] values = new double[names.size()];
+		int i = 0;
+		for (String event : names) {
+			values[i++] = getDataPoint(thread, event, metric, type);
+		}
+		return values;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * edu.uoregon.tau.perfexplorer.glue.PerformanceResult#getThreadValues(java
+	 * .lang.String, java.lang.String, int)
+	 */
+	public double[] getThreadValues(String event, String metric, int type) {
+		double[] values = new double[getThreads().size()];
+		int i = 0;
+		for (Integer thread : getThreads()) {
+			values[i++] = getDataPoint(thread, event, metric, type);
+		}
+		return values;
+	}
+
 }
@@ -0,0 +1,398 @@
+/**
+ *
+ */
+package edu.uoregon.tau.perfexplorer.glue;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The storage behind AbstractResult.  Event, metric and user event names are
+ * interned into dictionaries that give each name a dense index, in the order
+ * they were first stored, and each thread keeps its values in primitive
+ * double[] columns indexed by event (one column per metric and type).  Getting
+ * or putting a value is one index lookup per name, without boxing, and a row
+ * of values can be read without any lookup at all.
+ *
+ * <P>Reading from several threads at once is safe, as long as nobody writes.</P>
+ *
+ * @see AbstractResult
+ */
+class DenseResultData implements Serializable {
+
+	private static final long serialVersionUID = 2904116632530155018L;
+
+	private static final int USEREVENT_TYPES = 5;
+
+	private Map<String, Integer> eventIndex = new HashMap<String, Integer>();
+	private List<String> eventNames = new ArrayList<String>();
+	private Map<String, Integer> metricIndex = new HashMap<String, Integer>();
+	private List<String> metricNames = new ArrayList<String>();
+	private Map<String, Integer> userEventIndex = new HashMap<String, Integer>();
+	private List<String> userEventNames = new ArrayList<String>();
+	private Map<Integer, ThreadBlock> blocks = new HashMap<Integer, ThreadBlock>();
+
+	// the row orders handed out by getOrder().  They are immutable, so that
+	// concurrent readers never see half of one.
+	private transient Order eventOrder = null;
+	private transient Order userEventOrder = null;
+
+	private static final class Order {
+		final int names;
+		final int dictionary;
+		final int[] index;
+		Order(int names, int dictionary, int[] index) {
+			this.names = names;
+			this.dictionary = dictionary;
+			this.index = index;
+		}
+	}
+
+	/**
+	 * The values of one type (and metric), for one thread, indexed by event.
+	 */
+	static final class Column implements Serializable {
+		private static final long serialVersionUID = -6196365066914834211L;
+		private static final double[] EMPTY = new double[0];
+		double[] values = EMPTY;
+		BitSet stored = new BitSet();
+
+		double get(int index) {
+			return index < values.length ? values[index] : 0.0;
+		}
+
+		void put(int index, double value, int size) {
+			if (index >= values.length) {
+				int length = Math.max(values.length + (values.length >> 1), Math.max(size, index + 1));
+				values = Arrays.copyOf(values, length);
+			}
+			values[index] = value;
+			stored.set(index);
+		}
+
+		boolean contains(int index) {
+			return stored.get(index);
+		}
+
+		Column copy() {
+			Column copy = new Column();
+			copy.values = values.clone();
+			copy.stored = (BitSet)stored.clone();
+			return copy;
+		}
+	}
+
+	/**
+	 * All the values of one thread.
+	 */
+	static final class ThreadBlock implements Serializable {
+		private static final long serialVersionUID = -3405931358373924612L;
+		// indexed by metric
+		Column[] inclusive = new Column[0];
+		Column[] exclusive = new Column[0];
+		// the events with an inclusive/exclusive value for any metric
+		BitSet inclusiveEvents = new BitSet();
+		BitSet exclusiveEvents = new BitSet();
+		Column calls = new Column();
+		Column subroutines = new Column();
+		// indexed by type - USEREVENT_NUMEVENTS, then by user event
+		Column[] userEvents = new Column[USEREVENT_TYPES];
+		// the user events with any value
+		BitSet userEventsStored = new BitSet();
+
+		ThreadBlock() {
+			for (int i = 0 ; i < USEREVENT_TYPES ; i++) {
+				userEvents[i] = new Column();
+			}
+		}
+
+		Column metricColumn(int type, int metric, boolean create) {
+			Column[] columns = (type == AbstractResult.INCLUSIVE) ? inclusive : exclusive;
+			if (metric >= columns.length) {
+				if (!create) {
+					return null;
+				}
+				int oldLength = columns.length;
+				columns = Arrays.copyOf(columns, metric + 1);
+				for (int i = oldLength ; i < columns.length ; i++) {
+					columns[i] = new Column();
+				}
+				if (type == AbstractResult.INCLUSIVE) {
+					inclusive = columns;
+				} else {
+					exclusive = columns;
+				}
+			}
+			return columns[metric];
+		}
+
+		ThreadBlock copy() {
+			ThreadBlock copy = new ThreadBlock();
+			copy.inclusive = copyColumns(inclusive);
+			copy.exclusive = copyColumns(exclusive);
+			copy.inclusiveEvents = (BitSet)inclusiveEvents.clone();
+			copy.exclusiveEvents = (BitSet)exclusiveEvents.clone();
+			copy.calls = calls.copy();
+			copy.subroutines = subroutines.copy();
+			copy.userEvents = copyColumns(userEvents);
+			copy.userEventsStored = (BitSet)userEventsStored.clone();
+			return copy;
+		}
+
+		private static Column[] copyColumns(Column[] columns) {
+			Column[] copy = new Column[columns.length];
+			for (int i = 0 ; i < columns.length ; i++) {
+				copy[i] = columns[i].copy();
+			}
+			return copy;
+		}
+	}
+
+	/**
+	 * @return a deep copy, which shares nothing with this one but the names
+	 */
+	DenseResultData copy() {
+		DenseResultData copy = new DenseResultData();
+		copy.eventIndex.putAll(eventIndex);
+		copy.eventNames.addAll(eventNames);
+		copy.metricIndex.putAll(metricIndex);
+		copy.metricNames.addAll(metricNames);
+		copy.userEventIndex.putAll(userEventIndex);
+		copy.userEventNames.addAll(userEventNames);
+		for (Map.Entry<Integer, ThreadBlock> entry : blocks.entrySet()) {
+			copy.blocks.put(entry.getKey(), entry.getValue().copy());
+		}
+		return copy;
+	}
+
+	/**
+	 * @return the index of the event, or -1 if nothing was stored for it
+	 */
+	int eventIndex(String event) {
+		Integer index = eventIndex.get(event);
+		return index == null ? -1 : index.intValue();
+	}
+
+	int metricIndex(String metric) {
+		Integer index = metricIndex.get(metric);
+		return index == null ? -1 : index.intValue();
+	}
+
+	int userEventIndex(String event) {
+		Integer index = userEventIndex.get(event);
+		return index == null ? -1 : index.intValue();
+	}
+
+	/**
+	 * @return the index of the event, after adding it to the dictionary if needed
+	 */
+	int internEvent(String event) {
+		int index = eventIndex(event);
+		if (index < 0) {
+			index = eventNames.size();
+			eventNames.add(event);
+			eventIndex.put(event, index);
+		}
+		return index;
+	}
+
+	int internMetric(String metric) {
+		int index = metricIndex(metric);
+		if (index < 0) {
+			index = metricNames.size();
+			metricNames.add(metric);
+			metricIndex.put(metric, index);
+		}
+		return index;
+	}
+
+	int internUserEvent(String event) {
+		int index = userEventIndex(event);
+		if (index < 0) {
+			index = userEventNames.size();
+			userEventNames.add(event);
+			userEventIndex.put(event, index);
+		}
+		return index;
+	}
+
+	List<String> getUserEventNames() {
+		return userEventNames;
+	}
+
+	/**
+	 * @return the values of the thread, or null if nothing was stored for it
+	 */
+	ThreadBlock getBlock(Integer thread) {
+		return blocks.get(thread);
+	}
+
+	ThreadBlock internThread(Integer thread) {
+		ThreadBlock block = getBlock(thread);
+		if (block == null) {
+			block = new ThreadBlock();
+			blocks.put(thread, block);
+		}
+		return block;
+	}
+
+	/**
+	 * Gets the column that holds the values of this type (and metric) for the thread.
+	 *
+	 * @return the column, or null if nothing of the kind was stored
+	 */
+	Column getColumn(ThreadBlock block, String metric, int type) {
+		if (block == null) {
+			return null;
+		}
+		switch (type) {
+		case AbstractResult.INCLUSIVE:
+		case AbstractResult.EXCLUSIVE:
+			int m = metricIndex(metric);
+			return m < 0 ? null : block.metricColumn(type, m, false);
+		case AbstractResult.CALLS:
+			return block.calls;
+		case AbstractResult.SUBROUTINES:
+			return block.subroutines;
+		case AbstractResult.USEREVENT_NUMEVENTS:
+		case AbstractResult.USEREVENT_MAX:
+		case AbstractResult.USEREVENT_MIN:
+		case AbstractResult.USEREVENT_MEAN:
+		case AbstractResult.USEREVENT_SUMSQR:
+			return block.userEvents[type - AbstractResult.USEREVENT_NUMEVENTS];
+		}
+		return null;
+	}
+
+	/**
+	 * @return the index of the event (or user event, for the user event types)
+	 */
+	int nameIndex(String event, int type) {
+		return (type >= AbstractResult.USEREVENT_NUMEVENTS) ? userEventIndex(event) : eventIndex(event);
+	}
+
+	double get(Integer thread, String event, String metric, int type) {
+		Column column = getColumn(getBlock(thread), metric, type);
+		if (column == null) {
+			return 0.0;
+		}
+		int index = nameIndex(event, type);
+		return index < 0 ? 0.0 : column.get(index);
+	}
+
+	boolean contains(Integer thread, String event, String metric, int type) {
+		Column column = getColumn(getBlock(thread), metric, type);
+		if (column == null) {
+			return false;
+		}
+		int index = nameIndex(event, type);
+		return index >= 0 && column.contains(index);
+	}
+
+	/**
+	 * Checks whether there is a row for the thread and event: anything of the
+	 * type stored for them, for any metric.  The calls, subroutines and user
+	 * events have one row per thread.
+	 */
+	boolean containsEvent(Integer thread, String event, int type) {
+		ThreadBlock block = getBlock(thread);
+		if (block == null) {
+			return false;
+		}
+		switch (type) {
+		case AbstractResult.INCLUSIVE:
+			int index = eventIndex(event);
+			return index >= 0 && block.inclusiveEvents.get(index);
+		case AbstractResult.EXCLUSIVE:
+			index = eventIndex(event);
+			return index >= 0 && block.exclusiveEvents.get(index);
+		case AbstractResult.CALLS:
+			return !block.calls.stored.isEmpty();
+		case AbstractResult.SUBROUTINES:
+			return !block.subroutines.stored.isEmpty();
+		}
+		return !block.userEventsStored.isEmpty();
+	}
+
+	/**
+	 * Stores the value.  The names must have been interned already.
+	 */
+	void put(ThreadBlock block, int event, int metric, int type, double value) {
+		switch (type) {
+		case AbstractResult.INCLUSIVE:
+			block.metricColumn(type, metric, true).put(event, value, eventNames.size());
+			block.inclusiveEvents.set(event);
+			break;
+		case AbstractResult.EXCLUSIVE:
+			block.metricColumn(type, metric, true).put(event, value, eventNames.size());
+			block.exclusiveEvents.set(event);
+			break;
+		case AbstractResult.CALLS:
+			block.calls.put(event, value, eventNames.size());
+			break;
+		case AbstractResult.SUBROUTINES:
+			block.subroutines.put(event, value, eventNames.size());
+			break;
+		case AbstractResult.USEREVENT_NUMEVENTS:
+		case AbstractResult.USEREVENT_MAX:
+		case AbstractResult.USEREVENT_MIN:
+		case AbstractResult.USEREVENT_MEAN:
+		case AbstractResult.USEREVENT_SUMSQR:
+			block.userEvents[type - AbstractResult.USEREVENT_NUMEVENTS].put(event, value, userEventNames.size());
+			block.userEventsStored.set(event);
+			break;
+		}
+	}
+
+	/**
+	 * Maps the events (or user events, for the user event types) in the order
+	 * of the given set to their indexes.  The mapping is kept until an event is
+	 * added to the set or the dictionary.
+	 *
+	 * @param names the events of the result, in the order the rows are wanted
+	 * @return the index of each event, -1 for events without any value
+	 */
+	int[] getOrder(Set<String> names, int type) {
+		boolean user = type >= AbstractResult.USEREVENT_NUMEVENTS;
+		int dictionary = user ? userEventNames.size() : eventNames.size();
+		Order order = user ? userEventOrder : eventOrder;
+		if (order == null || order.names != names.size() || order.dictionary != dictionary) {
+			int[] index = new int[names.size()];
+			int i = 0;
+			for (String name : names) {
+				index[i++] = nameIndex(name, type);
+			}
+			order = new Order(names.size(), dictionary, index);
+			if (user) {
+				userEventOrder = order;
+			} else {
+				eventOrder = order;
+			}
+		}
+		return order.index;
+	}
+
+	/**
+	 * Copies the values of a column into an array.
+	 *
+	 * @param order the index of the event (or user event) to copy into each
+	 * element, -1 for none
+	 */
+	static double[] getRow(Column column, int[] order) {
+		double[] row = new double[order.length];
+		if (column != null) {
+			for (int i = 0 ; i < order.length ; i++) {
+				if (order[i] >= 0) {
+					row[i] = column.get(order[i]);
+				}
+			}
+		}
+		return row;
+	}
+}
@@ -3,12 +3,12 @@
  */
 package edu.uoregon.tau.perfexplorer.glue;
 
+import java.math.BigDecimal;
+import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.EmptyStackException;
 import java.util.List;
-import java.util.Stack;
-import java.util.regex.Pattern;
 
+import edu.uoregon.tau.perfdmf.MetricExpression;
 import edu.uoregon.tau.perfdmf.Trial;
 import edu.uoregon.tau.perfexplorer.client.PerfExplorerExpression;
 
@@ -21,7 +21,7 @@ public class DeriveMetricEquation extends AbstractPerformanceOperation {
 	 * 
 	 */
 	private static final long serialVersionUID = 2874115882488110455L;
-private ArrayList<String> equation = null;
+private MetricExpression expression = null;
    private PerformanceResult input = null;
    private String newName = null;
    private boolean correctEquation = true;
@@ -65,40 +65,27 @@ private ArrayList<String> equation = null;
          this.newName= PerfExplorerExpression.getNewName(infixEquation);
 
       }
-      if(PerfExplorerExpression.validate(infixEquation)){
-          
-      
       try {
-          this.equation = infixToPostfix(infixEquation);
-          checkMetrics(equation);
-         
-      } catch (Exception e) {
-          // TODO Auto-generated catch block
-          e.printStackTrace();
-      }
-      }else{
+          this.expression = MetricExpression.parse(infixEquation);
+          // a metric or a value alone is not an equation
+          if (expression.getOperations() == 0) {
+             throw new ParseException("No operation in " + infixEquation, 0);
+          }
+          checkMetrics(expression.getVariables());
+      } catch (ParseException e) {
           System.err.println("\n\n *** ERROR: Equation is not correct: " + infixEquation + " ***\n\n");
           correctEquation = false;
       }
    }
-//
-//   if(!(firstMetric.equals("CALLS")||firstMetric.equals("SUBROUTINES")||secondMetric.equals("CALLS")||secondMetric.equals("SUBROUTINES"))){
-//      if (!(input.getMetrics().contains(firstMetric)))
-//         System.err.println("\n\n *** ERROR: Trial does not have a metric named: " + firstMetric + " ***\n\n");
-//      if (!(input.getMetrics().contains(secondMetric)))
-//         System.err.println("\n\n *** ERROR: Trial does not have a metric named: " + secondMetric + " ***\n\n");
-//      }
 
-   private void checkMetrics(ArrayList<String> equation2) {
-       for(String metric:equation2){
-      if(!isOperation(metric)&&!isValue(metric)){
+   private void checkMetrics(List<String> metrics) {
+       for(String metric:metrics){
           if(!(metric.equals("CALLS")||metric.equals("SUBROUTINES"))){
          if (!(input.getMetrics().contains(metric))){
              System.err.println("\n\n *** ERROR: Trial does not have a metric named: " + metric + " ***\n\n");
              correctEquation = false;
          }
           }
-      }
        }
    }
 
@@ -108,347 +95,128 @@ private ArrayList<String> equation = null;
       this.newName = newName;
    }
 
-   public DeriveMetricEquation(PerformanceResult input, String[] infixEquation) {
-      super(input);
-      this.input = input;
-      this.equation = infixToPostfix(infixEquation);
+   public DeriveMetricEquation(PerformanceResult input, String[] infixEquation,
+         String newName) {
+      this(input, infixEquation);
+      this.newName = newName;
    }
-public boolean noErrors(){
-    return correctEquation;
-}
 
    /**
-    * Convert the infix equation to postfix, using Dijkstra`s Shunting
-    * Algorithm, so the equation can be evaluated from left to right following
-    * the order of operation including parenthesis.
-    * 
     * @param input
-    * @return
-    * @throws ParsingException 
+    * @param infixEquation the tokens of the equation: metric names, values,
+    * operators and parentheses
     */
-   private static ArrayList<String> infixToPostfix(String input) throws Exception {
-      ArrayList<String> out = new ArrayList<String> ();
-      String name = "";
-      Stack<Character>  stack = new Stack<Character>();
-      char[] in = input.toCharArray();
-      for (int i=0;i<in.length;i++) {
-         char current = in[i];
-         switch (current) {
-         case'\"':
-            //Skip over anything in quotes
-            i++;
-            while(in[i]!='\"'){ 
-               name +=in[i];
-               i++;
-            }
-            break;
-         case '+':
-            if (!name.equals(""))
-               out.add(name + "");   
-            name = "";
-            try {
-               while (stack.peek().charValue() != '(')
-                  out.add(stack.pop() + "");
-            } catch (EmptyStackException ex) {}
-            stack.push(new Character('+'));
-            break;
-         case '-':
-            if (!name.equals(""))
-               out.add(name + "");   
-            name = "";
-            try {
-               while (stack.peek().charValue()!= '(')
-                  out.add(stack.pop() + "");
-            } catch (EmptyStackException ex) {}
-            stack.push(new Character('-'));
-            break;
-         case '/':
-            if (!name.equals(""))
-               out.add(name + "");   
-            name = "";
-            try {
-               while (stack.peek().charValue() != '(' && stack.peek().charValue() != '-' && stack.peek().charValue() != '+')
-                  out.add(stack.pop() + "");
-            } catch (EmptyStackException ex) {}
-            stack.push(new Character('/'));
-            break;
-         case '*':
-            if (!name.equals(""))
-               out.add(name + "");
-            name = "";
-            try {
-               while (stack.peek().charValue() != '(' && stack.peek().charValue() != '-' && stack.peek().charValue() != '+')
-                  out.add(stack.pop() + "");
-            } catch (EmptyStackException ex) {}
-            stack.push(new Character('*'));
-            break;
-         case '(':
-            stack.push(new Character('('));
-            break;
-         case ')':
-            if (!name.equals(""))
-               out.add(name + "");
-            name = "";
-            try {
-               while (stack.peek().charValue() != '(')
-                  out.add(stack.pop() + "");
-               stack.pop();
-            } catch (EmptyStackException ex) {
-               throw new Exception ("Unmatched )");
-            }
-            break;
-         case ' ':
-            break;
-         default:
-            name += current;
-            break;
-
+   public DeriveMetricEquation(PerformanceResult input, String[] infixEquation) {
+      super(input);
+      this.input = input;
+      StringBuilder equation = new StringBuilder();
+      for (String token : infixEquation) {
+         String value = value(token);
+         if (token.length() == 1 && "+-*/()".indexOf(token.charAt(0)) >= 0) {
+            equation.append(token);
+         } else if (value != null) {
+            equation.append(value);
+         } else {
+            equation.append('"').append(token).append('"');
          }
-
       }
-      if (!name.equals(""))
-         out.add(name + "");
-      name = "";
-      while (!stack.isEmpty())
-         out.add(stack.pop() + "");
-
-      return out;
+      try {
+         this.expression = MetricExpression.parse(equation.toString());
+         checkMetrics(expression.getVariables());
+      } catch (ParseException e) {
+         System.err.println("\n\n *** ERROR: Equation is not correct: " + equation + " ***\n\n");
+         correctEquation = false;
+      }
    }
-   
-   private ArrayList<String> infixToPostfix(String[] input) {
-      ArrayList<String> out = new ArrayList<String>();
-
-      Stack<Character> stack = new Stack<Character>();
-
-      for (String current : input) {
-         char oper = current.charAt(0);
-         switch (oper) {
-         case '+':
-            try {
-               while (stack.peek() != '(')
-                  out.add(stack.pop() + "");
-            } catch (EmptyStackException ex) {
-
-            }
-            stack.push('+');
-            break;
-         case '-':
-            try {
-               while (stack.peek() != '(')
-                  out.add(stack.pop() + "");
-            } catch (EmptyStackException ex) {
-
-            }
-            stack.push('-');
-            break;
-         case '/':
-            try {
-               while (stack.peek() != '(' && stack.peek() != '-'
-                     && stack.peek() != '+')
-                  out.add(stack.pop() + "");
-            } catch (EmptyStackException ex) {
-
-            }
-            stack.push('/');
-            break;
-         case '*':
-            try {
-               while (stack.peek() != '(' && stack.peek() != '-'
-                     && stack.peek() != '+')
-                  out.add(stack.pop() + "");
-            } catch (EmptyStackException ex) {
-
-            }
-            stack.push('*');
-            break;
-         case '(':
-            stack.push('(');
-            break;
-         case ')':
-            try {
-               while (stack.peek() != '(')
-                  out.add(stack.pop() + "");
-               stack.pop();
-            } catch (EmptyStackException ex) {
-               System.err.println("Unmatched )");
-            }
-            break;
-         default:
-            out.add(current);
-            break;
-
+   /**
+    * @return the token as a number the expression reads, or null if it is a
+    * metric name
+    */
+   private static String value(String token) {
+      try {
+         double value = Double.parseDouble(token);
+         if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return token.trim();
          }
-
+         // a plain form, without an exponent or a type suffix
+         return BigDecimal.valueOf(value).toPlainString();
+      } catch (NumberFormatException e) {
+         return null;
       }
-      while (!stack.isEmpty())
-         out.add(stack.pop() + "");
-
-      return out;
    }
 
-   private boolean isValue(String myString) {
-      final String Digits = "(\\p{Digit}+)";
-      final String HexDigits = "(\\p{XDigit}+)";
-
-      final String Exp = "[eE][+-]?" + Digits;
-      final String fpRegex = ("[\\x00-\\x20]*" + // Optional leading
-            // "whitespace"
-            "[+-]?(" + // Optional sign character
-            "NaN|" + // "NaN" string
-            "Infinity|" + // "Infinity" string
-
-            // A decimal floating-point string representing a finite
-            // positive
-            // number without a leading sign has at most five basic pieces:
-            // Digits . Digits ExponentPart FloatTypeSuffix
-            // 
-            // Since this method allows integer-only strings as input
-            // in addition to strings of floating-point literals, the
-            // two sub-patterns below are simplifications of the grammar
-            // productions from the Java Language Specification, 2nd
-            // edition, section 3.10.2.
-
-            // Digits ._opt Digits_opt ExponentPart_opt FloatTypeSuffix_opt
-            "(((" + Digits + "(\\.)?(" + Digits + "?)(" + Exp + ")?)|" +
-
-      // . Digits ExponentPart_opt FloatTypeSuffix_opt
-            "(\\.(" + Digits + ")(" + Exp + ")?)|" +
-
-            // Hexadecimal strings
-            "((" +
-            // 0[xX] HexDigits ._opt BinaryExponent FloatTypeSuffix_opt
-            "(0[xX]" + HexDigits + "(\\.)?)|" +
-
-            // 0[xX] HexDigits_opt . HexDigits BinaryExponent
-            // FloatTypeSuffix_opt
-            "(0[xX]" + HexDigits + "?(\\.)" + HexDigits + ")" +
+public boolean noErrors(){
+    return correctEquation;
+}
 
-            ")[pP][+-]?" + Digits + "))" + "[fFdD]?))" + "[\\x00-\\x20]*");// Optional
-      // trailing
-      // "whitespace"
+   /**
+    * The values of one thread: the columns of the metrics used in the
+    * equation, in the order of getEvents(), and the results.
+    */
+   private class ThreadColumns implements MetricExpression.Columns {
+      private final PerformanceResult input;
+      private final Integer thread;
+      private final int size;
+      private double[] inclusive = null;
+      private double[] exclusive = null;
+
+      ThreadColumns(PerformanceResult input, Integer thread) {
+         this.input = input;
+         this.thread = thread;
+         this.size = input.getEvents().size();
+      }
 
-      return Pattern.matches(fpRegex, myString);
-   }
-   private static boolean isOperation(Object op) {
-      if(op instanceof String){
-         String oper = (String)op;
-         char o = oper.charAt(0);
-         return o == '+' || o == '-' || o == '*' || o == '/';
-      }else{
-         return false;
+      public int size() {
+         return size;
       }
 
-   }
-   private static double apply(char op, double arg1, double arg2) {
-      double d = 0.0;
-      switch (op) {
-      case ('+'):
-         d = arg1 + arg2;
-      break;
-      case ('-'):
-         if (arg1 > arg2) {
-            d = arg1 - arg2;
+      public double[] getValues(int variable, boolean inclusive) {
+         String metric = expression.getVariables().get(variable);
+         if(metric.equals("CALLS")){
+            return input.getEventValues(thread, null, AbstractResult.CALLS);
+         }else if(metric.equals("SUBROUTINES")){
+            return input.getEventValues(thread, null, AbstractResult.SUBROUTINES);
          }
-      break;
-      case ('*'):
-         d = arg1 * arg2;
-      break;
-      case ('/'):
-         if (arg2 != 0) {
-            return arg1 / arg2;
-         }
-      break;
-      default:
-         //throw new PerfExplorerException("Unexpected operation type: " + op);
+         return input.getEventValues(thread, metric, inclusive ? AbstractResult.INCLUSIVE : AbstractResult.EXCLUSIVE);
       }
-      return d;
-   }
-   private double[] eval(ArrayList<Object> equation) {
-      int i = 0;
-      
-      while (equation.size() > 1 && equation.size() > i) {
 
-         if (isOperation(equation.get(i))) {
-            try{
-               char oper = ((String)equation.remove(i)).trim().charAt(0);
-                double[] second = (double[])equation.remove(i - 1);
-                double[] first = (double[]) equation.remove(i - 2);
-               i = i - 2;
-               
-               double x = apply(oper,first[0],second[0]);
-               double y = apply(oper,first[1],second[1]);
-               double[] current = {x, y};
-               equation.add(i, current);
-            }catch(java.lang.ArrayIndexOutOfBoundsException ex){
-               throw ex;
-            }
-         }
-         i++;
+      public void setValues(double[] inclusive, double[] exclusive) {
+         this.inclusive = inclusive;
+         this.exclusive = exclusive;
       }
-      return (double[])equation.get(0);
-      
    }
 
+   /**
+    * Computes the equation for all the events of a thread at a time, and the
+    * threads in parallel.
+    */
    public List<PerformanceResult> processData() {
       if(newName != null) newName = newName.trim();
-      for(int x=0;x<equation.size();x++){
-           String current = (String)equation.get(x);
-           if(isOperation(current)){
-              
-           }else if (isValue(current)){
-        
-           }else{
-              input.getMetrics().contains(current);
-              
-           }
-        }
-      
       for (PerformanceResult input : inputs) {
          PerformanceResult output = new DefaultResult(input, false);
-         
-         for (String event : input.getEvents()) {
-            for (Integer thread : input.getThreads()) {
-               
-               ArrayList<Object> newEquation = new ArrayList<Object>();
-               for(int x=0;x<equation.size();x++){
-                    String current = (String)equation.get(x);
-                    if(isOperation(current)){
-                       newEquation.add(current);
-                    }else if (isValue(current)){
-                       double[] array = {Double.valueOf(current),Double.valueOf(current)};
-                       newEquation.add(array);
-                    }else{
-                       String metric = current;
-                     double[] values = getValue(metric,thread,event);
-                       newEquation.add(values);
-                    }
-                 }
-               double[] result = eval(newEquation);
-      
-               output.putInclusive(thread, event, newName, result[0]);
-               output.putExclusive(thread, event, newName, result[1]);
-               output.putCalls(thread, event, input.getCalls(thread, event));
-               output.putSubroutines(thread, event, input.getSubroutines(thread, event));
+         List<ThreadColumns> threads = new ArrayList<ThreadColumns>();
+         for (Integer thread : input.getThreads()) {
+            threads.add(new ThreadColumns(input, thread));
+         }
+         expression.evaluate(threads);
+
+         for (ThreadColumns columns : threads) {
+            Integer thread = columns.thread;
+            double[] calls = input.getEventValues(thread, null, AbstractResult.CALLS);
+            double[] subroutines = input.getEventValues(thread, null, AbstractResult.SUBROUTINES);
+            int e = 0;
+            for (String event : input.getEvents()) {
+               output.putInclusive(thread, event, newName, columns.inclusive[e]);
+               output.putExclusive(thread, event, newName, columns.exclusive[e]);
+               output.putCalls(thread, event, calls[e]);
+               output.putSubroutines(thread, event, subroutines[e]);
+               e++;
             }
          }
          outputs.add(output);
       }
       return outputs;
    }
-   private double[] getValue(String metric, Integer thread, String event) {
-      double[] a = new double[2];
-      if(metric.equals("CALLS")){
-         a[0] = input.getCalls(thread, event);       
-         a[1]  = input.getCalls(thread, event);
-      }else if(metric.equals("SUBROUTINES")){
-         a[0]  = input.getSubroutines(thread, event);       
-         a[1]  = input.getSubroutines(thread, event);   
-      }else{
-         a[0]  = input.getInclusive(thread, event, metric);          
-         a[1]  = input.getExclusive(thread, event, metric);
-      }
-      return a;
-   }
 
 //   /*
 //    * (non-Javadoc)
@@ -552,11 +320,6 @@ public boolean noErrors(){
 //      return null;
 //   }
 
-   private boolean isOperation(String op) {
-      char o = op.charAt(0);
-      return o == '+' || o == '-' || o == '*' || o == '/';
-   }
-
    /**
     * @return the newName
     */
@@ -102,16 +102,13 @@ public class KMeansOperation extends ClusterOperation {
 	 */
 	protected ClusterInterface doClustering(PerformanceResult input) {
     	List<String> eventList = new ArrayList<String>(input.getEvents());
-		RawDataInterface data = AnalysisFactory.createRawData("Cluster Test", eventList, input.getThreads().size(), eventList.size(), null);
+		// the rows are in the order of getEvents(), and are handed to the
+		// native engine without a copy
+		double[][] vectors = new double[input.getThreads().size()][];
 		for(Integer thread : input.getThreads()) {
-			int eventIndex = 0;
-			for (String event : eventList) {
-				data.addValue(thread, eventIndex++, input.getDataPoint(thread, event, metric, type));
-				if (event.equals(input.getMainEvent())) {
-					data.addMainValue(thread, eventIndex-1, input.getDataPoint(thread, event, metric, type));
-				}
-			}
+			vectors[thread] = input.getEventValues(thread, metric, type);
 		}
+		RawDataInterface data = AnalysisFactory.createKMeansData("Cluster Test", eventList, vectors);
 		KMeansClusterInterface clusterer = AnalysisFactory.createKMeansEngine();
 		clusterer.setInputData(data);
 		clusterer.setK(this.maxClusters);
@@ -44,32 +44,9 @@ public class MinResult extends DefaultResult {
 	@Override
 	public void putDataPoint(Integer thread, String event, String metric, int type, double value) {
 		boolean newEntry = false;
-		if (type == INCLUSIVE) {
-			if (!inclusiveData.containsKey(thread) || 
-				!inclusiveData.get(thread).containsKey(event) ||
-				!inclusiveData.get(thread).get(event).containsKey(metric)) {
-				super.putInclusive(thread, event, metric, value);
-				newEntry = true;
-			}
-		} else if (type == EXCLUSIVE) {
-			if (!exclusiveData.containsKey(thread) || 
-				!exclusiveData.get(thread).containsKey(event) ||
-				!exclusiveData.get(thread).get(event).containsKey(metric)) {
-				super.putExclusive(thread, event, metric, value);
-				newEntry = true;
-			}
-		} else if (type == CALLS) {
-			if (!callData.containsKey(thread) || 
-				!callData.get(thread).containsKey(event)) {
-				super.putCalls(thread, event, value);
-				newEntry = true;
-			}
-		} else if (type == SUBROUTINES) {
-			if (!callData.containsKey(thread) || 
-				!callData.get(thread).containsKey(event)) {
-				super.putSubroutines(thread, event, value);
-				newEntry = true;
-			}
+		if (!hasDataPoint(thread, event, metric, type)) {
+			super.putDataPoint(thread, event, metric, type, value);
+			newEntry = true;
 		}
 		
 		if (!newEntry) {
@@ -0,0 +1,369 @@
+package edu.uoregon.tau.perfexplorer.glue;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import edu.uoregon.tau.perfdmf.Trial;
+import edu.uoregon.tau.perfexplorer.server.PerfExplorerServer;
+
+/**
+ * The OperationGraph class runs a set of analysis operations in parallel.
+ * Instead of calling processData() on each operation in turn, a script adds
+ * the operations to the graph, with the nodes which produce their inputs,
+ * and then calls run().  Operations which don't depend on each other (for
+ * example, loading and extracting events from each of the trials given to
+ * a ScalabilityOperation or MergeTrialsOperation) run at the same time, on
+ * a fork/join pool of perfexplorer.graphThreads threads (by default, the
+ * number of processors).  Each trial is loaded on a database connection of
+ * its own, borrowed from the connection pool of the current database.
+ *
+ * <P>Each node is processed once; its outputs are kept, so calling run()
+ * again after adding more nodes only processes the new ones.  The nodes
+ * which failed, and those which depend on them, are processed again by the
+ * next run().  The operations
+ * are recorded in the Provenance when they are constructed, as usual, so the
+ * provenance keeps the order of the script.</P>
+ *
+ * <pre>
+ * graph = OperationGraph()
+ * trials = [graph.addTrialMean(trial) for trial in trials]
+ * speedup = graph.add(ScalabilityOperation(ArrayList()), trials)
+ * graph.run()
+ * print speedup.getOutputs()
+ * </pre>
+ *
+ * @see Provenance
+ */
+public class OperationGraph {
+
+	/**
+	 * A node of the graph: an operation, a trial to load, or a result which
+	 * is already available.
+	 */
+	public static abstract class Node {
+		private final List<Node> dependencies;
+		private final AtomicBoolean claimed = new AtomicBoolean(false);
+		private final RecursiveTask<List<PerformanceResult>> task = new RecursiveTask<List<PerformanceResult>>() {
+			private static final long serialVersionUID = 1L;
+			protected List<PerformanceResult> compute() {
+				List<PerformanceResult> inputs = new ArrayList<PerformanceResult>();
+				for (Node dependency : dependencies) {
+					dependency.fork();
+				}
+				for (Node dependency : dependencies) {
+					inputs.addAll(dependency.task.join());
+				}
+				return Collections.unmodifiableList(process(inputs));
+			}
+		};
+
+		private Node(List<Node> dependencies) {
+			this.dependencies = new ArrayList<Node>(dependencies);
+		}
+
+		/**
+		 * Forgets a failure, so that the next run processes the node again.
+		 */
+		private void reset() {
+			if (task.isCompletedAbnormally()) {
+				task.reinitialize();
+				claimed.set(false);
+			}
+		}
+
+		/**
+		 * Schedules the node, unless another node already did.
+		 */
+		private void fork() {
+			if (claimed.compareAndSet(false, true)) {
+				task.fork();
+			}
+		}
+
+		/**
+		 * Computes the outputs of the node.
+		 *
+		 * @param inputs the outputs of the dependencies, in order
+		 */
+		protected abstract List<PerformanceResult> process(List<PerformanceResult> inputs);
+
+		/**
+		 * @return the nodes this node takes its inputs from
+		 */
+		public List<Node> getDependencies() {
+			return Collections.unmodifiableList(dependencies);
+		}
+
+		/**
+		 * @return true if the node has been processed
+		 */
+		public boolean isDone() {
+			return task.isCompletedNormally();
+		}
+
+		/**
+		 * Returns the outputs of the node, after the graph has been run.
+		 *
+		 * @return the outputs, or null if the node hasn't been processed
+		 */
+		public List<PerformanceResult> getOutputs() {
+			return task.isCompletedNormally() ? task.join() : null;
+		}
+
+		/**
+		 * @param index
+		 * @return an output of the node, or null if the node hasn't been processed
+		 */
+		public PerformanceResult getOutputAtIndex(int index) {
+			List<PerformanceResult> outputs = getOutputs();
+			return (outputs == null) ? null : outputs.get(index);
+		}
+	}
+
+	private static class OperationNode extends Node {
+		private final PerformanceAnalysisOperation operation;
+
+		private OperationNode(PerformanceAnalysisOperation operation, List<Node> dependencies) {
+			super(dependencies);
+			this.operation = operation;
+		}
+
+		protected List<PerformanceResult> process(List<PerformanceResult> inputs) {
+			// without dependencies, the operation keeps the inputs it was
+			// constructed with
+			if (!getDependencies().isEmpty()) {
+				operation.setInputs(inputs);
+			}
+			return operation.processData();
+		}
+
+		public String toString() {
+			return operation.toString();
+		}
+	}
+
+	private static class TrialNode extends Node {
+		private final Trial trial;
+		private final boolean mean;
+
+		private TrialNode(Trial trial, boolean mean) {
+			super(Collections.<Node>emptyList());
+			this.trial = trial;
+			this.mean = mean;
+		}
+
+		protected List<PerformanceResult> process(List<PerformanceResult> inputs) {
+			// the trials loaded at the same time don't share a connection
+			PerfExplorerServer server = PerfExplorerServer.getServer();
+			try {
+				server.openThreadConnection();
+			} catch (SQLException e) {
+				throw new RuntimeException("Unable to connect to load " + trial.getName(), e);
+			}
+			try {
+				PerformanceResult result = mean ? new TrialMeanResult(trial) : new TrialResult(trial);
+				return Collections.singletonList(result);
+			} finally {
+				server.closeThreadConnection();
+			}
+		}
+
+		public String toString() {
+			return trial.getName();
+		}
+	}
+
+	private static class ResultNode extends Node {
+		private final List<PerformanceResult> results;
+
+		private ResultNode(List<PerformanceResult> results) {
+			super(Collections.<Node>emptyList());
+			this.results = new ArrayList<PerformanceResult>(results);
+		}
+
+		protected List<PerformanceResult> process(List<PerformanceResult> inputs) {
+			return results;
+		}
+	}
+
+	private static class SelectNode extends Node {
+		private final int index;
+
+		private SelectNode(Node node, int index) {
+			super(Collections.singletonList(node));
+			this.index = index;
+		}
+
+		protected List<PerformanceResult> process(List<PerformanceResult> inputs) {
+			return Collections.singletonList(inputs.get(index));
+		}
+	}
+
+	private final List<Node> nodes = new ArrayList<Node>();
+	private int threads = Integer.getInteger("perfexplorer.graphThreads",
+		Runtime.getRuntime().availableProcessors()).intValue();
+
+	/**
+	 * Constructor.
+	 */
+	public OperationGraph() {
+	}
+
+	/**
+	 * Adds an operation, which takes its inputs from the outputs of the
+	 * given nodes, in order.  With no nodes, the operation uses the inputs
+	 * it was constructed with.
+	 *
+	 * @param operation
+	 * @param dependencies
+	 * @return the node of the operation
+	 */
+	public Node add(PerformanceAnalysisOperation operation, List<Node> dependencies) {
+		return addNode(new OperationNode(operation, dependencies));
+	}
+
+	/**
+	 * @see #add(PerformanceAnalysisOperation, List)
+	 */
+	public Node add(PerformanceAnalysisOperation operation, Node... dependencies) {
+		return add(operation, Arrays.asList(dependencies));
+	}
+
+	/**
+	 * Adds a trial to load, as a TrialResult.
+	 *
+	 * @param trial
+	 * @return the node of the trial
+	 */
+	public Node addTrial(Trial trial) {
+		return addNode(new TrialNode(trial, false));
+	}
+
+	/**
+	 * Adds a trial to load, as a TrialMeanResult.
+	 *
+	 * @param trial
+	 * @return the node of the trial
+	 */
+	public Node addTrialMean(Trial trial) {
+		return addNode(new TrialNode(trial, true));
+	}
+
+	/**
+	 * Adds results which are already available.
+	 *
+	 * @param results
+	 * @return the node of the results
+	 */
+	public Node addResults(List<PerformanceResult> results) {
+		return addNode(new ResultNode(results));
+	}
+
+	/**
+	 * @see #addResults(List)
+	 */
+	public Node addResult(PerformanceResult result) {
+		return addResults(Collections.singletonList(result));
+	}
+
+	/**
+	 * Adds a node which has only one of the outputs of another node, for
+	 * operations which have several outputs (BasicStatisticsOperation, for
+	 * example).
+	 *
+	 * @param node
+	 * @param index the index of the output
+	 * @return the node of the output
+	 */
+	public Node select(Node node, int index) {
+		checkNode(node);
+		return addNode(new SelectNode(node, index));
+	}
+
+	private Node addNode(Node node) {
+		for (Node dependency : node.dependencies) {
+			checkNode(dependency);
+		}
+		synchronized (nodes) {
+			nodes.add(node);
+		}
+		return node;
+	}
+
+	private void checkNode(Node node) {
+		synchronized (nodes) {
+			if (!nodes.contains(node)) {
+				throw new IllegalArgumentException("The node " + node + " is not part of this graph");
+			}
+		}
+	}
+
+	/**
+	 * Processes all the nodes which haven't been processed yet.  If an
+	 * operation fails, the nodes which depend on it fail too, and the
+	 * exception is thrown here once the other nodes are done.  Those nodes
+	 * are tried again by the next run.
+	 */
+	public void run() {
+		final List<Node> pending = new ArrayList<Node>();
+		synchronized (nodes) {
+			pending.addAll(nodes);
+		}
+		for (Node node : pending) {
+			node.reset();
+		}
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+		try {
+			pool.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+				protected void compute() {
+					for (Node node : pending) {
+						node.fork();
+					}
+					RuntimeException failure = null;
+					for (Node node : pending) {
+						try {
+							node.task.join();
+						} catch (RuntimeException e) {
+							if (failure == null) {
+								failure = e;
+							}
+						}
+					}
+					if (failure != null) {
+						throw failure;
+					}
+				}
+			});
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * @return the nodes, in the order they were added
+	 */
+	public List<Node> getNodes() {
+		synchronized (nodes) {
+			return new ArrayList<Node>(nodes);
+		}
+	}
+
+	/**
+	 * @param threads the number of threads which process the nodes
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+}
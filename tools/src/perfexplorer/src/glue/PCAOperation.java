@@ -1,6 +1,5 @@
 package edu.uoregon.tau.perfexplorer.glue;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import edu.uoregon.tau.perfdmf.Trial;
@@ -61,17 +60,8 @@ public class PCAOperation extends AbstractPerformanceOperation {
         	PerfExplorerServer.getServer();
 
         for (PerformanceResult input : inputs) {
-        	List<String> eventList = new ArrayList<String>(input.getEvents());
-        	RawDataInterface data = AnalysisFactory.createRawData("Cluster Test", eventList, input.getThreads().size(), eventList.size(), null);
-    		for(Integer thread : input.getThreads()) {
-            	int eventIndex = 0;
-            	for (String event : eventList) {
-        			data.addValue(thread, eventIndex++, input.getDataPoint(thread, event, metric, type));
-        			if (event.equals(input.getMainEvent())) {
-        				data.addMainValue(thread, eventIndex-1, input.getDataPoint(thread, event, metric, type));
-        			}
-        		}
-        	}
+        	// the engine reads the threads from the result a block at a time
+        	RawDataInterface data = new ResultRawData("Cluster Test", input, metric, type);
     		PrincipalComponentsAnalysisInterface clusterer = AnalysisFactory.createPCAEngine(data);
 			clusterer.setMaxComponents(this.maxComponents);
 			try {
@@ -314,6 +314,33 @@ public interface PerformanceResult {
 	 * @see AbstractResult#USEREVENT_SUMSQR
 	 */
 	public void putDataPoint(Integer thread, String event, String metric, int type, double value);
+
+	/**
+	 * This method will return the values stored in the trial for all the events
+	 * of one thread, for the specified metric, type combination.  For the
+	 * user event types, the values are for all the user events.
+	 * 
+	 * @param thread The thread of interest
+	 * @param metric The metric of interest, null for the types without a metric
+	 * @param type The type of data to return
+	 * @return the values, in the order of {@link #getEvents} (or
+	 * {@link #getUserEvents}), with 0.0 for the values that aren't there
+	 * @see #getDataPoint
+	 */
+	public double[] getEventValues(Integer thread, String metric, int type);
+
+	/**
+	 * This method will return the values stored in the trial for all the threads,
+	 * for the specified event, metric, type combination.
+	 * 
+	 * @param event The event of interest
+	 * @param metric The metric of interest, null for the types without a metric
+	 * @param type The type of data to return
+	 * @return the values, in the order of {@link #getThreads}, with 0.0 for
+	 * the values that aren't there
+	 * @see #getDataPoint
+	 */
+	public double[] getThreadValues(String event, String metric, int type);
 	
 	/** 
 	 * This method will return a string representation of this PerformanceResult.
@@ -40,7 +40,7 @@ public class Provenance {
 		}
 	}
 	
-	public static Provenance getCurrent() {
+	public static synchronized Provenance getCurrent() {
 		if (current == null) {
 			current = new Provenance(false);
 		}
@@ -48,7 +48,8 @@ public class Provenance {
 	}
 	
 	// make this package-private, so only glue objects can do this.
-	static void addOperation(PerformanceAnalysisOperation operation) {
+	// synchronized, for the operations created by an OperationGraph
+	static synchronized void addOperation(PerformanceAnalysisOperation operation) {
 		Provenance current = getCurrent();
 		if (!current.operations.contains(operation) && enabled) {
 			current.operations.add(operation);
@@ -0,0 +1,137 @@
+package edu.uoregon.tau.perfexplorer.glue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.uoregon.tau.perfexplorer.clustering.DistanceMatrix;
+import edu.uoregon.tau.perfexplorer.clustering.RawDataInterface;
+
+/**
+ * A read-only RawDataInterface view of a PerformanceResult, with a vector
+ * per thread and a dimension per event.  The values are read from the
+ * result when they are asked for, so the analysis engines which read a
+ * block of vectors at a time (JavaPrincipalComponents) don't need a copy
+ * of the whole trial.
+ *
+ * @see PCAOperation
+ */
+class ResultRawData implements RawDataInterface {
+
+	private final String name;
+	private final PerformanceResult input;
+	private final String metric;
+	private final int type;
+	private final List<Integer> threads;
+	private final List<String> events;
+
+	/**
+	 * @param name The description of the data
+	 * @param input The result
+	 * @param metric The metric of the values
+	 * @param type The type of the values
+	 */
+	public ResultRawData(String name, PerformanceResult input, String metric, int type) {
+		this.name = name;
+		this.input = input;
+		this.metric = metric;
+		this.type = type;
+		this.threads = new ArrayList<Integer>(input.getThreads());
+		this.events = new ArrayList<String>(input.getEvents());
+	}
+
+	public void addValue(int vectorIndex, int dimensionIndex, double value) {
+		throw new UnsupportedOperationException("The result data is read-only");
+	}
+
+	public void addValue(int vectorIndex, int dimensionIndex, String value) {
+		throw new UnsupportedOperationException("The result data is read-only");
+	}
+
+	public double getValue(int vectorIndex, int dimensionIndex) {
+		return input.getDataPoint(threads.get(vectorIndex), events.get(dimensionIndex), metric, type);
+	}
+
+	public double getManhattanDistance(int firstVector, int secondVector) {
+		return DistanceMatrix.manhattanDistance(getVector(firstVector), getVector(secondVector));
+	}
+
+	public double getCartesianDistance(int firstVector, int secondVector) {
+		return DistanceMatrix.cartesianDistance(getVector(firstVector), getVector(secondVector));
+	}
+
+	/**
+	 * @return the result
+	 */
+	public Object getData() {
+		return input;
+	}
+
+	public List<String> getEventNames() {
+		return events;
+	}
+
+	public int numVectors() {
+		return threads.size();
+	}
+
+	public int numDimensions() {
+		return events.size();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public double getMaximum() {
+		double maximum = 0.0;
+		for (Integer thread : threads) {
+			for (double value : input.getEventValues(thread, metric, type)) {
+				maximum = Math.max(maximum, value);
+			}
+		}
+		return maximum;
+	}
+
+	public double[] getVector(int i) {
+		return input.getEventValues(threads.get(i), metric, type);
+	}
+
+	public double getCorrelation(int x, int y) {
+		double[] xValues = input.getThreadValues(events.get(x), metric, type);
+		double[] yValues = input.getThreadValues(events.get(y), metric, type);
+		int vectors = xValues.length;
+		double xAvg = 0.0;
+		double yAvg = 0.0;
+		for (int i = 0 ; i < vectors ; i++) {
+			xAvg += xValues[i];
+			yAvg += yValues[i];
+		}
+		xAvg = xAvg / vectors;
+		yAvg = yAvg / vectors;
+
+		double xStDev = 0.0;
+		double yStDev = 0.0;
+		double r = 0.0;
+		for (int i = 0 ; i < vectors ; i++) {
+			double xDiff = xValues[i] - xAvg;
+			double yDiff = yValues[i] - yAvg;
+			xStDev += xDiff * xDiff;
+			yStDev += yDiff * yDiff;
+			r += xDiff * yDiff;
+		}
+		xStDev = Math.sqrt(xStDev / (vectors - 1));
+		yStDev = Math.sqrt(yStDev / (vectors - 1));
+		return r / (xStDev * yStDev * (vectors - 1));
+	}
+
+	public void addMainValue(int threadIndex, int eventIndex, double value) {
+	}
+
+	public double getMainValue(int threadIndex) {
+		return input.getDataPoint(threads.get(threadIndex), input.getMainEvent(), metric, type);
+	}
+
+	public String getMainEventName() {
+		return input.getMainEvent();
+	}
+}
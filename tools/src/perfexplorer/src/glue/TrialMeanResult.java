@@ -11,6 +11,7 @@ import java.util.List;
 import edu.uoregon.tau.perfdmf.Trial;
 import edu.uoregon.tau.perfdmf.database.DB;
 import edu.uoregon.tau.perfexplorer.server.PerfExplorerServer;
+import edu.uoregon.tau.perfexplorer.server.TrialResultCache;
 
 /**
  * @author khuck
@@ -44,7 +45,7 @@ public class TrialMeanResult extends AbstractResult {
 		this.trialID = trial.getID();
 		this.trial = trial;
 		this.name = this.trial.getName();
-		buildTrialMeanResult(trial, null, null);
+		loadTrialMeanResult(trial, null, null);
 	}
 	
 	public TrialMeanResult(Trial trial, List<String> metrics, List<String> events, boolean callPath) {
@@ -53,7 +54,7 @@ public class TrialMeanResult extends AbstractResult {
 		this.callPath = callPath;
 		this.trial = trial;
 		this.name = this.trial.getName();
-		buildTrialMeanResult(trial, metrics, events);
+		loadTrialMeanResult(trial, metrics, events);
 	}
 	
 	public TrialMeanResult(Trial trial, List<String> metrics, List<String> events, List<String> threads, boolean callPath) {//, boolean treatAbsentAsZero
@@ -117,12 +118,32 @@ public class TrialMeanResult extends AbstractResult {
 		}
 	}
 	
-	private void buildTrialMeanResult(Trial trial, List<String> metrics, List<String> events) {
+	/**
+	 * Gets the data from the trial result cache, or from the database.
+	 */
+	private void loadTrialMeanResult(final Trial trial, final List<String> metrics, final List<String> events) {
+		TrialResultCache cache = PerfExplorerServer.getServer().getTrialResultCache();
+		TrialResultCache.Key key = new TrialResultCache.Key(PerfExplorerServer.getServer().getDB().getConnectString(),
+			trial.getID(), TrialMeanResult.class, metrics, events, null, callPath);
+		AbstractResult cached = cache.get(key, new TrialResultCache.Loader() {
+			public AbstractResult load() {
+				TrialMeanResult result = new TrialMeanResult();
+				result.callPath = callPath;
+				return result.buildTrialMeanResult(trial, metrics, events) ? result : null;
+			}
+		});
+		if (cached != null) {
+			copyResult(cached);
+		} else {
+			buildTrialMeanResult(trial, metrics, events);
+		}
+	}
+	
+	private boolean buildTrialMeanResult(Trial trial, List<String> metrics, List<String> events) {
 		// hit the database, and get the data for this trial
 		DB db = PerfExplorerServer.getServer().getDB();
 		if (db.getSchemaVersion() > 0) {
-			buildTrialResultFromTAUdb(trial, metrics, events);
-			return;
+			return buildTrialResultFromTAUdb(trial, metrics, events);
 		}
 		
 		try {
@@ -202,10 +223,12 @@ public class TrialMeanResult extends AbstractResult {
 		} catch (SQLException exception) {
 			System.err.println(exception.getMessage());
 			exception.printStackTrace();
+			return false;
 		}
+		return true;
 	}
 
-	private void buildTrialResultFromTAUdb(Trial trial, List<String> metrics, List<String> events) {
+	private boolean buildTrialResultFromTAUdb(Trial trial, List<String> metrics, List<String> events) {
 		// hit the database, and get the data for this trial
 		DB db = PerfExplorerServer.getServer().getDB();
 		StringBuilder sql = null;
@@ -338,7 +361,9 @@ public class TrialMeanResult extends AbstractResult {
 				System.err.println(statement);
 			else
 				System.err.println(sql);
+			return false;
 		}
+		return true;
 	}
 
 	public Integer getTrialID() {
@@ -13,6 +13,7 @@ import edu.uoregon.tau.perfdmf.Trial;
 import edu.uoregon.tau.perfdmf.database.DB;
 import edu.uoregon.tau.perfexplorer.common.RMISortableIntervalEvent;
 import edu.uoregon.tau.perfexplorer.server.PerfExplorerServer;
+import edu.uoregon.tau.perfexplorer.server.TrialResultCache;
 
 /**
  * This class is an implementation of the AbstractResult class, and loads a trial
@@ -48,7 +49,7 @@ public class TrialResult extends AbstractResult {
 		this.trialID = trial.getID();
 		this.trial = trial;
 		this.name = this.trial.getName();
-		buildTrialResult(trial, null, null, null);
+		loadTrialResult(trial, null, null, null);
 	}
 	
 	public TrialResult(Trial trial, List<String> metrics, List<String> events, List<String> threads, boolean callPath) {
@@ -57,15 +58,35 @@ public class TrialResult extends AbstractResult {
 		this.trial = trial;
 		this.callPath = callPath;
 		this.name = this.trial.getName();
-		buildTrialResult(trial, metrics, events, threads);
+		loadTrialResult(trial, metrics, events, threads);
+	}
+
+	/**
+	 * Gets the data from the trial result cache, or from the database.
+	 */
+	private void loadTrialResult(final Trial trial, final List<String> metrics, final List<String> events, final List<String> threads) {
+		TrialResultCache cache = PerfExplorerServer.getServer().getTrialResultCache();
+		TrialResultCache.Key key = new TrialResultCache.Key(PerfExplorerServer.getServer().getDB().getConnectString(),
+			trial.getID(), TrialResult.class, metrics, events, threads, callPath);
+		AbstractResult cached = cache.get(key, new TrialResultCache.Loader() {
+			public AbstractResult load() {
+				TrialResult result = new TrialResult();
+				result.callPath = callPath;
+				return result.buildTrialResult(trial, metrics, events, threads) ? result : null;
+			}
+		});
+		if (cached != null) {
+			copyResult(cached);
+		} else {
+			buildTrialResult(trial, metrics, events, threads);
+		}
 	}
 	
-	private void buildTrialResult(Trial trial, List<String> metrics, List<String> events, List<String> threads) {
+	private boolean buildTrialResult(Trial trial, List<String> metrics, List<String> events, List<String> threads) {
 		// hit the databsae, and get the data for this trial
 		DB db = PerfExplorerServer.getServer().getDB();
 		if (db.getSchemaVersion() > 0) {
-			buildTrialResultFromTAUdb(trial, metrics, events, threads);
-			return;
+			return buildTrialResultFromTAUdb(trial, metrics, events, threads);
 		}
 
 		StringBuilder sql = null;
@@ -211,10 +232,12 @@ public class TrialResult extends AbstractResult {
 				System.err.println(statement);
 			else
 				System.err.println(sql);
+			return false;
 		}
+		return true;
 	}
 
-	private void buildTrialResultFromTAUdb(Trial trial, List<String> metrics, List<String> events, List<String> threads) {
+	private boolean buildTrialResultFromTAUdb(Trial trial, List<String> metrics, List<String> events, List<String> threads) {
 		// hit the database, and get the data for this trial
 		DB db = PerfExplorerServer.getServer().getDB();
 		StringBuilder sql = null;
@@ -378,7 +401,9 @@ public class TrialResult extends AbstractResult {
 				System.err.println(statement);
 			else
 				System.err.println(sql);
+			return false;
 		}
+		return true;
 	}
 
 	public String toString() {
@@ -11,6 +11,7 @@ import java.util.List;
 import edu.uoregon.tau.perfdmf.Trial;
 import edu.uoregon.tau.perfdmf.database.DB;
 import edu.uoregon.tau.perfexplorer.server.PerfExplorerServer;
+import edu.uoregon.tau.perfexplorer.server.TrialResultCache;
 
 /**
  * @author khuck
@@ -44,7 +45,7 @@ public class TrialTotalResult extends AbstractResult {
 		this.trial = trial;
 		this.trialID = trial.getID();
 		this.name = this.trial.getName();
-		buildTrialTotalResult(trial, null, null);
+		loadTrialTotalResult(trial, null, null);
 	}
 	
 	public TrialTotalResult(Trial trial, List<String> metrics, List<String> events, boolean callPath) {
@@ -53,15 +54,36 @@ public class TrialTotalResult extends AbstractResult {
 		this.callPath = callPath;
 		this.trial = trial;
 		this.name = this.trial.getName();
-		buildTrialTotalResult(trial, metrics, events);
+		loadTrialTotalResult(trial, metrics, events);
 	}
 	
-	private void buildTrialTotalResult(Trial trial, List<String> metrics, List<String> events) {
+	/**
+	 * Gets the data from the trial result cache, or from the database.
+	 */
+	private void loadTrialTotalResult(final Trial trial, final List<String> metrics, final List<String> events) {
+		TrialResultCache cache = PerfExplorerServer.getServer().getTrialResultCache();
+		TrialResultCache.Key key = new TrialResultCache.Key(PerfExplorerServer.getServer().getDB().getConnectString(),
+			trial.getID(), TrialTotalResult.class, metrics, events, null, callPath);
+		AbstractResult cached = cache.get(key, new TrialResultCache.Loader() {
+			public AbstractResult load() {
+				TrialTotalResult result = new TrialTotalResult();
+				result.callPath = callPath;
+				return result.buildTrialTotalResult(trial, metrics, events) ? result : null;
+			}
+		});
+		if (cached != null) {
+			copyResult(cached);
+			this.originalThreads = ((TrialTotalResult)cached).originalThreads;
+		} else {
+			buildTrialTotalResult(trial, metrics, events);
+		}
+	}
+	
+	private boolean buildTrialTotalResult(Trial trial, List<String> metrics, List<String> events) {
 		// hit the databsae, and get the data for this trial
 		DB db = PerfExplorerServer.getServer().getDB();
 		if (db.getSchemaVersion() > 0) {
-			buildTrialResultFromTAUdb(trial, metrics, events);
-			return;
+			return buildTrialResultFromTAUdb(trial, metrics, events);
 		}
 		
 		try {
@@ -143,10 +165,12 @@ public class TrialTotalResult extends AbstractResult {
 		} catch (SQLException exception) {
 			System.err.println(exception.getMessage());
 			exception.printStackTrace();
+			return false;
 		}
+		return true;
 	}
 
-	private void buildTrialResultFromTAUdb(Trial trial, List<String> metrics, List<String> events) {
+	private boolean buildTrialResultFromTAUdb(Trial trial, List<String> metrics, List<String> events) {
 		// hit the database, and get the data for this trial
 		DB db = PerfExplorerServer.getServer().getDB();
 		StringBuilder sql = null;
@@ -278,7 +302,9 @@ public class TrialTotalResult extends AbstractResult {
 				System.err.println(statement);
 			else
 				System.err.println(sql);
+			return false;
 		}
+		return true;
 	}
 
 	public Integer getTrialID() {
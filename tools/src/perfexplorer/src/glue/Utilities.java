@@ -268,6 +268,7 @@ public class Utilities {
 		try {
 		Trial.deleteTrial(server.getDB(), t.getID());
 		} catch (SQLException e) {}
+		server.getTrialResultCache().invalidate(t.getID());
 	}
 	
 	public static void saveMetric(Trial t, Metric metric){
@@ -286,6 +287,7 @@ public class Utilities {
 			if (databaseAPI != null) {
 				databaseAPI.saveTrial(t,metric);
 				databaseAPI.terminate();
+				getServer().getTrialResultCache().invalidate(t.getID());
 			}
 		}
 	}
@@ -45,6 +45,14 @@ public class AllTests {
 		suite.addTestSuite(CorrelationOperationTest.class);
 		suite.addTestSuite(CQoSClassifierOperationTest.class);
 		suite.addTestSuite(DefaultOperationTest.class);
+		suite.addTestSuite(DefaultResultTest.class);
+		suite.addTestSuite(OperationGraphTest.class);
+		suite.addTestSuite(JavaPrincipalComponentsTest.class);
+		suite.addTestSuite(DeriveMetricEquationTest.class);
+		suite.addTestSuite(AnalysisSchedulerTest.class);
+		suite.addTestSuite(TrialResultCacheTest.class);
+		suite.addTestSuite(NNChainClustererTest.class);
+		suite.addTestSuite(DistanceMatrixTest.class);
 		//$JUnit-END$
 		return suite;
 	}
@@ -0,0 +1,102 @@
+package edu.uoregon.tau.perfexplorer.glue.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import edu.uoregon.tau.perfexplorer.common.RMIPerfExplorerModel;
+import edu.uoregon.tau.perfexplorer.server.AnalysisScheduler;
+
+public class AnalysisSchedulerTest extends TestCase {
+
+	/**
+	 * Runs the requests on one worker.  Analysis 1 holds the worker until it
+	 * is released, so that the others queue up behind it.
+	 */
+	private static class RecordingScheduler extends AnalysisScheduler {
+		final List<Integer> started = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch blocking = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		volatile boolean interrupted = false;
+
+		RecordingScheduler() {
+			super(null, 1);
+		}
+
+		protected void runAnalysis(RMIPerfExplorerModel model) {
+			started.add(model.getAnalysisID());
+			if (model.getAnalysisID() == 1) {
+				blocking.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+
+		void waitForAll() throws InterruptedException {
+			long end = System.currentTimeMillis() + 10000;
+			while (!getPendingRequests().isEmpty()) {
+				assertTrue("the requests didn't finish", System.currentTimeMillis() < end);
+				java.lang.Thread.sleep(10);
+			}
+		}
+	}
+
+	private static RMIPerfExplorerModel model(int analysisID, int priority) {
+		RMIPerfExplorerModel model = new RMIPerfExplorerModel();
+		model.setAnalysisID(analysisID);
+		model.setPriority(priority);
+		return model;
+	}
+
+	public final void testPriorityOrder() throws Exception {
+		RecordingScheduler scheduler = new RecordingScheduler();
+		scheduler.submit(model(1, 0));
+		assertTrue(scheduler.blocking.await(10, TimeUnit.SECONDS));
+
+		// higher priorities first, the same priority in the order submitted
+		scheduler.submit(model(2, 0));
+		scheduler.submit(model(3, 5));
+		scheduler.submit(model(4, 0));
+		scheduler.submit(model(5, 5));
+		scheduler.submit(model(6, -1));
+		scheduler.submit(model(7, 1));
+		assertEquals(7, scheduler.getPendingRequests().size());
+
+		scheduler.release.countDown();
+		scheduler.waitForAll();
+		assertEquals("[1, 3, 5, 7, 2, 4, 6]", scheduler.started.toString());
+		scheduler.shutdown();
+	}
+
+	public final void testCancel() throws Exception {
+		RecordingScheduler scheduler = new RecordingScheduler();
+		scheduler.submit(model(1, 0));
+		assertTrue(scheduler.blocking.await(10, TimeUnit.SECONDS));
+		scheduler.submit(model(2, 0));
+		scheduler.submit(model(3, 0));
+		scheduler.submit(model(4, 0));
+
+		// a queued request never starts
+		assertTrue(scheduler.cancel(3));
+		assertFalse(scheduler.cancel(3));
+		// submitting the same analysis again replaces the queued request
+		scheduler.submit(model(4, 0));
+		assertEquals(3, scheduler.getPendingRequests().size());
+
+		// the running one is interrupted
+		assertTrue(scheduler.cancel(1));
+		scheduler.waitForAll();
+		assertTrue(scheduler.interrupted);
+		assertEquals("[1, 2, 4]", scheduler.started.toString());
+
+		// nothing to cancel once it is done
+		assertFalse(scheduler.cancel(2));
+		scheduler.shutdown();
+	}
+}
@@ -8,6 +8,7 @@ import edu.uoregon.tau.perfdmf.Trial;
 import edu.uoregon.tau.perfexplorer.glue.AbstractResult;
 import edu.uoregon.tau.perfexplorer.glue.CorrelationOperation;
 import edu.uoregon.tau.perfexplorer.glue.CorrelationResult;
+import edu.uoregon.tau.perfexplorer.glue.DefaultResult;
 import edu.uoregon.tau.perfexplorer.glue.ExtractEventOperation;
 import edu.uoregon.tau.perfexplorer.glue.PerformanceAnalysisOperation;
 import edu.uoregon.tau.perfexplorer.glue.PerformanceResult;
@@ -49,4 +50,41 @@ public class CorrelationOperationTest extends TestCase {
 		}
 	}
 
+	public final void testTopPairs() {
+		// "b" is 2 * "a" + 1, and "c" is noise
+		PerformanceResult input = new DefaultResult();
+		for (int thread = 0 ; thread < 10 ; thread++) {
+			input.putExclusive(thread, "a", "TIME", thread);
+			input.putExclusive(thread, "b", "TIME", (2 * thread) + 1);
+			input.putExclusive(thread, "c", "TIME", (thread * 7) % 3);
+			input.putInclusive(thread, "a", "TIME", thread);
+			input.putInclusive(thread, "b", "TIME", (2 * thread) + 1);
+			input.putInclusive(thread, "c", "TIME", (thread * 7) % 3);
+		}
+		CorrelationOperation all = new CorrelationOperation(input);
+		PerformanceResult allPairs = all.processData().get(0);
+		CorrelationOperation top = new CorrelationOperation(input);
+		top.setTopPairs(1);
+		PerformanceResult topPairs = top.processData().get(0);
+
+		String event = "a:TIME:" + AbstractResult.typeToString(AbstractResult.EXCLUSIVE);
+		int type = AbstractResult.EXCLUSIVE;
+		assertEquals(1.0, allPairs.getDataPoint(CorrelationResult.CORRELATION, event, "b:TIME", type), 1.0e-12);
+		assertEquals(2.0, allPairs.getDataPoint(CorrelationResult.SLOPE, event, "b:TIME", type), 1.0e-12);
+		assertEquals(1.0, allPairs.getDataPoint(CorrelationResult.INTERCEPT, event, "b:TIME", type), 1.0e-12);
+		// a pair of the same event isn't correlated
+		assertEquals(0.0, allPairs.getDataPoint(CorrelationResult.CORRELATION, event, "a:TIME", AbstractResult.INCLUSIVE), 0.0);
+		assertTrue(allPairs.getEvents().size() > 1);
+
+		// only one of the pairs with r = 1 is kept
+		assertEquals(1, topPairs.getEvents().size());
+		String topEvent = topPairs.getEvents().iterator().next();
+		String metric = topPairs.getMetrics().iterator().next();
+		for (Integer topType : AbstractResult.getTypes(false)) {
+			double r = topPairs.getDataPoint(CorrelationResult.CORRELATION, topEvent, metric, topType);
+			if (r != 0.0) {
+				assertEquals(1.0, r, 1.0e-12);
+			}
+		}
+	}
 }
@@ -10,6 +10,7 @@ import junit.framework.TestCase;
 import edu.uoregon.tau.perfexplorer.glue.AbstractResult;
 import edu.uoregon.tau.perfexplorer.glue.DBSCANOperation;
 import edu.uoregon.tau.perfexplorer.glue.DataSourceResult;
+import edu.uoregon.tau.perfexplorer.glue.DefaultResult;
 import edu.uoregon.tau.perfexplorer.glue.ExtractEventOperation;
 import edu.uoregon.tau.perfexplorer.glue.PerformanceAnalysisOperation;
 import edu.uoregon.tau.perfexplorer.glue.PerformanceResult;
@@ -71,4 +72,63 @@ public class DBSCANOperationTest extends TestCase {
 		}
 	}
 
+	private static PerformanceResult groups(int threads, double first, double second) {
+		PerformanceResult result = new DefaultResult();
+		for (int thread = 0 ; thread < threads ; thread++) {
+			// half the threads near (first, first), half near (second, second)
+			double value = ((thread % 2) == 0) ? first : second;
+			result.putExclusive(thread, "a", "TIME", value + (thread * 0.001));
+			result.putExclusive(thread, "b", "TIME", value - (thread * 0.001));
+		}
+		return result;
+	}
+
+	/**
+	 * Test method for {@link edu.uoregon.tau.perfexplorer.glue.DBSCANOperation#addThreads(PerformanceResult)}.
+	 */
+	public final void testAddThreads() {
+		int type = AbstractResult.EXCLUSIVE;
+		DBSCANOperation dbscan = new DBSCANOperation(groups(20, 0.0, 10.0), "TIME", type, 0.1);
+		List<PerformanceResult> outputs = dbscan.processData();
+		assertEquals(2, dbscan.getClusterer().getClusterSizes().length);
+		PerformanceResult clusterIDs = outputs.get(4);
+		assertEquals(0.0, clusterIDs.getCalls(0, "Cluster ID"), 0.0);
+		assertEquals(1.0, clusterIDs.getCalls(1, "Cluster ID"), 0.0);
+
+		// a new trial, with a third group between the two
+		outputs = dbscan.addThreads(groups(10, 10.0, 5.0));
+		assertEquals(3, dbscan.getClusterer().getClusterSizes().length);
+		assertEquals(30, dbscan.getClusterer().getNumInstances());
+		clusterIDs = outputs.get(4);
+		assertEquals(1.0, clusterIDs.getCalls(0, "Cluster ID"), 0.0);
+		assertEquals(2.0, clusterIDs.getCalls(1, "Cluster ID"), 0.0);
+		assertEquals(5.0, outputs.get(1).getExclusive(2, "a", "TIME"), 0.01);
+	}
+
+	/**
+	 * Test method for {@link edu.uoregon.tau.perfexplorer.glue.DBSCANOperation#addThreads(PerformanceResult)},
+	 * with threads which don't have the events clustered.
+	 */
+	public final void testAddThreadsOtherEvents() {
+		int type = AbstractResult.EXCLUSIVE;
+		DBSCANOperation dbscan = new DBSCANOperation(groups(20, 0.0, 10.0), "TIME", type, 0.1);
+		dbscan.processData();
+
+		// as many events, but not the same ones
+		PerformanceResult renamed = new DefaultResult();
+		renamed.putExclusive(0, "a", "TIME", 1.0);
+		renamed.putExclusive(0, "c", "TIME", 1.0);
+		// one more event
+		PerformanceResult more = groups(2, 0.0, 10.0);
+		more.putExclusive(0, "c", "TIME", 1.0);
+		for (PerformanceResult input : new PerformanceResult[] { renamed, more }) {
+			try {
+				dbscan.addThreads(input);
+				fail("threads with the events " + input.getEvents() + " were added");
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+		assertEquals(20, dbscan.getClusterer().getNumInstances());
+	}
+
 }
@@ -0,0 +1,124 @@
+package edu.uoregon.tau.perfexplorer.glue.test;
+
+import junit.framework.TestCase;
+import edu.uoregon.tau.perfexplorer.glue.AbstractResult;
+import edu.uoregon.tau.perfexplorer.glue.DefaultResult;
+import edu.uoregon.tau.perfexplorer.glue.MaxResult;
+import edu.uoregon.tau.perfexplorer.glue.MinResult;
+import edu.uoregon.tau.perfexplorer.glue.PerformanceResult;
+
+public class DefaultResultTest extends TestCase {
+
+	private PerformanceResult makeResult() {
+		PerformanceResult result = new DefaultResult();
+		result.setIgnoreWarnings(true);
+		for (int thread = 0 ; thread < 4 ; thread++) {
+			result.putInclusive(thread, "main", "TIME", 100.0 + thread);
+			result.putExclusive(thread, "main", "TIME", 10.0 + thread);
+			result.putInclusive(thread, "main => foo", "TIME", 90.0);
+			result.putExclusive(thread, "main => foo", "TIME", 90.0);
+			result.putExclusive(thread, "foo", "PAPI_FP_OPS", 1000.0 * thread);
+			result.putCalls(thread, "main", 1.0);
+			result.putSubroutines(thread, "main", 2.0);
+			result.putUsereventMax(thread, "Message size", 512.0 * thread);
+		}
+		return result;
+	}
+
+	public final void testPutGet() {
+		PerformanceResult result = makeResult();
+		assertEquals(4, result.getThreads().size());
+		assertEquals(3, result.getEvents().size());
+		assertEquals(2, result.getMetrics().size());
+		assertEquals(1, result.getUserEvents().size());
+		assertEquals("main", result.getMainEvent());
+		assertEquals(103.0, result.getInclusive(3, "main", "TIME"));
+		assertEquals(12.0, result.getExclusive(2, "main", "TIME"));
+		assertEquals(2000.0, result.getExclusive(2, "foo", "PAPI_FP_OPS"));
+		assertEquals(1.0, result.getCalls(0, "main"));
+		assertEquals(2.0, result.getSubroutines(0, "main"));
+		assertEquals(1536.0, result.getUsereventMax(3, "Message size"));
+		// values that were never stored
+		assertEquals(0.0, result.getInclusive(2, "foo", "PAPI_FP_OPS"));
+		assertEquals(0.0, result.getExclusive(7, "main", "TIME"));
+		assertEquals(0.0, result.getCalls(0, "foo"));
+		assertEquals(0.0, result.getUsereventMin(3, "Message size"));
+	}
+
+	public final void testPutDataPoint() {
+		PerformanceResult result = new DefaultResult();
+		result.setIgnoreWarnings(true);
+		result.putDataPoint(0, "main", "TIME", AbstractResult.INCLUSIVE, 5.0);
+		assertEquals(5.0, result.getDataPoint(0, "main", "TIME", AbstractResult.INCLUSIVE));
+		// only the type given is stored
+		assertEquals(0.0, result.getDataPoint(0, "main", "TIME", AbstractResult.EXCLUSIVE));
+		assertEquals(0.0, result.getDataPoint(0, "main", null, AbstractResult.CALLS));
+		assertEquals(0, result.getUserEvents().size());
+	}
+
+	public final void testMinMax() {
+		PerformanceResult min = new MinResult();
+		PerformanceResult max = new MaxResult();
+		min.setIgnoreWarnings(true);
+		max.setIgnoreWarnings(true);
+		double[] values = { 7.0, 3.0, 9.0, 5.0 };
+		for (double value : values) {
+			min.putDataPoint(0, "main", "TIME", AbstractResult.EXCLUSIVE, value);
+			max.putDataPoint(0, "main", "TIME", AbstractResult.EXCLUSIVE, value);
+			min.putDataPoint(0, "main", null, AbstractResult.CALLS, value + 1);
+			max.putDataPoint(0, "main", null, AbstractResult.CALLS, value + 1);
+		}
+		assertEquals(3.0, min.getExclusive(0, "main", "TIME"));
+		assertEquals(9.0, max.getExclusive(0, "main", "TIME"));
+		assertEquals(4.0, min.getCalls(0, "main"));
+		assertEquals(10.0, max.getCalls(0, "main"));
+	}
+
+	public final void testBulkValues() {
+		PerformanceResult result = makeResult();
+		for (Integer thread : result.getThreads()) {
+			for (String metric : result.getMetrics()) {
+				double[] row = result.getEventValues(thread, metric, AbstractResult.EXCLUSIVE);
+				assertEquals(result.getEvents().size(), row.length);
+				int i = 0;
+				for (String event : result.getEvents()) {
+					assertEquals(result.getExclusive(thread, event, metric), row[i++]);
+				}
+			}
+			double[] row = result.getEventValues(thread, null, AbstractResult.USEREVENT_MAX);
+			assertEquals(1, row.length);
+			assertEquals(512.0 * thread, row[0]);
+		}
+		double[] column = result.getThreadValues("main", "TIME", AbstractResult.INCLUSIVE);
+		assertEquals(4, column.length);
+		for (int thread = 0 ; thread < 4 ; thread++) {
+			assertEquals(100.0 + thread, column[thread]);
+		}
+		column = result.getThreadValues("bar", "TIME", AbstractResult.INCLUSIVE);
+		assertEquals(0.0, column[0]);
+	}
+
+	public final void testCopy() {
+		PerformanceResult input = makeResult();
+		PerformanceResult output = new DefaultResult(input);
+		output.setIgnoreWarnings(true);
+		assertEquals(input.getThreads(), output.getThreads());
+		assertEquals(input.getEvents(), output.getEvents());
+		assertEquals(input.getMetrics(), output.getMetrics());
+		for (Integer thread : input.getThreads()) {
+			for (String event : input.getEvents()) {
+				for (String metric : input.getMetrics()) {
+					assertEquals(input.getExclusive(thread, event, metric), 
+							output.getExclusive(thread, event, metric));
+					assertEquals(input.getInclusive(thread, event, metric), 
+							output.getInclusive(thread, event, metric));
+				}
+				assertEquals(input.getCalls(thread, event), output.getCalls(thread, event));
+				assertEquals(input.getSubroutines(thread, event), output.getSubroutines(thread, event));
+			}
+			assertEquals(input.getUsereventMax(thread, "Message size"), 
+					output.getUsereventMax(thread, "Message size"));
+		}
+	}
+
+}
@@ -0,0 +1,54 @@
+package edu.uoregon.tau.perfexplorer.glue.test;
+
+import junit.framework.TestCase;
+import edu.uoregon.tau.perfexplorer.glue.DefaultResult;
+import edu.uoregon.tau.perfexplorer.glue.DeriveMetricEquation;
+import edu.uoregon.tau.perfexplorer.glue.PerformanceResult;
+
+public class DeriveMetricEquationTest extends TestCase {
+
+	public DeriveMetricEquationTest(String arg0) {
+		super(arg0);
+	}
+
+	private static PerformanceResult input() {
+		PerformanceResult input = new DefaultResult();
+		for (int thread = 0 ; thread < 2 ; thread++) {
+			input.putExclusive(thread, "main", "TIME", 10.0 * (thread + 1));
+			input.putInclusive(thread, "main", "TIME", 20.0 * (thread + 1));
+			input.putExclusive(thread, "main", "PAPI_FP_OPS", 1000.0);
+			input.putInclusive(thread, "main", "PAPI_FP_OPS", 4000.0);
+			input.putCalls(thread, "main", 1);
+		}
+		return input;
+	}
+
+	/**
+	 * Test method for {@link edu.uoregon.tau.perfexplorer.glue.DeriveMetricEquation#DeriveMetricEquation(PerformanceResult, String[], String)}.
+	 */
+	public final void testTokens() {
+		// the numbers are values, not metric names
+		DeriveMetricEquation derive = new DeriveMetricEquation(input(),
+			new String[] { "(", "PAPI_FP_OPS", "/", "TIME", ")", "*", "1e-3", "+", "-2" }, "KFLOPS");
+		assertTrue(derive.noErrors());
+		PerformanceResult output = derive.processData().get(0);
+		assertEquals(1000.0 / 10 * 1e-3 - 2, output.getExclusive(0, "main", "KFLOPS"), 1e-12);
+		assertEquals(4000.0 / 20 * 1e-3 - 2, output.getInclusive(0, "main", "KFLOPS"), 1e-12);
+		assertEquals(1000.0 / 20 * 1e-3 - 2, output.getExclusive(1, "main", "KFLOPS"), 1e-12);
+		assertEquals(1.0, output.getCalls(1, "main"), 0.0);
+	}
+
+	/**
+	 * Test method for {@link edu.uoregon.tau.perfexplorer.glue.DeriveMetricEquation#DeriveMetricEquation(PerformanceResult, String)}.
+	 */
+	public final void testEquation() {
+		DeriveMetricEquation derive = new DeriveMetricEquation(input(), "SCALED = TIME * 2 + \"PAPI_FP_OPS\"");
+		assertTrue(derive.noErrors());
+		PerformanceResult output = derive.processData().get(0);
+		assertEquals(1020.0, output.getExclusive(0, "main", "SCALED"), 0.0);
+		assertEquals(4080.0, output.getInclusive(1, "main", "SCALED"), 0.0);
+
+		assertFalse(new DeriveMetricEquation(input(), "TIME * (2").noErrors());
+		assertFalse(new DeriveMetricEquation(input(), "TIME * CYCLES").noErrors());
+	}
+}
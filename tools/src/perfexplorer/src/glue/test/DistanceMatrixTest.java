@@ -0,0 +1,115 @@
+package edu.uoregon.tau.perfexplorer.glue.test;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import edu.uoregon.tau.perfexplorer.clustering.DistanceMatrix;
+
+public class DistanceMatrixTest extends TestCase {
+
+	// more than one block of rows
+	private static final int VECTORS = 150;
+	private static final int DIMENSIONS = 4;
+	private static final int[] STORAGES = { DistanceMatrix.DOUBLE_STORAGE, DistanceMatrix.FLOAT_STORAGE,
+		DistanceMatrix.MAPPED_STORAGE };
+
+	public DistanceMatrixTest(String arg0) {
+		super(arg0);
+	}
+
+	private static double[][] makeVectors() {
+		Random random = new Random(7);
+		double[][] vectors = new double[VECTORS][DIMENSIONS];
+		for (int i = 0 ; i < VECTORS ; i++) {
+			for (int j = 0 ; j < DIMENSIONS ; j++) {
+				vectors[i][j] = random.nextGaussian() * 100.0;
+			}
+		}
+		return vectors;
+	}
+
+	// the full matrix, the way it used to be stored
+	private static double[][] fullMatrix(double[][] vectors, boolean cartesian) {
+		double[][] full = new double[VECTORS][VECTORS];
+		for (int i = 0 ; i < VECTORS ; i++) {
+			for (int j = 0 ; j < VECTORS ; j++) {
+				double distance = 0.0;
+				for (int k = 0 ; k < DIMENSIONS ; k++) {
+					double tmp = vectors[i][k] - vectors[j][k];
+					distance += cartesian ? tmp * tmp : Math.abs(tmp);
+				}
+				full[i][j] = cartesian ? Math.sqrt(distance) : distance;
+			}
+		}
+		return full;
+	}
+
+	// doubles are exact, the others are rounded to floats
+	private static void assertMatrix(double[][] expected, DistanceMatrix actual) {
+		assertEquals(expected.length, actual.getDimension());
+		for (int i = 0 ; i < expected.length ; i++) {
+			for (int j = 0 ; j < expected.length ; j++) {
+				double value = expected[i][j];
+				if (actual.getStorage() != DistanceMatrix.DOUBLE_STORAGE) {
+					value = (float)value;
+				}
+				assertEquals(i + "," + j, value, actual.elementAt(i, j), 0.0);
+			}
+		}
+	}
+
+	public final void testSolve() {
+		double[][] vectors = makeVectors();
+		double[][] cartesian = fullMatrix(vectors, true);
+		double[][] manhattan = fullMatrix(vectors, false);
+		String threads = System.getProperty("perfexplorer.distanceThreads");
+		try {
+			for (int storage : STORAGES) {
+				for (int t = 1 ; t <= 4 ; t *= 4) {
+					System.setProperty("perfexplorer.distanceThreads", Integer.toString(t));
+					DistanceMatrix distances = new DistanceMatrix(VECTORS, storage);
+					assertEquals(storage, distances.getStorage());
+					distances.solveCartesianDistances(new NNChainClustererTest.VectorData(vectors));
+					assertMatrix(cartesian, distances);
+					distances.solveManhattanDistances(new NNChainClustererTest.VectorData(vectors));
+					assertMatrix(manhattan, distances);
+				}
+			}
+		} finally {
+			if (threads == null) {
+				System.clearProperty("perfexplorer.distanceThreads");
+			} else {
+				System.setProperty("perfexplorer.distanceThreads", threads);
+			}
+		}
+	}
+
+	public final void testSetElementAt() {
+		Random random = new Random(11);
+		for (int storage : STORAGES) {
+			double[][] full = new double[VECTORS][VECTORS];
+			DistanceMatrix distances = new DistanceMatrix(VECTORS, storage);
+			assertMatrix(full, distances);
+			for (int n = 0 ; n < 5000 ; n++) {
+				int x = random.nextInt(VECTORS);
+				int y = random.nextInt(VECTORS);
+				double value = random.nextDouble() * 1000.0;
+				distances.setElementAt(x, y, value);
+				// the diagonal stays zero
+				if (x != y) {
+					full[x][y] = value;
+					full[y][x] = value;
+				}
+			}
+			assertMatrix(full, distances);
+
+			// a copy is the same, and independent
+			DistanceMatrix copy = new DistanceMatrix(distances);
+			assertEquals(storage, copy.getStorage());
+			assertMatrix(full, copy);
+			copy.setElementAt(1, 0, -1.0);
+			assertEquals(-1.0, copy.elementAt(0, 1), 0.0);
+			assertMatrix(full, distances);
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package edu.uoregon.tau.perfexplorer.glue.test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import edu.uoregon.tau.perfexplorer.clustering.ArrayRawData;
+import edu.uoregon.tau.perfexplorer.clustering.JavaPrincipalComponents;
+import edu.uoregon.tau.perfexplorer.clustering.RawDataInterface;
+
+public class JavaPrincipalComponentsTest extends TestCase {
+
+	private static final double EPSILON = 1e-9;
+	private static final double R = Math.sqrt(0.5);
+
+	public JavaPrincipalComponentsTest(String arg0) {
+		super(arg0);
+	}
+
+	private static JavaPrincipalComponents pca(double[][] vectors, int components) throws Exception {
+		List<String> names = Arrays.asList("a", "b", "c", "d").subList(0, vectors[0].length);
+		JavaPrincipalComponents pca = new JavaPrincipalComponents(new ArrayRawData("test", names, vectors));
+		pca.setMaxComponents(components);
+		pca.doPCA();
+		return pca;
+	}
+
+	// the sign of a component is arbitrary
+	private static void assertComponent(double[] expected, double[] component) {
+		assertEquals(expected.length, component.length);
+		double dot = 0.0;
+		for (int i = 0 ; i < expected.length ; i++) {
+			dot += expected[i] * component[i];
+		}
+		assertEquals(1.0, Math.abs(dot), EPSILON);
+	}
+
+	public final void testKnownMatrix() throws Exception {
+		// four points on the diagonals: a spread of 4 along (1,1), of 2 along (1,-1)
+		double[][] vectors = {
+			{ 2 * R + 1, 2 * R + 2 }, { -2 * R + 1, -2 * R + 2 },
+			{ R + 1, -R + 2 }, { -R + 1, R + 2 } };
+		for (int threads = 1 ; threads <= 2 ; threads++) {
+			JavaPrincipalComponents pca = new JavaPrincipalComponents(new ArrayRawData("test",
+				Arrays.asList("a", "b"), vectors));
+			pca.setMaxComponents(2);
+			pca.setThreads(threads);
+			pca.setBlockSize(1);
+			pca.doPCA();
+
+			double[][] components = pca.getComponents();
+			assertEquals(2, components.length);
+			assertComponent(new double[] { R, R }, components[0]);
+			assertComponent(new double[] { R, -R }, components[1]);
+			// the squares of the projections, over n - 1
+			assertEquals(8.0 / 3, pca.getVariances()[0], EPSILON);
+			assertEquals(2.0 / 3, pca.getVariances()[1], EPSILON);
+			assertEquals(1.0, pca.getVarianceCovered(), EPSILON);
+
+			RawDataInterface results = pca.getResults();
+			assertEquals(4, results.numVectors());
+			assertEquals(2, results.numDimensions());
+			assertEquals(2.0, Math.abs(results.getValue(0, 0)), EPSILON);
+			assertEquals(0.0, results.getValue(0, 1), EPSILON);
+			assertEquals(1.0, Math.abs(results.getValue(2, 1)), EPSILON);
+			assertEquals(-results.getValue(0, 0), results.getValue(1, 0), EPSILON);
+		}
+
+		// one component covers 80% of the variance
+		JavaPrincipalComponents pca = pca(vectors, 1);
+		assertEquals(1, pca.getComponents().length);
+		assertEquals(0.8, pca.getVarianceCovered(), EPSILON);
+		assertEquals(1, pca.getResults().numDimensions());
+	}
+
+	public final void testRankDeficient() throws Exception {
+		// c = a + b, so there are only two directions
+		double[][] vectors = new double[6][];
+		for (int i = 0 ; i < vectors.length ; i++) {
+			double a = i;
+			double b = (i * i) % 5;
+			vectors[i] = new double[] { a, b, a + b };
+		}
+		JavaPrincipalComponents pca = pca(vectors, 3);
+		assertEquals(2, pca.getComponents().length);
+		assertEquals(1.0, pca.getVarianceCovered(), EPSILON);
+		for (double[] component : pca.getComponents()) {
+			// orthogonal to the missing direction (1,1,-1)
+			assertEquals(0.0, component[0] + component[1] - component[2], EPSILON);
+		}
+
+		// the same when the number of components is chosen
+		pca = pca(vectors, 0);
+		assertTrue(pca.getComponents().length <= 2);
+		assertTrue(pca.getVarianceCovered() >= 0.95);
+	}
+
+	public final void testFewerVectorsThanComponents() throws Exception {
+		// two vectors only vary along their difference, (3,4,0,0)
+		double[][] vectors = { { 1, 1, 5, 5 }, { 4, 5, 5, 5 } };
+		JavaPrincipalComponents pca = pca(vectors, 3);
+		assertEquals(1, pca.getComponents().length);
+		assertComponent(new double[] { 0.6, 0.8, 0, 0 }, pca.getComponents()[0]);
+		assertEquals(12.5, pca.getVariances()[0], EPSILON);
+		assertEquals(1.0, pca.getVarianceCovered(), EPSILON);
+		assertEquals(2.5, Math.abs(pca.getResults().getValue(0, 0)), EPSILON);
+
+		// a single vector has no variance at all
+		pca = pca(new double[][] { { 1, 2, 3 } }, 3);
+		assertEquals(0, pca.getComponents().length);
+		assertEquals(1, pca.getResults().numVectors());
+		assertEquals(0, pca.getResults().numDimensions());
+	}
+}
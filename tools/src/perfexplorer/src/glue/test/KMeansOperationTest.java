@@ -9,6 +9,7 @@ import java.util.List;
 import junit.framework.TestCase;
 import edu.uoregon.tau.perfexplorer.glue.AbstractResult;
 import edu.uoregon.tau.perfexplorer.glue.DataSourceResult;
+import edu.uoregon.tau.perfexplorer.glue.DefaultResult;
 import edu.uoregon.tau.perfexplorer.glue.ExtractEventOperation;
 import edu.uoregon.tau.perfexplorer.glue.KMeansOperation;
 import edu.uoregon.tau.perfexplorer.glue.PerformanceAnalysisOperation;
@@ -73,4 +74,32 @@ public class KMeansOperationTest extends TestCase {
 		}
 	}
 
+	/**
+	 * Three groups of threads, far apart, with the native engine.
+	 */
+	public final void testNativeEngine() {
+		PerformanceResult result = new DefaultResult();
+		result.setIgnoreWarnings(true);
+		String metric = "TIME";
+		int type = AbstractResult.EXCLUSIVE;
+		double[] centers = { 10.0, 1000.0, 100000.0 };
+		for (int thread = 0 ; thread < 300 ; thread++) {
+			double center = centers[thread % 3];
+			result.putExclusive(thread, "compute", metric, center + ((thread / 3) % 5));
+			result.putExclusive(thread, "MPI_Waitall()", metric, 2.0 * center - ((thread / 3) % 4));
+		}
+		PerformanceAnalysisOperation kmeans = new KMeansOperation(result, metric, type, 3);
+		List<PerformanceResult> outputs = kmeans.processData();
+		PerformanceResult centroids = outputs.get(0);
+		PerformanceResult counts = outputs.get(4);
+		assertEquals(3, centroids.getThreads().size());
+		double total = 0.0;
+		for (Integer cluster : counts.getThreads()) {
+			assertEquals(100.0, counts.getDataPoint(cluster, "count", metric, type));
+			total += centroids.getDataPoint(cluster, "compute", metric, type);
+		}
+		// the centroids are the means of the groups
+		assertEquals(10.0 + 1000.0 + 100000.0 + (3.0 * 2.0), total, 1.0e-6);
+	}
+
 }
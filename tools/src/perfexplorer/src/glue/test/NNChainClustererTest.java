@@ -0,0 +1,254 @@
+package edu.uoregon.tau.perfexplorer.glue.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import edu.uoregon.tau.perfexplorer.clustering.DendrogramTree;
+import edu.uoregon.tau.perfexplorer.clustering.DistanceMatrix;
+import edu.uoregon.tau.perfexplorer.clustering.HierarchicalCluster;
+import edu.uoregon.tau.perfexplorer.clustering.NNChainClusterer;
+import edu.uoregon.tau.perfexplorer.clustering.RawDataInterface;
+
+public class NNChainClustererTest extends TestCase {
+
+	private static final int VECTORS = 60;
+	private static final int DIMENSIONS = 3;
+	private static final int[] LINKAGES = { HierarchicalCluster.SINGLE_LINKAGE,
+		HierarchicalCluster.COMPLETE_LINKAGE, HierarchicalCluster.AVERAGE_LINKAGE };
+
+	public NNChainClustererTest(String arg0) {
+		super(arg0);
+	}
+
+	private static double[][] makeVectors(long seed) {
+		Random random = new Random(seed);
+		double[][] vectors = new double[VECTORS][DIMENSIONS];
+		for (int i = 0 ; i < VECTORS ; i++) {
+			// a few loose groups
+			double center = 10.0 * random.nextInt(4);
+			for (int j = 0 ; j < DIMENSIONS ; j++) {
+				vectors[i][j] = center + random.nextGaussian();
+			}
+		}
+		return vectors;
+	}
+
+	private static double distance(double[] x, double[] y) {
+		double sum = 0.0;
+		for (int j = 0 ; j < x.length ; j++) {
+			sum += (x[j] - y[j]) * (x[j] - y[j]);
+		}
+		return Math.sqrt(sum);
+	}
+
+	/**
+	 * Just the vectors, without Weka.
+	 */
+	static class VectorData implements RawDataInterface {
+		private final double[][] vectors;
+
+		VectorData(double[][] vectors) {
+			this.vectors = vectors;
+		}
+
+		public void addValue(int vectorIndex, int dimensionIndex, double value) {
+			vectors[vectorIndex][dimensionIndex] = value;
+		}
+
+		public void addValue(int vectorIndex, int dimensionIndex, String value) {
+			addValue(vectorIndex, dimensionIndex, Double.parseDouble(value));
+		}
+
+		public double getValue(int vectorIndex, int dimensionIndex) {
+			return vectors[vectorIndex][dimensionIndex];
+		}
+
+		public double getManhattanDistance(int firstVector, int secondVector) {
+			throw new UnsupportedOperationException();
+		}
+
+		public double getCartesianDistance(int firstVector, int secondVector) {
+			return distance(vectors[firstVector], vectors[secondVector]);
+		}
+
+		public Object getData() {
+			return vectors;
+		}
+
+		public List<String> getEventNames() {
+			List<String> names = new ArrayList<String>();
+			for (int j = 0 ; j < DIMENSIONS ; j++) {
+				names.add("event " + j);
+			}
+			return names;
+		}
+
+		public int numVectors() {
+			return vectors.length;
+		}
+
+		public int numDimensions() {
+			return DIMENSIONS;
+		}
+
+		public String getName() {
+			return "test";
+		}
+
+		public double getMaximum() {
+			throw new UnsupportedOperationException();
+		}
+
+		public double[] getVector(int i) {
+			return vectors[i].clone();
+		}
+
+		public double getCorrelation(int x, int y) {
+			throw new UnsupportedOperationException();
+		}
+
+		public void addMainValue(int threadIndex, int eventIndex, double value) {
+		}
+
+		public double getMainValue(int threadIndex) {
+			return 0.0;
+		}
+
+		public String getMainEventName() {
+			return null;
+		}
+	}
+
+	private static DistanceMatrix matrix(double[][] vectors) {
+		DistanceMatrix distances = new DistanceMatrix(vectors.length);
+		for (int i = 0 ; i < vectors.length ; i++) {
+			for (int j = 0 ; j < i ; j++) {
+				distances.setElementAt(i, j, distance(vectors[i], vectors[j]));
+				distances.setElementAt(j, i, distance(vectors[i], vectors[j]));
+			}
+		}
+		return distances;
+	}
+
+	// the linkage distance between two clusters, from all the pairs of their members
+	private static double linkage(int linkage, double[][] vectors, List<Integer> x, List<Integer> y) {
+		double result = (linkage == HierarchicalCluster.SINGLE_LINKAGE) ? Double.POSITIVE_INFINITY : 0.0;
+		for (int i : x) {
+			for (int j : y) {
+				double d = distance(vectors[i], vectors[j]);
+				if (linkage == HierarchicalCluster.SINGLE_LINKAGE) {
+					result = Math.min(result, d);
+				} else if (linkage == HierarchicalCluster.COMPLETE_LINKAGE) {
+					result = Math.max(result, d);
+				} else {
+					result += d;
+				}
+			}
+		}
+		if (linkage == HierarchicalCluster.AVERAGE_LINKAGE) {
+			result /= x.size() * y.size();
+		}
+		return result;
+	}
+
+	/**
+	 * The reference: merge the closest pair of clusters, over and over.
+	 *
+	 * @return the merge height of every cluster, by its members
+	 */
+	private static Map<String, Double> bruteForce(int linkage, double[][] vectors) {
+		List<List<Integer>> clusters = new ArrayList<List<Integer>>();
+		for (int i = 0 ; i < vectors.length ; i++) {
+			List<Integer> cluster = new ArrayList<Integer>();
+			cluster.add(i);
+			clusters.add(cluster);
+		}
+		Map<String, Double> heights = new HashMap<String, Double>();
+		while (clusters.size() > 1) {
+			int bestX = 0;
+			int bestY = 1;
+			double min = Double.POSITIVE_INFINITY;
+			for (int x = 0 ; x < clusters.size() ; x++) {
+				for (int y = x + 1 ; y < clusters.size() ; y++) {
+					double d = linkage(linkage, vectors, clusters.get(x), clusters.get(y));
+					if (d < min) {
+						min = d;
+						bestX = x;
+						bestY = y;
+					}
+				}
+			}
+			List<Integer> merged = clusters.get(bestX);
+			merged.addAll(clusters.remove(bestY));
+			Collections.sort(merged);
+			heights.put(merged.toString(), min);
+		}
+		return heights;
+	}
+
+	/**
+	 * Checks that the dendrogram has the reference's clusters at the
+	 * reference's heights, and the usual form: a node has the lowest index
+	 * of its members as ID, with the lower subtree on the left.
+	 */
+	private static void assertSameTree(Map<String, Double> expected, DendrogramTree root) {
+		assertNotNull(root);
+		List<DendrogramTree> stack = new ArrayList<DendrogramTree>();
+		stack.add(root);
+		int nodes = 0;
+		while (!stack.isEmpty()) {
+			DendrogramTree tree = stack.remove(stack.size() - 1);
+			List<Integer> members = tree.getIndexes();
+			Collections.sort(members);
+			if (tree.isLeaf()) {
+				assertEquals(1, members.size());
+				assertEquals(members.get(0) + 1, tree.getID());
+				continue;
+			}
+			nodes++;
+			Double height = expected.get(members.toString());
+			assertNotNull("no cluster " + members, height);
+			assertEquals(members.toString(), height.doubleValue(), tree.getHeight(), 1e-9 * height.doubleValue());
+			assertEquals(members.get(0).intValue(), tree.getID());
+			assertTrue(Collections.min(tree.getLeft().getIndexes()) < Collections.min(tree.getRight().getIndexes()));
+			stack.add(tree.getLeft());
+			stack.add(tree.getRight());
+		}
+		assertEquals(expected.size(), nodes);
+	}
+
+	public final void testDistanceMatrix() {
+		for (long seed = 1 ; seed <= 5 ; seed++) {
+			double[][] vectors = makeVectors(seed);
+			for (int linkage : LINKAGES) {
+				NNChainClusterer clusterer = new NNChainClusterer(linkage);
+				assertSameTree(bruteForce(linkage, vectors), clusterer.cluster(matrix(vectors)));
+			}
+		}
+	}
+
+	public final void testRawData() {
+		for (long seed = 1 ; seed <= 5 ; seed++) {
+			double[][] vectors = makeVectors(seed);
+			// single linkage as a spanning tree, the others through the matrix
+			for (int linkage : LINKAGES) {
+				NNChainClusterer clusterer = new NNChainClusterer(linkage);
+				assertSameTree(bruteForce(linkage, vectors), clusterer.cluster(new VectorData(vectors)));
+			}
+		}
+	}
+
+	public final void testTooFew() {
+		NNChainClusterer clusterer = new NNChainClusterer(HierarchicalCluster.SINGLE_LINKAGE);
+		assertNull(clusterer.cluster(new DistanceMatrix(1)));
+		assertNull(clusterer.cluster(new VectorData(new double[1][DIMENSIONS])));
+		DendrogramTree root = clusterer.cluster(new VectorData(new double[][] { { 0, 0, 0 }, { 3, 4, 0 } }));
+		assertEquals(5.0, root.getHeight(), 0.0);
+		assertEquals(0, root.getID());
+	}
+}
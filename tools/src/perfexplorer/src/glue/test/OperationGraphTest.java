@@ -0,0 +1,143 @@
+package edu.uoregon.tau.perfexplorer.glue.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import edu.uoregon.tau.perfexplorer.glue.AbstractPerformanceOperation;
+import edu.uoregon.tau.perfexplorer.glue.DefaultResult;
+import edu.uoregon.tau.perfexplorer.glue.OperationGraph;
+import edu.uoregon.tau.perfexplorer.glue.PerformanceResult;
+
+public class OperationGraphTest extends TestCase {
+
+	/**
+	 * Sums the exclusive values of "main" of the inputs, and counts the
+	 * times it is processed.
+	 */
+	private static class SumOperation extends AbstractPerformanceOperation {
+		private static final long serialVersionUID = 1L;
+		private final AtomicInteger count;
+
+		public SumOperation(AtomicInteger count) {
+			super(new ArrayList<PerformanceResult>());
+			this.count = count;
+		}
+
+		public List<PerformanceResult> processData() {
+			count.incrementAndGet();
+			double sum = 0.0;
+			for (PerformanceResult input : inputs) {
+				sum += input.getExclusive(0, "main", "TIME");
+			}
+			PerformanceResult output = new DefaultResult();
+			output.putExclusive(0, "main", "TIME", sum);
+			// a second output, for select()
+			PerformanceResult doubled = new DefaultResult();
+			doubled.putExclusive(0, "main", "TIME", sum * 2);
+			outputs.add(output);
+			outputs.add(doubled);
+			return outputs;
+		}
+	}
+
+	private static PerformanceResult value(double value) {
+		PerformanceResult result = new DefaultResult();
+		result.putExclusive(0, "main", "TIME", value);
+		return result;
+	}
+
+	public OperationGraphTest(String arg0) {
+		super(arg0);
+	}
+
+	public final void testRun() {
+		AtomicInteger count = new AtomicInteger();
+		OperationGraph graph = new OperationGraph();
+		graph.setThreads(4);
+		List<OperationGraph.Node> sums = new ArrayList<OperationGraph.Node>();
+		for (int i = 0 ; i < 30 ; i++) {
+			OperationGraph.Node input = graph.addResult(value(i));
+			sums.add(graph.add(new SumOperation(count), input, input));
+		}
+		OperationGraph.Node total = graph.add(new SumOperation(count), sums);
+		OperationGraph.Node doubled = graph.select(total, 1);
+		assertNull(total.getOutputs());
+		graph.run();
+
+		assertEquals(31, count.get());
+		// each sum has two outputs, 2i and 4i
+		assertEquals(6.0 * 435, total.getOutputAtIndex(0).getExclusive(0, "main", "TIME"), 0.0);
+		assertEquals(12.0 * 435, doubled.getOutputAtIndex(0).getExclusive(0, "main", "TIME"), 0.0);
+		assertEquals(1, doubled.getOutputs().size());
+
+		// the processed nodes aren't processed again
+		OperationGraph.Node more = graph.add(new SumOperation(count), total, sums.get(0));
+		graph.run();
+		assertEquals(32, count.get());
+		assertEquals(18.0 * 435, more.getOutputAtIndex(0).getExclusive(0, "main", "TIME"), 0.0);
+	}
+
+	public final void testFailure() {
+		OperationGraph graph = new OperationGraph();
+		OperationGraph.Node failed = graph.add(new SumOperation(new AtomicInteger()) {
+			private static final long serialVersionUID = 1L;
+			public List<PerformanceResult> processData() {
+				throw new IllegalStateException("failed");
+			}
+		});
+		OperationGraph.Node dependent = graph.add(new SumOperation(new AtomicInteger()), failed);
+		OperationGraph.Node independent = graph.add(new SumOperation(new AtomicInteger()), graph.addResult(value(1)));
+		try {
+			graph.run();
+			fail("the failure wasn't thrown");
+		} catch (IllegalStateException e) {
+		}
+		assertFalse(failed.isDone());
+		assertFalse(dependent.isDone());
+		assertTrue(independent.isDone());
+	}
+
+	public final void testRetry() {
+		final AtomicInteger attempts = new AtomicInteger();
+		AtomicInteger count = new AtomicInteger();
+		OperationGraph graph = new OperationGraph();
+		OperationGraph.Node flaky = graph.add(new SumOperation(count) {
+			private static final long serialVersionUID = 1L;
+			public List<PerformanceResult> processData() {
+				if (attempts.incrementAndGet() == 1) {
+					throw new IllegalStateException("failed");
+				}
+				return super.processData();
+			}
+		}, graph.addResult(value(2)));
+		OperationGraph.Node dependent = graph.add(new SumOperation(count), flaky);
+		OperationGraph.Node independent = graph.add(new SumOperation(count), graph.addResult(value(1)));
+		try {
+			graph.run();
+			fail("the failure wasn't thrown");
+		} catch (IllegalStateException e) {
+		}
+		assertEquals(1, count.get());
+
+		// the failed nodes are processed again, the others are kept
+		graph.run();
+		assertEquals(2, attempts.get());
+		assertEquals(3, count.get());
+		assertTrue(flaky.isDone());
+		// both outputs of the flaky node, 2 and 4
+		assertEquals(6.0, dependent.getOutputAtIndex(0).getExclusive(0, "main", "TIME"), 0.0);
+		assertTrue(independent.isDone());
+	}
+
+	public final void testOtherGraph() {
+		OperationGraph graph = new OperationGraph();
+		OperationGraph.Node node = new OperationGraph().addResult(value(1));
+		try {
+			graph.select(node, 0);
+			fail("a node of another graph was accepted");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
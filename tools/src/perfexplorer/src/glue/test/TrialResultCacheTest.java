@@ -0,0 +1,143 @@
+package edu.uoregon.tau.perfexplorer.glue.test;
+
+import junit.framework.TestCase;
+import edu.uoregon.tau.perfexplorer.glue.AbstractResult;
+import edu.uoregon.tau.perfexplorer.glue.DefaultResult;
+import edu.uoregon.tau.perfexplorer.glue.TrialMeanResult;
+import edu.uoregon.tau.perfexplorer.glue.TrialResult;
+import edu.uoregon.tau.perfexplorer.server.TrialResultCache;
+
+public class TrialResultCacheTest extends TestCase {
+
+	/**
+	 * Counts the loads, each result has one thread, one metric and the given
+	 * number of events: 8 * events * (2 * 1 + 2) = 32 * events bytes.
+	 */
+	private static class CountingLoader implements TrialResultCache.Loader {
+		private final int events;
+		int loads = 0;
+
+		CountingLoader(int events) {
+			this.events = events;
+		}
+
+		public AbstractResult load() {
+			loads++;
+			AbstractResult result = new DefaultResult();
+			for (int event = 0 ; event < events ; event++) {
+				result.putExclusive(0, "event " + event, "TIME", event);
+			}
+			return result;
+		}
+	}
+
+	private static TrialResultCache.Key key(String database, int trialID) {
+		return new TrialResultCache.Key(database, trialID, TrialResult.class, null, null, null, false);
+	}
+
+	public final void testLeastRecentlyUsedEviction() {
+		// room for three results of 10 events
+		TrialResultCache cache = new TrialResultCache(1000);
+		CountingLoader loaders[] = new CountingLoader[4];
+		for (int i = 0 ; i < loaders.length ; i++) {
+			loaders[i] = new CountingLoader(10);
+		}
+		for (int i = 0 ; i < 3 ; i++) {
+			assertNotNull(cache.get(key("db", i), loaders[i]));
+		}
+		assertEquals(3, cache.getCount());
+		assertEquals(3 * 320, cache.getSize());
+		assertEquals(0, cache.getEvictions());
+
+		// trial 0 is used again, so trial 1 is the least recently used
+		AbstractResult cached = cache.get(key("db", 0), loaders[0]);
+		assertSame(cached, cache.get(key("db", 0), loaders[0]));
+		assertEquals(1, loaders[0].loads);
+		cache.get(key("db", 3), loaders[3]);
+		assertEquals(3, cache.getCount());
+		assertEquals(1, cache.getEvictions());
+		cache.get(key("db", 0), loaders[0]);
+		cache.get(key("db", 2), loaders[2]);
+		assertEquals(1, loaders[0].loads);
+		assertEquals(1, loaders[2].loads);
+		cache.get(key("db", 1), loaders[1]);
+		assertEquals(2, loaders[1].loads);
+		assertEquals(2, cache.getEvictions());
+
+		// a larger result evicts as many as it needs, trials 0 and 2
+		CountingLoader large = new CountingLoader(15);
+		cache.get(key("db", 4), large);
+		assertEquals(2, cache.getCount());
+		assertEquals(320 + 480, cache.getSize());
+		assertEquals(4, cache.getEvictions());
+		cache.get(key("db", 1), loaders[1]);
+		assertEquals(2, loaders[1].loads);
+
+		// one that is larger than the cache is not kept
+		CountingLoader huge = new CountingLoader(40);
+		cache.get(key("db", 5), huge);
+		cache.get(key("db", 5), huge);
+		assertEquals(2, huge.loads);
+		assertEquals(2, cache.getCount());
+		assertEquals(800, cache.getSize());
+	}
+
+	public final void testSelection() {
+		TrialResultCache cache = new TrialResultCache(1 << 20);
+		CountingLoader loader = new CountingLoader(1);
+		cache.get(key("db", 1), loader);
+		cache.get(key("other", 1), loader);
+		cache.get(new TrialResultCache.Key("db", 1, TrialMeanResult.class, null, null, null, false), loader);
+		cache.get(new TrialResultCache.Key("db", 1, TrialResult.class, null, null, null, true), loader);
+		assertEquals(4, loader.loads);
+		assertEquals(4, cache.getCount());
+		cache.get(key("db", 1), loader);
+		assertEquals(4, loader.loads);
+		assertEquals(1, cache.getHits());
+		assertEquals(4, cache.getMisses());
+	}
+
+	public final void testInvalidation() {
+		TrialResultCache cache = new TrialResultCache(1 << 20);
+		CountingLoader loader = new CountingLoader(1);
+		cache.get(key("db", 1), loader);
+		cache.get(key("other", 1), loader);
+		cache.get(key("db", 2), loader);
+		assertEquals(3, loader.loads);
+
+		// trial 1 goes, from every database
+		cache.invalidate(1);
+		assertEquals(1, cache.getCount());
+		assertEquals(32, cache.getSize());
+		assertEquals(2, cache.getInvalidations());
+		cache.get(key("db", 1), loader);
+		cache.get(key("db", 2), loader);
+		assertEquals(4, loader.loads);
+
+		cache.clear();
+		assertEquals(0, cache.getCount());
+		assertEquals(0, cache.getSize());
+		cache.get(key("db", 2), loader);
+		assertEquals(5, loader.loads);
+	}
+
+	public final void testInvalidatedWhileLoading() {
+		final TrialResultCache cache = new TrialResultCache(1 << 20);
+		// the trial changes while its result is being loaded
+		CountingLoader loader = new CountingLoader(1) {
+			public AbstractResult load() {
+				AbstractResult result = super.load();
+				if (loads == 1) {
+					cache.invalidate(1);
+				}
+				return result;
+			}
+		};
+		assertNotNull(cache.get(key("db", 1), loader));
+		assertEquals(0, cache.getCount());
+		cache.get(key("db", 1), loader);
+		cache.get(key("db", 1), loader);
+		assertEquals(2, loader.loads);
+		assertEquals(1, cache.getCount());
+	}
+}
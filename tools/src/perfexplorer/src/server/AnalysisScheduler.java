@@ -0,0 +1,205 @@
+package edu.uoregon.tau.perfexplorer.server;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import edu.uoregon.tau.perfdmf.DatabaseAPI;
+import edu.uoregon.tau.perfdmf.taudb.TAUdbDatabaseAPI;
+import edu.uoregon.tau.perfexplorer.common.PerfExplorerOutput;
+import edu.uoregon.tau.perfexplorer.common.RMIPerfExplorerModel;
+
+/**
+ * Runs the long-executing analysis requests for the PerfExplorerServer.
+ * The requests wait in a priority queue (highest priority first, then in the
+ * order they came in) and start as soon as one of the worker threads is free,
+ * so that independent analyses run side by side.  Each analysis gets a
+ * database connection of its own, from the connection pool of its session.
+ *
+ * @see     AnalysisTask
+ * @see     PerfExplorerServer#requestAnalysis
+ */
+public class AnalysisScheduler {
+
+	private PerfExplorerServer server = null;
+	private ThreadPoolExecutor executor = null;
+	private long sequence = 0;
+	// the requests that are queued or running, by analysis ID
+	private Map<Integer, Request> requests = new HashMap<Integer, Request>();
+
+	/**
+	 * A queued analysis.  It is ordered by priority, then by arrival.
+	 */
+	private class Request extends FutureTask<Object> implements Comparable<Request> {
+		private RMIPerfExplorerModel model;
+		private long order;
+
+		Request(final RMIPerfExplorerModel model, long order) {
+			super(new Callable<Object>() {
+				public Object call() throws Exception {
+					runAnalysis(model);
+					return null;
+				}
+			});
+			this.model = model;
+			this.order = order;
+		}
+
+		public int compareTo(Request other) {
+			if (model.getPriority() != other.model.getPriority()) {
+				return model.getPriority() > other.model.getPriority() ? -1 : 1;
+			}
+			return order < other.order ? -1 : (order == other.order ? 0 : 1);
+		}
+
+		protected void done() {
+			synchronized (requests) {
+				if (requests.get(model.getAnalysisID()) == this) {
+					requests.remove(model.getAnalysisID());
+				}
+			}
+			if (server != null) {
+				server.analysisFinished(model);
+			}
+		}
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param server the server to run the analyses for, or null if
+	 * runAnalysis() is overridden
+	 * @param numThreads the number of analyses that can run at once
+	 */
+	public AnalysisScheduler (PerfExplorerServer server, int numThreads) {
+		this.server = server;
+		ThreadFactory factory = new ThreadFactory() {
+			private int count = 0;
+			public synchronized java.lang.Thread newThread(Runnable runnable) {
+				java.lang.Thread thread = new java.lang.Thread(runnable, "PerfExplorer analysis " + (++count));
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+		executor = new ThreadPoolExecutor(numThreads, numThreads, 60, TimeUnit.SECONDS,
+			new PriorityBlockingQueue<Runnable>(), factory);
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Queues the request, which has been entered in the database already.
+	 * A queued or running request with the same analysis ID is cancelled.
+	 *
+	 * @param model
+	 */
+	public void submit (RMIPerfExplorerModel model) {
+		Request request = null;
+		Request previous = null;
+		synchronized (requests) {
+			request = new Request(model, sequence++);
+			previous = requests.put(model.getAnalysisID(), request);
+		}
+		// outside the requests lock, the server checks isPending() under its own
+		if (server != null) {
+			server.analysisSubmitted(model);
+		}
+		if (previous != null) {
+			previous.cancel(true);
+			executor.remove(previous);
+		}
+		executor.execute(request);
+	}
+
+	/**
+	 * Cancels a request.  If it is running, its thread is interrupted,
+	 * and the analysis stops at the next step.
+	 *
+	 * @param analysisID
+	 * @return false if the request had already finished
+	 */
+	public boolean cancel (int analysisID) {
+		Request request = null;
+		synchronized (requests) {
+			request = requests.remove(analysisID);
+		}
+		if (request == null) {
+			return false;
+		}
+		boolean cancelled = request.cancel(true);
+		executor.remove(request);
+		return cancelled;
+	}
+
+	/**
+	 * @param connectionIndex
+	 * @param selection the selection of the model, see RMIPerfExplorerModel.toShortString()
+	 * @return true if an analysis of this selection is queued or running
+	 */
+	public boolean isPending (int connectionIndex, String selection) {
+		synchronized (requests) {
+			for (Request request : requests.values()) {
+				if (request.model.getConnectionIndex() == connectionIndex
+					&& request.model.toShortString().equals(selection)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the models of the requests queued or running
+	 */
+	public List<RMIPerfExplorerModel> getPendingRequests () {
+		List<RMIPerfExplorerModel> models = new ArrayList<RMIPerfExplorerModel>();
+		synchronized (requests) {
+			for (Request request : requests.values()) {
+				models.add(request.model);
+			}
+		}
+		return models;
+	}
+
+	/**
+	 * Cancels the queued requests and interrupts the running ones.
+	 */
+	public void shutdown () {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Runs one request, on a worker thread.  A cancelled request's thread
+	 * is interrupted.
+	 *
+	 * @param model
+	 */
+	protected void runAnalysis (RMIPerfExplorerModel model) throws SQLException {
+		DatabaseAPI session = server.getSession(model.getConnectionIndex());
+		// a copy of the session, on its own connection
+		DatabaseAPI workerSession = null;
+		if (session instanceof TAUdbDatabaseAPI) {
+			workerSession = new TAUdbDatabaseAPI(session);
+		} else {
+			workerSession = new DatabaseAPI();
+			session.copy(workerSession);
+		}
+		workerSession.setDB(session.getConnector().openConnection());
+		try {
+			AnalysisTask task = new AnalysisTask(server, workerSession, model);
+			task.run();
+		} finally {
+			workerSession.db().close();
+			if (java.lang.Thread.interrupted()) {
+				PerfExplorerOutput.println("Cancelled " + model.toString());
+			}
+		}
+	}
+}
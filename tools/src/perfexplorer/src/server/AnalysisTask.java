@@ -12,7 +12,6 @@ import java.io.FileInputStream;
 import java.sql.PreparedStatement;
 import java.util.Hashtable;
 import java.util.List;
-import java.util.TimerTask;
 
 import edu.uoregon.tau.perfdmf.DatabaseAPI;
 import edu.uoregon.tau.perfdmf.Metric;
@@ -44,7 +43,7 @@ import edu.uoregon.tau.perfexplorer.common.RMIPerfExplorerModel;
  * @version 0.1
  * @since 0.1
  */
-public class AnalysisTask extends TimerTask {
+public class AnalysisTask implements Runnable {
     
     private ChartType chartType = ChartType.DENDROGRAM;
     
@@ -57,20 +56,27 @@ public class AnalysisTask extends TimerTask {
     private List<String> eventIDs = null;
     private double rCorrelation = 0.0;
     private boolean correlateToMain = false;
-    private int connectionIndex = 0;
 
     /**
-    * Constructor.  The engine parameter passed in specifies which analysis
-    * engine to use. 
+    * Constructor.  The task runs the analysis requested in the model,
+    * using the given session for all database access.
     * 
     * @param server
-    * @param engine
+    * @param session
+    * @param modelData
     */
-    public AnalysisTask (PerfExplorerServer server, DatabaseAPI session, int connectionIndex) {
+    public AnalysisTask (PerfExplorerServer server, DatabaseAPI session, RMIPerfExplorerModel modelData) {
         super();
         this.server = server;
         this.session = session;
-        this.connectionIndex = connectionIndex;
+        this.modelData = modelData;
+    }
+
+    /**
+     * @return true if the request has been cancelled, see AnalysisScheduler.cancel()
+     */
+    private boolean cancelled() {
+        return java.lang.Thread.currentThread().isInterrupted();
     }
 
     /**
@@ -222,7 +228,6 @@ public class AnalysisTask extends TimerTask {
 	 * @see java.lang.Runnable#run()
 	 */
 	public void run() {
-		modelData = server.getNextRequest(connectionIndex);
 		if (modelData != null) {
 			analysisID = modelData.getAnalysisID();
 			try {
@@ -240,7 +245,7 @@ public class AnalysisTask extends TimerTask {
 				
 				if (modelData.getClusterMethod().equals(AnalysisType.K_MEANS)) {
 					int maxClusters = (numTotalThreads <= modelData.getNumberOfClusters()) ? (numTotalThreads-1) : modelData.getNumberOfClusters();
-					for (int i = 2 ; i <= maxClusters ; i++) {
+					for (int i = 2 ; i <= maxClusters && !cancelled() ; i++) {
 						PerfExplorerOutput.println("Doing " + i + " clusters:" + modelData.toString());
 						// create a cluster engine
 						KMeansClusterInterface clusterer = AnalysisFactory.createKMeansEngine();
@@ -257,7 +262,7 @@ public class AnalysisTask extends TimerTask {
 					//long start = System.currentTimeMillis();
 					clusterer.setInputData(reducedData);
 					//long end = System.currentTimeMillis();
-					for (int i = 2 ; i <= maxClusters ; i++) {
+					for (int i = 2 ; i <= maxClusters && !cancelled() ; i++) {
 						PerfExplorerOutput.println("Doing " + i + " clusters:" + modelData.toString());
 						// because all we are doing is changing the cut in the tree, we don't
 						// have to the clustering more than once.  but we do have to reset
@@ -286,7 +291,7 @@ public class AnalysisTask extends TimerTask {
 					int numClusters = 1;
 					int maxTries = Math.min(50, epsilonIndex);
 					int[] previousClusterSizes = null;
-					while (maxTries > 0 && epsilonIndex > 0) {
+					while (maxTries > 0 && epsilonIndex > 0 && !cancelled()) {
 						boolean newResult = false;
 						PerfExplorerOutput.println("Clustering with Epsilon = " + epsilon + " : " + modelData.toString());
 						clusterer.setError(epsilon);
@@ -330,7 +335,7 @@ public class AnalysisTask extends TimerTask {
 				} else {
 					PerfExplorerOutput.println("Doing Correlation Analysis...");
 					chartType = ChartType.CORRELATION_SCATTERPLOT;
-					for (int i = 0 ; i < reducedData.numDimensions() ; i++) {
+					for (int i = 0 ; i < reducedData.numDimensions() && !cancelled() ; i++) {
 						for (int j = 0 ; j < reducedData.numDimensions() ; j++) {
 							rCorrelation = reducedData.getCorrelation(i,j);
 							File thumbnail = ImageUtils.generateCorrelationScatterplotThumbnail(chartType, modelData, reducedData, i, j, correlateToMain);
@@ -351,8 +356,6 @@ public class AnalysisTask extends TimerTask {
             	System.err.println(e.getMessage());
 				e.printStackTrace();
 			}
-			// let the server (main thread) know we are done
-			server.taskFinished(connectionIndex);
 			modelData = null;
 		} // else 
 			//PerfExplorerOutput.println("nothing to do... ");			
@@ -374,7 +377,7 @@ public class AnalysisTask extends TimerTask {
 		if (modelData.getCurrentSelection() instanceof Metric) {
 			// do PCA breakdown
 			PrincipalComponentsAnalysisInterface pca =
-			AnalysisFactory.createPCAEngine(server.getCubeData(modelData, 4));
+			AnalysisFactory.createPCAEngine(server.getCubeData(modelData, 4, session.db()));
 			pca.setInputData(reducedData);
 			pca.doPCA();
 			// get the components
@@ -21,11 +21,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
 
 import edu.uoregon.tau.perfdmf.Application;
@@ -83,9 +82,23 @@ public class PerfExplorerServer extends UnicastRemoteObject implements RMIPerfEx
 	private List<Integer> schemaVersions = new ArrayList<Integer>();
 	private List<Boolean> connected = new ArrayList<Boolean>();
 	private List<String> actualConfigFiles = new ArrayList<String>();
-	private List<Queue<RMIPerfExplorerModel>> requestQueues = new ArrayList<Queue<RMIPerfExplorerModel>>();
-	private List<Thread> timerThreads = new ArrayList<Thread>();
-	private List<TimerThread> timers = new ArrayList<TimerThread>();
+	private AnalysisScheduler scheduler = new AnalysisScheduler(this, Integer.getInteger("perfexplorer.analysisThreads",
+		Math.min(4, Runtime.getRuntime().availableProcessors())).intValue());
+	// the analysis results last sent to the clients, least recently used first
+	private final int resultCacheSize = Integer.getInteger("perfexplorer.resultCacheSize", 64).intValue();
+	private Map<String, RMIPerformanceResults> resultCache = new LinkedHashMap<String, RMIPerformanceResults>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		protected boolean removeEldestEntry(Map.Entry<String, RMIPerformanceResults> eldest) {
+			return size() > resultCacheSize;
+		}
+	};
+	// bumped, under the resultCache lock, whenever an analysis is submitted or finishes
+	private long resultGeneration = 0;
+	// the connections lent to threads by openThreadConnection()
+	private final ThreadLocal<DB> threadDB = new ThreadLocal<DB>();
+	// the trial data loaded by the glue, shared by all the sessions
+	private TrialResultCache trialResultCache = new TrialResultCache(
+		Long.getLong("perfexplorer.trialCacheMB", 256).longValue() * 1024 * 1024);
 	private static PerfExplorerServer theServer = null;
 	private String configFile;
 	private String tauHome = "";
@@ -239,9 +252,6 @@ public class PerfExplorerServer extends UnicastRemoteObject implements RMIPerfEx
 					api = new TAUdbDatabaseAPI(api);
 				}
 				PerfExplorerOutput.println(" Connected to " + api.db().getConnectString() + ".");
-				Queue<RMIPerfExplorerModel> requestQueue = new LinkedList<RMIPerfExplorerModel>();
-				TimerThread timer = new TimerThread(this, api, ((index<0)?this.sessions.size():index));
-				java.lang.Thread timerThread = new java.lang.Thread(timer);
 				if (index < 0) {
 					this.sessions.add(api);
 					this.connected.add(true);
@@ -250,9 +260,6 @@ public class PerfExplorerServer extends UnicastRemoteObject implements RMIPerfEx
 					this.schemaVersions.add(api.db().getSchemaVersion());
 					this.session = api;
 					this.actualConfigFiles.add(tmpFile);
-					this.requestQueues.add(requestQueue);
-					this.timers.add(timer);
-					this.timerThreads.add(timerThread);
 				} else {
 					this.sessions.set(index, api);
 					this.connected.set(index, true);
@@ -260,11 +267,7 @@ public class PerfExplorerServer extends UnicastRemoteObject implements RMIPerfEx
 					this.sessionStrings.set(index, api.db().getConnectString());
 					this.schemaVersions.set(index, api.db().getSchemaVersion());
 					this.session = api;
-					this.requestQueues.set(index,requestQueue);
-					this.timers.set(index,timer);
-					this.timerThreads.set(index,timerThread);
 				}
-				timerThread.start();
 			} else {
 				this.sessions.add(null);
 				this.connected.add(false);
@@ -272,9 +275,6 @@ public class PerfExplorerServer extends UnicastRemoteObject implements RMIPerfEx
 				this.sessionStrings.add("jdbc:"+configName);
 				this.schemaVersions.add(0);
 				this.actualConfigFiles.add(tmpFile);
-				this.requestQueues.add(null);
-				this.timers.add(null);
-				this.timerThreads.add(null);
 			}
 		} catch (Exception e) {
 			if (e instanceof FileNotFoundException) {
@@ -402,10 +402,7 @@ public class PerfExplorerServer extends UnicastRemoteObject implements RMIPerfEx
 
 	public void stopServer() {
 		PerfExplorerOutput.println("stopServer()...");
-		for (int i = 0 ; i < timers.size(); i++ ) {
-			TimerThread timer = timers.get(i);
-			timer.cancel();
-		}
+		scheduler.shutdown();
 		try{
 			java.lang.Thread.sleep(1000);
 		} catch (Exception e) {/* nothing to do */}
@@ -415,7 +412,7 @@ public class PerfExplorerServer extends UnicastRemoteObject implements RMIPerfEx
 	/**
 	 * Based on the model passed in over RMI, request some type of analysis
 	 * on the settings.  The analysis is a long-running analysis, so it will
-	 * be placed in the request queue, and the background thread will process
+	 * be placed in the request queue, and one of the analysis threads will process
 	 * the request.  If the request already exists, the "force" parameter will
 	 * replace the previous analysis request.  The String returned contains
 	 * the status of having queued the request.
@@ -435,8 +432,7 @@ public class PerfExplorerServer extends UnicastRemoteObject implements RMIPerfEx
 			status.append("Request " + analysisID + " queued.");
 			model.setAnalysisID(analysisID);
 			status.append("\nRequest accepted.");
-			Queue<RMIPerfExplorerModel> requestQueue = requestQueues.get(model.getConnectionIndex());
-			requestQueue.offer(model);
+			scheduler.submit(model);
 		} catch (PerfExplorerException e) {
 			String tmp = e.getMessage();
 			Throwable exec = e.getCause();
@@ -447,6 +443,17 @@ public class PerfExplorerServer extends UnicastRemoteObject implements RMIPerfEx
 		return status.toString();
 	}
 
+	/**
+	 * Cancels an analysis request.  A queued request is dropped; a running
+	 * one stops at its next step, keeping the results saved so far.
+	 * 
+	 * @param analysisID
+	 * @return false if the request was not queued or running
+	 */
+	public boolean cancelAnalysis(int analysisID) {
+		return scheduler.cancel(analysisID);
+	}
+
 	/**
 	 * After Correlation analysis has been requested, the results can be
 	 * requested.  Based on the model passed in, if the configuration has been
@@ -457,6 +464,17 @@ public class PerfExplorerServer extends UnicastRemoteObject implements RMIPerfEx
 	 * @return RMIPerformanceResults
 	 */
 	public RMIPerformanceResults getCorrelationResults(RMIPerfExplorerModel model) {
+		String key = "correlation:" + model.getConnectionIndex() + ":" + model.toShortString();
+		long generation = getResultGeneration();
+		RMIPerformanceResults analysisResults = getCachedResults(key);
+		if (analysisResults == null) {
+			analysisResults = queryCorrelationResults(model);
+			cacheResults(key, model, analysisResults, generation);
+		}
+		return analysisResults;
+	}
+
+	private RMIPerformanceResults queryCorrelationResults(RMIPerfExplorerModel model) {
 		//PerfExplorerOutput.print("getCorrelationResults(" + model.toString() + ")... ");
 		RMIPerformanceResults analysisResults = new RMIPerformanceResults();
 		try {
@@ -596,6 +614,17 @@ public class PerfExplorerServer extends UnicastRemoteObject implements RMIPerfEx
 	 * @return RMIPerformanceResults
 	 */
 	public RMIPerformanceResults getPerformanceResults(RMIPerfExplorerModel model) {
+		String key = "performance:" + model.getConnectionIndex() + ":" + model.toShortString();
+		long generation = getResultGeneration();
+		RMIPerformanceResults analysisResults = getCachedResults(key);
+		if (analysisResults == null) {
+			analysisResults = queryPerformanceResults(model);
+			cacheResults(key, model, analysisResults, generation);
+		}
+		return analysisResults;
+	}
+
+	private RMIPerformanceResults queryPerformanceResults(RMIPerfExplorerModel model) {
 		//PerfExplorerOutput.print("getPerformanceResults(" + model.toString() + ")... ");
 		RMIPerformanceResults analysisResults = new RMIPerformanceResults();
 		try {
@@ -731,29 +760,81 @@ public class PerfExplorerServer extends UnicastRemoteObject implements RMIPerfEx
 		return analysisResults;
 	}
 
+	private RMIPerformanceResults getCachedResults(String key) {
+		synchronized (resultCache) {
+			return resultCache.get(key);
+		}
+	}
+
+	private long getResultGeneration() {
+		synchronized (resultCache) {
+			return resultGeneration;
+		}
+	}
+
+	/**
+	 * Keeps the results for the next request of the same selection, unless
+	 * they are empty or an analysis of the selection is still adding to them.
+	 * They are dropped as well if any analysis was submitted or finished
+	 * since the generation was read, before the query: the query may have
+	 * seen only part of what that analysis saved.
+	 */
+	private void cacheResults(String key, RMIPerfExplorerModel model, RMIPerformanceResults analysisResults,
+		long generation) {
+		if (analysisResults.getResultCount() == 0) {
+			return;
+		}
+		synchronized (resultCache) {
+			if (generation == resultGeneration
+				&& !scheduler.isPending(model.getConnectionIndex(), model.toShortString())) {
+				resultCache.put(key, analysisResults);
+			}
+		}
+	}
+
 	/**
-	 * When the background analysis task is completed, the request is popped
-	 * of the front of the queue.
+	 * When an analysis task is queued, the cached results of its
+	 * selection are dropped, until it is done.
+	 */
+	void analysisSubmitted (RMIPerfExplorerModel model) {
+		dropCachedResults(model);
+	}
+
+	/**
+	 * When an analysis task is completed (or cancelled), the cached
+	 * results of its selection are dropped.
 	 * 
 	 */
-	public void taskFinished (int connectionIndex) {
-		Queue<RMIPerfExplorerModel> requestQueue = requestQueues.get(connectionIndex);
-		//RMIPerfExplorerModel model = 
-		requestQueue.poll();
-		//PerfExplorerOutput.println(model.toString() + " finished!");
-		// endRSession();
+	void analysisFinished (RMIPerfExplorerModel model) {
+		dropCachedResults(model);
+	}
+
+	private void dropCachedResults (RMIPerfExplorerModel model) {
+		String selection = ":" + model.getConnectionIndex() + ":" + model.toShortString();
+		synchronized (resultCache) {
+			resultGeneration++;
+			for (Iterator<String> iter = resultCache.keySet().iterator() ; iter.hasNext() ; ) {
+				if (iter.next().endsWith(selection)) {
+					iter.remove();
+				}
+			}
+		}
 	}
 
 	/**
-	 * Get the next request from the front of the request queue.  Do not remove
-	 * it from the queue, in case something happens, so we can re-process the
-	 * request (NOT YET IMPLEMENTED - TODO).
+	 * Get the session of one of the configured databases.
+	 * @param connectionIndex
 	 * @return
 	 */
-	public RMIPerfExplorerModel getNextRequest (int connectionIndex) {
-		Queue<RMIPerfExplorerModel> requestQueue = requestQueues.get(connectionIndex);
-		RMIPerfExplorerModel model = requestQueue.peek();
-		return model;
+	public DatabaseAPI getSession (int connectionIndex) {
+		return sessions.get(connectionIndex);
+	}
+
+	/**
+	 * @return the cache of the trial data loaded by the glue
+	 */
+	public TrialResultCache getTrialResultCache() {
+		return trialResultCache;
 	}
 
 	/**
@@ -761,11 +842,36 @@ public class PerfExplorerServer extends UnicastRemoteObject implements RMIPerfEx
 	 * @return
 	 */
 	public DB getDB (){
+		DB db = threadDB.get();
+		if (db != null)
+			return db;
 		if (session != null)
 			return session.db();
 		return null;
 	}
 
+	/**
+	 * Lends the calling thread a connection of its own to the current
+	 * database, from its connection pool.  getDB() returns it on this
+	 * thread until closeThreadConnection() gives it back.
+	 * 
+	 * @throws SQLException
+	 */
+	public void openThreadConnection () throws SQLException {
+		if (session != null)
+			threadDB.set(session.getConnector().openConnection());
+	}
+
+	/**
+	 * Gives back the connection lent by openThreadConnection().
+	 */
+	public void closeThreadConnection () {
+		DB db = threadDB.get();
+		threadDB.remove();
+		if (db != null)
+			db.close();
+	}
+
 	/**
 	 * Check to see if the current request has been requested before.
 	 * 
@@ -1929,9 +2035,15 @@ public class PerfExplorerServer extends UnicastRemoteObject implements RMIPerfEx
 	 * @see common.RMIPerfExplorer#getCubeData(common.RMIPerfExplorerModel)
 	 */
 	public RMICubeData getCubeData(RMIPerfExplorerModel model, int numFunctions) {
+		return getCubeData(model, numFunctions, this.getDB());
+	}
+
+	/**
+	 * Same as getCubeData(model, numFunctions), on the given connection.
+	 */
+	public RMICubeData getCubeData(RMIPerfExplorerModel model, int numFunctions, DB db) {
 		RMICubeData data = null;
 		try {
-			DB db = this.getDB();
 			PreparedStatement statement = null;
 			StringBuilder buf = new StringBuilder();
 			String clusterType=model.getClusterValueType();
@@ -0,0 +1,299 @@
+package edu.uoregon.tau.perfexplorer.server;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import edu.uoregon.tau.perfexplorer.glue.AbstractResult;
+
+/**
+ * Keeps the trial results loaded from the database (TrialResult,
+ * TrialMeanResult, TrialTotalResult), so that loading the same selection
+ * again, from any session of the server, doesn't query the database.
+ * The results are kept in least recently used order, up to
+ * perfexplorer.trialCacheMB megabytes of values (256 by default; 0 turns
+ * the cache off).  When several threads ask for the same selection at once,
+ * only one of them queries the database, and the others wait for it.
+ *
+ * <P>The cached results are shared, so the callers must copy them before
+ * handing them out.  Changes to the trials made through PerfExplorer (trials
+ * deleted, metrics saved) invalidate their results; changes made by another
+ * process are not seen until the results are evicted, or clear() is
+ * called.</P>
+ *
+ * @see     PerfExplorerServer#getTrialResultCache
+ */
+public class TrialResultCache {
+
+	/**
+	 * Loads a result, on a cache miss.
+	 */
+	public interface Loader {
+		/**
+		 * @return the result, or null if it couldn't be loaded
+		 */
+		public AbstractResult load();
+	}
+
+	/**
+	 * The selection a result was loaded with.  Null sets mean everything.
+	 */
+	public static class Key {
+		private final String database;
+		private final int trialID;
+		private final String kind;
+		private final Set<String> metrics;
+		private final Set<String> events;
+		private final Set<String> threads;
+		private final boolean callPath;
+
+		/**
+		 * @param database the database, see DB.getConnectString()
+		 * @param trialID
+		 * @param kind the class of the result
+		 * @param metrics the metrics loaded, null for all
+		 * @param events the events loaded, null for all
+		 * @param threads the threads loaded, null for all
+		 * @param callPath true if the callpath events were loaded
+		 */
+		public Key(String database, int trialID, Class<?> kind, Collection<String> metrics,
+			Collection<String> events, Collection<String> threads, boolean callPath) {
+			this.database = database;
+			this.trialID = trialID;
+			this.kind = kind.getName();
+			this.metrics = (metrics == null) ? null : new TreeSet<String>(metrics);
+			this.events = (events == null) ? null : new TreeSet<String>(events);
+			this.threads = (threads == null) ? null : new TreeSet<String>(threads);
+			this.callPath = callPath;
+		}
+
+		public boolean equals(Object object) {
+			if (!(object instanceof Key)) {
+				return false;
+			}
+			Key other = (Key)object;
+			return trialID == other.trialID && callPath == other.callPath
+				&& kind.equals(other.kind)
+				&& equal(database, other.database)
+				&& equal(metrics, other.metrics)
+				&& equal(events, other.events)
+				&& equal(threads, other.threads);
+		}
+
+		public int hashCode() {
+			int hash = trialID;
+			hash = (31 * hash) + kind.hashCode();
+			hash = (31 * hash) + (database == null ? 0 : database.hashCode());
+			hash = (31 * hash) + (metrics == null ? 0 : metrics.hashCode());
+			hash = (31 * hash) + (events == null ? 0 : events.hashCode());
+			hash = (31 * hash) + (threads == null ? 0 : threads.hashCode());
+			return (31 * hash) + (callPath ? 1 : 0);
+		}
+
+		private static boolean equal(Object x, Object y) {
+			return (x == null) ? (y == null) : x.equals(y);
+		}
+
+		public String toString() {
+			return kind + " of trial " + trialID;
+		}
+	}
+
+	private static class Entry {
+		private final AbstractResult result;
+		private final long size;
+
+		Entry(AbstractResult result, long size) {
+			this.result = result;
+			this.size = size;
+		}
+	}
+
+	private final long maxSize;
+	private long size = 0;
+	// the results, least recently used first
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+	// the loads in progress
+	private final Map<Key, FutureTask<AbstractResult>> loading = new HashMap<Key, FutureTask<AbstractResult>>();
+	// incremented by every invalidation, so that a load that was running
+	// at the time isn't cached
+	private long generation = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long invalidations = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxSize the most bytes of values to keep
+	 */
+	public TrialResultCache (long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Gets a result from the cache, or loads it.  The result must not be
+	 * modified, copy it instead.
+	 *
+	 * @param key the selection
+	 * @param loader loads the result, on a miss
+	 * @return the result, or null if the loader couldn't load it
+	 */
+	public AbstractResult get (Key key, final Loader loader) {
+		FutureTask<AbstractResult> task = null;
+		boolean owner = false;
+		long loadGeneration = 0;
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				hits++;
+				return entry.result;
+			}
+			task = loading.get(key);
+			if (task == null) {
+				misses++;
+				task = new FutureTask<AbstractResult>(new Callable<AbstractResult>() {
+					public AbstractResult call() {
+						return loader.load();
+					}
+				});
+				loading.put(key, task);
+				owner = true;
+				loadGeneration = generation;
+			} else {
+				// somebody else is loading it, that counts as a hit
+				hits++;
+			}
+		}
+
+		AbstractResult result = null;
+		try {
+			if (owner) {
+				task.run();
+			}
+			result = task.get();
+		} catch (InterruptedException e) {
+			java.lang.Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException)e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} finally {
+			if (owner) {
+				synchronized (this) {
+					loading.remove(key);
+					if (result != null && loadGeneration == generation) {
+						add(key, result);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	private void add (Key key, AbstractResult result) {
+		long resultSize = sizeOf(result);
+		if (maxSize <= 0 || resultSize > maxSize) {
+			return;
+		}
+		Entry previous = entries.put(key, new Entry(result, resultSize));
+		if (previous != null) {
+			size -= previous.size;
+		}
+		size += resultSize;
+		for (Iterator<Entry> iter = entries.values().iterator() ; size > maxSize && iter.hasNext() ; ) {
+			Entry eldest = iter.next();
+			iter.remove();
+			size -= eldest.size;
+			evictions++;
+		}
+	}
+
+	/**
+	 * An estimate of the memory of the values of a result, in bytes.
+	 */
+	private static long sizeOf (AbstractResult result) {
+		long threads = result.getThreads().size();
+		long events = result.getEvents().size();
+		long metrics = result.getMetrics().size();
+		long userEvents = result.getUserEvents().size();
+		return 8 * threads * ((events * ((2 * metrics) + 2)) + (userEvents * 5));
+	}
+
+	/**
+	 * Drops the results of a trial, from every database.  This is called
+	 * when the trial is deleted or changed.
+	 *
+	 * @param trialID
+	 */
+	public synchronized void invalidate (int trialID) {
+		generation++;
+		for (Iterator<Map.Entry<Key, Entry>> iter = entries.entrySet().iterator() ; iter.hasNext() ; ) {
+			Map.Entry<Key, Entry> entry = iter.next();
+			if (entry.getKey().trialID == trialID) {
+				size -= entry.getValue().size;
+				iter.remove();
+				invalidations++;
+			}
+		}
+	}
+
+	/**
+	 * Drops all the results, when many trials change at once (an
+	 * application or experiment is deleted), or the database was
+	 * changed from outside.
+	 */
+	public synchronized void clear () {
+		generation++;
+		invalidations += entries.size();
+		entries.clear();
+		size = 0;
+	}
+
+	public synchronized long getHits () {
+		return hits;
+	}
+
+	public synchronized long getMisses () {
+		return misses;
+	}
+
+	public synchronized long getEvictions () {
+		return evictions;
+	}
+
+	public synchronized long getInvalidations () {
+		return invalidations;
+	}
+
+	/**
+	 * @return the number of results in the cache
+	 */
+	public synchronized int getCount () {
+		return entries.size();
+	}
+
+	/**
+	 * @return the estimated bytes of values in the cache
+	 */
+	public synchronized long getSize () {
+		return size;
+	}
+
+	public synchronized String toString () {
+		return "Trial result cache: " + entries.size() + " results, " + (size / (1024 * 1024)) + " of "
+			+ (maxSize / (1024 * 1024)) + " MB, " + hits + " hits, " + misses + " misses, "
+			+ evictions + " evictions, " + invalidations + " invalidations";
+	}
+}
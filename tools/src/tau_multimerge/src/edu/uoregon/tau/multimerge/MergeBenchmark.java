@@ -0,0 +1,208 @@
+package edu.uoregon.tau.multimerge;
+
+import java.io.File;
+
+import edu.uoregon.tau.trace.TraceReader;
+import edu.uoregon.tau.trace.TraceReaderCallbacks;
+import edu.uoregon.tau.trace.TraceWriter;
+
+/**
+ * Measures the merge rate, in records per second, for synthetic sets of 16, 1k and 16k traces.
+ *
+ * Usage: MergeBenchmark [-records total] [-linear maxTraces] [traceCount ...]
+ *
+ * The traces share the total number of records (2M by default).  The merge with TraceMerger is compared to the
+ * one record at a time scan that tau_multimerge used before, which is only run up to maxTraces (1024 by default)
+ * because it gets quadratic.  Each trace file holds one open file handle during the merge, so the 16k case needs a
+ * matching ulimit -n.
+ */
+public class MergeBenchmark {
+
+	/**
+	 * Counts the events, the merged trace is not written
+	 */
+	private static class Counter implements TraceReaderCallbacks {
+		long events = 0;
+
+		public int defClkPeriod(Object userData, double clkPeriod) {
+			return 0;
+		}
+
+		public int defThread(Object userData, int nodeToken, int threadToken, String threadName) {
+			return 0;
+		}
+
+		public int defStateGroup(Object userData, int stateGroupToken, String stateGroupName) {
+			return 0;
+		}
+
+		public int defState(Object userData, int stateToken, String stateName, int stateGoupToken) {
+			return 0;
+		}
+
+		public int defUserEvent(Object userData, int userEventToken, String userEventName, int monotonicallyIncreasing) {
+			return 0;
+		}
+
+		public int enterState(Object userData, long time, int nodeToken, int threadToken, int stateToken) {
+			events++;
+			return 0;
+		}
+
+		public int leaveState(Object userData, long time, int nodeToken, int threadToken, int stateToken) {
+			events++;
+			return 0;
+		}
+
+		public int sendMessage(Object userData, long time, int sourceNodeToken, int sourceThreadToken,
+				int destinationNodeToken, int destinationThreadToken, int messageSize, int messageTag, int messageCom) {
+			events++;
+			return 0;
+		}
+
+		public int recvMessage(Object userData, long time, int sourceNodeToken, int sourceThreadToken,
+				int destinationNodeToken, int destinationThreadToken, int messageSize, int messageTag, int messageCom) {
+			events++;
+			return 0;
+		}
+
+		public int eventTrigger(Object userData, long time, int nodeToken, int threadToken, int userEventToken,
+				double userEventValue) {
+			events++;
+			return 0;
+		}
+
+		public int endTrace(Object userData, int nodeToken, int threadToken) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Writes count traces of a main routine calling a work routine, with interleaved timestamps
+	 */
+	private static void generate(File dir, int count, int records) {
+		for (int n = 0; n < count; n++) {
+			TraceWriter tw = new TraceWriter(new File(dir, "tautrace." + n + ".0.0.trc").getPath(),
+					new File(dir, "events." + n + ".edf").getPath());
+			tw.defStateGroup("TAU_DEFAULT", 1);
+			tw.defState(1, "main", 1);
+			tw.defState(2, "work", 1);
+			tw.defUserEvent(3, "work size", 0);
+			long time = n;
+			tw.enterState(time, n, 0, 1);
+			for (int i = 0; i < records / 3; i++) {
+				time += count;
+				tw.enterState(time, n, 0, 2);
+				tw.eventTrigger(time, n, 0, 3, i);
+				time += count;
+				tw.leaveState(time, n, 0, 2);
+			}
+			tw.leaveState(time + count, n, 0, 1);
+			tw.closeTrace();
+		}
+	}
+
+	private static TraceReader[] open(File dir, int count) {
+		TraceReader[] readers = new TraceReader[count];
+		for (int n = 0; n < count; n++) {
+			readers[n] = new TraceReader(new File(dir, "tautrace." + n + ".0.0.trc").getPath(),
+					new File(dir, "events." + n + ".edf").getPath());
+			readers[n].setSubtractFirstTimestamp(false);
+		}
+		return readers;
+	}
+
+	private static long mergeHeap(File dir, int count, Counter counter) {
+		TraceReader[] readers = open(dir, count);
+		TraceMerger merger = new TraceMerger(readers, new Object[count], null);
+		while (merger.step(counter)) {
+		}
+		merger.close();
+		return merger.getRecordsRead();
+	}
+
+	private static long mergeLinear(File dir, int count, Counter counter) {
+		TraceReader[] readers = open(dir, count);
+		long[] sorter = new long[count];
+		for (int i = 0; i < count; i++) {
+			sorter[i] = readers[i].peekTime();
+		}
+		long records = 0;
+		int minDex = MultiMerge.minTime(sorter);
+		while (minDex >= 0) {
+			int read = readers[minDex].readNumEvents(counter, 1, null);
+			records += read;
+			sorter[minDex] = read == 0 ? -1 : readers[minDex].peekTime();
+			if (sorter[minDex] == -1) {
+				readers[minDex].closeTrace();
+			}
+			minDex = MultiMerge.minTime(sorter);
+		}
+		return records;
+	}
+
+	private static void delete(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (int i = 0; i < files.length; i++) {
+				files[i].delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private static String rate(long records, long nanos) {
+		return String.valueOf((long) (records / (nanos / 1e9)));
+	}
+
+	public static void main(String[] args) throws Exception {
+		int total = 1 << 21;
+		int linearLimit = 1024;
+		int[] counts = { 16, 1024, 16384 };
+		int first = 0;
+		while (first < args.length && args[first].startsWith("-")) {
+			if (args[first].equals("-records")) {
+				total = Integer.parseInt(args[first + 1]);
+			} else if (args[first].equals("-linear")) {
+				linearLimit = Integer.parseInt(args[first + 1]);
+			}
+			first += 2;
+		}
+		if (first < args.length) {
+			counts = new int[args.length - first];
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = Integer.parseInt(args[first + i]);
+			}
+		}
+
+		System.out.println("traces\trecords\theap records/s\tlinear records/s");
+		for (int c = 0; c < counts.length; c++) {
+			int count = counts[c];
+			File dir = File.createTempFile("multimerge", "");
+			dir.delete();
+			dir.mkdir();
+			try {
+				generate(dir, count, Math.max(3, total / count));
+
+				Counter counter = new Counter();
+				long start = System.nanoTime();
+				long records = mergeHeap(dir, count, counter);
+				String heap = rate(records, System.nanoTime() - start);
+
+				String linear = "-";
+				if (count <= linearLimit) {
+					Counter check = new Counter();
+					start = System.nanoTime();
+					long linearRecords = mergeLinear(dir, count, check);
+					linear = rate(linearRecords, System.nanoTime() - start);
+					if (check.events != counter.events) {
+						System.out.println("Event count mismatch: " + counter.events + " vs. " + check.events);
+					}
+				}
+				System.out.println(count + "\t" + records + "\t" + heap + "\t" + linear);
+			} finally {
+				delete(dir);
+			}
+		}
+	}
+}
@@ -438,7 +438,7 @@ public class MultiMerge {
 	private static void dataMerge(List<List<File>> traces){
 		int totalTraces=countTraces(traces);
 		TraceReader[] readers = new TraceReader[totalTraces];
-		long[] sorter = new long[readers.length];
+		long[] offsets = new long[readers.length];
 		TraceReaderCallbacks read_cb = new TAUReaderWriteall();
 		long totalRecords=0;
 
@@ -454,9 +454,9 @@ public class MultiMerge {
 			readers[rs]=new TraceReader(trace.getAbsolutePath(),getEDFName(trace),nid_offset);
 			readers[rs].setDefsOnly(false);
 			readers[rs].setSubtractFirstTimestamp(false);//TODO: Why is this needed only for cuda output?
+			readers[rs].setMemoryMapped(true);
 			totalRecords+=readers[rs].getNumRecords();
-			sorter[rs]=readers[rs].peekTime();
-			if(synch){sorter[rs]+=totIDs[rs].offset;}
+			if(synch){offsets[rs]=totIDs[rs].offset;}
 			rs++;
 		}
 		nid_offset=(char) (numNid(sList)+nid_offset);
@@ -468,44 +468,24 @@ public class MultiMerge {
 			System.out.println(totalRecords+" records to merge.");
 		}
 		long stepsize=totalRecords/50;
-		long countRecords=0;
 		if(stepsize==0){
 			stepsize=1;
 		}
+		long nextReport=stepsize;
 
 		/*
-		 * While there are records left in any trace write out the record with the lowest timestamp to the merged trace
+		 * While there are records left in any trace write out the record with the lowest timestamp to the merged trace.
+		 * The traces are read ahead in the background, the progress counts the records read so far.
 		 */
-		int minDex=minTime(sorter);
-		while(minDex>=0){
-			int read=readers[minDex].readNumEvents(read_cb, 1, totIDs[minDex]);
-			if(read==0){
-				sorter[minDex]=-1;
-				readers[minDex].closeTrace();
-				readers[minDex]=null;
-			}else{
-
-				countRecords++;
-				if(!quiet&&countRecords%stepsize==0){
-					System.out.println(countRecords+" Records read. "+(int)(100*((double)countRecords/(double)totalRecords))+"% converted");
-				}
-
-				sorter[minDex]=readers[minDex].peekTime();
-				if(synch){sorter[minDex]+=totIDs[minDex].offset;}
-				if(sorter[minDex]==-1)
-				{
-					readers[minDex].closeTrace();
-					readers[minDex]=null;
-				}
+		TraceMerger merger = new TraceMerger(readers, totIDs, offsets);
+		while(merger.step(read_cb)){
+			if(!quiet&&merger.getRecordsRead()>=nextReport){
+				long countRecords=merger.getRecordsRead();
+				System.out.println(countRecords+" Records read. "+(int)(100*((double)countRecords/(double)totalRecords))+"% converted");
+				nextReport=(countRecords/stepsize+1)*stepsize;
 			}
-
-			minDex=minTime(sorter);
-		}
-
-		for(int i=0;i<rs;i++){
-			if(readers[i]!=null)
-				readers[i].closeTrace();
 		}
+		merger.close();
 	}
 
 	static boolean quiet = false;
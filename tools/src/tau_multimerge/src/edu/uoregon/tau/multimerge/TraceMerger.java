@@ -0,0 +1,412 @@
+package edu.uoregon.tau.multimerge;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import edu.uoregon.tau.trace.TraceReader;
+import edu.uoregon.tau.trace.TraceReaderCallbacks;
+
+/**
+ * Merges the events of many trace files in time order.
+ *
+ * The traces are kept in a binary heap ordered by the time of their next event, so picking the next event costs
+ * log(traces) instead of a scan over every trace.  Each trace is read ahead a chunk of events at a time by a pool of
+ * background threads: while the merge replays one chunk the next one is being read, and the callbacks of the events
+ * are replayed on the merging thread in the merged order.
+ *
+ * The number of events held in memory is set by the multimerge.readAhead system property (1M by default), the
+ * number of reading threads by multimerge.prefetchThreads.
+ */
+class TraceMerger {
+
+	private static final int ENTER = 0;
+	private static final int LEAVE = 1;
+	private static final int SEND = 2;
+	private static final int RECV = 3;
+	private static final int TRIGGER = 4;
+	private static final int END = 5;
+
+	/**
+	 * The int arguments stored for every callback, the most being the seven of a message
+	 */
+	private static final int FIELDS = 7;
+
+	private static final int MIN_CHUNK = 64;
+	private static final int MAX_CHUNK = 8192;
+
+	/**
+	 * A block of events read from one trace, stored as the callbacks they produce
+	 */
+	private static class Chunk {
+		int size = 0;
+		int position = 0;
+		/**
+		 * The number of trace records read for this chunk
+		 */
+		long records = 0;
+		/**
+		 * Whether this is the last chunk of the trace
+		 */
+		boolean last = false;
+		byte[] kinds;
+		long[] times;
+		int[] fields;
+		double[] values;
+
+		Chunk(int capacity) {
+			kinds = new byte[capacity];
+			times = new long[capacity];
+			fields = new int[capacity * FIELDS];
+			values = new double[capacity];
+		}
+
+		void clear() {
+			size = 0;
+			position = 0;
+			records = 0;
+			last = false;
+		}
+
+		/**
+		 * Adds a callback and returns the index of its first int argument
+		 */
+		int add(int kind, long time) {
+			if (size == kinds.length) {
+				int capacity = kinds.length * 2;
+				byte[] k = new byte[capacity];
+				long[] t = new long[capacity];
+				int[] f = new int[capacity * FIELDS];
+				double[] v = new double[capacity];
+				System.arraycopy(kinds, 0, k, 0, size);
+				System.arraycopy(times, 0, t, 0, size);
+				System.arraycopy(fields, 0, f, 0, size * FIELDS);
+				System.arraycopy(values, 0, v, 0, size);
+				kinds = k;
+				times = t;
+				fields = f;
+				values = v;
+			}
+			kinds[size] = (byte) kind;
+			times[size] = time;
+			return (size++) * FIELDS;
+		}
+	}
+
+	/**
+	 * Stores the event callbacks in a chunk.  The definitions are not needed by the merge.
+	 */
+	private static class Recorder implements TraceReaderCallbacks {
+		Chunk chunk;
+		long lastTime = 0;
+
+		public int defClkPeriod(Object userData, double clkPeriod) {
+			return 0;
+		}
+
+		public int defThread(Object userData, int nodeToken, int threadToken, String threadName) {
+			return 0;
+		}
+
+		public int defStateGroup(Object userData, int stateGroupToken, String stateGroupName) {
+			return 0;
+		}
+
+		public int defState(Object userData, int stateToken, String stateName, int stateGoupToken) {
+			return 0;
+		}
+
+		public int defUserEvent(Object userData, int userEventToken, String userEventName, int monotonicallyIncreasing) {
+			return 0;
+		}
+
+		private int state(int kind, long time, int nodeToken, int threadToken, int stateToken) {
+			int f = chunk.add(kind, time);
+			chunk.fields[f] = nodeToken;
+			chunk.fields[f + 1] = threadToken;
+			chunk.fields[f + 2] = stateToken;
+			lastTime = time;
+			return 0;
+		}
+
+		public int enterState(Object userData, long time, int nodeToken, int threadToken, int stateToken) {
+			return state(ENTER, time, nodeToken, threadToken, stateToken);
+		}
+
+		public int leaveState(Object userData, long time, int nodeToken, int threadToken, int stateToken) {
+			return state(LEAVE, time, nodeToken, threadToken, stateToken);
+		}
+
+		private int message(int kind, long time, int sourceNodeToken, int sourceThreadToken, int destinationNodeToken,
+				int destinationThreadToken, int messageSize, int messageTag, int messageCom) {
+			int f = chunk.add(kind, time);
+			chunk.fields[f] = sourceNodeToken;
+			chunk.fields[f + 1] = sourceThreadToken;
+			chunk.fields[f + 2] = destinationNodeToken;
+			chunk.fields[f + 3] = destinationThreadToken;
+			chunk.fields[f + 4] = messageSize;
+			chunk.fields[f + 5] = messageTag;
+			chunk.fields[f + 6] = messageCom;
+			lastTime = time;
+			return 0;
+		}
+
+		public int sendMessage(Object userData, long time, int sourceNodeToken, int sourceThreadToken,
+				int destinationNodeToken, int destinationThreadToken, int messageSize, int messageTag, int messageCom) {
+			return message(SEND, time, sourceNodeToken, sourceThreadToken, destinationNodeToken, destinationThreadToken,
+					messageSize, messageTag, messageCom);
+		}
+
+		public int recvMessage(Object userData, long time, int sourceNodeToken, int sourceThreadToken,
+				int destinationNodeToken, int destinationThreadToken, int messageSize, int messageTag, int messageCom) {
+			return message(RECV, time, sourceNodeToken, sourceThreadToken, destinationNodeToken, destinationThreadToken,
+					messageSize, messageTag, messageCom);
+		}
+
+		public int eventTrigger(Object userData, long time, int nodeToken, int threadToken, int userEventToken,
+				double userEventValue) {
+			int f = chunk.add(TRIGGER, time);
+			chunk.fields[f] = nodeToken;
+			chunk.fields[f + 1] = threadToken;
+			chunk.fields[f + 2] = userEventToken;
+			chunk.values[chunk.size - 1] = userEventValue;
+			lastTime = time;
+			return 0;
+		}
+
+		public int endTrace(Object userData, int nodeToken, int threadToken) {
+			//keep it in place, at the time of the event before it
+			int f = chunk.add(END, lastTime);
+			chunk.fields[f] = nodeToken;
+			chunk.fields[f + 1] = threadToken;
+			return 0;
+		}
+	}
+
+	/**
+	 * One trace file being merged
+	 */
+	private static class Source implements Callable<Chunk> {
+		final TraceReader reader;
+		final Object userData;
+		final long offset;
+		final Recorder recorder = new Recorder();
+		long remaining;
+		Chunk current;
+		/**
+		 * The chunk being read, or to be read next
+		 */
+		Chunk spare;
+		Future<Chunk> pending;
+
+		Source(TraceReader reader, Object userData, long offset, int capacity) {
+			this.reader = reader;
+			this.userData = userData;
+			this.offset = offset;
+			this.remaining = reader.getNumRecords();
+			this.current = new Chunk(capacity);
+			this.spare = new Chunk(capacity);
+		}
+
+		/**
+		 * Reads the next chunk of the trace into the spare chunk.  Only one read is pending for a source at a time.
+		 */
+		public Chunk call() {
+			Chunk chunk = spare;
+			chunk.clear();
+			recorder.chunk = chunk;
+			int capacity = chunk.kinds.length;
+			while (chunk.size < capacity && remaining > 0) {
+				int read = reader.readNumEvents(recorder, (int) Math.min(remaining, capacity - chunk.size), null);
+				if (read <= 0) {
+					remaining = 0;
+				} else {
+					remaining -= read;
+					chunk.records += read;
+				}
+			}
+			if (remaining == 0) {
+				chunk.last = true;
+				reader.closeTrace();
+			}
+			return chunk;
+		}
+	}
+
+	private final Source[] sources;
+	private final ExecutorService prefetch;
+	/**
+	 * The heap of the indices of the sources with events left, ordered by keys
+	 */
+	private final int[] heap;
+	private final long[] keys;
+	private int heapSize = 0;
+	private long recordsRead = 0;
+
+	/**
+	 * Starts reading the traces.
+	 * @param readers the trace readers, with their options set
+	 * @param userData the user data passed to the callbacks of each reader's events
+	 * @param offsets the amount added to the time of each reader's events for ordering them, or null
+	 */
+	TraceMerger(TraceReader[] readers, Object[] userData, long[] offsets) {
+		int threads = Integer.getInteger("multimerge.prefetchThreads", Math.max(2, Runtime.getRuntime().availableProcessors())).intValue();
+		int readAhead = Integer.getInteger("multimerge.readAhead", 1 << 20).intValue();
+		int capacity = Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, readAhead / Math.max(1, 2 * readers.length)));
+
+		prefetch = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "multimerge prefetch");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		sources = new Source[readers.length];
+		heap = new int[readers.length];
+		keys = new long[readers.length];
+		for (int i = 0; i < readers.length; i++) {
+			sources[i] = new Source(readers[i], userData[i], offsets == null ? 0 : offsets[i], capacity);
+			sources[i].pending = prefetch.submit(sources[i]);
+		}
+		for (int i = 0; i < sources.length; i++) {
+			//the current chunk is empty, so this waits for the first one
+			if (advance(sources[i], i)) {
+				heap[heapSize] = i;
+				siftUp(heapSize++);
+			}
+		}
+	}
+
+	/**
+	 * Replays the next event, in time order, through the callbacks.
+	 * @param callbacks the callbacks to replay the event to, with the user data of its trace
+	 * @return false if there are no more events
+	 */
+	boolean step(TraceReaderCallbacks callbacks) {
+		if (heapSize == 0) {
+			return false;
+		}
+		int index = heap[0];
+		Source source = sources[index];
+		replay(source.current, source.userData, callbacks);
+		source.current.position++;
+		if (!advance(source, index)) {
+			heap[0] = heap[--heapSize];
+		}
+		if (heapSize > 0) {
+			siftDown(0);
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number of trace records read so far, including the ones read ahead but not merged yet
+	 */
+	long getRecordsRead() {
+		return recordsRead;
+	}
+
+	/**
+	 * Stops the reading threads.
+	 */
+	void close() {
+		prefetch.shutdownNow();
+	}
+
+	/**
+	 * Moves the source to its next event, switching chunks as needed, and sets its key.
+	 * @return false if the source has no events left
+	 */
+	private boolean advance(Source source, int index) {
+		while (source.current.position == source.current.size) {
+			if (source.pending == null) {
+				return false;
+			}
+			Chunk done = source.current;
+			try {
+				source.current = source.pending.get();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Error reading " + source.reader.getTraceFile(), e.getCause());
+			}
+			recordsRead += source.current.records;
+			if (source.current.last) {
+				source.pending = null;
+			} else {
+				source.spare = done;
+				source.pending = prefetch.submit(source);
+			}
+		}
+		keys[index] = source.current.times[source.current.position] + source.offset;
+		return true;
+	}
+
+	/**
+	 * Orders by time, and among equal times by the higher index, as the scan in MultiMerge.minTime did
+	 */
+	private boolean before(int a, int b) {
+		return keys[a] < keys[b] || (keys[a] == keys[b] && a > b);
+	}
+
+	private void siftUp(int i) {
+		int x = heap[i];
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!before(x, heap[parent])) {
+				break;
+			}
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = x;
+	}
+
+	private void siftDown(int i) {
+		int x = heap[i];
+		int half = heapSize >>> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			if (child + 1 < heapSize && before(heap[child + 1], heap[child])) {
+				child++;
+			}
+			if (!before(heap[child], x)) {
+				break;
+			}
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = x;
+	}
+
+	private static void replay(Chunk chunk, Object userData, TraceReaderCallbacks callbacks) {
+		int i = chunk.position;
+		int f = i * FIELDS;
+		int[] a = chunk.fields;
+		long time = chunk.times[i];
+		switch (chunk.kinds[i]) {
+		case ENTER:
+			callbacks.enterState(userData, time, a[f], a[f + 1], a[f + 2]);
+			break;
+		case LEAVE:
+			callbacks.leaveState(userData, time, a[f], a[f + 1], a[f + 2]);
+			break;
+		case SEND:
+			callbacks.sendMessage(userData, time, a[f], a[f + 1], a[f + 2], a[f + 3], a[f + 4], a[f + 5], a[f + 6]);
+			break;
+		case RECV:
+			callbacks.recvMessage(userData, time, a[f], a[f + 1], a[f + 2], a[f + 3], a[f + 4], a[f + 5], a[f + 6]);
+			break;
+		case TRIGGER:
+			callbacks.eventTrigger(userData, time, a[f], a[f + 1], a[f + 2], chunk.values[i]);
+			break;
+		default:
+			callbacks.endTrace(userData, a[f], a[f + 1]);
+			break;
+		}
+	}
+}
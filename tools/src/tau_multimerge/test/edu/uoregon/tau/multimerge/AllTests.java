@@ -0,0 +1,16 @@
+package edu.uoregon.tau.multimerge;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+public class AllTests {
+
+	public static Test suite() {
+		TestSuite suite = new TestSuite("Test for multimerge");
+		//$JUnit-BEGIN$
+		suite.addTestSuite(TraceMergerTest.class);
+		//$JUnit-END$
+		return suite;
+	}
+
+}
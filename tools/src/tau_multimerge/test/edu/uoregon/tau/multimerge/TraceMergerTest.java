@@ -0,0 +1,297 @@
+package edu.uoregon.tau.multimerge;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import edu.uoregon.tau.trace.TraceReader;
+import edu.uoregon.tau.trace.TraceReaderCallbacks;
+import edu.uoregon.tau.trace.TraceWriter;
+
+/**
+ * Compares the merge of TraceMerger with the one record at a time scan over MultiMerge.minTime that it replaced.
+ *
+ * The test is in the package of TraceMerger, which is not public, but kept out of src so that Build.sh doesn't put it
+ * in the jar.
+ */
+public class TraceMergerTest extends TestCase {
+
+	private static final int TRACES = 5;
+	private static final int LOOPS = 400;
+
+	private File directory;
+	private String readAhead;
+
+	public TraceMergerTest(String arg0) {
+		super(arg0);
+	}
+
+	/**
+	 * The events as strings, with the trace they came from, and their times
+	 */
+	private static class Log implements TraceReaderCallbacks {
+		final List<String> events = new ArrayList<String>();
+		final List<long[]> times = new ArrayList<long[]>();
+
+		private void add(Object userData, long time, String event) {
+			events.add("trace " + userData + ": " + event + " at " + time);
+			times.add(new long[] { ((Integer) userData).intValue(), time });
+		}
+
+		public int defClkPeriod(Object userData, double clkPeriod) {
+			return 0;
+		}
+
+		public int defThread(Object userData, int nodeToken, int threadToken, String threadName) {
+			return 0;
+		}
+
+		public int defStateGroup(Object userData, int stateGroupToken, String stateGroupName) {
+			return 0;
+		}
+
+		public int defState(Object userData, int stateToken, String stateName, int stateGoupToken) {
+			return 0;
+		}
+
+		public int defUserEvent(Object userData, int userEventToken, String userEventName, int monotonicallyIncreasing) {
+			return 0;
+		}
+
+		public int enterState(Object userData, long time, int nodeToken, int threadToken, int stateToken) {
+			add(userData, time, "enter " + nodeToken + ":" + threadToken + " " + stateToken);
+			return 0;
+		}
+
+		public int leaveState(Object userData, long time, int nodeToken, int threadToken, int stateToken) {
+			add(userData, time, "leave " + nodeToken + ":" + threadToken + " " + stateToken);
+			return 0;
+		}
+
+		public int sendMessage(Object userData, long time, int sourceNodeToken, int sourceThreadToken,
+				int destinationNodeToken, int destinationThreadToken, int messageSize, int messageTag, int messageCom) {
+			add(userData, time, "send " + sourceNodeToken + " to " + destinationNodeToken + " " + messageSize + " "
+					+ messageTag);
+			return 0;
+		}
+
+		public int recvMessage(Object userData, long time, int sourceNodeToken, int sourceThreadToken,
+				int destinationNodeToken, int destinationThreadToken, int messageSize, int messageTag, int messageCom) {
+			add(userData, time, "recv " + destinationNodeToken + " from " + sourceNodeToken + " " + messageSize + " "
+					+ messageTag);
+			return 0;
+		}
+
+		public int eventTrigger(Object userData, long time, int nodeToken, int threadToken, int userEventToken,
+				double userEventValue) {
+			add(userData, time, "trigger " + nodeToken + ":" + threadToken + " " + userEventToken + " "
+					+ userEventValue);
+			return 0;
+		}
+
+		public int endTrace(Object userData, int nodeToken, int threadToken) {
+			events.add("trace " + userData + ": end " + nodeToken + ":" + threadToken);
+			return 0;
+		}
+	}
+
+	/**
+	 * Gives the time of each event of a trace
+	 */
+	private interface Clock {
+		long time(int trace, int event);
+	}
+
+	protected void setUp() throws Exception {
+		directory = File.createTempFile("multimerge", "");
+		directory.delete();
+		directory.mkdir();
+		// small chunks, so that every trace is read ahead many times
+		readAhead = System.getProperty("multimerge.readAhead");
+		System.setProperty("multimerge.readAhead", "256");
+	}
+
+	protected void tearDown() throws Exception {
+		if (readAhead == null) {
+			System.clearProperty("multimerge.readAhead");
+		} else {
+			System.setProperty("multimerge.readAhead", readAhead);
+		}
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	/**
+	 * Writes the traces, one node each, of a main routine calling a work routine that triggers a user event and
+	 * sends a message to the next node.  Event i of a trace is at clock.time(trace, i).
+	 */
+	private void writeTraces(Clock clock) {
+		for (int n = 0; n < TRACES; n++) {
+			TraceWriter writer = new TraceWriter(trc(n), edf(n));
+			writer.defStateGroup("TAU_DEFAULT", 1);
+			writer.defState(1, "main", 1);
+			writer.defState(2, "work", 1);
+			writer.defUserEvent(3, "work size", 0);
+			int event = 0;
+			writer.enterState(clock.time(n, event++), n, 0, 1);
+			for (int i = 0; i < LOOPS; i++) {
+				writer.enterState(clock.time(n, event++), n, 0, 2);
+				writer.eventTrigger(clock.time(n, event++), n, 0, 3, i);
+				writer.sendMessage(clock.time(n, event++), n, 0, (n + 1) % TRACES, 0, i % 7, i % 3, 0);
+				writer.leaveState(clock.time(n, event++), n, 0, 2);
+			}
+			writer.leaveState(clock.time(n, event++), n, 0, 1);
+			assertEquals(0, writer.closeTrace());
+		}
+	}
+
+	private String trc(int n) {
+		return new File(directory, "tautrace." + n + ".0.0.trc").getPath();
+	}
+
+	private String edf(int n) {
+		return new File(directory, "events." + n + ".edf").getPath();
+	}
+
+	private TraceReader[] open() {
+		TraceReader[] readers = new TraceReader[TRACES];
+		for (int n = 0; n < TRACES; n++) {
+			readers[n] = new TraceReader(trc(n), edf(n));
+			readers[n].setSubtractFirstTimestamp(false);
+		}
+		return readers;
+	}
+
+	private static Object[] userData() {
+		Object[] userData = new Object[TRACES];
+		for (int n = 0; n < TRACES; n++) {
+			userData[n] = Integer.valueOf(n);
+		}
+		return userData;
+	}
+
+	/**
+	 * The merge MultiMerge.dataMerge did before TraceMerger: read one record from the trace whose next record has the
+	 * lowest time plus offset, as found by MultiMerge.minTime
+	 */
+	private Log scanMerge(long[] offsets) {
+		TraceReader[] readers = open();
+		Object[] userData = userData();
+		Log log = new Log();
+		long[] sorter = new long[TRACES];
+		for (int n = 0; n < TRACES; n++) {
+			sorter[n] = readers[n].peekTime() + offsets[n];
+		}
+		int minDex = MultiMerge.minTime(sorter);
+		while (minDex >= 0) {
+			int read = readers[minDex].readNumEvents(log, 1, userData[minDex]);
+			long next = read == 0 ? -1 : readers[minDex].peekTime();
+			if (next == -1) {
+				sorter[minDex] = -1;
+				readers[minDex].closeTrace();
+			} else {
+				sorter[minDex] = next + offsets[minDex];
+			}
+			minDex = MultiMerge.minTime(sorter);
+		}
+		return log;
+	}
+
+	/**
+	 * The merge as MultiMerge.dataMerge does it now
+	 */
+	private Log heapMerge(long[] offsets) {
+		TraceReader[] readers = open();
+		for (int n = 0; n < TRACES; n++) {
+			assertTrue(readers[n].setMemoryMapped(true));
+		}
+		Log log = new Log();
+		TraceMerger merger = new TraceMerger(readers, userData(), offsets);
+		while (merger.step(log)) {
+		}
+		merger.close();
+		long records = 0;
+		for (int n = 0; n < TRACES; n++) {
+			records += TraceReader.getNumRecords(trc(n));
+		}
+		assertEquals(records, merger.getRecordsRead());
+		return log;
+	}
+
+	/**
+	 * Checks the merge against the scan, and that it is in time order with the higher trace first among equal times
+	 */
+	private void assertMerge(long[] offsets) {
+		Log expected = scanMerge(offsets);
+		Log actual = heapMerge(offsets);
+		assertEquals(TRACES * (4 * LOOPS + 2), actual.events.size());
+		assertEquals(expected.events, actual.events);
+
+		for (int i = 1; i < actual.times.size(); i++) {
+			long[] previous = actual.times.get(i - 1);
+			long[] event = actual.times.get(i);
+			long previousKey = previous[1] + offsets[(int) previous[0]];
+			long key = event[1] + offsets[(int) event[0]];
+			assertTrue("out of order at " + i, previousKey <= key);
+			if (previousKey == key && previous[0] != event[0]) {
+				assertTrue("tie broken the wrong way at " + i, previous[0] > event[0]);
+			}
+		}
+	}
+
+	public final void testInterleaved() {
+		// no two traces share a time
+		writeTraces(new Clock() {
+			public long time(int trace, int event) {
+				return 100 + (long) event * TRACES + trace;
+			}
+		});
+		assertMerge(new long[TRACES]);
+	}
+
+	public final void testEqualTimes() {
+		// every trace has the same times, so the ties decide the whole order
+		writeTraces(new Clock() {
+			public long time(int trace, int event) {
+				return 100 + 10L * event;
+			}
+		});
+		assertMerge(new long[TRACES]);
+	}
+
+	public final void testMixed() {
+		// steps of 0 to 2, so that there are ties between and within traces
+		final long[][] times = new long[TRACES][4 * LOOPS + 2];
+		Random random = new Random(7);
+		for (int n = 0; n < TRACES; n++) {
+			times[n][0] = 100;
+			for (int e = 1; e < times[n].length; e++) {
+				times[n][e] = times[n][e - 1] + random.nextInt(3);
+			}
+		}
+		writeTraces(new Clock() {
+			public long time(int trace, int event) {
+				return times[trace][event];
+			}
+		});
+		assertMerge(new long[TRACES]);
+	}
+
+	public final void testOffsets() {
+		// the clocks of the traces are apart by the offsets, which line their events up
+		writeTraces(new Clock() {
+			public long time(int trace, int event) {
+				return 1000 + 10L * event + 3 * trace;
+			}
+		});
+		long[] offsets = new long[TRACES];
+		for (int n = 0; n < TRACES; n++) {
+			offsets[n] = -3 * n;
+		}
+		assertMerge(offsets);
+	}
+}